@@ -0,0 +1,123 @@
+package com.accurx.reliabledownloader.core;
+
+import com.accurx.reliabledownloader.util.BlockManifest;
+import com.google.common.collect.Range;
+import com.google.common.collect.RangeSet;
+import com.google.common.collect.TreeRangeSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Checks the blocks of a partial file against a {@link BlockManifest} as soon as each block has been written
+ * completely, whatever order the bytes arrive in, and remembers which ones were corrupt.
+ */
+class BlockVerifier {
+    private static final Logger LOGGER = LoggerFactory.getLogger(BlockVerifier.class);
+
+    private final BlockManifest manifest;
+    private final FileChannel channel;
+    // Guarded by this
+    private final RangeSet<Long> written = TreeRangeSet.create();
+    private final BitSet checked = new BitSet();
+    private final BitSet corrupt = new BitSet();
+
+    /**
+     * @param existingSize bytes already in the file; they are checked by {@link #finish()} unless rewritten earlier
+     */
+    BlockVerifier(BlockManifest manifest, FileChannel channel, long existingSize) {
+        this.manifest = manifest;
+        this.channel = channel;
+        if (existingSize > 0) {
+            written.add(Range.closedOpen(0L, existingSize));
+        }
+    }
+
+    /**
+     * Records a write and verifies every block it completed.
+     */
+    void onWritten(long position, long length) throws IOException {
+        if (length <= 0) {
+            return;
+        }
+        List<Integer> completed = new ArrayList<>();
+        synchronized (this) {
+            written.add(Range.closedOpen(position, position + length));
+            int last = Math.min(manifest.blockAt(position + length - 1), manifest.blockCount() - 1);
+            for (int block = manifest.blockAt(position); block <= last; block++) {
+                if (!checked.get(block) && written.encloses(blockRange(block))) {
+                    checked.set(block);
+                    completed.add(block);
+                }
+            }
+        }
+        // Hash outside the lock so parallel writers don't queue up behind it
+        for (int block : completed) {
+            verify(block);
+        }
+    }
+
+    /**
+     * Forgets everything from {@code size} on, e.g. because the file was truncated to restart the download.
+     */
+    synchronized void truncated(long size) {
+        written.remove(Range.atLeast(size));
+        int firstAffected = manifest.blockAt(size);
+        if (firstAffected < manifest.blockCount()) {
+            checked.clear(firstAffected, manifest.blockCount());
+            corrupt.clear(firstAffected, manifest.blockCount());
+        }
+    }
+
+    /**
+     * Verifies the blocks that haven't been checked yet, such as those resumed from an earlier run.
+     *
+     * @return the indexes of all corrupt or missing blocks, in order
+     */
+    List<Integer> finish() throws IOException {
+        List<Integer> unchecked = new ArrayList<>();
+        synchronized (this) {
+            for (int block = checked.nextClearBit(0); block < manifest.blockCount();
+                 block = checked.nextClearBit(block + 1)) {
+                checked.set(block);
+                unchecked.add(block);
+            }
+        }
+        for (int block : unchecked) {
+            verify(block);
+        }
+        synchronized (this) {
+            return corrupt.stream().boxed().toList();
+        }
+    }
+
+    private void verify(int block) throws IOException {
+        byte[] data = new byte[manifest.blockLength(block)];
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        long position = manifest.blockStart(block);
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read == -1) {
+                break;
+            }
+        }
+        if (!manifest.matches(block, data, 0, buffer.position())) {
+            LOGGER.warn("Block {} (bytes {}-{}) does not match the block manifest",
+                    block, position, position + data.length - 1);
+            synchronized (this) {
+                corrupt.set(block);
+            }
+        }
+    }
+
+    private Range<Long> blockRange(int block) {
+        long start = manifest.blockStart(block);
+        return Range.closedOpen(start, start + manifest.blockLength(block));
+    }
+}
@@ -0,0 +1,18 @@
+package com.accurx.reliabledownloader.core;
+
+import java.io.IOException;
+
+/**
+ * Thrown instead of contacting a host that has recently failed so often that it is presumed down.
+ */
+public class CircuitOpenException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public CircuitOpenException(String message) {
+        super(message);
+    }
+
+    public CircuitOpenException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,146 @@
+package com.accurx.reliabledownloader.core;
+
+import com.accurx.reliabledownloader.util.BlockManifest;
+import com.accurx.reliabledownloader.util.RollingChecksum;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Copies the blocks of a new file that an older local version already contains into a partial file, so only
+ * the rest has to be downloaded.
+ * <p>
+ * With rolling checksums in the manifest the old file is scanned zsync-style: a window slides along it one
+ * byte at a time and is only hashed when its rolling checksum matches a block, which finds blocks wherever
+ * they have moved. Without them only block-aligned positions of the old file are compared.
+ */
+class DeltaSeeder {
+    private static final int READ_BUFFER_SIZE = 1 << 20; // 1 MB
+
+    private final BlockManifest manifest;
+    private final PartialFileOutputStream target;
+    private final BitSet seeded = new BitSet();
+    // Full-size blocks by rolling checksum, or by strong hash when the manifest has no rolling checksums
+    private final Map<Object, List<Integer>> candidates = new HashMap<>();
+
+    DeltaSeeder(BlockManifest manifest, PartialFileOutputStream target) {
+        this.manifest = manifest;
+        this.target = target;
+        for (int block = 0; block < manifest.blockCount(); block++) {
+            if (manifest.blockLength(block) == manifest.blockSize()) {
+                candidates.computeIfAbsent(key(block), k -> new ArrayList<>()).add(block);
+            }
+        }
+    }
+
+    /**
+     * Scans {@code previousVersion} and writes every block found in it to the partial file at its new position.
+     *
+     * @return the blocks that were copied
+     */
+    BitSet seed(Path previousVersion) throws IOException {
+        int blockSize = manifest.blockSize();
+        // Holds the window plus read-ahead; the unconsumed part is moved to the front when it runs out
+        byte[] buffer = new byte[Math.max(READ_BUFFER_SIZE, 2 * blockSize)];
+        int filled = 0;
+        int pos = 0;
+        RollingChecksum window = null;
+        try (InputStream in = Files.newInputStream(previousVersion)) {
+            while (true) {
+                // Rolling needs the byte after the window too, so keep one more than a block in the buffer
+                if (pos + blockSize + 1 > filled) {
+                    System.arraycopy(buffer, pos, buffer, 0, filled - pos);
+                    filled -= pos;
+                    pos = 0;
+                    int read = in.readNBytes(buffer, filled, buffer.length - filled);
+                    filled += read;
+                    if (filled < blockSize) {
+                        break;
+                    }
+                }
+
+                boolean matched = false;
+                if (manifest.hasRollingChecksums()) {
+                    if (window == null) {
+                        window = new RollingChecksum(buffer, pos, blockSize);
+                    }
+                    List<Integer> blocks = candidates.get(window.value());
+                    if (blocks != null) {
+                        matched = copyIfMatching(blocks, buffer, pos, BlockManifest.hash(
+                                manifest.algorithm(), buffer, pos, blockSize));
+                    }
+                } else {
+                    String hash = BlockManifest.hash(manifest.algorithm(), buffer, pos, blockSize);
+                    List<Integer> blocks = candidates.get(hash);
+                    matched = blocks != null && copyIfMatching(blocks, buffer, pos, hash);
+                }
+
+                if (matched || !manifest.hasRollingChecksums()) {
+                    // Move past the copied bytes, or to the next aligned block when not rolling
+                    pos += blockSize;
+                    window = null;
+                } else if (pos + blockSize < filled) {
+                    window.roll(buffer[pos], buffer[pos + blockSize]);
+                    pos++;
+                } else {
+                    break; // The window has reached the end of the old file
+                }
+            }
+        }
+        seedLastBlock(previousVersion);
+        return seeded;
+    }
+
+    private boolean copyIfMatching(List<Integer> blocks, byte[] buffer, int offset, String hash) throws IOException {
+        boolean matched = false;
+        for (int block : blocks) {
+            if (manifest.blockHash(block).equals(hash)) {
+                matched = true;
+                if (!seeded.get(block)) {
+                    target.writeAt(buffer, offset, manifest.blockSize(), manifest.blockStart(block));
+                    seeded.set(block);
+                }
+            }
+        }
+        return matched;
+    }
+
+    /**
+     * A short final block can't be found by a full-size window, so it is only looked for at the same offset and
+     * at the end of the old file, where appended data usually ends up.
+     */
+    private void seedLastBlock(Path previousVersion) throws IOException {
+        int last = manifest.blockCount() - 1;
+        int length = last < 0 ? 0 : manifest.blockLength(last);
+        if (length == 0 || length == manifest.blockSize() || seeded.get(last)) {
+            return;
+        }
+        long oldSize = Files.size(previousVersion);
+        for (long offset : new long[]{manifest.blockStart(last), oldSize - length}) {
+            if (offset < 0 || offset + length > oldSize) {
+                continue;
+            }
+            byte[] data = new byte[length];
+            try (InputStream in = Files.newInputStream(previousVersion)) {
+                in.skipNBytes(offset);
+                in.readNBytes(data, 0, length);
+            }
+            if (manifest.matches(last, data, 0, length)) {
+                target.writeAt(data, 0, length, manifest.blockStart(last));
+                seeded.set(last);
+                return;
+            }
+        }
+    }
+
+    private Object key(int block) {
+        return manifest.hasRollingChecksums() ? (Object) manifest.rollingChecksum(block) : manifest.blockHash(block);
+    }
+}
@@ -1,5 +1,6 @@
 package com.accurx.reliabledownloader.core;
 
+import java.nio.file.Path;
 import java.time.Duration;
 
 public class DownloaderConfig {
@@ -8,30 +9,84 @@ public class DownloaderConfig {
     private static final int DEFAULT_MAX_RETRIES = 5;
     // Give the network a brief moment to recover. It increases exponentially with each retry.
     private static final Duration DEFAULT_RETRY_DELAY = Duration.ofSeconds(3);
+    // Backoff stops growing here, so a long outage is still noticed to be over within a minute
+    private static final Duration DEFAULT_MAX_RETRY_DELAY = Duration.ofMinutes(1);
     private static final int DEFAULT_BUFFER_SIZE = 65536; // 64 KB
     private static final Duration DEFAULT_CONNECT_TIMEOUT = Duration.ofMinutes(1);
     private static final Duration DEFAULT_READ_TIMEOUT = Duration.ofMinutes(5);
+    // A connection trickling below 1 KB/s for half a minute is on a degraded path; a fresh one usually isn't
+    private static final long DEFAULT_LOW_SPEED_LIMIT = 1024;
+    private static final Duration DEFAULT_LOW_SPEED_TIME = Duration.ofSeconds(30);
+    // Long enough to cover the retries of one download, short enough that a republished file is noticed
+    private static final Duration DEFAULT_METADATA_CACHE_TTL = Duration.ofMinutes(5);
+    private static final int DEFAULT_METADATA_CACHE_MAX_ENTRIES = 1024;
+    // CDN performance shifts over days, not minutes; a week-old observation counts half as much as today's
+    private static final Duration DEFAULT_HOST_PROFILE_HALF_LIFE = Duration.ofDays(7);
+    private static final int DEFAULT_PARALLEL_CONNECTIONS = 4;
+    // Duplicate requests for straggling chunks cost bandwidth, so only a few per download
+    private static final int DEFAULT_MAX_HEDGED_REQUESTS = 2;
+    // Enough to catch a torn write at the end of a partial file for the price of a few KB
+    private static final int DEFAULT_RESUME_OVERLAP_SIZE = 16384; // 16 KB
+    private static final int DEFAULT_PREFETCH_SIZE = 4 << 20; // 4 MB
+    // One selector thread keeps up with hundreds of connections; the disk is the bottleneck long before it is
+    private static final int DEFAULT_EVENT_LOOP_THREADS = 1;
 
     private final int chunkSize;
     private final int maxRetries;
     private final Duration retryDelay;
+    private final Duration maxRetryDelay;
     private final int bufferSize;
     private final Duration connectTimeout;
     private final Duration readTimeout;
+    private final long lowSpeedLimit;
+    private final Duration lowSpeedTime;
     private final boolean verifyHash;
     private final boolean resumeSupport;
     private final boolean isProgressTrackingEnabled;
+    private final boolean headProbeEnabled;
+    private final Duration metadataCacheTtl;
+    private final int metadataCacheMaxEntries;
+    private final Path metadataCacheFile;
+    private final Path hostProfileFile;
+    private final Duration hostProfileHalfLife;
+    private final int parallelConnections;
+    private final int maxHedgedRequests;
+    private final boolean cryptographicDigestRequired;
+    private final int resumeOverlapSize;
+    private final int prefetchSize;
+    private final boolean compressionEnabled;
+    private final boolean nioEngineEnabled;
+    private final int eventLoopThreads;
+    private final int socketReceiveBufferSize;
 
     private DownloaderConfig(Builder builder) {
         this.chunkSize = builder.chunkSize;
         this.maxRetries = builder.maxRetries;
         this.retryDelay = builder.retryDelay;
+        this.maxRetryDelay = builder.maxRetryDelay;
         this.bufferSize = builder.bufferSize;
         this.connectTimeout = builder.connectTimeout;
         this.readTimeout = builder.readTimeout;
+        this.lowSpeedLimit = builder.lowSpeedLimit;
+        this.lowSpeedTime = builder.lowSpeedTime;
         this.verifyHash = builder.verifyHash;
         this.resumeSupport = builder.resumeSupport;
         this.isProgressTrackingEnabled = builder.isProgressTrackingEnabled;
+        this.headProbeEnabled = builder.headProbeEnabled;
+        this.metadataCacheTtl = builder.metadataCacheTtl;
+        this.metadataCacheMaxEntries = builder.metadataCacheMaxEntries;
+        this.metadataCacheFile = builder.metadataCacheFile;
+        this.hostProfileFile = builder.hostProfileFile;
+        this.hostProfileHalfLife = builder.hostProfileHalfLife;
+        this.parallelConnections = builder.parallelConnections;
+        this.maxHedgedRequests = builder.maxHedgedRequests;
+        this.cryptographicDigestRequired = builder.cryptographicDigestRequired;
+        this.resumeOverlapSize = builder.resumeOverlapSize;
+        this.prefetchSize = builder.prefetchSize;
+        this.compressionEnabled = builder.compressionEnabled;
+        this.nioEngineEnabled = builder.nioEngineEnabled;
+        this.eventLoopThreads = builder.eventLoopThreads;
+        this.socketReceiveBufferSize = builder.socketReceiveBufferSize;
     }
 
     public static Builder builder() {
@@ -42,6 +97,41 @@ public class DownloaderConfig {
         return builder().build();
     }
 
+    /**
+     * @return a builder starting from this config's settings
+     */
+    public Builder toBuilder() {
+        Builder builder = new Builder();
+        builder.chunkSize = chunkSize;
+        builder.maxRetries = maxRetries;
+        builder.retryDelay = retryDelay;
+        builder.maxRetryDelay = maxRetryDelay;
+        builder.bufferSize = bufferSize;
+        builder.connectTimeout = connectTimeout;
+        builder.readTimeout = readTimeout;
+        builder.lowSpeedLimit = lowSpeedLimit;
+        builder.lowSpeedTime = lowSpeedTime;
+        builder.verifyHash = verifyHash;
+        builder.resumeSupport = resumeSupport;
+        builder.isProgressTrackingEnabled = isProgressTrackingEnabled;
+        builder.headProbeEnabled = headProbeEnabled;
+        builder.metadataCacheTtl = metadataCacheTtl;
+        builder.metadataCacheMaxEntries = metadataCacheMaxEntries;
+        builder.metadataCacheFile = metadataCacheFile;
+        builder.hostProfileFile = hostProfileFile;
+        builder.hostProfileHalfLife = hostProfileHalfLife;
+        builder.parallelConnections = parallelConnections;
+        builder.maxHedgedRequests = maxHedgedRequests;
+        builder.cryptographicDigestRequired = cryptographicDigestRequired;
+        builder.resumeOverlapSize = resumeOverlapSize;
+        builder.prefetchSize = prefetchSize;
+        builder.compressionEnabled = compressionEnabled;
+        builder.nioEngineEnabled = nioEngineEnabled;
+        builder.eventLoopThreads = eventLoopThreads;
+        builder.socketReceiveBufferSize = socketReceiveBufferSize;
+        return builder;
+    }
+
     // Getters
     public int getChunkSize() {
         return chunkSize;
@@ -55,6 +145,13 @@ public class DownloaderConfig {
         return retryDelay;
     }
 
+    /**
+     * Upper bound for the jittered delay between retries, which otherwise grows with every attempt.
+     */
+    public Duration getMaxRetryDelay() {
+        return maxRetryDelay;
+    }
+
     public int getBufferSize() {
         return bufferSize;
     }
@@ -67,6 +164,18 @@ public class DownloaderConfig {
         return readTimeout;
     }
 
+    /**
+     * Bytes per second below which a connection counts as stalled once it has stayed there for
+     * {@link #getLowSpeedTime()}; it is then dropped and the rest of its range requested again. 0 disables this.
+     */
+    public long getLowSpeedLimit() {
+        return lowSpeedLimit;
+    }
+
+    public Duration getLowSpeedTime() {
+        return lowSpeedTime;
+    }
+
     public boolean isVerifyHash() {
         return verifyHash;
     }
@@ -79,16 +188,143 @@ public class DownloaderConfig {
         return isProgressTrackingEnabled;
     }
 
+    /**
+     * When disabled, downloads skip the HEAD probe: the first data request is a ranged GET and
+     * size/range support/validators are read from its response, so small files finish in one request.
+     */
+    public boolean isHeadProbeEnabled() {
+        return headProbeEnabled;
+    }
+
+    /**
+     * How long probed file metadata may be reused by later downloads of the same URI. Zero disables the cache.
+     */
+    public Duration getMetadataCacheTtl() {
+        return metadataCacheTtl;
+    }
+
+    public int getMetadataCacheMaxEntries() {
+        return metadataCacheMaxEntries;
+    }
+
+    /**
+     * @return the file the metadata cache is persisted to, or null to keep it in memory only.
+     */
+    public Path getMetadataCacheFile() {
+        return metadataCacheFile;
+    }
+
+    /**
+     * @return the file per-host performance profiles are learned into and started from, or null to learn nothing.
+     */
+    public Path getHostProfileFile() {
+        return hostProfileFile;
+    }
+
+    /**
+     * How long it takes an observation of a host to lose half its weight against newer ones.
+     */
+    public Duration getHostProfileHalfLife() {
+        return hostProfileHalfLife;
+    }
+
+    /**
+     * Number of range requests a parallel (e.g. multi-mirror) download keeps in flight at once.
+     */
+    public int getParallelConnections() {
+        return parallelConnections;
+    }
+
+    /**
+     * How many duplicate requests one download may issue for chunks that run well past the observed p95
+     * chunk time. Zero disables hedging.
+     */
+    public int getMaxHedgedRequests() {
+        return maxHedgedRequests;
+    }
+
+    /**
+     * When enabled, downloads are only accepted if verified with a cryptographic digest (SHA-256 or stronger);
+     * otherwise the cheapest available digest, e.g. CRC32C, is used.
+     */
+    public boolean isCryptographicDigestRequired() {
+        return cryptographicDigestRequired;
+    }
+
+    /**
+     * Bytes before the end of a partial file that are downloaded again on resume and compared with what is on
+     * disk, so a corrupt tail is cut off instead of being built upon. Zero trusts the partial file as it is.
+     */
+    public int getResumeOverlapSize() {
+        return resumeOverlapSize;
+    }
+
+    /**
+     * How many bytes a streamed download may read ahead of its consumer before the transfer pauses.
+     */
+    public int getPrefetchSize() {
+        return prefetchSize;
+    }
+
+    /**
+     * When enabled, requests for a whole file accept gzip or deflate and the body is decoded as it arrives, which
+     * pays off for text-heavy files. Range requests always use the identity encoding, so resuming is unaffected.
+     */
+    public boolean isCompressionEnabled() {
+        return compressionEnabled;
+    }
+
+    /**
+     * When enabled, downloads run on non-blocking sockets driven by a few selector threads instead of a blocking
+     * thread per connection. Only plain HTTP is spoken that way; other URIs are downloaded as before.
+     */
+    public boolean isNioEngineEnabled() {
+        return nioEngineEnabled;
+    }
+
+    /**
+     * Selector threads shared by all transfers of the NIO engine.
+     */
+    public int getEventLoopThreads() {
+        return eventLoopThreads;
+    }
+
+    /**
+     * {@code SO_RCVBUF} for the NIO engine's sockets, or 0 to leave it to the OS. Larger buffers let a single
+     * connection fill a long, fat pipe.
+     */
+    public int getSocketReceiveBufferSize() {
+        return socketReceiveBufferSize;
+    }
+
     public static class Builder {
         private int chunkSize = DEFAULT_CHUNK_SIZE;
         private int maxRetries = DEFAULT_MAX_RETRIES;
         private Duration retryDelay = DEFAULT_RETRY_DELAY;
+        private Duration maxRetryDelay = DEFAULT_MAX_RETRY_DELAY;
         private int bufferSize = DEFAULT_BUFFER_SIZE;
         private Duration connectTimeout = DEFAULT_CONNECT_TIMEOUT;
         private Duration readTimeout = DEFAULT_READ_TIMEOUT;
+        private long lowSpeedLimit = DEFAULT_LOW_SPEED_LIMIT;
+        private Duration lowSpeedTime = DEFAULT_LOW_SPEED_TIME;
         private boolean verifyHash = true;
         private boolean resumeSupport = true;
         private boolean isProgressTrackingEnabled = true;
+        private boolean headProbeEnabled = true;
+        private Duration metadataCacheTtl = DEFAULT_METADATA_CACHE_TTL;
+        private int metadataCacheMaxEntries = DEFAULT_METADATA_CACHE_MAX_ENTRIES;
+        private Path metadataCacheFile;
+        private Path hostProfileFile;
+        private Duration hostProfileHalfLife = DEFAULT_HOST_PROFILE_HALF_LIFE;
+        private int parallelConnections = DEFAULT_PARALLEL_CONNECTIONS;
+        private int maxHedgedRequests = DEFAULT_MAX_HEDGED_REQUESTS;
+        private boolean cryptographicDigestRequired = false;
+        private int resumeOverlapSize = DEFAULT_RESUME_OVERLAP_SIZE;
+        private int prefetchSize = DEFAULT_PREFETCH_SIZE;
+        private boolean compressionEnabled = false;
+        private boolean nioEngineEnabled = false;
+        private int eventLoopThreads = DEFAULT_EVENT_LOOP_THREADS;
+        private int socketReceiveBufferSize = 0;
 
         public Builder chunkSize(int chunkSize) {
             this.chunkSize = chunkSize;
@@ -105,6 +341,11 @@ public class DownloaderConfig {
             return this;
         }
 
+        public Builder maxRetryDelay(Duration maxRetryDelay) {
+            this.maxRetryDelay = maxRetryDelay;
+            return this;
+        }
+
         public Builder bufferSize(int bufferSize) {
             this.bufferSize = bufferSize;
             return this;
@@ -120,6 +361,16 @@ public class DownloaderConfig {
             return this;
         }
 
+        public Builder lowSpeedLimit(long lowSpeedLimit) {
+            this.lowSpeedLimit = lowSpeedLimit;
+            return this;
+        }
+
+        public Builder lowSpeedTime(Duration lowSpeedTime) {
+            this.lowSpeedTime = lowSpeedTime;
+            return this;
+        }
+
         public Builder verifyHash(boolean verifyHash) {
             this.verifyHash = verifyHash;
             return this;
@@ -135,6 +386,81 @@ public class DownloaderConfig {
             return this;
         }
 
+        public Builder headProbeEnabled(boolean headProbeEnabled) {
+            this.headProbeEnabled = headProbeEnabled;
+            return this;
+        }
+
+        public Builder metadataCacheTtl(Duration metadataCacheTtl) {
+            this.metadataCacheTtl = metadataCacheTtl;
+            return this;
+        }
+
+        public Builder metadataCacheMaxEntries(int metadataCacheMaxEntries) {
+            this.metadataCacheMaxEntries = metadataCacheMaxEntries;
+            return this;
+        }
+
+        public Builder metadataCacheFile(Path metadataCacheFile) {
+            this.metadataCacheFile = metadataCacheFile;
+            return this;
+        }
+
+        public Builder hostProfileFile(Path hostProfileFile) {
+            this.hostProfileFile = hostProfileFile;
+            return this;
+        }
+
+        public Builder hostProfileHalfLife(Duration hostProfileHalfLife) {
+            this.hostProfileHalfLife = hostProfileHalfLife;
+            return this;
+        }
+
+        public Builder parallelConnections(int parallelConnections) {
+            this.parallelConnections = parallelConnections;
+            return this;
+        }
+
+        public Builder maxHedgedRequests(int maxHedgedRequests) {
+            this.maxHedgedRequests = maxHedgedRequests;
+            return this;
+        }
+
+        public Builder cryptographicDigestRequired(boolean cryptographicDigestRequired) {
+            this.cryptographicDigestRequired = cryptographicDigestRequired;
+            return this;
+        }
+
+        public Builder resumeOverlapSize(int resumeOverlapSize) {
+            this.resumeOverlapSize = resumeOverlapSize;
+            return this;
+        }
+
+        public Builder prefetchSize(int prefetchSize) {
+            this.prefetchSize = prefetchSize;
+            return this;
+        }
+
+        public Builder compressionEnabled(boolean compressionEnabled) {
+            this.compressionEnabled = compressionEnabled;
+            return this;
+        }
+
+        public Builder nioEngineEnabled(boolean nioEngineEnabled) {
+            this.nioEngineEnabled = nioEngineEnabled;
+            return this;
+        }
+
+        public Builder eventLoopThreads(int eventLoopThreads) {
+            this.eventLoopThreads = eventLoopThreads;
+            return this;
+        }
+
+        public Builder socketReceiveBufferSize(int socketReceiveBufferSize) {
+            this.socketReceiveBufferSize = socketReceiveBufferSize;
+            return this;
+        }
+
         public DownloaderConfig build() {
             validate();
             return new DownloaderConfig(this);
@@ -150,6 +476,9 @@ public class DownloaderConfig {
             if (retryDelay.isNegative() || retryDelay.isZero()) {
                 throw new IllegalArgumentException("Retry delay must be positive");
             }
+            if (maxRetryDelay.compareTo(retryDelay) < 0) {
+                throw new IllegalArgumentException("Max retry delay cannot be shorter than the retry delay");
+            }
             if (bufferSize <= 0) {
                 throw new IllegalArgumentException("Buffer size must be positive");
             }
@@ -159,6 +488,39 @@ public class DownloaderConfig {
             if (readTimeout.isNegative() || readTimeout.isZero()) {
                 throw new IllegalArgumentException("Read timeout must be positive");
             }
+            if (lowSpeedLimit < 0) {
+                throw new IllegalArgumentException("Low speed limit cannot be negative");
+            }
+            if (lowSpeedTime.isNegative() || lowSpeedTime.isZero()) {
+                throw new IllegalArgumentException("Low speed time must be positive");
+            }
+            if (metadataCacheTtl.isNegative()) {
+                throw new IllegalArgumentException("Metadata cache TTL cannot be negative");
+            }
+            if (metadataCacheMaxEntries <= 0) {
+                throw new IllegalArgumentException("Metadata cache size must be positive");
+            }
+            if (hostProfileHalfLife.isNegative() || hostProfileHalfLife.isZero()) {
+                throw new IllegalArgumentException("Host profile half-life must be positive");
+            }
+            if (parallelConnections <= 0) {
+                throw new IllegalArgumentException("Parallel connections must be positive");
+            }
+            if (maxHedgedRequests < 0) {
+                throw new IllegalArgumentException("Max hedged requests cannot be negative");
+            }
+            if (resumeOverlapSize < 0) {
+                throw new IllegalArgumentException("Resume overlap size cannot be negative");
+            }
+            if (prefetchSize <= 0) {
+                throw new IllegalArgumentException("Prefetch size must be positive");
+            }
+            if (eventLoopThreads <= 0) {
+                throw new IllegalArgumentException("Event loop threads must be positive");
+            }
+            if (socketReceiveBufferSize < 0) {
+                throw new IllegalArgumentException("Socket receive buffer size cannot be negative");
+            }
         }
     }
 
@@ -168,12 +530,30 @@ public class DownloaderConfig {
                 "chunkSize=" + chunkSize +
                 ", maxRetries=" + maxRetries +
                 ", retryDelay=" + retryDelay +
+                ", maxRetryDelay=" + maxRetryDelay +
                 ", bufferSize=" + bufferSize +
                 ", connectTimeout=" + connectTimeout +
                 ", readTimeout=" + readTimeout +
+                ", lowSpeedLimit=" + lowSpeedLimit +
+                ", lowSpeedTime=" + lowSpeedTime +
                 ", verifyHash=" + verifyHash +
                 ", resumeSupport=" + resumeSupport +
                 ", isProgressTrackingEnabled=" + isProgressTrackingEnabled +
+                ", headProbeEnabled=" + headProbeEnabled +
+                ", metadataCacheTtl=" + metadataCacheTtl +
+                ", metadataCacheMaxEntries=" + metadataCacheMaxEntries +
+                ", metadataCacheFile=" + metadataCacheFile +
+                ", hostProfileFile=" + hostProfileFile +
+                ", hostProfileHalfLife=" + hostProfileHalfLife +
+                ", parallelConnections=" + parallelConnections +
+                ", maxHedgedRequests=" + maxHedgedRequests +
+                ", cryptographicDigestRequired=" + cryptographicDigestRequired +
+                ", resumeOverlapSize=" + resumeOverlapSize +
+                ", prefetchSize=" + prefetchSize +
+                ", compressionEnabled=" + compressionEnabled +
+                ", nioEngineEnabled=" + nioEngineEnabled +
+                ", eventLoopThreads=" + eventLoopThreads +
+                ", socketReceiveBufferSize=" + socketReceiveBufferSize +
                 '}';
     }
 }
\ No newline at end of file
@@ -4,14 +4,44 @@ import com.accurx.reliabledownloader.impl.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
+import java.net.URI;
 import java.net.http.HttpClient;
+import java.util.List;
 import java.util.function.Supplier;
 
-public class DownloaderFactory {
+/**
+ * Creates the downloaders, sharing caches and selector threads between them. Closing the factory releases the
+ * selector threads, so close it once its downloads are done.
+ */
+public class DownloaderFactory implements Closeable {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(DownloaderFactory.class);
 
+    // Shared by every downloader this factory creates, so repeated downloads of a URI skip the probe
+    private MetadataCache metadataCache;
+    // Shared likewise, so downloads in one run learn from each other
+    private HostProfileStore hostProfileStore;
+    // Shared by every NIO downloader, so each download doesn't open selectors of its own
+    private NioEventLoopGroup nioEventLoops;
+
+    /**
+     * Picks the downloader for the settings. With host profiles enabled, the config first gets the chunk size
+     * and connection count learned for the source's host.
+     */
     public FileDownloader createDownloader(DownloaderConfig config, FileDownloadSettings settings) {
+        HostProfileStore profiles = getHostProfileStore(config);
+        if (profiles != null && settings.mirrorUrls().isEmpty()) {
+            config = profiles.tune(settings.sourceUrl(), config);
+        }
+        if (!settings.mirrorUrls().isEmpty()) {
+            LOGGER.info("Using multi-source downloader with {} mirror(s)", settings.mirrorUrls().size());
+            return createMultiSourceDownloader(config, settings.mirrorUrls());
+        }
+        if (config.isNioEngineEnabled()) {
+            LOGGER.info("Using NIO event-loop downloader on {} thread(s)", config.getEventLoopThreads());
+            return createNioDownloader(config);
+        }
         if (settings.reliableDownloader()) {
             LOGGER.info("Using reliable downloader");
             return createReliableDownloader(config);
@@ -24,11 +54,13 @@ public class DownloaderFactory {
         FileDownloader base = new HTTPClientFileDownloader(
                 () -> HttpClient.newBuilder()
                         .connectTimeout(config.getConnectTimeout())
-                        .build());
+                        .build(),
+                config.isHeadProbeEnabled(),
+                config.isCompressionEnabled());
 
         // Generally meant for Reliable Downloader, but can be used for other purposes as well.
         if (config.isResumeSupport()) {
-            base = new RetryingDownloader(base, config.getMaxRetries(), config.getRetryDelay());
+            base = new RetryingDownloader(base, RetryPolicy.from(config));
         }
 
         if (config.isProgressTrackingEnabled()) {
@@ -39,10 +71,37 @@ public class DownloaderFactory {
     }
 
     public FileDownloader createReliableDownloader(DownloaderConfig config) {
-        FileDownloader base = new ReliableDownloader(config);
+        // One chunk at a time, whatever the configured connection count
+        FileDownloader base = withHostProfiling(new ReliableDownloader(config, getMetadataCache(config)), config, 1);
 
         // Always retry on HTTP client errors, regardless of config settings.
-        base = new RetryingDownloader(base, config.getMaxRetries(), config.getRetryDelay());
+        base = new RetryingDownloader(base, RetryPolicy.from(config));
+
+        if (config.isProgressTrackingEnabled()) {
+            base = new ProgressTrackingDownloader(base, new ConsoleProgressObserver());
+        }
+
+        return base;
+    }
+
+    public FileDownloader createNioDownloader(DownloaderConfig config) {
+        NioFileDownloader engine = new NioFileDownloader(config, getMetadataCache(config),
+                getNioEventLoopGroup(config));
+        FileDownloader base = withHostProfiling(engine, config, config.getParallelConnections());
+
+        base = new RetryingDownloader(base, RetryPolicy.from(config));
+
+        if (config.isProgressTrackingEnabled()) {
+            base = new ProgressTrackingDownloader(base, new ConsoleProgressObserver());
+        }
+
+        return base;
+    }
+
+    public FileDownloader createMultiSourceDownloader(DownloaderConfig config, List<URI> mirrors) {
+        FileDownloader base = new MultiSourceDownloader(config, mirrors, getMetadataCache(config));
+
+        base = new RetryingDownloader(base, RetryPolicy.from(config));
 
         if (config.isProgressTrackingEnabled()) {
             base = new ProgressTrackingDownloader(base, new ConsoleProgressObserver());
@@ -50,4 +109,67 @@ public class DownloaderFactory {
 
         return base;
     }
+
+    /**
+     * Records the downloader's attempts in the host profiles, if they're enabled. Only the chunked engines are
+     * profiled, being the ones the learned chunk size and connection count tune; multi-source downloads mix
+     * hosts and aren't either.
+     */
+    private FileDownloader withHostProfiling(FileDownloader downloader, DownloaderConfig config, int connections) {
+        HostProfileStore profiles = getHostProfileStore(config);
+        return profiles == null
+                ? downloader
+                : new HostProfilingDownloader(downloader, profiles, config.getChunkSize(), connections,
+                        getMetadataCache(config));
+    }
+
+    /**
+     * @return the host profile store shared by this factory's downloaders, loaded from the first config that
+     * names a file for it, or null when host profiles are disabled.
+     */
+    public synchronized HostProfileStore getHostProfileStore(DownloaderConfig config) {
+        if (config.getHostProfileFile() == null) {
+            return null;
+        }
+        if (hostProfileStore == null) {
+            hostProfileStore = new HostProfileStore(config.getHostProfileFile(), config.getHostProfileHalfLife());
+        }
+        return hostProfileStore;
+    }
+
+    /**
+     * @return the metadata cache shared by this factory's downloaders, created from the first config that
+     * enables it, or null when caching is disabled.
+     */
+    public synchronized MetadataCache getMetadataCache(DownloaderConfig config) {
+        if (config.getMetadataCacheTtl().isZero()) {
+            return null;
+        }
+        if (metadataCache == null) {
+            metadataCache = new MetadataCache(
+                    config.getMetadataCacheTtl(),
+                    config.getMetadataCacheMaxEntries(),
+                    config.getMetadataCacheFile());
+        }
+        return metadataCache;
+    }
+
+    /**
+     * @return the selector threads shared by this factory's NIO downloaders, as many as the first config that
+     * asked for them sets.
+     */
+    public synchronized NioEventLoopGroup getNioEventLoopGroup(DownloaderConfig config) {
+        if (nioEventLoops == null) {
+            nioEventLoops = new NioEventLoopGroup(config.getEventLoopThreads());
+        }
+        return nioEventLoops;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (nioEventLoops != null) {
+            nioEventLoops.close();
+            nioEventLoops = null;
+        }
+    }
 }
@@ -1,26 +1,66 @@
 package com.accurx.reliabledownloader.core;
 
+import com.accurx.reliabledownloader.impl.HttpRangeClient;
+import com.accurx.reliabledownloader.impl.RemoteFileChannel;
+import com.accurx.reliabledownloader.impl.RetryPolicy;
+import com.accurx.reliabledownloader.impl.ZipEntryExtractor;
+import com.accurx.reliabledownloader.util.BlockManifest;
+import com.accurx.reliabledownloader.util.ContentDigests;
+import com.accurx.reliabledownloader.util.DigestAlgorithm;
 import com.accurx.reliabledownloader.util.Md5;
+import com.google.common.util.concurrent.RateLimiter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.io.OutputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URLConnection;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
 import java.util.Optional;
+import java.util.Set;
 
 public class FileDownloadCommand {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(FileDownloadCommand.class);
+    // Adjacent blocks are fetched with one range request, up to this many bytes
+    private static final int MAX_BLOCK_FETCH_SIZE = 8 << 20; // 8 MB
+    // Blocks of a remote archive kept in memory while extracting entries from it
+    private static final int ARCHIVE_CACHE_BLOCKS = 64;
 
     private final FileDownloader fileDownloader;
     private final FileDownloadSettings downloadSettings;
+    private final DownloaderConfig config;
+    private final RateLimiter bandwidthLimiter;
 
     public FileDownloadCommand(FileDownloader fileDownloader, FileDownloadSettings downloadSettings) {
+        this(fileDownloader, downloadSettings, DownloaderConfig.getDefault());
+    }
+
+    /**
+     * @param config timeouts for the requests the command makes itself (block manifest and block repairs)
+     */
+    public FileDownloadCommand(FileDownloader fileDownloader, FileDownloadSettings downloadSettings,
+                               DownloaderConfig config) {
+        this(fileDownloader, downloadSettings, config, null);
+    }
+
+    /**
+     * @param bandwidthLimiter one permit per byte written to the file, shared by downloads that are capped
+     *                         together; null for no cap. Archive extraction isn't capped.
+     */
+    public FileDownloadCommand(FileDownloader fileDownloader, FileDownloadSettings downloadSettings,
+                               DownloaderConfig config, RateLimiter bandwidthLimiter) {
         this.fileDownloader = fileDownloader;
         this.downloadSettings = downloadSettings;
+        this.config = config;
+        this.bandwidthLimiter = bandwidthLimiter;
     }
 
     /**
@@ -38,9 +78,20 @@ public class FileDownloadCommand {
                 downloadSettings.destinationFilePath().toAbsolutePath()
         );
 
+        if (!downloadSettings.archiveEntries().isEmpty()) {
+            extractArchiveEntries();
+            return;
+        }
+        if (downloadSettings.extractArchive()) {
+            extractWhileDownloading();
+            return;
+        }
+
+        BlockManifest blockManifest = resolveBlockManifest();
+
         while (currentAttempt <= maxRetries) {
             try {
-                performDownloadAttempt(tempFilePath);
+                performDownloadAttempt(tempFilePath, blockManifest);
                 return;
             } catch (RangeNotSupportedException e) {
                 LOGGER.warn("Caught RangeNotSupportedException");
@@ -49,6 +100,7 @@ public class FileDownloadCommand {
                                     "Cleaning up temporary file and retrying from scratch (attempt {}/{})",
                             currentAttempt + 1, maxRetries);
                     Files.deleteIfExists(tempFilePath); // Clean up the incomplete file
+                    PartialFileOutputStream.deleteSidecar(tempFilePath);
                     currentAttempt++;
                 } else {
                     LOGGER.error("Download failed after retrying. Server does not support range requests: {}",
@@ -60,6 +112,7 @@ public class FileDownloadCommand {
                         tempFilePath.getFileName(), e.getMessage(), e);
                 try {
                     Files.deleteIfExists(tempFilePath);
+                    PartialFileOutputStream.deleteSidecar(tempFilePath);
                 } catch (IOException cleanupException) {
                     LOGGER.error("Failed to delete temporary file {}: {}",
                             tempFilePath.getFileName(), cleanupException.getMessage(), cleanupException);
@@ -74,9 +127,10 @@ public class FileDownloadCommand {
      * determining start offset, executing the download, and performing MD5 verification.
      *
      * @param tempFilePath The path to the temporary download file.
+     * @param blockManifest The block hashes to verify and repair the download with, or null.
      * @throws Exception if the download attempt fails.
      */
-    private void performDownloadAttempt(Path tempFilePath) throws Exception {
+    private void performDownloadAttempt(Path tempFilePath, BlockManifest blockManifest) throws Exception {
         long startOffset = 0;
         Path destinationFilePath = downloadSettings.destinationFilePath();
 
@@ -90,21 +144,51 @@ public class FileDownloadCommand {
         // Ensure the parent directory exists for the temporary file
         Files.createDirectories(tempFilePath.getParent());
 
-        // Open the output stream in append mode if resuming, otherwise truncate/create
-        StandardOpenOption openOption = StandardOpenOption.CREATE;
-        if (startOffset > 0) {
-            openOption = StandardOpenOption.APPEND;
+        // Open the temporary file positioned at its end, so a resume appends to what is already there.
+        // Downloaders that recognise PartialFileOutputStream may also restart it in place if the remote file changed.
+        Optional<String> contentMd5Opt;
+        boolean digestVerified = false;
+        try (PartialFileOutputStream outputStream = PartialFileOutputStream.open(tempFilePath)) {
+            outputStream.computeDigests(streamingDigestAlgorithms());
+            if (bandwidthLimiter != null) {
+                outputStream.limitRate(bandwidthLimiter);
+            }
+            if (blockManifest != null) {
+                outputStream.verifyBlocks(blockManifest);
+            }
+            if (startOffset == 0 && seedFromPreviousVersion(outputStream, blockManifest)) {
+                // The blocks the previous version didn't have are missing now and fetched like corrupt ones
+                contentMd5Opt = Optional.empty();
+            } else {
+                // Pass the determined startOffset to the downloader
+                contentMd5Opt = fileDownloader.downloadFile(downloadSettings.sourceUrl(), outputStream, startOffset);
+            }
+            if (blockManifest != null) {
+                repairCorruptBlocks(outputStream, blockManifest);
+            }
+
+            ContentDigests expectedDigests = downloadSettings.expectedDigests().merge(outputStream.expectedDigests());
+            if (!expectedDigests.isEmpty()) {
+                verifyDigest(outputStream, expectedDigests);
+                digestVerified = true;
+            }
         }
 
-        Optional<String> contentMd5Opt;
-        try (OutputStream outputStream = Files.newOutputStream(tempFilePath, openOption)) {
-            // Pass the determined startOffset to the downloader
-            contentMd5Opt = fileDownloader.downloadFile(downloadSettings.sourceUrl(), outputStream, startOffset);
+        // The policy rules out the MD5 and unverified fallbacks below
+        if (!digestVerified && config.isCryptographicDigestRequired()) {
+            LOGGER.error("No cryptographic digest is available for {}. Deleting unverified download.",
+                    downloadSettings.sourceUrl());
+            Files.deleteIfExists(tempFilePath);
+            PartialFileOutputStream.deleteSidecar(tempFilePath);
+            throw new IOException("A cryptographic digest is required, but none is available for "
+                    + downloadSettings.sourceUrl());
         }
 
         // MD5 Verification (Moved into this method for encapsulation)
         boolean md5Verified = false;
-        if (contentMd5Opt.isPresent()) {
+        if (digestVerified) {
+            md5Verified = true; // Already verified with the digest chosen by policy
+        } else if (contentMd5Opt.isPresent()) {
             String expectedMd5 = contentMd5Opt.get();
             String computedMd5 = Md5.contentMd5(tempFilePath.toFile()); // Compute MD5 of the temp file
             if (expectedMd5.equals(computedMd5)) {
@@ -115,8 +199,12 @@ public class FileDownloadCommand {
                                 "Deleting incomplete download.",
                         expectedMd5, computedMd5, tempFilePath.getFileName());
                 Files.deleteIfExists(tempFilePath); // Delete the temporary file if MD5 fails
+                PartialFileOutputStream.deleteSidecar(tempFilePath);
                 throw new IOException("MD5 integrity check failed.");
             }
+        } else if (blockManifest != null) {
+            LOGGER.info("Every block matches the block manifest, download integrity verified.");
+            md5Verified = true;
         } else {
             LOGGER.warn("MD5 hash is not present, download integrity was not verified.");
             md5Verified = true; // Consider it verified if no MD5 provided
@@ -131,6 +219,7 @@ public class FileDownloadCommand {
                         destinationFilePath,
                         java.nio.file.StandardCopyOption.REPLACE_EXISTING,
                         java.nio.file.StandardCopyOption.ATOMIC_MOVE);
+                PartialFileOutputStream.deleteSidecar(tempFilePath);
                 LOGGER.info("File moved successfully. Download Complete!");
             } catch (IOException moveException) {
                 LOGGER.error("Failed to move temporary file {} to final destination {}: {}",
@@ -146,4 +235,216 @@ public class FileDownloadCommand {
                     tempFilePath.getFileName());
         }
     }
+
+    /**
+     * Takes the requested entries out of the remote ZIP archive, reading only its central directory and those
+     * entries with range requests. A server without range support gets the whole archive downloaded the usual
+     * way and the entries extracted from that copy.
+     */
+    private void extractArchiveEntries() throws Exception {
+        URI source = downloadSettings.sourceUrl();
+        Path directory = downloadSettings.destinationFilePath();
+        List<String> entries = downloadSettings.archiveEntries();
+        HttpRangeClient rangeClient = new HttpRangeClient(config);
+        RemoteFileMetadata metadata = RetryPolicy.from(config).execute(source, attempt -> rangeClient.probe(source));
+
+        if (metadata.supportsRangeRequests()) {
+            LOGGER.info("Extracting {} entries from {} with range requests.", entries.size(), source);
+            try (RemoteFileChannel archive = RemoteFileChannel.open(source, config, metadata, ARCHIVE_CACHE_BLOCKS)) {
+                new ZipEntryExtractor(archive).extract(entries, directory);
+            }
+            return;
+        }
+
+        LOGGER.warn("Server does not support range requests; downloading the whole archive to extract {} entries.",
+                entries.size());
+        Path archivePath = Path.of(directory + ".zip");
+        FileDownloadSettings archiveSettings = new FileDownloadSettingsBuilder()
+                .withSource(source)
+                .withDestination(archivePath)
+                .withReliableDownloader(downloadSettings.reliableDownloader())
+                .withMirrors(downloadSettings.mirrorUrls())
+                .withBlockManifestUrl(downloadSettings.blockManifestUrl())
+                .withBlockManifest(downloadSettings.blockManifest())
+                .withExpectedDigests(downloadSettings.expectedDigests())
+                .withPreviousVersion(downloadSettings.previousVersion())
+                .build();
+        new FileDownloadCommand(fileDownloader, archiveSettings, config).run();
+        try (SeekableByteChannel archive = Files.newByteChannel(archivePath)) {
+            new ZipEntryExtractor(archive).extract(entries, directory);
+        } finally {
+            Files.deleteIfExists(archivePath);
+        }
+    }
+
+    /**
+     * Unpacks the archive as it arrives instead of saving it first, which saves writing and rereading the
+     * whole archive. Retries resume the stream, and the archive's digests are checked before any file is moved
+     * into the destination directory.
+     */
+    private void extractWhileDownloading() throws IOException {
+        URI source = downloadSettings.sourceUrl();
+        StreamingArchiveExtractor.Format format = StreamingArchiveExtractor.Format.fromFileName(source.getPath())
+                .orElseThrow(() -> new IOException("Can't tell the archive format of " + source
+                        + "; expected a .zip, .jar, .tar, .tar.gz or .tgz file"));
+        LOGGER.info("Extracting {} archive into {} while downloading.", format, downloadSettings.destinationFilePath());
+        new StreamingArchiveExtractor(new StreamingDownload(fileDownloader, source, config),
+                downloadSettings.expectedDigests(), config)
+                .extract(format, downloadSettings.destinationFilePath());
+    }
+
+    /**
+     * Refetches just the blocks that don't match the manifest, so one bad byte doesn't cost a full re-download.
+     * Range requests are retried like any download; if one still fails, the configured downloader fetches the
+     * rest of the file from the first block that is still missing.
+     */
+    private void repairCorruptBlocks(PartialFileOutputStream partialFile, BlockManifest blockManifest)
+            throws Exception {
+        List<Integer> corruptBlocks = partialFile.corruptBlocks();
+        if (corruptBlocks.isEmpty()) {
+            LOGGER.info("All {} blocks match the block manifest.", blockManifest.blockCount());
+            return;
+        }
+
+        LOGGER.warn("Fetching {} of {} blocks that are missing or failed verification.",
+                corruptBlocks.size(), blockManifest.blockCount());
+        URI source = downloadSettings.sourceUrl();
+        HttpRangeClient rangeClient = new HttpRangeClient(config);
+        RetryPolicy retryPolicy = RetryPolicy.from(config);
+        int first = 0;
+        while (first < corruptBlocks.size()) {
+            // Extend the run while the next block is adjacent and the request stays reasonably small
+            int last = first;
+            long runStart = blockManifest.blockStart(corruptBlocks.get(first));
+            while (last + 1 < corruptBlocks.size() && corruptBlocks.get(last + 1) == corruptBlocks.get(last) + 1
+                    && blockManifest.blockStart(corruptBlocks.get(last + 1))
+                    + blockManifest.blockLength(corruptBlocks.get(last + 1)) - runStart <= MAX_BLOCK_FETCH_SIZE) {
+                last++;
+            }
+            int runLength = (int) (blockManifest.blockStart(corruptBlocks.get(last))
+                    + blockManifest.blockLength(corruptBlocks.get(last)) - runStart);
+            byte[] data;
+            try {
+                data = retryPolicy.execute(source, attempt -> rangeClient.fetchRange(source, runStart, runLength));
+            } catch (IOException e) {
+                LOGGER.warn("Could not fetch blocks by range ({}); downloading the rest of the file from byte {}.",
+                        e.getMessage(), runStart);
+                partialFile.truncate(runStart);
+                fileDownloader.downloadFile(source, partialFile, runStart);
+                // Blocks before the run were repaired and checked above
+                int firstRefetched = corruptBlocks.get(first);
+                Optional<Integer> stillCorrupt = partialFile.corruptBlocks().stream()
+                        .filter(block -> block >= firstRefetched)
+                        .findFirst();
+                if (stillCorrupt.isPresent()) {
+                    throw new IOException("Block " + stillCorrupt.get() + " is still corrupt after downloading it"
+                            + " again from " + source);
+                }
+                LOGGER.info("Downloaded the remaining blocks from byte {}.", runStart);
+                return;
+            }
+            for (int i = first; i <= last; i++) {
+                int block = corruptBlocks.get(i);
+                int offset = (int) (blockManifest.blockStart(block) - runStart);
+                if (!blockManifest.matches(block, data, offset, blockManifest.blockLength(block))) {
+                    throw new IOException("Block " + block + " is still corrupt after refetching it from " + source);
+                }
+            }
+            partialFile.writeAt(data, 0, runLength, runStart);
+            first = last + 1;
+        }
+        LOGGER.info("Repaired {} corrupt block(s).", corruptBlocks.size());
+    }
+
+    /**
+     * Copies the blocks the new file shares with the caller's previous version into the empty partial file,
+     * leaving only the others to be fetched.
+     *
+     * @return whether any block could be reused
+     */
+    private boolean seedFromPreviousVersion(PartialFileOutputStream partialFile, BlockManifest blockManifest)
+            throws IOException {
+        Path previousVersion = downloadSettings.previousVersion();
+        if (blockManifest == null || previousVersion == null) {
+            return false;
+        }
+        if (!Files.isRegularFile(previousVersion)) {
+            LOGGER.warn("Previous version {} not found, downloading the whole file.", previousVersion);
+            return false;
+        }
+        int reused = new DeltaSeeder(blockManifest, partialFile).seed(previousVersion).cardinality();
+        LOGGER.info("Reused {} of {} blocks from previous version {}.",
+                reused, blockManifest.blockCount(), previousVersion.getFileName());
+        return reused > 0;
+    }
+
+    /**
+     * @return the caller's block manifest, the one published at the configured URL, or null if there is none.
+     * A manifest that can't be loaded only costs us per-block repair, so the download goes ahead without it.
+     */
+    private BlockManifest resolveBlockManifest() {
+        if (downloadSettings.blockManifest() != null) {
+            return downloadSettings.blockManifest();
+        }
+        URI manifestUrl = downloadSettings.blockManifestUrl();
+        if (manifestUrl == null) {
+            return null;
+        }
+
+        URLConnection conn = null;
+        try {
+            conn = manifestUrl.toURL().openConnection();
+            conn.setConnectTimeout((int) config.getConnectTimeout().toMillis());
+            conn.setReadTimeout((int) config.getReadTimeout().toMillis());
+            if (conn instanceof HttpURLConnection httpConn) {
+                HttpRangeClient.checkResponse(manifestUrl, httpConn);
+            }
+            try (InputStream in = conn.getInputStream()) {
+                BlockManifest manifest = BlockManifest.parse(in);
+                LOGGER.info("Loaded block manifest with {} {} blocks of {} bytes from {}.",
+                        manifest.blockCount(), manifest.algorithm().headerToken(), manifest.blockSize(), manifestUrl);
+                return manifest;
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Could not load block manifest from {}: {}. Continuing without per-block verification.",
+                    manifestUrl, e.getMessage());
+            return null;
+        } finally {
+            if (conn instanceof HttpURLConnection httpConn) {
+                httpConn.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Digests worth computing while the file is written: whatever the caller expects, plus those servers
+     * commonly advertise and the ones the digest policy would pick.
+     */
+    private Set<DigestAlgorithm> streamingDigestAlgorithms() {
+        Set<DigestAlgorithm> algorithms = EnumSet.of(DigestAlgorithm.CRC32C, DigestAlgorithm.MD5);
+        algorithms.addAll(downloadSettings.expectedDigests().algorithms());
+        if (config.isCryptographicDigestRequired()) {
+            algorithms.add(DigestAlgorithm.SHA_256);
+        }
+        return algorithms;
+    }
+
+    /**
+     * Verifies the file with the cheapest expected digest that meets the configured policy.
+     */
+    private void verifyDigest(PartialFileOutputStream partialFile, ContentDigests expectedDigests)
+            throws IOException {
+        DigestAlgorithm algorithm = expectedDigests.cheapest(config.isCryptographicDigestRequired())
+                .orElseThrow(() -> new IOException("A cryptographic digest is required, but only "
+                        + expectedDigests.algorithms() + " are available for " + downloadSettings.sourceUrl()));
+        String name = algorithm.headerToken().toUpperCase(Locale.ROOT);
+        String expected = expectedDigests.get(algorithm).orElseThrow();
+        String computed = partialFile.digests(EnumSet.of(algorithm)).get(algorithm).orElseThrow();
+        if (!expected.equals(computed)) {
+            LOGGER.error("{} verification failed! Expected {}, found {} for temporary file {}.",
+                    name, expected, computed, partialFile.path().getFileName());
+            throw new IOException(name + " integrity check failed.");
+        }
+        LOGGER.info("{} digest verified, download integrity confirmed.", name);
+    }
 }
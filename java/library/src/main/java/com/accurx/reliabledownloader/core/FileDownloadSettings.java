@@ -1,10 +1,48 @@
 package com.accurx.reliabledownloader.core;
 
+import com.accurx.reliabledownloader.util.BlockManifest;
+import com.accurx.reliabledownloader.util.ContentDigests;
+
 import java.net.URI;
 import java.nio.file.Path;
+import java.util.List;
 
+/**
+ * @param mirrorUrls further URIs serving the same file as {@code sourceUrl}; downloads may pull ranges from all of them
+ * @param blockManifestUrl where to fetch the file's {@link BlockManifest} from, or null
+ * @param blockManifest a block manifest the caller already has; takes precedence over {@code blockManifestUrl}
+ * @param expectedDigests digests the caller expects the file to have, checked alongside any the server advertises
+ * @param previousVersion an older local copy of the file; with a block manifest, blocks it shares with the new
+ *                        file are copied from it and only the rest is downloaded. May be null
+ * @param archiveEntries entries to take out of a ZIP archive at {@code sourceUrl}; if any are given, only those
+ *                       are fetched and extracted below {@code destinationFilePath}, which is then a directory
+ * @param extractArchive unpack the archive at {@code sourceUrl} into {@code destinationFilePath} while it downloads,
+ *                       instead of saving the archive itself
+ */
 public record FileDownloadSettings(
         URI sourceUrl,
         Path destinationFilePath,
-        Boolean reliableDownloader
-) {}
+        Boolean reliableDownloader,
+        List<URI> mirrorUrls,
+        URI blockManifestUrl,
+        BlockManifest blockManifest,
+        ContentDigests expectedDigests,
+        Path previousVersion,
+        List<String> archiveEntries,
+        boolean extractArchive
+) {
+    public FileDownloadSettings {
+        mirrorUrls = mirrorUrls == null ? List.of() : List.copyOf(mirrorUrls);
+        expectedDigests = expectedDigests == null ? ContentDigests.none() : expectedDigests;
+        archiveEntries = archiveEntries == null ? List.of() : List.copyOf(archiveEntries);
+    }
+
+    public FileDownloadSettings(URI sourceUrl, Path destinationFilePath, Boolean reliableDownloader) {
+        this(sourceUrl, destinationFilePath, reliableDownloader, List.of(), null, null, null, null, null, false);
+    }
+
+    public FileDownloadSettings withReliableDownloader(Boolean reliableDownloader) {
+        return new FileDownloadSettings(sourceUrl, destinationFilePath, reliableDownloader, mirrorUrls,
+                blockManifestUrl, blockManifest, expectedDigests, previousVersion, archiveEntries, extractArchive);
+    }
+}
@@ -1,12 +1,23 @@
 package com.accurx.reliabledownloader.core;
 
+import com.accurx.reliabledownloader.util.BlockManifest;
+import com.accurx.reliabledownloader.util.ContentDigests;
+
 import java.net.URI;
 import java.nio.file.Path;
+import java.util.List;
 
 public class FileDownloadSettingsBuilder {
     private URI sourceUrl;
     private Path destinationPath = Path.of("./downloads/");
     private Boolean reliableDownloader = true;
+    private List<URI> mirrorUrls = List.of();
+    private URI blockManifestUrl;
+    private BlockManifest blockManifest;
+    private ContentDigests expectedDigests = ContentDigests.none();
+    private Path previousVersion;
+    private List<String> archiveEntries = List.of();
+    private boolean extractArchive;
 
     public FileDownloadSettingsBuilder withSource(URI url) {
         this.sourceUrl = url;
@@ -23,7 +34,43 @@ public class FileDownloadSettingsBuilder {
         return this;
     }
 
+    public FileDownloadSettingsBuilder withMirrors(List<URI> mirrorUrls) {
+        this.mirrorUrls = mirrorUrls;
+        return this;
+    }
+
+    public FileDownloadSettingsBuilder withBlockManifestUrl(URI blockManifestUrl) {
+        this.blockManifestUrl = blockManifestUrl;
+        return this;
+    }
+
+    public FileDownloadSettingsBuilder withBlockManifest(BlockManifest blockManifest) {
+        this.blockManifest = blockManifest;
+        return this;
+    }
+
+    public FileDownloadSettingsBuilder withExpectedDigests(ContentDigests expectedDigests) {
+        this.expectedDigests = expectedDigests;
+        return this;
+    }
+
+    public FileDownloadSettingsBuilder withPreviousVersion(Path previousVersion) {
+        this.previousVersion = previousVersion;
+        return this;
+    }
+
+    public FileDownloadSettingsBuilder withArchiveEntries(List<String> archiveEntries) {
+        this.archiveEntries = archiveEntries;
+        return this;
+    }
+
+    public FileDownloadSettingsBuilder withExtractArchive(boolean extractArchive) {
+        this.extractArchive = extractArchive;
+        return this;
+    }
+
     public FileDownloadSettings build() {
-        return new FileDownloadSettings(sourceUrl, destinationPath, reliableDownloader);
+        return new FileDownloadSettings(sourceUrl, destinationPath, reliableDownloader, mirrorUrls,
+                blockManifestUrl, blockManifest, expectedDigests, previousVersion, archiveEntries, extractArchive);
     }
 }
@@ -0,0 +1,377 @@
+package com.accurx.reliabledownloader.core;
+
+import com.accurx.reliabledownloader.impl.HttpRangeClient;
+import com.accurx.reliabledownloader.impl.MetadataCache;
+import com.accurx.reliabledownloader.util.ContentDigests;
+import com.accurx.reliabledownloader.util.DigestAlgorithm;
+import com.accurx.reliabledownloader.util.DownloadManifest;
+import com.accurx.reliabledownloader.util.MultiDigest;
+import com.google.common.util.concurrent.RateLimiter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Downloads every file of a {@link DownloadManifest}, a few at a time, and reports how each went.
+ * <p>
+ * Entries start in priority order, at most {@code maxConcurrentDownloads} at once, and share one bandwidth cap.
+ * An entry whose destination already has the expected size and hash is skipped, so rerunning a rollout only
+ * fetches what is missing or wrong; without a hash (a cryptographic one, if the config requires that) a matching
+ * length proves nothing, so the entry is downloaded again.
+ * One file failing doesn't stop the others.
+ * <p>
+ * While files transfer, a prefetch stage works through the next entries in the queue: it checks their
+ * destinations and probes the server for size, range support, validators and redirects, filling the factory's
+ * {@link MetadataCache}. A download then starts sending bytes without a probe round trip, and among entries of
+ * the same priority the largest starts first.
+ */
+public class ManifestDownloadCommand {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ManifestDownloadCommand.class);
+
+    public enum Status {
+        DOWNLOADED,
+        SKIPPED,
+        FAILED
+    }
+
+    /**
+     * @param started when the entry started, from the start of the batch
+     * @param error   why it failed, or null
+     */
+    public record Result(DownloadManifest.Entry entry, Status status, long bytes, Duration started,
+                         Duration elapsed, String error) {
+    }
+
+    public record Summary(List<Result> results, Duration elapsed) {
+        public long count(Status status) {
+            return results.stream().filter(result -> result.status() == status).count();
+        }
+
+        public boolean isSuccessful() {
+            return count(Status.FAILED) == 0;
+        }
+
+        /**
+         * @return the summary as a JSON object, for scripts driving a rollout
+         */
+        public String toJson() {
+            StringBuilder json = new StringBuilder()
+                    .append("{\"elapsedMs\":").append(elapsed.toMillis())
+                    .append(",\"downloaded\":").append(count(Status.DOWNLOADED))
+                    .append(",\"skipped\":").append(count(Status.SKIPPED))
+                    .append(",\"failed\":").append(count(Status.FAILED))
+                    .append(",\"bytes\":").append(results.stream().mapToLong(Result::bytes).sum())
+                    .append(",\"files\":[");
+            for (int i = 0; i < results.size(); i++) {
+                Result result = results.get(i);
+                json.append(i == 0 ? "{" : ",{")
+                        .append("\"url\":").append(quote(result.entry().url().toString()))
+                        .append(",\"destination\":").append(quote(result.entry().destination().toString()))
+                        .append(",\"status\":").append(quote(result.status().name()))
+                        .append(",\"bytes\":").append(result.bytes())
+                        .append(",\"startedMs\":").append(result.started().toMillis())
+                        .append(",\"elapsedMs\":").append(result.elapsed().toMillis())
+                        .append(",\"error\":").append(result.error() == null ? "null" : quote(result.error()))
+                        .append('}');
+            }
+            return json.append("]}").toString();
+        }
+
+        private static String quote(String value) {
+            StringBuilder quoted = new StringBuilder("\"");
+            for (char c : value.toCharArray()) {
+                switch (c) {
+                    case '"' -> quoted.append("\\\"");
+                    case '\\' -> quoted.append("\\\\");
+                    case '\n' -> quoted.append("\\n");
+                    case '\r' -> quoted.append("\\r");
+                    case '\t' -> quoted.append("\\t");
+                    default -> {
+                        if (c < 0x20) {
+                            quoted.append(String.format("\\u%04x", (int) c));
+                        } else {
+                            quoted.append(c);
+                        }
+                    }
+                }
+            }
+            return quoted.append('"').toString();
+        }
+    }
+
+    /**
+     * What the prefetch stage found out about an entry before its download starts.
+     *
+     * @param source   where to download from, after redirects
+     * @param size     the file's size, from the manifest or the server, or -1 if neither said
+     * @param resolved whether the server was probed, so the download needn't probe it again
+     * @param done     the entry's result if there is nothing to download, e.g. it was up to date; otherwise null
+     */
+    private record Prefetched(DownloadManifest.Entry entry, URI source, long size, boolean resolved, Result done) {
+    }
+
+    /**
+     * @param index the entry's position in the manifest, which tells apart entries that are equal
+     */
+    private record Pending(int index, DownloadManifest.Entry entry, CompletableFuture<Prefetched> prefetch) {
+    }
+
+    private final DownloaderFactory factory;
+    private final DownloaderConfig config;
+    // For entries the prefetch stage already probed
+    private final DownloaderConfig resolvedConfig;
+    private final boolean reliableDownloader;
+    private final int maxConcurrentDownloads;
+    private final int prefetchDepth;
+    private final RateLimiter bandwidthLimiter;
+    private final HttpRangeClient rangeClient;
+
+    /**
+     * Prefetches twice as many entries as download at once.
+     *
+     * @param reliableDownloader     passed on to each file's {@link FileDownloadSettings}
+     * @param maxConcurrentDownloads how many files download at once
+     * @param maxBytesPerSecond      the cap on all the files' combined rate, or 0 for none
+     */
+    public ManifestDownloadCommand(DownloaderFactory factory, DownloaderConfig config, boolean reliableDownloader,
+                                   int maxConcurrentDownloads, long maxBytesPerSecond) {
+        this(factory, config, reliableDownloader, maxConcurrentDownloads, maxBytesPerSecond,
+                2 * maxConcurrentDownloads);
+    }
+
+    /**
+     * @param prefetchDepth how many queued entries to check and probe ahead of the downloads
+     */
+    public ManifestDownloadCommand(DownloaderFactory factory, DownloaderConfig config, boolean reliableDownloader,
+                                   int maxConcurrentDownloads, long maxBytesPerSecond, int prefetchDepth) {
+        if (maxConcurrentDownloads <= 0) {
+            throw new IllegalArgumentException("Max concurrent downloads must be positive");
+        }
+        if (maxBytesPerSecond < 0) {
+            throw new IllegalArgumentException("Max bytes per second cannot be negative");
+        }
+        if (prefetchDepth <= 0) {
+            throw new IllegalArgumentException("Prefetch depth must be positive");
+        }
+        this.factory = factory;
+        this.config = config;
+        this.resolvedConfig = config.toBuilder().headProbeEnabled(false).build();
+        this.reliableDownloader = reliableDownloader;
+        this.maxConcurrentDownloads = maxConcurrentDownloads;
+        this.prefetchDepth = prefetchDepth;
+        this.bandwidthLimiter = maxBytesPerSecond == 0 ? null : RateLimiter.create(maxBytesPerSecond);
+        this.rangeClient = new HttpRangeClient(config);
+    }
+
+    /**
+     * @return how every entry went, in manifest order
+     */
+    public Summary run(DownloadManifest manifest) throws InterruptedException {
+        long batchStarted = System.nanoTime();
+        List<DownloadManifest.Entry> entries = manifest.entries();
+        // Manifest positions rather than entries, as a manifest may list the same entry twice
+        Deque<Integer> queue = IntStream.range(0, entries.size()).boxed()
+                .sorted(Comparator.comparingInt((Integer index) -> entries.get(index).priority()).reversed())
+                .collect(Collectors.toCollection(ArrayDeque::new));
+        LOGGER.info("Downloading {} files, {} at a time, prefetching up to {} ahead", queue.size(),
+                maxConcurrentDownloads, prefetchDepth);
+
+        ExecutorService prefetchers = Executors.newFixedThreadPool(prefetchDepth);
+        ExecutorService downloaders = Executors.newFixedThreadPool(maxConcurrentDownloads);
+        Semaphore slots = new Semaphore(maxConcurrentDownloads);
+        // Entries being prefetched or waiting for a download slot, in priority order
+        List<Pending> window = new ArrayList<>();
+        Map<Integer, Future<Result>> futures = new HashMap<>();
+        try {
+            while (!queue.isEmpty() || !window.isEmpty()) {
+                while (window.size() < prefetchDepth && !queue.isEmpty()) {
+                    int index = queue.poll();
+                    DownloadManifest.Entry entry = entries.get(index);
+                    window.add(new Pending(index, entry,
+                            CompletableFuture.supplyAsync(() -> prefetch(entry, batchStarted), prefetchers)));
+                }
+                // Entries with nothing to download don't need a slot
+                for (Pending pending : List.copyOf(window)) {
+                    Result done = pending.prefetch().isDone() ? pending.prefetch().join().done() : null;
+                    if (done != null) {
+                        window.remove(pending);
+                        futures.put(pending.index(), CompletableFuture.completedFuture(done));
+                    }
+                }
+                if (window.isEmpty()) {
+                    continue;
+                }
+
+                slots.acquire();
+                Pending taken = takeNext(window);
+                Prefetched next = taken.prefetch().join();
+                if (next.done() != null) {
+                    slots.release();
+                    futures.put(taken.index(), CompletableFuture.completedFuture(next.done()));
+                    continue;
+                }
+                futures.put(taken.index(), downloaders.submit(() -> {
+                    try {
+                        return download(next, batchStarted);
+                    } finally {
+                        slots.release();
+                    }
+                }));
+            }
+
+            List<Result> results = new ArrayList<>();
+            for (int index = 0; index < entries.size(); index++) {
+                Result result;
+                try {
+                    result = futures.get(index).get();
+                } catch (ExecutionException e) {
+                    result = new Result(entries.get(index), Status.FAILED, 0, Duration.ZERO, Duration.ZERO,
+                            e.getCause().toString());
+                }
+                results.add(result);
+            }
+            Summary summary = new Summary(results, Duration.ofNanos(System.nanoTime() - batchStarted));
+            LOGGER.info("Manifest done in {} ms: {} downloaded, {} skipped, {} failed", summary.elapsed().toMillis(),
+                    summary.count(Status.DOWNLOADED), summary.count(Status.SKIPPED), summary.count(Status.FAILED));
+            return summary;
+        } finally {
+            prefetchers.shutdownNow();
+            downloaders.shutdownNow();
+        }
+    }
+
+    /**
+     * Takes the largest prefetched entry of the highest priority waiting, so the long transfers start first and
+     * the small ones fill in around them at the end. Waits for the first such entry to be prefetched if none is.
+     */
+    private static Pending takeNext(List<Pending> window) {
+        int priority = window.get(0).entry().priority();
+        List<Pending> candidates = window.stream()
+                .filter(pending -> pending.entry().priority() == priority)
+                .toList();
+        CompletableFuture.anyOf(candidates.stream().map(Pending::prefetch).toArray(CompletableFuture[]::new)).join();
+        Pending largest = candidates.stream()
+                .filter(pending -> pending.prefetch().isDone())
+                .max(Comparator.comparingLong(pending -> pending.prefetch().join().size()))
+                .orElseThrow();
+        window.remove(largest);
+        return largest;
+    }
+
+    /**
+     * Checks the destination against the manifest and resolves the file's metadata and redirects into the
+     * factory's metadata cache, so the download can start transferring without probing. Anything that goes
+     * wrong here is left for the download to run into and report.
+     */
+    private Prefetched prefetch(DownloadManifest.Entry entry, long batchStarted) {
+        long started = System.nanoTime();
+        try {
+            if (matches(entry)) {
+                LOGGER.info("{} is already up to date, skipping", entry.destination());
+                return new Prefetched(entry, entry.url(), entry.size(), false, new Result(entry, Status.SKIPPED, 0,
+                        Duration.ofNanos(started - batchStarted), Duration.ofNanos(System.nanoTime() - started), null));
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Could not check {} against the manifest ({}); downloading it again",
+                    entry.destination(), e.getMessage());
+        }
+
+        try {
+            HttpRangeClient.ResolvedFile resolved = rangeClient.resolve(entry.url());
+            RemoteFileMetadata metadata = resolved.metadata();
+            if (entry.size() >= 0 && metadata.totalSize() >= 0 && metadata.totalSize() != entry.size()) {
+                String error = "Expected " + entry.size() + " bytes but the server has " + metadata.totalSize();
+                LOGGER.error("Not downloading {}: {}", entry.url(), error);
+                return new Prefetched(entry, entry.url(), entry.size(), false, new Result(entry, Status.FAILED, 0,
+                        Duration.ofNanos(started - batchStarted), Duration.ofNanos(System.nanoTime() - started),
+                        error));
+            }
+            MetadataCache cache = factory.getMetadataCache(config);
+            if (cache != null) {
+                cache.put(resolved.location(), metadata);
+            }
+            if (!resolved.location().equals(entry.url())) {
+                LOGGER.debug("{} redirects to {}", entry.url(), resolved.location());
+            }
+            return new Prefetched(entry, resolved.location(), metadata.totalSize(), true, null);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.debug("Could not prefetch metadata for {}: {}", entry.url(), e.getMessage());
+            return new Prefetched(entry, entry.url(), entry.size(), false, null);
+        }
+    }
+
+    private Result download(Prefetched prefetched, long batchStarted) {
+        DownloadManifest.Entry entry = prefetched.entry();
+        long started = System.nanoTime();
+        Duration startedAt = Duration.ofNanos(started - batchStarted);
+        Path destination = entry.destination();
+        try {
+            Path parent = destination.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            FileDownloadSettings settings = new FileDownloadSettingsBuilder()
+                    .withSource(prefetched.source())
+                    .withDestination(destination)
+                    .withReliableDownloader(reliableDownloader)
+                    .withMirrors(entry.mirrors())
+                    .withExpectedDigests(entry.expectedDigests())
+                    .build();
+            DownloaderConfig downloadConfig = prefetched.resolved() ? resolvedConfig : config;
+            FileDownloader downloader = factory.createDownloader(downloadConfig, settings);
+            new FileDownloadCommand(downloader, settings, downloadConfig, bandwidthLimiter).run();
+
+            long size = Files.size(destination);
+            if (entry.size() >= 0 && size != entry.size()) {
+                throw new IOException("Expected " + entry.size() + " bytes but downloaded " + size);
+            }
+            return new Result(entry, Status.DOWNLOADED, size, startedAt, Duration.ofNanos(System.nanoTime() - started),
+                    null);
+        } catch (Exception e) {
+            LOGGER.error("Failed to download {} to {}: {}", entry.url(), destination, e.getMessage());
+            return new Result(entry, Status.FAILED, 0, startedAt, Duration.ofNanos(System.nanoTime() - started),
+                    e.getMessage() == null ? e.toString() : e.getMessage());
+        }
+    }
+
+    /**
+     * @return whether the destination already has the entry's size and an expected digest of the strength the
+     * config requires. Without such a digest a file of the right length could still be stale, so it isn't trusted.
+     */
+    private boolean matches(DownloadManifest.Entry entry) throws IOException {
+        Path destination = entry.destination();
+        ContentDigests expected = entry.expectedDigests();
+        Optional<DigestAlgorithm> algorithm = expected.cheapest(config.isCryptographicDigestRequired());
+        if (algorithm.isEmpty() || !Files.isRegularFile(destination)) {
+            return false;
+        }
+        if (entry.size() >= 0 && Files.size(destination) != entry.size()) {
+            return false;
+        }
+        String actual = MultiDigest.of(destination, EnumSet.of(algorithm.get())).get(algorithm.get()).orElseThrow();
+        return expected.get(algorithm.get()).orElseThrow().equals(actual);
+    }
+}
@@ -0,0 +1,332 @@
+package com.accurx.reliabledownloader.core;
+
+import com.accurx.reliabledownloader.util.BlockManifest;
+import com.accurx.reliabledownloader.util.ContentDigests;
+import com.accurx.reliabledownloader.util.DigestAlgorithm;
+import com.accurx.reliabledownloader.util.MultiDigest;
+import com.google.common.util.concurrent.RateLimiter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Append stream over the temporary file of an in-progress download.
+ * <p>
+ * Downloaders that recognise it get more than a plain {@link OutputStream}: they can restart the file
+ * in place when the server sends a fresh body, and they can persist the validators (ETag / Last-Modified)
+ * the partial content was fetched against in a {@code .meta} sidecar, so a later resume can send {@code If-Range}.
+ * With a {@link BlockManifest} attached, every block is also verified as soon as it has been written.
+ * Digests of the file are computed while it is written, as long as it is written front to back. With a rate limiter
+ * attached, writes wait for it, which holds the downloader (and, through TCP, the server) to its rate.
+ */
+public class PartialFileOutputStream extends OutputStream {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PartialFileOutputStream.class);
+    private static final String SIDECAR_SUFFIX = ".meta";
+    private static final String VALIDATOR_KEY = "validator";
+    private static final String TOTAL_SIZE_KEY = "totalSize";
+    private static final int DIGEST_BUFFER_SIZE = 1 << 20; // 1 MB
+
+    private final Path path;
+    private final FileChannel channel;
+    private volatile BlockVerifier blockVerifier;
+    private volatile ContentDigests expectedDigests = ContentDigests.none();
+    private volatile RateLimiter rateLimiter;
+    private final Object digestLock = new Object();
+    // Guarded by digestLock. The running digest covers [0, digestedLength) and is dropped on out-of-order writes.
+    private Set<DigestAlgorithm> digestAlgorithms = EnumSet.noneOf(DigestAlgorithm.class);
+    private MultiDigest runningDigest;
+    private long digestedLength;
+
+    private PartialFileOutputStream(Path path, FileChannel channel) {
+        this.path = path;
+        this.channel = channel;
+    }
+
+    /**
+     * Opens (or creates) the file positioned at its end, ready to append.
+     */
+    public static PartialFileOutputStream open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        channel.position(channel.size());
+        return new PartialFileOutputStream(path, channel);
+    }
+
+    public static Path sidecarPath(Path partialFile) {
+        return Path.of(partialFile.toString() + SIDECAR_SUFFIX);
+    }
+
+    public static void deleteSidecar(Path partialFile) throws IOException {
+        Files.deleteIfExists(sidecarPath(partialFile));
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    /**
+     * Makes every write take one permit per byte from the limiter, which may be shared with other files to cap
+     * their combined rate.
+     */
+    public void limitRate(RateLimiter limiter) {
+        this.rateLimiter = limiter;
+    }
+
+    private void acquire(int bytes) {
+        RateLimiter limiter = rateLimiter;
+        if (limiter != null && bytes > 0) {
+            limiter.acquire(bytes);
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        acquire(len);
+        long position = channel.position();
+        ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        notifyWritten(ByteBuffer.wrap(b, off, len), position);
+    }
+
+    /**
+     * Writes at an absolute position without moving the append position. Safe to call from several threads
+     * at once, which is how parallel range downloads fill the file.
+     */
+    public void writeAt(byte[] b, int off, int len, long position) throws IOException {
+        acquire(len);
+        long start = position;
+        ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        notifyWritten(ByteBuffer.wrap(b, off, len), start);
+    }
+
+    /**
+     * Writes the buffer's remaining bytes at an absolute position, straight from a (possibly direct) buffer.
+     * Like {@link #writeAt(byte[], int, int, long)} this leaves the append position alone and may be called
+     * from several threads at once. The buffer's position ends up at its limit.
+     */
+    public void writeAt(ByteBuffer src, long position) throws IOException {
+        acquire(src.remaining());
+        ByteBuffer written = src.duplicate();
+        long start = position;
+        while (src.hasRemaining()) {
+            position += channel.write(src, position);
+        }
+        written.limit(src.position());
+        notifyWritten(written, start);
+    }
+
+    // Feeds the bytes just written at position into the running digest and the block verifier
+    private void notifyWritten(ByteBuffer written, long position) throws IOException {
+        int len = written.remaining();
+        synchronized (digestLock) {
+            if (runningDigest != null) {
+                if (position == digestedLength) {
+                    runningDigest.update(written);
+                    digestedLength += len;
+                } else {
+                    // Written out of order (parallel ranges, block repair): fall back to hashing the file at the end
+                    runningDigest = null;
+                }
+            }
+        }
+        BlockVerifier verifier = blockVerifier;
+        if (verifier != null) {
+            verifier.onWritten(position, len);
+        }
+    }
+
+    /**
+     * Starts computing digests of the file as it is written. Bytes already in the file are read back once now.
+     */
+    public void computeDigests(Set<DigestAlgorithm> algorithms) throws IOException {
+        synchronized (digestLock) {
+            digestAlgorithms = algorithms.isEmpty()
+                    ? EnumSet.noneOf(DigestAlgorithm.class)
+                    : EnumSet.copyOf(algorithms);
+            runningDigest = new MultiDigest(digestAlgorithms);
+            digestedLength = 0;
+            long existing = channel.size();
+            ByteBuffer buffer = ByteBuffer.allocate(DIGEST_BUFFER_SIZE);
+            while (digestedLength < existing) {
+                buffer.clear().limit((int) Math.min(buffer.capacity(), existing - digestedLength));
+                int read = channel.read(buffer, digestedLength);
+                if (read == -1) {
+                    break;
+                }
+                buffer.flip();
+                runningDigest.update(buffer);
+                digestedLength += read;
+            }
+        }
+    }
+
+    /**
+     * @return digests of the file's current content, from the running digest when it covers the whole file
+     * and all requested algorithms, otherwise by reading the file.
+     */
+    public ContentDigests digests(Set<DigestAlgorithm> algorithms) throws IOException {
+        synchronized (digestLock) {
+            if (runningDigest != null && digestedLength == channel.size()
+                    && digestAlgorithms.containsAll(algorithms)) {
+                return runningDigest.digests();
+            }
+        }
+        LOGGER.debug("Hashing {} from disk for {}", path.getFileName(), algorithms);
+        return MultiDigest.of(path, algorithms);
+    }
+
+    /**
+     * Lets a downloader pass on the digests the server advertised for the file being written.
+     */
+    public void expectDigests(ContentDigests digests) {
+        expectedDigests = digests.merge(expectedDigests);
+    }
+
+    public ContentDigests expectedDigests() {
+        return expectedDigests;
+    }
+
+    /**
+     * Starts checking blocks against {@code manifest} as they are written. Bytes already in the file are
+     * checked by {@link #corruptBlocks()}.
+     */
+    public void verifyBlocks(BlockManifest manifest) throws IOException {
+        this.blockVerifier = new BlockVerifier(manifest, channel, channel.size());
+    }
+
+    /**
+     * Verifies whatever blocks haven't been checked yet.
+     *
+     * @return the indexes of the blocks that are corrupt or missing, or an empty list if no manifest is attached
+     */
+    public List<Integer> corruptBlocks() throws IOException {
+        BlockVerifier verifier = blockVerifier;
+        return verifier == null ? List.of() : verifier.finish();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    public Path path() {
+        return path;
+    }
+
+    /**
+     * @return the number of bytes currently in the file, i.e. the offset the next write lands at.
+     */
+    public long size() throws IOException {
+        return channel.size();
+    }
+
+    /**
+     * Reads bytes already in the file without moving the write position.
+     *
+     * @return the number of bytes read, or -1 if {@code position} is at or past the end of the file
+     */
+    public int readAt(ByteBuffer destination, long position) throws IOException {
+        return channel.read(destination, position);
+    }
+
+    /**
+     * Discards everything after {@code size} bytes and continues appending from there. Truncating to nothing
+     * starts a new file, so the digests expected of the old one are forgotten too.
+     */
+    public void truncate(long size) throws IOException {
+        channel.truncate(size);
+        channel.position(size);
+        if (size == 0) {
+            expectedDigests = ContentDigests.none();
+        }
+        synchronized (digestLock) {
+            if (size == 0 && !digestAlgorithms.isEmpty()) {
+                runningDigest = new MultiDigest(digestAlgorithms);
+                digestedLength = 0;
+            } else if (size < digestedLength) {
+                runningDigest = null;
+            }
+        }
+        BlockVerifier verifier = blockVerifier;
+        if (verifier != null) {
+            verifier.truncated(size);
+        }
+    }
+
+    /**
+     * @return the validator recorded when the partial content was first requested, if any.
+     */
+    public Optional<String> storedValidator() {
+        return loadMetadata().map(properties -> properties.getProperty(VALIDATOR_KEY));
+    }
+
+    /**
+     * @return the size of the remote file when the partial content was first requested, if recorded. A validator
+     * that still matches doesn't prove much if the size moved: Last-Modified only has one-second resolution.
+     */
+    public OptionalLong storedTotalSize() {
+        String totalSize = loadMetadata().map(properties -> properties.getProperty(TOTAL_SIZE_KEY)).orElse(null);
+        if (totalSize == null) {
+            return OptionalLong.empty();
+        }
+        try {
+            return OptionalLong.of(Long.parseLong(totalSize));
+        } catch (NumberFormatException e) {
+            return OptionalLong.empty();
+        }
+    }
+
+    private Optional<Properties> loadMetadata() {
+        Path sidecar = sidecarPath(path);
+        if (!Files.exists(sidecar)) {
+            return Optional.empty();
+        }
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(sidecar)) {
+            properties.load(in);
+            return Optional.of(properties);
+        } catch (IOException e) {
+            LOGGER.warn("Could not read resume metadata {}: {}", sidecar.getFileName(), e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Records the validator and size of the representation being written, so that a later resume can be conditional.
+     * Nothing is written when the server sent no usable validator.
+     */
+    public void storeMetadata(RemoteFileMetadata metadata) throws IOException {
+        Path sidecar = sidecarPath(path);
+        Optional<String> validator = metadata.validator();
+        if (validator.isEmpty()) {
+            Files.deleteIfExists(sidecar);
+            return;
+        }
+        Properties properties = new Properties();
+        properties.setProperty(VALIDATOR_KEY, validator.get());
+        properties.setProperty(TOTAL_SIZE_KEY, Long.toString(metadata.totalSize()));
+        try (OutputStream out = Files.newOutputStream(sidecar)) {
+            properties.store(out, "Resume metadata for " + path.getFileName());
+        }
+    }
+}
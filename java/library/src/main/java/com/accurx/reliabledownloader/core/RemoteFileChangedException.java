@@ -0,0 +1,15 @@
+package com.accurx.reliabledownloader.core;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a remote file no longer matches the validator it was first fetched against, i.e. it was replaced
+ * part way through. Retrying won't help; the bytes already read belong to the old version.
+ */
+public class RemoteFileChangedException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public RemoteFileChangedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,45 @@
+package com.accurx.reliabledownloader.core;
+
+import com.accurx.reliabledownloader.util.ContentDigests;
+
+import java.util.Optional;
+
+/**
+ * What the server told us about a remote file: its size, whether it serves byte ranges,
+ * and the validators/checksums it advertised. Header values are null when absent.
+ *
+ * @param digests every checksum the server advertised ({@code Content-MD5}, {@code Digest}, {@code Repr-Digest})
+ */
+public record RemoteFileMetadata(
+        long totalSize,
+        boolean supportsRangeRequests,
+        String etag,
+        String lastModified,
+        String contentMd5,
+        ContentDigests digests
+) {
+    public RemoteFileMetadata {
+        ContentDigests fromContentMd5 = ContentDigests.fromHeaders(contentMd5, null, null);
+        digests = digests == null ? fromContentMd5 : digests.merge(fromContentMd5);
+    }
+
+    public RemoteFileMetadata(long totalSize, boolean supportsRangeRequests, String etag, String lastModified,
+                              String contentMd5) {
+        this(totalSize, supportsRangeRequests, etag, lastModified, contentMd5, null);
+    }
+
+    /**
+     * @return the validator usable in {@code If-Range}: a strong ETag if present, otherwise Last-Modified.
+     * Weak ETags are never returned because servers must not use them for range matching.
+     */
+    public Optional<String> validator() {
+        if (etag != null && !etag.startsWith("W/")) {
+            return Optional.of(etag);
+        }
+        return Optional.ofNullable(lastModified);
+    }
+
+    public Optional<String> contentMd5Value() {
+        return Optional.ofNullable(contentMd5);
+    }
+}
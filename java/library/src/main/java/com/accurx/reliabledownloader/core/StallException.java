@@ -0,0 +1,19 @@
+package com.accurx.reliabledownloader.core;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a connection was abandoned because it stayed below the configured low-speed limit for too long.
+ * Unlike other I/O errors the server was reachable, so reconnecting is usually all it takes.
+ */
+public class StallException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public StallException(String message) {
+        super(message);
+    }
+
+    public StallException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,376 @@
+package com.accurx.reliabledownloader.core;
+
+import com.accurx.reliabledownloader.util.ContentDigests;
+import com.accurx.reliabledownloader.util.DigestAlgorithm;
+import com.accurx.reliabledownloader.util.MultiDigest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Unpacks an archive while it downloads: the bytes of a {@link StreamingDownload} go straight through the
+ * decompressor and unpacker to the extracted files, so the archive itself never touches the disk.
+ * <p>
+ * Integrity is checked on the compressed stream, with the MD5 the downloader reports and the cheapest of the
+ * caller's expected digests. Since that is only known once the last byte has arrived, files are unpacked into
+ * a staging directory next to the destination and only moved into place after the whole archive checked out.
+ */
+public class StreamingArchiveExtractor {
+    private static final Logger LOGGER = LoggerFactory.getLogger(StreamingArchiveExtractor.class);
+    private static final int TAR_BLOCK_SIZE = 512;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    public enum Format {
+        ZIP, TAR, TAR_GZ;
+
+        /**
+         * @return the format implied by the extension of {@code fileName}, if it is one we can unpack
+         */
+        public static Optional<Format> fromFileName(String fileName) {
+            String name = fileName.toLowerCase(Locale.ROOT);
+            if (name.endsWith(".zip") || name.endsWith(".jar")) {
+                return Optional.of(ZIP);
+            } else if (name.endsWith(".tar.gz") || name.endsWith(".tgz")) {
+                return Optional.of(TAR_GZ);
+            } else if (name.endsWith(".tar")) {
+                return Optional.of(TAR);
+            }
+            return Optional.empty();
+        }
+    }
+
+    private final StreamingDownload download;
+    private final ContentDigests expectedDigests;
+    private final boolean cryptographicDigestRequired;
+
+    /**
+     * @param expectedDigests digests the archive is expected to have; may be empty
+     */
+    public StreamingArchiveExtractor(StreamingDownload download, ContentDigests expectedDigests,
+                                     DownloaderConfig config) {
+        this.download = download;
+        this.expectedDigests = expectedDigests;
+        this.cryptographicDigestRequired = config.isCryptographicDigestRequired();
+    }
+
+    /**
+     * Downloads and unpacks the archive into {@code directory}, replacing files that already exist there.
+     *
+     * @return the extracted files and directories
+     * @throws IOException if the transfer fails, the archive is malformed or it fails verification; nothing is
+     * written to {@code directory} then
+     */
+    public List<Path> extract(Format format, Path directory) throws IOException {
+        Optional<DigestAlgorithm> algorithm = expectedDigests.cheapest(cryptographicDigestRequired);
+        if (algorithm.isEmpty() && cryptographicDigestRequired) {
+            throw new IOException(expectedDigests.isEmpty()
+                    ? "A cryptographic digest is required, but none is available"
+                    : "A cryptographic digest is required, but only " + expectedDigests.algorithms()
+                    + " are available");
+        }
+        MultiDigest digest = new MultiDigest(
+                algorithm.map(EnumSet::of).orElseGet(() -> EnumSet.noneOf(DigestAlgorithm.class)));
+
+        Path root = directory.toAbsolutePath().normalize();
+        Path staging = Path.of(root + ".partial");
+        deleteRecursively(staging);
+        Files.createDirectories(staging);
+        List<Path> staged;
+        try (InputStream archive = new DigestingInputStream(download.open(), digest)) {
+            staged = switch (format) {
+                case ZIP -> unzip(archive, staging);
+                case TAR -> untar(archive, staging);
+                case TAR_GZ -> untar(new GZIPInputStream(archive, BUFFER_SIZE), staging);
+            };
+            // Whatever follows the last entry (central directory, padding) still counts towards the digests,
+            // and reading to the end is what makes the transfer check its MD5
+            archive.transferTo(OutputStream.nullOutputStream());
+            if (algorithm.isPresent()) {
+                verifyDigest(algorithm.get(), digest.digests());
+            }
+        } catch (IOException | RuntimeException e) {
+            deleteRecursively(staging);
+            throw e;
+        }
+
+        List<Path> extracted = new ArrayList<>();
+        for (Path file : staged) {
+            Path target = root.resolve(staging.relativize(file));
+            if (Files.isDirectory(file)) {
+                Files.createDirectories(target);
+            } else {
+                Files.createDirectories(target.getParent());
+                Files.move(file, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            extracted.add(target);
+        }
+        deleteRecursively(staging);
+        LOGGER.info("Extracted {} entries into {}.", extracted.size(), root);
+        return extracted;
+    }
+
+    private void verifyDigest(DigestAlgorithm algorithm, ContentDigests computed) throws IOException {
+        String name = algorithm.headerToken().toUpperCase(Locale.ROOT);
+        String expected = expectedDigests.get(algorithm).orElseThrow();
+        String actual = computed.get(algorithm).orElseThrow();
+        if (!expected.equals(actual)) {
+            LOGGER.error("{} verification of the archive failed! Expected {}, found {}.", name, expected, actual);
+            throw new IOException(name + " integrity check failed.");
+        }
+        LOGGER.info("{} digest of the archive verified.", name);
+    }
+
+    private static List<Path> unzip(InputStream in, Path staging) throws IOException {
+        List<Path> extracted = new ArrayList<>();
+        // ZipInputStream checks each entry's CRC as it reaches the entry's end
+        ZipInputStream zip = new ZipInputStream(in);
+        ZipEntry entry;
+        while ((entry = zip.getNextEntry()) != null) {
+            Path target = resolve(staging, entry.getName());
+            if (entry.isDirectory()) {
+                Files.createDirectories(target);
+            } else {
+                Files.createDirectories(target.getParent());
+                Files.copy(zip, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            extracted.add(target);
+        }
+        return extracted;
+    }
+
+    /**
+     * Unpacks regular files and directories of a ustar, GNU or pax tar stream; links and special files are
+     * skipped.
+     */
+    private static List<Path> untar(InputStream in, Path staging) throws IOException {
+        List<Path> extracted = new ArrayList<>();
+        byte[] header = new byte[TAR_BLOCK_SIZE];
+        String longName = null;
+        while (true) {
+            if (in.readNBytes(header, 0, TAR_BLOCK_SIZE) < TAR_BLOCK_SIZE) {
+                throw new EOFException("Archive ended inside a tar header");
+            }
+            if (isZeroBlock(header)) {
+                break; // End-of-archive marker
+            }
+            verifyHeaderChecksum(header);
+
+            long size = parseNumber(header, 124, 12);
+            byte type = header[156];
+            String name = longName != null ? longName : headerName(header);
+            longName = null;
+            switch (type) {
+                case 'L' -> { // GNU long name for the next entry
+                    longName = trimNul(new String(readEntry(in, size), StandardCharsets.UTF_8));
+                    continue;
+                }
+                case 'x' -> { // pax extended header for the next entry
+                    longName = paxPath(new String(readEntry(in, size), StandardCharsets.UTF_8));
+                    continue;
+                }
+                case '0', 0, '7' -> {
+                    Path target = resolve(staging, name);
+                    Files.createDirectories(target.getParent());
+                    try (OutputStream out = Files.newOutputStream(target)) {
+                        copy(in, out, size);
+                    }
+                    skip(in, padding(size));
+                    extracted.add(target);
+                }
+                case '5' -> {
+                    Path target = resolve(staging, name);
+                    if (!target.equals(staging)) {
+                        Files.createDirectories(target);
+                        extracted.add(target);
+                    }
+                }
+                default -> {
+                    LOGGER.debug("Skipping tar entry {} of type {}.", name, (char) type);
+                    skip(in, size + padding(size));
+                }
+            }
+        }
+        return extracted;
+    }
+
+    private static String headerName(byte[] header) {
+        String name = field(header, 0, 100);
+        boolean ustar = new String(header, 257, 5, StandardCharsets.US_ASCII).equals("ustar");
+        String prefix = ustar ? field(header, 345, 155) : "";
+        return prefix.isEmpty() ? name : prefix + "/" + name;
+    }
+
+    private static String paxPath(String records) {
+        // Each record is "<length> <key>=<value>\n"
+        for (String record : records.split("\n")) {
+            int space = record.indexOf(' ');
+            if (space > 0 && record.startsWith("path=", space + 1)) {
+                return record.substring(space + 1 + "path=".length());
+            }
+        }
+        return null;
+    }
+
+    private static void verifyHeaderChecksum(byte[] header) throws IOException {
+        long expected = parseNumber(header, 148, 8);
+        long actual = 0;
+        for (int i = 0; i < TAR_BLOCK_SIZE; i++) {
+            // The checksum field itself counts as spaces
+            actual += i >= 148 && i < 156 ? ' ' : header[i] & 0xff;
+        }
+        if (expected != actual) {
+            throw new IOException("Corrupt tar header for " + headerName(header));
+        }
+    }
+
+    /**
+     * Parses an octal field, or a base-256 one (high bit set) as GNU tar writes for sizes of 8 GB and more.
+     */
+    private static long parseNumber(byte[] header, int offset, int length) throws IOException {
+        if ((header[offset] & 0x80) != 0) {
+            long value = header[offset] & 0x7f;
+            for (int i = offset + 1; i < offset + length; i++) {
+                value = (value << 8) | (header[i] & 0xff);
+            }
+            return value;
+        }
+        String octal = field(header, offset, length).trim();
+        try {
+            return octal.isEmpty() ? 0 : Long.parseLong(octal, 8);
+        } catch (NumberFormatException e) {
+            throw new IOException("Corrupt tar header: bad number '" + octal + "'", e);
+        }
+    }
+
+    private static String field(byte[] header, int offset, int length) {
+        return trimNul(new String(header, offset, length, StandardCharsets.UTF_8));
+    }
+
+    private static String trimNul(String value) {
+        int nul = value.indexOf('\0');
+        return nul < 0 ? value : value.substring(0, nul);
+    }
+
+    private static boolean isZeroBlock(byte[] block) {
+        for (byte b : block) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long padding(long size) {
+        return (TAR_BLOCK_SIZE - size % TAR_BLOCK_SIZE) % TAR_BLOCK_SIZE;
+    }
+
+    private static byte[] readEntry(InputStream in, long size) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Tar extended header of " + size + " bytes is too large");
+        }
+        byte[] data = in.readNBytes((int) size);
+        if (data.length < size) {
+            throw new EOFException("Archive ended inside a tar extended header");
+        }
+        skip(in, padding(size));
+        return data;
+    }
+
+    private static void copy(InputStream in, OutputStream out, long size) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long remaining = size;
+        while (remaining > 0) {
+            int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (n == -1) {
+                throw new EOFException("Archive ended " + remaining + " bytes before the end of an entry");
+            }
+            out.write(buffer, 0, n);
+            remaining -= n;
+        }
+    }
+
+    private static void skip(InputStream in, long count) throws IOException {
+        copy(in, OutputStream.nullOutputStream(), count);
+    }
+
+    private static Path resolve(Path root, String name) throws IOException {
+        // Tar archives often start with "./", which is the destination itself
+        Path target = root.resolve(name).normalize();
+        if (!target.startsWith(root)) {
+            throw new IOException("Entry " + name + " would be extracted outside the destination");
+        }
+        return target;
+    }
+
+    private static void deleteRecursively(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(path)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    private static final class DigestingInputStream extends FilterInputStream {
+        private final MultiDigest digest;
+
+        DigestingInputStream(InputStream in, MultiDigest digest) {
+            super(in);
+            this.digest = digest;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                digest.update(new byte[]{(byte) b}, 0, 1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                digest.update(b, off, n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // Skipped bytes must still be digested, so read them
+            byte[] buffer = new byte[(int) Math.min(BUFFER_SIZE, Math.max(n, 0))];
+            long skipped = 0;
+            while (skipped < n) {
+                int read = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+                if (read == -1) {
+                    break;
+                }
+                skipped += read;
+            }
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,349 @@
+package com.accurx.reliabledownloader.core;
+
+import com.accurx.reliabledownloader.util.DigestAlgorithm;
+import com.accurx.reliabledownloader.util.MultiDigest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.Flow;
+
+/**
+ * Exposes a download as an {@link InputStream} or a {@link Flow.Publisher} while it is still arriving, instead of
+ * going through a temporary file.
+ * <p>
+ * The transfer runs on a background thread and may read up to {@link DownloaderConfig#getPrefetchSize()} bytes
+ * ahead of the consumer, so processing overlaps the network. Retries are the downloader's job: a
+ * {@code RetryingDownloader} resumes a failed attempt from the number of bytes already handed over. A server that
+ * can't resume is asked for the whole file again and the bytes the consumer already has are skipped. If the
+ * downloader reports an MD5 it is checked at the end, and a mismatch surfaces as an error instead of a clean end
+ * of stream.
+ */
+public class StreamingDownload {
+    private static final Logger LOGGER = LoggerFactory.getLogger(StreamingDownload.class);
+
+    private final FileDownloader downloader;
+    private final URI source;
+    private final DownloaderConfig config;
+
+    /**
+     * @param downloader does the actual transfer, including any retries; it must write the file sequentially from
+     *                   the offset it is given
+     */
+    public StreamingDownload(FileDownloader downloader, URI source, DownloaderConfig config) {
+        this.downloader = downloader;
+        this.source = source;
+        this.config = config;
+    }
+
+    /**
+     * Starts a transfer and returns its content. Closing the stream early cancels the transfer.
+     */
+    public InputStream open() {
+        return new TransferInputStream(start());
+    }
+
+    /**
+     * @return a publisher that starts a separate transfer for every subscriber and emits its content in chunks,
+     * no faster than the subscriber requests them.
+     */
+    public Flow.Publisher<ByteBuffer> publisher() {
+        return subscriber -> {
+            Objects.requireNonNull(subscriber);
+            new TransferSubscription(start(), subscriber).begin();
+        };
+    }
+
+    private Transfer start() {
+        Transfer transfer = new Transfer();
+        Thread thread = new Thread(transfer, "streaming-download");
+        thread.setDaemon(true);
+        transfer.thread = thread;
+        thread.start();
+        return transfer;
+    }
+
+    /**
+     * Runs the download and hands its bytes over through a queue bounded by the prefetch size.
+     */
+    private final class Transfer implements Runnable {
+        // Guarded by this
+        private final Deque<byte[]> chunks = new ArrayDeque<>();
+        private long queuedBytes;
+        private boolean finished;
+        private Throwable failure;
+        private boolean cancelled;
+
+        // Only used by the transfer thread
+        private final MultiDigest md5 = new MultiDigest(EnumSet.of(DigestAlgorithm.MD5));
+        private long delivered;
+        private long toSkip;
+        private Thread thread;
+
+        @Override
+        public void run() {
+            try {
+                Optional<String> expectedMd5 = download();
+                if (config.isVerifyHash() && expectedMd5.isPresent()
+                        && !expectedMd5.equals(md5.digests().get(DigestAlgorithm.MD5))) {
+                    throw new IOException("MD5 integrity check failed.");
+                }
+                finish(null);
+            } catch (Throwable e) {
+                finish(e);
+            }
+        }
+
+        private Optional<String> download() throws Exception {
+            OutputStream sink = new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    write(new byte[]{(byte) b}, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    int skipped = (int) Math.min(toSkip, len);
+                    toSkip -= skipped;
+                    if (len > skipped) {
+                        md5.update(b, off + skipped, len - skipped);
+                        put(Arrays.copyOfRange(b, off + skipped, off + len));
+                        delivered += len - skipped;
+                    }
+                }
+            };
+
+            try {
+                return downloader.downloadFile(source, sink, 0);
+            } catch (RangeNotSupportedException e) {
+                LOGGER.warn("Server can't resume {} at byte {}; downloading it again and skipping what was "
+                        + "already streamed.", source, delivered);
+                toSkip = delivered;
+                return downloader.downloadFile(source, sink, 0);
+            }
+        }
+
+        private synchronized void put(byte[] chunk) throws IOException {
+            // Always accept a chunk into an empty queue, so one larger than the window can't deadlock
+            while (!cancelled && queuedBytes > 0 && queuedBytes + chunk.length > config.getPrefetchSize()) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Streaming download interrupted");
+                }
+            }
+            if (cancelled) {
+                throw new IOException("Streaming download was cancelled by its consumer");
+            }
+            chunks.addLast(chunk);
+            queuedBytes += chunk.length;
+            notifyAll();
+        }
+
+        /**
+         * @return the next chunk, or null at the end of the content or after cancellation
+         * @throws IOException if the transfer failed
+         */
+        synchronized byte[] take() throws IOException {
+            while (chunks.isEmpty() && !finished && !cancelled) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for streamed data");
+                }
+            }
+            if (cancelled) {
+                return null;
+            }
+            byte[] chunk = chunks.pollFirst();
+            if (chunk != null) {
+                queuedBytes -= chunk.length;
+                notifyAll();
+                return chunk;
+            }
+            if (failure != null) {
+                throw failure instanceof IOException io ? io : new IOException("Streaming download failed", failure);
+            }
+            return null;
+        }
+
+        synchronized int available() {
+            return chunks.isEmpty() ? 0 : chunks.peekFirst().length;
+        }
+
+        private synchronized void finish(Throwable failure) {
+            if (failure != null && !cancelled) {
+                LOGGER.error("Streaming download of {} failed: {}", source, failure.getMessage());
+            }
+            this.failure = failure;
+            this.finished = true;
+            notifyAll();
+        }
+
+        void cancel() {
+            boolean running;
+            synchronized (this) {
+                running = !finished && !cancelled;
+                cancelled = true;
+                chunks.clear();
+                queuedBytes = 0;
+                notifyAll();
+            }
+            if (running) {
+                // Cuts a retry backoff short; a blocked write notices the cancellation by itself
+                thread.interrupt();
+            }
+        }
+    }
+
+    private static final class TransferInputStream extends InputStream {
+        private final Transfer transfer;
+        private byte[] current;
+        private int position;
+        private boolean closed;
+
+        TransferInputStream(Transfer transfer) {
+            this.transfer = transfer;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            Objects.checkFromIndexSize(off, len, b.length);
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            if (len == 0) {
+                return 0;
+            }
+            while (current == null || position == current.length) {
+                current = transfer.take();
+                position = 0;
+                if (current == null) {
+                    return -1;
+                }
+            }
+            int n = Math.min(len, current.length - position);
+            System.arraycopy(current, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return current == null ? transfer.available() : current.length - position;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                transfer.cancel();
+            }
+        }
+    }
+
+    /**
+     * Delivers the chunks of one transfer to one subscriber on a dedicated thread, as far as demand allows.
+     */
+    private static final class TransferSubscription implements Flow.Subscription, Runnable {
+        private final Transfer transfer;
+        private final Flow.Subscriber<? super ByteBuffer> subscriber;
+        // Guarded by this
+        private long demand;
+        private boolean cancelled;
+        private IllegalArgumentException invalidRequest;
+
+        TransferSubscription(Transfer transfer, Flow.Subscriber<? super ByteBuffer> subscriber) {
+            this.transfer = transfer;
+            this.subscriber = subscriber;
+        }
+
+        void begin() {
+            subscriber.onSubscribe(this);
+            Thread thread = new Thread(this, "streaming-download-delivery");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        @Override
+        public synchronized void request(long n) {
+            if (n <= 0) {
+                invalidRequest = new IllegalArgumentException("Requested " + n + " items, must be positive");
+            } else {
+                demand = demand + n < 0 ? Long.MAX_VALUE : demand + n; // Saturate instead of overflowing
+            }
+            notifyAll();
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (this) {
+                cancelled = true;
+                notifyAll();
+            }
+            transfer.cancel();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (awaitDemand()) {
+                    byte[] chunk = transfer.take();
+                    if (isCancelled()) {
+                        return;
+                    }
+                    if (chunk == null) {
+                        subscriber.onComplete();
+                        return;
+                    }
+                    subscriber.onNext(ByteBuffer.wrap(chunk));
+                }
+            } catch (Throwable e) {
+                transfer.cancel();
+                if (!isCancelled()) {
+                    subscriber.onError(e);
+                }
+            }
+        }
+
+        /**
+         * @return true once an item may be emitted, false if the subscription was cancelled
+         */
+        private synchronized boolean awaitDemand() throws InterruptedException {
+            while (demand == 0 && !cancelled && invalidRequest == null) {
+                wait();
+            }
+            if (cancelled) {
+                return false;
+            }
+            if (invalidRequest != null) {
+                throw invalidRequest; // Reported to the subscriber by run(), as the spec requires
+            }
+            demand--;
+            return true;
+        }
+
+        private synchronized boolean isCancelled() {
+            return cancelled;
+        }
+    }
+}
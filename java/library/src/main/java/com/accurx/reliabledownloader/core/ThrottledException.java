@@ -0,0 +1,54 @@
+package com.accurx.reliabledownloader.core;
+
+import com.accurx.reliabledownloader.util.RetryAfter;
+
+import java.io.IOException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Thrown when a server turns a request away because it is rate limiting or overloaded (HTTP 429 or 503). The
+ * server is up and will serve the file once the load eases, so the caller should back off for the
+ * {@link #getRetryAfter() time it asked for} and go easy on it for a while.
+ */
+public class ThrottledException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final int statusCode;
+    private final Duration retryAfter;
+
+    public ThrottledException(String message, int statusCode, Duration retryAfter) {
+        super(message);
+        this.statusCode = statusCode;
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * @return whether a response with this status code is the server throttling us
+     */
+    public static boolean isThrottlingStatus(int statusCode) {
+        return statusCode == 429 || statusCode == 503;
+    }
+
+    /**
+     * @param retryAfterHeader the response's {@code Retry-After} header, or null
+     */
+    public static ThrottledException forResponse(URI url, int statusCode, String retryAfterHeader) {
+        Duration retryAfter = RetryAfter.parse(retryAfterHeader).orElse(null);
+        return new ThrottledException("HTTP " + statusCode + " from " + url
+                + (retryAfter == null ? "" : "; retry after " + retryAfter.toMillis() + " ms"),
+                statusCode, retryAfter);
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * @return how long the server asked us to wait, if it said
+     */
+    public Optional<Duration> getRetryAfter() {
+        return Optional.ofNullable(retryAfter);
+    }
+}
@@ -0,0 +1,153 @@
+package com.accurx.reliabledownloader.impl;
+
+import com.accurx.reliabledownloader.util.ContentDigests;
+import com.accurx.reliabledownloader.util.DigestAlgorithm;
+import com.accurx.reliabledownloader.util.MultiDigest;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.net.URI;
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Decodes a response body sent with a {@code Content-Encoding}, keeping the two views of it apart: progress and
+ * the digests the server advertised in the same response refer to the encoded bytes on the wire, while the file
+ * on disk, and so the MD5 reported to the caller, is the decoded content.
+ * <p>
+ * Only requests for a whole file are ever sent with {@link #ACCEPT_ENCODING}; an offset into an encoded body
+ * says nothing about the decoded file, so range requests always get the identity encoding.
+ */
+final class ContentDecoding {
+    static final String ACCEPT_ENCODING = "gzip, deflate";
+
+    private final String encoding;
+    private final ContentDigests advertised;
+    private final MultiDigest wireDigest;
+    private final MultiDigest decodedMd5 = new MultiDigest(EnumSet.of(DigestAlgorithm.MD5));
+    private long wireBytes;
+
+    /**
+     * @param advertised the digests in the encoded response's headers
+     */
+    ContentDecoding(String encoding, ContentDigests advertised) {
+        this.encoding = encoding.trim().toLowerCase(Locale.ROOT);
+        this.advertised = advertised;
+        this.wireDigest = new MultiDigest(advertised.algorithms());
+    }
+
+    /**
+     * @return whether a response with this {@code Content-Encoding} header needs decoding
+     */
+    static boolean isEncoded(String contentEncoding) {
+        return contentEncoding != null && !contentEncoding.isBlank()
+                && !contentEncoding.trim().equalsIgnoreCase("identity");
+    }
+
+    String encoding() {
+        return encoding;
+    }
+
+    /**
+     * @return the decoded content of {@code body}
+     * @throws IOException if the encoding isn't one we asked for
+     */
+    InputStream decode(InputStream body) throws IOException {
+        InputStream wire = new TappedInputStream(body, true);
+        InputStream decoded = switch (encoding) {
+            case "gzip", "x-gzip" -> new GZIPInputStream(wire);
+            case "deflate" -> inflate(wire);
+            default -> throw new IOException("Unsupported Content-Encoding: " + encoding);
+        };
+        return new TappedInputStream(decoded, false);
+    }
+
+    /**
+     * @return encoded bytes received so far, the measure of transfer progress
+     */
+    long wireBytes() {
+        return wireBytes;
+    }
+
+    /**
+     * Checks the encoded bytes received against every digest advertised for them.
+     */
+    void verify(URI url) throws IOException {
+        ContentDigests computed = wireDigest.digests();
+        for (DigestAlgorithm algorithm : advertised.algorithms()) {
+            Optional<String> actual = computed.get(algorithm);
+            if (actual.isPresent() && !actual.equals(advertised.get(algorithm))) {
+                throw new IOException(algorithm.headerToken().toUpperCase(Locale.ROOT)
+                        + " of the " + encoding + "-encoded response from " + url + " doesn't match its header");
+            }
+        }
+    }
+
+    /**
+     * @return the MD5 of the decoded content read so far
+     */
+    Optional<String> decodedMd5() {
+        return decodedMd5.digests().get(DigestAlgorithm.MD5);
+    }
+
+    /**
+     * "deflate" is meant to be zlib-wrapped, but some servers send a raw deflate stream; the zlib header
+     * checksum tells the two apart.
+     */
+    private static InputStream inflate(InputStream in) throws IOException {
+        PushbackInputStream pushback = new PushbackInputStream(in, 2);
+        byte[] header = pushback.readNBytes(2);
+        pushback.unread(header);
+        boolean zlib = header.length == 2 && (header[0] & 0x0f) == 8
+                && (((header[0] & 0xff) << 8) | (header[1] & 0xff)) % 31 == 0;
+        return new InflaterInputStream(pushback, new Inflater(!zlib));
+    }
+
+    /**
+     * Feeds the bytes read through it to the wire digest and counter, or to the decoded MD5.
+     */
+    private final class TappedInputStream extends FilterInputStream {
+        private final boolean wire;
+
+        TappedInputStream(InputStream in, boolean wire) {
+            super(in);
+            this.wire = wire;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                if (wire) {
+                    wireDigest.update(b, off, n);
+                    wireBytes += n;
+                } else {
+                    decodedMd5.update(b, off, n);
+                }
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // Every byte has to pass the digests, so skipped ones are read
+            if (n <= 0) {
+                return 0;
+            }
+            int read = read(new byte[(int) Math.min(n, 8192)]);
+            return Math.max(read, 0);
+        }
+    }
+}
@@ -2,6 +2,11 @@ package com.accurx.reliabledownloader.impl;
 
 import com.accurx.reliabledownloader.core.AbstractDownloader;
 import com.accurx.reliabledownloader.core.FileDownloader;
+import com.accurx.reliabledownloader.core.PartialFileOutputStream;
+import com.accurx.reliabledownloader.core.RemoteFileMetadata;
+import com.accurx.reliabledownloader.core.ThrottledException;
+import com.accurx.reliabledownloader.util.ContentDigests;
+import com.accurx.reliabledownloader.util.ContentRange;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -19,9 +24,12 @@ public class HTTPClientFileDownloader extends AbstractDownloader implements File
     private static final Logger LOGGER = LoggerFactory.getLogger(HTTPClientFileDownloader.class);
     private static final String ACCEPT_RANGES_HEADER = "Accept-Ranges";
     private static final String CONTENT_MD5 = "Content-MD5";
+    private static final String CONTENT_ENCODING = "Content-Encoding";
     private static final int BUFFER_SIZE = 8192;
 
     private final Supplier<HttpClient> httpClientSupplier;
+    private final boolean headProbeEnabled;
+    private final boolean compressionEnabled;
 
     /**
      * Creates a new FileDownloaderImpl with the given HttpClient.Builder
@@ -37,7 +45,30 @@ public class HTTPClientFileDownloader extends AbstractDownloader implements File
      * @param httpClientSupplier Supplier that provides HttpClient instances
      */
     public HTTPClientFileDownloader(Supplier<HttpClient> httpClientSupplier) {
+        this(httpClientSupplier, true);
+    }
+
+    /**
+     * Creates a new FileDownloaderImpl with the given HttpClient supplier
+     * @param httpClientSupplier Supplier that provides HttpClient instances
+     * @param headProbeEnabled whether to send a HEAD request before the GET; when false the
+     *                         range support is read from the GET response instead
+     */
+    public HTTPClientFileDownloader(Supplier<HttpClient> httpClientSupplier, boolean headProbeEnabled) {
+        this(httpClientSupplier, headProbeEnabled, false);
+    }
+
+    /**
+     * Creates a new FileDownloaderImpl with the given HttpClient supplier
+     * @param httpClientSupplier Supplier that provides HttpClient instances
+     * @param headProbeEnabled whether to send a HEAD request before the GET
+     * @param compressionEnabled whether to accept a gzip or deflate encoded body and decode it on the fly
+     */
+    public HTTPClientFileDownloader(Supplier<HttpClient> httpClientSupplier, boolean headProbeEnabled,
+                                    boolean compressionEnabled) {
         this.httpClientSupplier = httpClientSupplier;
+        this.headProbeEnabled = headProbeEnabled;
+        this.compressionEnabled = compressionEnabled;
     }
 
     @Override
@@ -53,21 +84,40 @@ public class HTTPClientFileDownloader extends AbstractDownloader implements File
     @Override
     public Optional<String> performDownload(URI contentFileUrl, OutputStream destination, long startOffset) throws IOException {
         try {
-            var headResponse = sendHeadRequest(contentFileUrl);
-            validateResponse(headResponse, "HEAD");
-
-            boolean supportsRanges = headResponse.headers()
-                    .allValues(ACCEPT_RANGES_HEADER)
-                    .contains("bytes");
-
-            if (supportsRanges) {
-                LOGGER.info("Server supports range requests");
+            if (headProbeEnabled) {
+                var headResponse = sendHeadRequest(contentFileUrl);
+                validateResponse(headResponse, "HEAD");
+                logRangeSupport(headResponse);
             }
 
-            var getResponse = sendGetRequest(contentFileUrl);
+            var getResponse = sendGetRequest(contentFileUrl, destination, startOffset);
             validateResponse(getResponse, "GET");
+            if (!headProbeEnabled) {
+                logRangeSupport(getResponse);
+            }
+            if (startOffset > 0) {
+                return resumeContent(contentFileUrl, getResponse, destination, startOffset);
+            }
 
-            transferContent(getResponse, destination);
+            ContentDigests advertised = ContentDigests.fromHeaders(
+                    getResponse.headers().firstValue(CONTENT_MD5).orElse(null),
+                    getResponse.headers().firstValue("Digest").orElse(null),
+                    getResponse.headers().firstValue("Repr-Digest").orElse(null));
+            String contentEncoding = getResponse.headers().firstValue(CONTENT_ENCODING).orElse(null);
+            if (ContentDecoding.isEncoded(contentEncoding)) {
+                // The advertised digests cover the encoded bytes, so they are checked here rather than on the file
+                ContentDecoding decoding = new ContentDecoding(contentEncoding, advertised);
+                LOGGER.info("Server sent the file {}-encoded, decoding it as it arrives", decoding.encoding());
+                transferContent(getResponse, destination, decoding, 0);
+                decoding.verify(contentFileUrl);
+                return decoding.decodedMd5();
+            }
+
+            if (destination instanceof PartialFileOutputStream partialFile) {
+                partialFile.expectDigests(advertised);
+                storeValidators(partialFile, getResponse);
+            }
+            transferContent(getResponse, destination, null, 0);
 
             return getResponse.headers().firstValue(CONTENT_MD5);
         } catch (InterruptedException e) {
@@ -76,6 +126,69 @@ public class HTTPClientFileDownloader extends AbstractDownloader implements File
         }
     }
 
+    /**
+     * Appends the rest of the file after {@code startOffset} bytes already in {@code destination}. A server that
+     * ignores the range, or whose file changed since (failing {@code If-Range}), sends the whole file instead,
+     * which replaces the partial file where that's possible.
+     */
+    private Optional<String> resumeContent(URI contentFileUrl, HttpResponse<InputStream> response,
+                                           OutputStream destination, long startOffset) throws IOException {
+        if (response.statusCode() == 206) {
+            String contentRange = response.headers().firstValue("Content-Range").orElse(null);
+            long start = ContentRange.parse(contentRange)
+                    .orElseThrow(() -> new IOException("Missing Content-Range for ranged response from "
+                            + contentFileUrl))
+                    .start();
+            if (start != startOffset) {
+                throw new IOException("Expected bytes from " + startOffset + " but got " + contentRange);
+            }
+            LOGGER.info("Resuming download at byte {}", startOffset);
+            transferContent(response, destination, null, startOffset);
+            // Checksums in a 206 cover the range, not the file; the partial file checks the ones from the start
+            return Optional.empty();
+        }
+
+        if (!(destination instanceof PartialFileOutputStream partialFile)) {
+            throw new IOException("Cannot resume " + contentFileUrl + " at byte " + startOffset
+                    + ": the server sent the whole file and the destination can't be rewound");
+        }
+        LOGGER.warn("Server sent the whole file instead of resuming at byte {}; starting over", startOffset);
+        partialFile.truncate(0);
+        partialFile.expectDigests(ContentDigests.fromHeaders(
+                response.headers().firstValue(CONTENT_MD5).orElse(null),
+                response.headers().firstValue("Digest").orElse(null),
+                response.headers().firstValue("Repr-Digest").orElse(null)));
+        storeValidators(partialFile, response);
+        transferContent(response, destination, null, 0);
+        return response.headers().firstValue(CONTENT_MD5);
+    }
+
+    /**
+     * Remembers what the partial file was fetched against, so a resume can send {@code If-Range}.
+     */
+    private void storeValidators(PartialFileOutputStream partialFile, HttpResponse<?> response) {
+        try {
+            partialFile.storeMetadata(new RemoteFileMetadata(
+                    response.headers().firstValueAsLong("Content-Length").orElse(-1L),
+                    response.headers().allValues(ACCEPT_RANGES_HEADER).contains("bytes"),
+                    response.headers().firstValue("ETag").orElse(null),
+                    response.headers().firstValue("Last-Modified").orElse(null),
+                    response.headers().firstValue(CONTENT_MD5).orElse(null)));
+        } catch (IOException e) {
+            LOGGER.warn("Could not persist resume metadata: {}", e.getMessage());
+        }
+    }
+
+    private void logRangeSupport(HttpResponse<?> response) {
+        boolean supportsRanges = response.headers()
+                .allValues(ACCEPT_RANGES_HEADER)
+                .contains("bytes");
+
+        if (supportsRanges) {
+            LOGGER.info("Server supports range requests");
+        }
+    }
+
     private HttpResponse<Void> sendHeadRequest(URI contentFileUrl) throws IOException, InterruptedException {
         var request = HttpRequest.newBuilder()
                 .uri(contentFileUrl)
@@ -84,34 +197,57 @@ public class HTTPClientFileDownloader extends AbstractDownloader implements File
         return httpClientSupplier.get().send(request, HttpResponse.BodyHandlers.discarding());
     }
 
-    private HttpResponse<InputStream> sendGetRequest(URI contentFileUrl) throws IOException, InterruptedException {
+    private HttpResponse<InputStream> sendGetRequest(URI contentFileUrl, OutputStream destination, long startOffset)
+            throws IOException, InterruptedException {
         var request = HttpRequest.newBuilder()
                 .uri(contentFileUrl)
-                .GET()
-                .build();
-        return httpClientSupplier.get().send(request, HttpResponse.BodyHandlers.ofInputStream());
+                .GET();
+        if (startOffset > 0) {
+            // An offset into an encoded body means nothing, so resumed requests use the identity encoding
+            request.header("Range", "bytes=" + startOffset + "-");
+            if (destination instanceof PartialFileOutputStream partialFile) {
+                partialFile.storedValidator().ifPresent(validator -> request.header("If-Range", validator));
+            }
+        } else if (compressionEnabled) {
+            request.header("Accept-Encoding", ContentDecoding.ACCEPT_ENCODING);
+        }
+        return httpClientSupplier.get().send(request.build(), HttpResponse.BodyHandlers.ofInputStream());
     }
 
     private void validateResponse(HttpResponse<?> response, String requestType) throws IOException {
+        if (ThrottledException.isThrottlingStatus(response.statusCode())) {
+            throw ThrottledException.forResponse(response.uri(), response.statusCode(),
+                    response.headers().firstValue("Retry-After").orElse(null));
+        }
         if (response.statusCode() < 200 || response.statusCode() > 299) {
             throw new IOException(String.format("%s request failed with status code: %d",
                     requestType, response.statusCode()));
         }
     }
 
-    private void transferContent(HttpResponse<InputStream> response, OutputStream destination) throws IOException {
-        long totalBytes = response.headers()
+    /**
+     * @param decoding decodes an encoded body, or null; progress is then measured in encoded bytes, as that is
+     *                 what Content-Length counts
+     * @param startOffset bytes of the file already in {@code destination}, counted towards progress
+     */
+    private void transferContent(HttpResponse<InputStream> response, OutputStream destination,
+                                 ContentDecoding decoding, long startOffset) throws IOException {
+        long contentLength = response.headers()
                 .firstValueAsLong("Content-Length")
                 .orElse(-1L);
-        long bytesTransferred = 0;
+        long totalBytes = contentLength < 0 ? -1 : startOffset + contentLength;
+        long bytesTransferred = startOffset;
 
-        try (var inputStream = response.body()) {
+        try (var inputStream = decoding == null ? response.body() : decoding.decode(response.body())) {
             byte[] buffer = new byte[BUFFER_SIZE];
             int bytesRead;
             while ((bytesRead = inputStream.read(buffer)) != -1) {
                 destination.write(buffer, 0, bytesRead);
                 bytesTransferred += bytesRead;
-                notifyProgress(bytesTransferred, totalBytes);
+                notifyProgress(decoding == null ? bytesTransferred : decoding.wireBytes(), totalBytes);
+            }
+            if (decoding != null) {
+                notifyProgress(decoding.wireBytes(), totalBytes); // The trailer is read after the last content
             }
             destination.flush();
             notifyComplete();
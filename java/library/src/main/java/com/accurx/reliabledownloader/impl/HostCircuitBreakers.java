@@ -0,0 +1,155 @@
+package com.accurx.reliabledownloader.impl;
+
+import com.accurx.reliabledownloader.core.CircuitOpenException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.net.http.HttpConnectTimeoutException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * One circuit breaker per host. After {@code failureThreshold} attempts in a row fail because the host couldn't be
+ * reached, its circuit opens and downloads from it fail fast with a {@link CircuitOpenException} instead of waiting
+ * out timeouts. Once {@code openDuration} has passed a single trial attempt is let through: if it succeeds the
+ * circuit closes again, if it fails the circuit stays open for another period.
+ * <p>
+ * Only connection-level failures (unreachable, refused, timed out) count; an HTTP error or a truncated body shows
+ * the host is up.
+ */
+public class HostCircuitBreakers {
+    private static final Logger LOGGER = LoggerFactory.getLogger(HostCircuitBreakers.class);
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final int failureThreshold;
+    private final long openNanos;
+    private final LongSupplier nanoClock;
+    private final Map<String, Breaker> breakers = new ConcurrentHashMap<>();
+
+    public HostCircuitBreakers(int failureThreshold, Duration openDuration) {
+        this(failureThreshold, openDuration, System::nanoTime);
+    }
+
+    HostCircuitBreakers(int failureThreshold, Duration openDuration, LongSupplier nanoClock) {
+        if (failureThreshold <= 0 || openDuration.isNegative() || openDuration.isZero()) {
+            throw new IllegalArgumentException("Failure threshold and open duration must be positive");
+        }
+        this.failureThreshold = failureThreshold;
+        this.openNanos = openDuration.toNanos();
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * @throws CircuitOpenException if the host's circuit is open, or half open with its trial already under way
+     */
+    public void checkAllowed(String host) throws CircuitOpenException {
+        Breaker breaker = breakers.get(host);
+        if (breaker != null) {
+            breaker.checkAllowed(host);
+        }
+    }
+
+    public void recordSuccess(String host) {
+        Breaker breaker = breakers.get(host);
+        if (breaker != null) {
+            breaker.recordSuccess(host);
+        }
+    }
+
+    public void recordFailure(String host, IOException e) {
+        if (isConnectionFailure(e)) {
+            breakers.computeIfAbsent(host, h -> new Breaker()).recordFailure(host);
+        } else {
+            // The host answered, so it is up
+            recordSuccess(host);
+        }
+    }
+
+    /**
+     * Ends a trial attempt without counting it either way, for an attempt that failed for a reason that says
+     * nothing about whether the host is reachable. The circuit stays half open and lets the next attempt through.
+     */
+    public void releaseTrial(String host) {
+        Breaker breaker = breakers.get(host);
+        if (breaker != null) {
+            breaker.releaseTrial();
+        }
+    }
+
+    public State state(String host) {
+        Breaker breaker = breakers.get(host);
+        return breaker == null ? State.CLOSED : breaker.state();
+    }
+
+    static boolean isConnectionFailure(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof ConnectException || t instanceof NoRouteToHostException
+                    || t instanceof UnknownHostException || t instanceof SocketTimeoutException
+                    || t instanceof HttpConnectTimeoutException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private class Breaker {
+        private int consecutiveFailures;
+        private long openedAt;
+        private boolean open;
+        private boolean trialInFlight;
+
+        synchronized void checkAllowed(String host) throws CircuitOpenException {
+            if (!open) {
+                return;
+            }
+            long openFor = nanoClock.getAsLong() - openedAt;
+            if (openFor < openNanos || trialInFlight) {
+                long retryInMillis = Math.max(0, (openNanos - openFor) / 1_000_000);
+                throw new CircuitOpenException("Circuit for " + host + " is open after " + consecutiveFailures
+                        + " connection failures; failing fast" + (trialInFlight ? "" : " for another " + retryInMillis + " ms"));
+            }
+            LOGGER.info("Letting a trial request through to {}", host);
+            trialInFlight = true;
+        }
+
+        synchronized void recordSuccess(String host) {
+            if (open) {
+                LOGGER.info("Closing circuit for {}: it is reachable again", host);
+            }
+            open = false;
+            trialInFlight = false;
+            consecutiveFailures = 0;
+        }
+
+        synchronized void recordFailure(String host) {
+            consecutiveFailures++;
+            if (trialInFlight || (!open && consecutiveFailures >= failureThreshold)) {
+                if (!open) {
+                    LOGGER.warn("Opening circuit for {} after {} connection failures in a row", host, consecutiveFailures);
+                }
+                open = true;
+                trialInFlight = false;
+                openedAt = nanoClock.getAsLong();
+            }
+        }
+
+        synchronized void releaseTrial() {
+            trialInFlight = false;
+        }
+
+        synchronized State state() {
+            if (!open) {
+                return State.CLOSED;
+            }
+            return trialInFlight || nanoClock.getAsLong() - openedAt < openNanos ? State.OPEN : State.HALF_OPEN;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.accurx.reliabledownloader.impl;
+
+import com.accurx.reliabledownloader.core.DownloaderConfig;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * What past downloads taught us about a host. Throughput and failure rate are moving averages; the chunk size and
+ * connection count are the best-performing combination seen so far, with {@code bestThroughput} its score. Every
+ * figure loses weight with age, halving every half-life, so what a host did last month gives way to what it does
+ * today.
+ *
+ * @param rangeSupport whether the host's last file supported ranges, or null if we haven't found out
+ * @param samples      the number of download attempts observed
+ */
+public record HostProfile(String host, double throughput, double failureRate, Boolean rangeSupport, int chunkSize,
+                          int connections, double bestThroughput, int samples, Instant updatedAt) {
+
+    /**
+     * One download attempt to the host.
+     *
+     * @param bytes        what the attempt wrote
+     * @param failed       whether it ended in an error
+     * @param chunkSize    the chunk size it ran with
+     * @param connections  the parallel connections it ran with
+     * @param rangeSupport whether the file supported ranges, or null if the attempt didn't find out
+     */
+    public record Observation(long bytes, Duration elapsed, boolean failed, int chunkSize, int connections,
+                              Boolean rangeSupport) {
+        double throughput() {
+            return elapsed.isZero() ? 0 : bytes * 1e9 / elapsed.toNanos();
+        }
+    }
+
+    // The weight a new observation gets against the history, before the history's own decay
+    private static final double LEARNING_RATE = 0.3;
+    // Smaller transfers are mostly request latency and say little about throughput
+    private static final long MIN_THROUGHPUT_SAMPLE_BYTES = 256 * 1024;
+    // Every few downloads try a neighbouring setting, so the optimum can move when the host changes
+    private static final int EXPLORE_EVERY = 4;
+    // Failing this often, fewer and smaller requests lose less to each failure
+    private static final double HIGH_FAILURE_RATE = 0.25;
+    private static final int MIN_CHUNK_SIZE = 16 * 1024;
+    private static final int MAX_CHUNK_SIZE = 16 << 20;
+    private static final int MAX_CONNECTIONS = 16;
+
+    static HostProfile first(String host, Observation observation, Instant now) {
+        double throughput = usableThroughput(observation);
+        return new HostProfile(host, throughput, observation.failed() ? 1 : 0, observation.rangeSupport(),
+                observation.chunkSize(), observation.connections(), throughput, 1, now);
+    }
+
+    /**
+     * @return the profile with the observation folded in
+     */
+    HostProfile observe(Observation observation, Instant now, Duration halfLife) {
+        double decay = decay(now, halfLife);
+        double keep = (1 - LEARNING_RATE) * decay;
+        double failures = blend(failureRate, observation.failed() ? 1 : 0, keep);
+        Boolean ranges = observation.rangeSupport() != null ? observation.rangeSupport() : rangeSupport;
+        double best = bestThroughput * decay;
+        double observed = usableThroughput(observation);
+        if (observed == 0) {
+            return new HostProfile(host, throughput, failures, ranges, chunkSize, connections, best, samples + 1, now);
+        }
+
+        double averaged = throughput == 0 ? observed : blend(throughput, observed, keep);
+        int bestChunkSize = chunkSize;
+        int bestConnections = connections;
+        if (observation.chunkSize() == chunkSize && observation.connections() == connections) {
+            // Re-measuring the best setting moves its score, so a newcomer can overtake it if it got worse
+            best = best == 0 ? observed : blend(best, observed, keep);
+        } else if (observed > best) {
+            bestChunkSize = observation.chunkSize();
+            bestConnections = observation.connections();
+            best = observed;
+        }
+        return new HostProfile(host, averaged, failures, ranges, bestChunkSize, bestConnections, best, samples + 1,
+                now);
+    }
+
+    /**
+     * @return whether a successful download has given us a setting worth starting from
+     */
+    public boolean hasOptimum() {
+        return bestThroughput > 0;
+    }
+
+    /**
+     * Starts from the best setting seen. A host that fails often gets half the connections and chunk size; a
+     * healthy one gets a neighbouring setting every few downloads, stepping connections and chunk size up and
+     * down in turn, which is how the optimum is found and followed.
+     */
+    public DownloaderConfig.Builder configure(DownloaderConfig.Builder builder) {
+        if (Boolean.FALSE.equals(rangeSupport)) {
+            builder.parallelConnections(1);
+        }
+        if (!hasOptimum()) {
+            return builder;
+        }
+        int chunk = chunkSize;
+        int parallel = connections;
+        if (failureRate > HIGH_FAILURE_RATE) {
+            chunk /= 2;
+            parallel /= 2;
+        } else if (samples % EXPLORE_EVERY == 0) {
+            switch ((samples / EXPLORE_EVERY) % 4) {
+                case 0 -> parallel *= 2;
+                case 1 -> chunk *= 2;
+                case 2 -> parallel /= 2;
+                default -> chunk /= 2;
+            }
+        }
+        builder.chunkSize(Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, chunk)));
+        if (!Boolean.FALSE.equals(rangeSupport)) {
+            builder.parallelConnections(Math.max(1, Math.min(MAX_CONNECTIONS, parallel)));
+        }
+        return builder;
+    }
+
+    /**
+     * @return whether the profile has lost so much weight that it's no better than knowing nothing
+     */
+    boolean isForgotten(Instant now, Duration halfLife) {
+        return decay(now, halfLife) < 1.0 / 256;
+    }
+
+    private double decay(Instant now, Duration halfLife) {
+        double age = Math.max(0, Duration.between(updatedAt, now).toMillis());
+        return Math.pow(0.5, age / halfLife.toMillis());
+    }
+
+    private static double blend(double previous, double observed, double keep) {
+        return previous * keep + observed * (1 - keep);
+    }
+
+    private static double usableThroughput(Observation observation) {
+        return observation.failed() || observation.bytes() < MIN_THROUGHPUT_SAMPLE_BYTES
+                ? 0
+                : observation.throughput();
+    }
+}
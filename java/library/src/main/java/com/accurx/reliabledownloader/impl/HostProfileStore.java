@@ -0,0 +1,175 @@
+package com.accurx.reliabledownloader.impl;
+
+import com.accurx.reliabledownloader.core.DownloaderConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-host {@link HostProfile}s, learned from every download and kept in a file so the next run starts where
+ * this one left off. Hosts are keyed by authority, as for {@link HostThrottle}. Writes go through to the file
+ * like the {@link MetadataCache}'s; when several processes share it, the last to finish a download wins.
+ */
+public class HostProfileStore {
+    private static final Logger LOGGER = LoggerFactory.getLogger(HostProfileStore.class);
+    // A fleet talks to a handful of CDNs; this many is plenty and keeps the file small
+    private static final int MAX_HOSTS = 256;
+
+    private final Path persistenceFile;
+    private final Duration halfLife;
+    private final Clock clock;
+    private final Map<String, HostProfile> profiles = new ConcurrentHashMap<>();
+
+    public HostProfileStore(Path persistenceFile, Duration halfLife) {
+        this(persistenceFile, halfLife, Clock.systemUTC());
+    }
+
+    HostProfileStore(Path persistenceFile, Duration halfLife, Clock clock) {
+        this.persistenceFile = persistenceFile;
+        this.halfLife = halfLife;
+        this.clock = clock;
+        if (persistenceFile != null) {
+            load();
+        }
+    }
+
+    public Optional<HostProfile> get(String host) {
+        return Optional.ofNullable(profiles.get(host));
+    }
+
+    public void record(String host, HostProfile.Observation observation) {
+        Instant now = clock.instant();
+        profiles.merge(host, HostProfile.first(host, observation, now),
+                (current, first) -> current.observe(observation, now, halfLife));
+        persist();
+    }
+
+    /**
+     * @return the config, started from what we learned about the source's host, or unchanged if we know nothing
+     */
+    public DownloaderConfig tune(URI source, DownloaderConfig config) {
+        HostProfile profile = profiles.get(HostThrottle.hostOf(source));
+        if (profile == null) {
+            return config;
+        }
+        DownloaderConfig tuned = profile.configure(config.toBuilder()).build();
+        LOGGER.info("Starting {} from its learned profile: chunk size {}, {} connection(s) ({} B/s, {}% failed)",
+                profile.host(), tuned.getChunkSize(), tuned.getParallelConnections(), (long) profile.throughput(),
+                Math.round(profile.failureRate() * 100));
+        return tuned;
+    }
+
+    private void load() {
+        if (!Files.exists(persistenceFile)) {
+            return;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(persistenceFile)) {
+            properties.load(in);
+        } catch (IOException e) {
+            LOGGER.warn("Could not load host profiles from {}: {}", persistenceFile, e.getMessage());
+            return;
+        }
+
+        Instant now = clock.instant();
+        for (int i = 0; properties.containsKey(key(i, "host")); i++) {
+            try {
+                String ranges = properties.getProperty(key(i, "rangeSupport"));
+                HostProfile profile = new HostProfile(
+                        properties.getProperty(key(i, "host")),
+                        Double.parseDouble(properties.getProperty(key(i, "throughput"))),
+                        Double.parseDouble(properties.getProperty(key(i, "failureRate"))),
+                        ranges == null ? null : Boolean.valueOf(ranges),
+                        Integer.parseInt(properties.getProperty(key(i, "chunkSize"))),
+                        Integer.parseInt(properties.getProperty(key(i, "connections"))),
+                        Double.parseDouble(properties.getProperty(key(i, "bestThroughput"))),
+                        Integer.parseInt(properties.getProperty(key(i, "samples"))),
+                        Instant.ofEpochMilli(Long.parseLong(properties.getProperty(key(i, "updatedAt")))));
+                if (!profile.isForgotten(now, halfLife)) {
+                    profiles.put(profile.host(), profile);
+                }
+            } catch (RuntimeException e) {
+                LOGGER.warn("Skipping malformed host profile {}: {}", i, e.getMessage());
+            }
+        }
+        LOGGER.debug("Loaded {} host profiles from {}", profiles.size(), persistenceFile);
+    }
+
+    private synchronized void persist() {
+        if (persistenceFile == null) {
+            return;
+        }
+        // The most recently used hosts, if there are too many to keep
+        List<HostProfile> kept = profiles.values().stream()
+                .sorted(Comparator.comparing(HostProfile::updatedAt).reversed())
+                .limit(MAX_HOSTS)
+                .toList();
+        if (kept.size() < profiles.size()) {
+            profiles.values().retainAll(kept);
+        }
+
+        Properties properties = new Properties();
+        int i = 0;
+        for (HostProfile profile : kept) {
+            properties.setProperty(key(i, "host"), profile.host());
+            properties.setProperty(key(i, "throughput"), Double.toString(profile.throughput()));
+            properties.setProperty(key(i, "failureRate"), Double.toString(profile.failureRate()));
+            if (profile.rangeSupport() != null) {
+                properties.setProperty(key(i, "rangeSupport"), profile.rangeSupport().toString());
+            }
+            properties.setProperty(key(i, "chunkSize"), Integer.toString(profile.chunkSize()));
+            properties.setProperty(key(i, "connections"), Integer.toString(profile.connections()));
+            properties.setProperty(key(i, "bestThroughput"), Double.toString(profile.bestThroughput()));
+            properties.setProperty(key(i, "samples"), Integer.toString(profile.samples()));
+            properties.setProperty(key(i, "updatedAt"), Long.toString(profile.updatedAt().toEpochMilli()));
+            i++;
+        }
+
+        Path tempFile = null;
+        try {
+            Path parent = persistenceFile.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            // Write to a sibling of our own and move it into place, so a crash never leaves a half-written file
+            // and processes sharing the file never write into each other's temporary copy
+            tempFile = Files.createTempFile(parent, persistenceFile.getFileName().toString(), ".tmp");
+            try (OutputStream out = Files.newOutputStream(tempFile)) {
+                properties.store(out, "Reliable downloader host profiles");
+            }
+            try {
+                Files.move(tempFile, persistenceFile, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, persistenceFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Could not persist host profiles to {}: {}", persistenceFile, e.getMessage());
+            if (tempFile != null) {
+                try {
+                    Files.deleteIfExists(tempFile);
+                } catch (IOException ignored) {
+                    // Only a stray temporary file is left behind
+                }
+            }
+        }
+    }
+
+    private static String key(int index, String field) {
+        return "host." + index + "." + field;
+    }
+}
@@ -0,0 +1,72 @@
+package com.accurx.reliabledownloader.impl;
+
+import com.accurx.reliabledownloader.core.FileDownloader;
+import com.accurx.reliabledownloader.core.PartialFileOutputStream;
+import com.accurx.reliabledownloader.core.RemoteFileMetadata;
+import com.accurx.reliabledownloader.util.DownloadProgressObserver;
+import com.google.common.io.CountingOutputStream;
+
+import java.io.FileNotFoundException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Records every download attempt it passes on in a {@link HostProfileStore}: how fast it went with the delegate's
+ * chunk size and connection count, whether it failed, and whether the file supported ranges. It sits inside the
+ * {@link RetryingDownloader}, so each retry is an observation of its own.
+ */
+public class HostProfilingDownloader implements FileDownloader {
+    private final FileDownloader delegate;
+    private final HostProfileStore profiles;
+    private final int chunkSize;
+    private final int connections;
+    private final MetadataCache metadataCache;
+
+    /**
+     * @param chunkSize     the chunk size the delegate downloads with
+     * @param connections   how many connections the delegate downloads over at once
+     * @param metadataCache where the delegate leaves what it probed, for range support; may be null
+     */
+    public HostProfilingDownloader(FileDownloader delegate, HostProfileStore profiles, int chunkSize,
+                                   int connections, MetadataCache metadataCache) {
+        this.delegate = delegate;
+        this.profiles = profiles;
+        this.chunkSize = chunkSize;
+        this.connections = connections;
+        this.metadataCache = metadataCache;
+    }
+
+    @Override
+    public Optional<String> downloadFile(URI source, OutputStream destination, long startOffset) throws Exception {
+        // A partial file knows its own length; for any other stream, count what the attempt writes
+        PartialFileOutputStream partialFile = destination instanceof PartialFileOutputStream partial ? partial : null;
+        CountingOutputStream counted = partialFile == null ? new CountingOutputStream(destination) : null;
+        long sizeBefore = partialFile == null ? 0 : partialFile.size();
+        long started = System.nanoTime();
+        Exception failure = null;
+        try {
+            return delegate.downloadFile(source, partialFile == null ? counted : destination, startOffset);
+        } catch (Exception e) {
+            failure = e;
+            throw e;
+        } finally {
+            // A missing file says nothing about how the host performs
+            if (!(failure instanceof FileNotFoundException)) {
+                long bytes = partialFile == null ? counted.getCount() : partialFile.size() - sizeBefore;
+                Boolean rangeSupport = metadataCache == null
+                        ? null
+                        : metadataCache.get(source).map(RemoteFileMetadata::supportsRangeRequests).orElse(null);
+                profiles.record(HostThrottle.hostOf(source), new HostProfile.Observation(bytes,
+                        Duration.ofNanos(System.nanoTime() - started), failure != null, chunkSize, connections,
+                        rangeSupport));
+            }
+        }
+    }
+
+    @Override
+    public void addObserver(DownloadProgressObserver observer) {
+        delegate.addObserver(observer);
+    }
+}
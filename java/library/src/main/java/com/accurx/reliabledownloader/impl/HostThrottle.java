@@ -0,0 +1,121 @@
+package com.accurx.reliabledownloader.impl;
+
+import com.accurx.reliabledownloader.core.ThrottledException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Per-host reaction to throttling. Each {@link ThrottledException} from a host halves the number of connections
+ * downloads may open to it and pauses new requests until its {@code Retry-After} has passed. Once the host has
+ * gone {@code recoveryStep} without throttling us again, the limit doubles back, one step at a time, so throughput
+ * returns as soon as the server takes it.
+ * <p>
+ * Hosts are keyed by authority, as for {@link HostCircuitBreakers}. All downloaders share one {@link #global()}
+ * instance, since a CDN's rate limit covers every connection this process makes to it.
+ */
+public class HostThrottle {
+    private static final Logger LOGGER = LoggerFactory.getLogger(HostThrottle.class);
+    // Halving more often than this leaves a single connection for any sensible connection count
+    private static final int MAX_REDUCTIONS = 6;
+    private static final HostThrottle GLOBAL = new HostThrottle(Duration.ofSeconds(1), Duration.ofSeconds(10));
+
+    private final long defaultPauseNanos;
+    private final long recoveryStepNanos;
+    private final LongSupplier nanoClock;
+    private final Map<String, Throttle> throttles = new ConcurrentHashMap<>();
+
+    /**
+     * @param defaultPause how long to hold off when the server didn't send a {@code Retry-After}
+     * @param recoveryStep how long a host has to go without throttling us for each doubling of its limit
+     */
+    public HostThrottle(Duration defaultPause, Duration recoveryStep) {
+        this(defaultPause, recoveryStep, System::nanoTime);
+    }
+
+    HostThrottle(Duration defaultPause, Duration recoveryStep, LongSupplier nanoClock) {
+        if (defaultPause.isNegative() || recoveryStep.isNegative() || recoveryStep.isZero()) {
+            throw new IllegalArgumentException("Pause cannot be negative and recovery step must be positive");
+        }
+        this.defaultPauseNanos = defaultPause.toNanos();
+        this.recoveryStepNanos = recoveryStep.toNanos();
+        this.nanoClock = nanoClock;
+    }
+
+    public static HostThrottle global() {
+        return GLOBAL;
+    }
+
+    public static String hostOf(URI uri) {
+        return uri.getAuthority() == null ? "" : uri.getAuthority();
+    }
+
+    /**
+     * Records a throttled response. Only the first one during a pause lowers the limit: connections refused
+     * together, or the same exception seen again by a wrapping downloader, are one signal from the server.
+     */
+    public void recordThrottled(String host, ThrottledException e) {
+        long now = nanoClock.getAsLong();
+        long pause = e.getRetryAfter().map(Duration::toNanos).orElse(defaultPauseNanos);
+        Throttle previous = throttles.get(host);
+        Throttle throttle = throttles.compute(host, (h, current) -> {
+            if (current != null && now < current.resumeAt) {
+                return new Throttle(current.reductions, current.throttledAt, Math.max(now + pause, current.resumeAt));
+            }
+            int reductions = current == null ? 0 : current.reductionsAt(now, recoveryStepNanos);
+            return new Throttle(Math.min(reductions + 1, MAX_REDUCTIONS), now, now + pause);
+        });
+        if (previous != null && throttle.reductions == previous.reductions) {
+            return;
+        }
+        LOGGER.warn("{} is throttling us (HTTP {}); allowing 1/{} of the usual connections and pausing {} ms",
+                host, e.getStatusCode(), 1 << throttle.reductions, Duration.ofNanos(pause).toMillis());
+    }
+
+    /**
+     * @return how many connections may be open to the host, given how many the configuration asks for
+     */
+    public int allowedConnections(String host, int configured) {
+        Throttle throttle = throttles.get(host);
+        if (throttle == null) {
+            return configured;
+        }
+        int reductions = throttle.reductionsAt(nanoClock.getAsLong(), recoveryStepNanos);
+        if (reductions == 0) {
+            throttles.remove(host, throttle);
+        }
+        return Math.max(1, configured >> reductions);
+    }
+
+    /**
+     * @return whether the host has throttled us recently enough that its limit hasn't fully recovered
+     */
+    public boolean isThrottled(String host) {
+        return allowedConnections(host, Integer.MAX_VALUE) < Integer.MAX_VALUE;
+    }
+
+    /**
+     * @return how much longer to wait before sending the host another request
+     */
+    public Duration pauseRemaining(String host) {
+        Throttle throttle = throttles.get(host);
+        return throttle == null
+                ? Duration.ZERO
+                : Duration.ofNanos(Math.max(0, throttle.resumeAt - nanoClock.getAsLong()));
+    }
+
+    private record Throttle(int reductions, long throttledAt, long resumeAt) {
+        /**
+         * Recovery starts once the pause is over, so a long Retry-After doesn't count as time without throttling.
+         */
+        int reductionsAt(long now, long recoveryStepNanos) {
+            long quiet = now - Math.max(throttledAt, resumeAt);
+            return quiet <= 0 ? reductions : (int) Math.max(0, reductions - quiet / recoveryStepNanos);
+        }
+    }
+}
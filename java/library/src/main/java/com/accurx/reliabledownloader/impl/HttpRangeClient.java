@@ -0,0 +1,203 @@
+package com.accurx.reliabledownloader.impl;
+
+import com.accurx.reliabledownloader.core.DownloaderConfig;
+import com.accurx.reliabledownloader.core.RemoteFileChangedException;
+import com.accurx.reliabledownloader.core.RemoteFileMetadata;
+import com.accurx.reliabledownloader.core.ThrottledException;
+import com.accurx.reliabledownloader.util.ContentDigests;
+import com.accurx.reliabledownloader.util.ContentRange;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URISyntaxException;
+
+/**
+ * Small helper around {@link HttpURLConnection} for the range requests the downloaders in this package share:
+ * opening connections with the configured timeouts, probing a file with a one-byte ranged GET,
+ * and turning response headers into {@link RemoteFileMetadata}.
+ */
+public class HttpRangeClient {
+    private final DownloaderConfig config;
+
+    public HttpRangeClient(DownloaderConfig config) {
+        this.config = config;
+    }
+
+    public HttpURLConnection open(URI url) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) url.toURL().openConnection();
+        conn.setConnectTimeout((int) config.getConnectTimeout().toMillis());
+        conn.setReadTimeout((int) config.getReadTimeout().toMillis());
+        return conn;
+    }
+
+    /**
+     * Opens a GET for the inclusive byte range {@code from}-{@code to}.
+     */
+    public HttpURLConnection openRange(URI url, long from, long to) throws IOException {
+        HttpURLConnection conn = open(url);
+        conn.setRequestProperty("Range", String.format("bytes=%d-%d", from, to));
+        return conn;
+    }
+
+    /**
+     * Fetches exactly {@code length} bytes starting at {@code from}.
+     *
+     * @throws IOException if the server doesn't answer with that range
+     */
+    public byte[] fetchRange(URI url, long from, int length) throws IOException {
+        return fetchRange(url, from, length, null);
+    }
+
+    /**
+     * Fetches like {@link #fetchRange(URI, long, int)}, but only from the version of the file {@code expected}
+     * describes: the request carries its validator in {@code If-Range}, and the response has to agree with it.
+     *
+     * @param expected what the file was probed as; null to accept whatever the server has now
+     * @throws RemoteFileChangedException if the file was replaced since it was probed
+     */
+    public byte[] fetchRange(URI url, long from, int length, RemoteFileMetadata expected) throws IOException {
+        HttpURLConnection conn = null;
+        try {
+            conn = openRange(url, from, from + length - 1);
+            String validator = expected == null ? null : expected.validator().orElse(null);
+            if (validator != null) {
+                conn.setRequestProperty("If-Range", validator);
+            }
+            checkResponse(url, conn);
+            if (conn.getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+                if (validator != null) {
+                    throw new RemoteFileChangedException(url + " changed since it was opened: If-Range "
+                            + validator + " no longer matches");
+                }
+                throw new IOException("Server ignored the range request for bytes " + from + "-"
+                        + (from + length - 1) + " of " + url + " (HTTP " + conn.getResponseCode() + ")");
+            }
+            ContentRange contentRange = ContentRange.parse(conn.getHeaderField("Content-Range"))
+                    .orElseThrow(() -> new IOException("Missing Content-Range for ranged response from " + url));
+            if (contentRange.start() != from) {
+                throw new IOException("Expected bytes from " + from + " but got " + conn.getHeaderField("Content-Range"));
+            }
+            if (expected != null) {
+                checkUnchanged(url, expected, conn, contentRange);
+            }
+            try (InputStream in = conn.getInputStream()) {
+                byte[] data = in.readNBytes(length);
+                if (data.length < length) {
+                    throw new IOException("Connection closed after " + data.length + " of " + length
+                            + " bytes for " + url);
+                }
+                return data;
+            }
+        } finally {
+            if (conn != null) {
+                conn.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Catches a replaced file on servers that ignore {@code If-Range} or have no validator to match it against.
+     */
+    private static void checkUnchanged(URI url, RemoteFileMetadata expected, HttpURLConnection conn,
+                                       ContentRange contentRange) throws RemoteFileChangedException {
+        String etag = conn.getHeaderField("ETag");
+        String lastModified = conn.getHeaderField("Last-Modified");
+        if (expected.etag() != null && etag != null && !expected.etag().equals(etag)) {
+            throw new RemoteFileChangedException(url + " changed since it was opened: ETag was "
+                    + expected.etag() + ", now " + etag);
+        }
+        if (expected.lastModified() != null && lastModified != null && !expected.lastModified().equals(lastModified)) {
+            throw new RemoteFileChangedException(url + " changed since it was opened: Last-Modified was "
+                    + expected.lastModified() + ", now " + lastModified);
+        }
+        if (contentRange.isTotalKnown() && expected.totalSize() >= 0 && contentRange.total() != expected.totalSize()) {
+            throw new RemoteFileChangedException(url + " changed since it was opened: size was "
+                    + expected.totalSize() + ", now " + contentRange.total());
+        }
+    }
+
+    /**
+     * A probed file and where it actually is, after redirects.
+     */
+    public record ResolvedFile(URI location, RemoteFileMetadata metadata) {
+    }
+
+    /**
+     * Learns size, range support and validators of a file with a one-byte ranged GET, which costs the same
+     * round trip as a HEAD but also proves the server actually honours ranges.
+     */
+    public RemoteFileMetadata probe(URI url) throws IOException {
+        return resolve(url).metadata();
+    }
+
+    /**
+     * Probes the file like {@link #probe}, also reporting the URI any redirects led to, so later requests can
+     * go there directly.
+     */
+    public ResolvedFile resolve(URI url) throws IOException {
+        HttpURLConnection conn = null;
+        try {
+            conn = openRange(url, 0, 0);
+            int responseCode = conn.getResponseCode();
+            URI location = locationOf(url, conn);
+            if (responseCode == 416) {
+                // The only file for which bytes=0-0 is unsatisfiable is an empty one
+                return new ResolvedFile(location, readMetadata(conn, 0, true));
+            }
+            checkResponse(url, conn);
+            if (responseCode == HttpURLConnection.HTTP_PARTIAL) {
+                ContentRange contentRange = ContentRange.parse(conn.getHeaderField("Content-Range"))
+                        .filter(ContentRange::isTotalKnown)
+                        .orElseThrow(() -> new IOException("Could not determine file size for " + url));
+                return new ResolvedFile(location, readMetadata(conn, contentRange.total(), config.isResumeSupport()));
+            }
+            return new ResolvedFile(location, readMetadata(conn, conn.getContentLengthLong(), false));
+        } finally {
+            if (conn != null) {
+                conn.disconnect();
+            }
+        }
+    }
+
+    private static URI locationOf(URI requested, HttpURLConnection conn) {
+        try {
+            return conn.getURL().toURI();
+        } catch (URISyntaxException e) {
+            return requested;
+        }
+    }
+
+    /**
+     * Throws the exception the downloaders use for an unsuccessful status code.
+     */
+    public static void checkResponse(URI url, HttpURLConnection conn) throws IOException {
+        int responseCode = conn.getResponseCode();
+        if (responseCode < HttpURLConnection.HTTP_BAD_REQUEST) {
+            return;
+        }
+        if (responseCode == HttpURLConnection.HTTP_NOT_FOUND) {
+            throw new FileNotFoundException("Resource not found: " + url);
+        } else if (responseCode == HttpURLConnection.HTTP_FORBIDDEN) {
+            throw new SecurityException("Access forbidden: " + url);
+        } else if (ThrottledException.isThrottlingStatus(responseCode)) {
+            throw ThrottledException.forResponse(url, responseCode, conn.getHeaderField("Retry-After"));
+        }
+        throw new IOException("HTTP error: " + responseCode + " " + conn.getResponseMessage() + " for " + url);
+    }
+
+    public static RemoteFileMetadata readMetadata(HttpURLConnection conn, long totalSize, boolean supportsRangeRequests) {
+        return new RemoteFileMetadata(
+                totalSize,
+                supportsRangeRequests,
+                conn.getHeaderField("ETag"),
+                conn.getHeaderField("Last-Modified"),
+                conn.getHeaderField("Content-MD5"),
+                ContentDigests.fromHeaders(
+                        conn.getHeaderField("Content-MD5"),
+                        conn.getHeaderField("Digest"),
+                        conn.getHeaderField("Repr-Digest")));
+    }
+}
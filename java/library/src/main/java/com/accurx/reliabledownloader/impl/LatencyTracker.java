@@ -0,0 +1,54 @@
+package com.accurx.reliabledownloader.impl;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.OptionalLong;
+
+/**
+ * Keeps the most recent request durations of a download and answers percentile queries over them,
+ * e.g. to decide when a chunk is taking unusually long.
+ */
+public class LatencyTracker {
+    private final int windowSize;
+    private final Deque<Long> samples = new ArrayDeque<>();
+
+    public LatencyTracker(int windowSize) {
+        if (windowSize <= 0) {
+            throw new IllegalArgumentException("Window size must be positive");
+        }
+        this.windowSize = windowSize;
+    }
+
+    public synchronized void record(long durationNanos) {
+        if (samples.size() == windowSize) {
+            samples.removeFirst();
+        }
+        samples.addLast(durationNanos);
+    }
+
+    public synchronized int sampleCount() {
+        return samples.size();
+    }
+
+    /**
+     * @param percentile between 0 (exclusive) and 1 (inclusive), e.g. 0.95 for p95
+     * @return the nearest-rank percentile of the recorded durations, or empty if nothing was recorded yet.
+     */
+    public synchronized OptionalLong percentile(double percentile) {
+        if (percentile <= 0 || percentile > 1) {
+            throw new IllegalArgumentException("Percentile must be in (0, 1]");
+        }
+        if (samples.isEmpty()) {
+            return OptionalLong.empty();
+        }
+        long[] sorted = samples.stream().mapToLong(Long::longValue).toArray();
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percentile * sorted.length);
+        return OptionalLong.of(sorted[rank - 1]);
+    }
+
+    public synchronized void reset() {
+        samples.clear();
+    }
+}
@@ -0,0 +1,144 @@
+package com.accurx.reliabledownloader.impl;
+
+import com.accurx.reliabledownloader.core.DownloaderConfig;
+import com.accurx.reliabledownloader.core.StallException;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * curl-style low-speed limit: a connection that transfers less than {@code limit} bytes per second for
+ * {@code time} in a row is aborted.
+ * <p>
+ * A read timeout can't catch this, as a connection trickling a few bytes a second never goes quiet for long
+ * enough. The speed is sampled once a second by a single shared thread, so watching a connection is cheap. The
+ * abort action runs on a thread of its own, since disconnecting an {@code HttpURLConnection} blocks until its
+ * pending read returns. That also means an abort can't wake a read that is waiting on a silent connection, so
+ * blocking readers should check {@link Watch#stalled()} after every read and use {@link #readTimeout} for their
+ * connections.
+ */
+public class LowSpeedWatchdog {
+    private static final long CHECK_INTERVAL_MILLIS = 1000;
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "low-speed-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final long limit;
+    private final Duration time;
+
+    /**
+     * @param limit bytes per second below which a connection counts as slow, or 0 to watch nothing
+     * @param time  how long a connection may stay slow before it is aborted
+     */
+    public LowSpeedWatchdog(long limit, Duration time) {
+        this.limit = limit;
+        this.time = time;
+    }
+
+    public static LowSpeedWatchdog from(DownloaderConfig config) {
+        return new LowSpeedWatchdog(config.getLowSpeedLimit(), config.getLowSpeedTime());
+    }
+
+    public boolean isEnabled() {
+        return limit > 0;
+    }
+
+    /**
+     * @return the read timeout for a watched connection: no longer than the low-speed time, as a connection that
+     * is silent for that long has stalled whatever the limit
+     */
+    public Duration readTimeout(Duration configured) {
+        return isEnabled() && time.compareTo(configured) < 0 ? time : configured;
+    }
+
+    /**
+     * Starts watching a connection. Report every byte read through {@link Watch#record} and close the watch when
+     * the transfer ends.
+     *
+     * @param abort run once, on a new thread, when the connection stalls
+     */
+    public Watch watch(Runnable abort) {
+        Watch watch = new Watch(abort);
+        if (isEnabled()) {
+            watch.task = SCHEDULER.scheduleAtFixedRate(watch::check,
+                    CHECK_INTERVAL_MILLIS, CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        return watch;
+    }
+
+    public final class Watch implements AutoCloseable {
+        private final Runnable abort;
+        private final AtomicLong bytes = new AtomicLong();
+        private volatile long lastRead = System.nanoTime();
+        private volatile boolean stalled;
+        private volatile ScheduledFuture<?> task;
+        // Only touched by the watchdog thread
+        private long lastBytes;
+        private long lastCheck = System.nanoTime();
+        private int slowChecks;
+
+        private Watch(Runnable abort) {
+            this.abort = abort;
+        }
+
+        public void record(long count) {
+            bytes.addAndGet(count);
+            lastRead = System.nanoTime();
+        }
+
+        /**
+         * @return whether the watchdog aborted the connection
+         */
+        public boolean stalled() {
+            return stalled;
+        }
+
+        /**
+         * @return whether {@code failure} means the connection stalled: either the watchdog aborted it, or a read
+         * timed out after nothing arrived for the low-speed time
+         */
+        public boolean stalled(IOException failure) {
+            return stalled || (isEnabled() && failure instanceof SocketTimeoutException
+                    && System.nanoTime() - lastRead >= time.toNanos());
+        }
+
+        public StallException stallException(URI url) {
+            return new StallException("Transfer from " + url + " stalled below " + limit + " bytes/s for "
+                    + time.toSeconds() + " s");
+        }
+
+        void check() {
+            long now = System.nanoTime();
+            long total = bytes.get();
+            double seconds = Math.max((now - lastCheck) / 1e9, 1e-3);
+            slowChecks = (total - lastBytes) / seconds >= limit ? 0 : slowChecks + 1;
+            lastBytes = total;
+            lastCheck = now;
+
+            if (slowChecks * CHECK_INTERVAL_MILLIS >= time.toMillis() && !stalled) {
+                stalled = true;
+                close();
+                Thread aborter = new Thread(abort, "low-speed-abort");
+                aborter.setDaemon(true);
+                aborter.start();
+            }
+        }
+
+        @Override
+        public void close() {
+            ScheduledFuture<?> scheduled = task;
+            if (scheduled != null) {
+                scheduled.cancel(false);
+            }
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.accurx.reliabledownloader.impl;
+
+import com.accurx.reliabledownloader.core.RemoteFileMetadata;
+import com.accurx.reliabledownloader.util.ContentDigests;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+
+/**
+ * Remembers what a HEAD probe told us about a URI (size, range support, ETag, Content-MD5) so that retries and
+ * repeated downloads of the same file can skip the probe. Entries expire after a TTL and the least recently used
+ * ones are evicted once the cache is full. If a file is given, the cache is loaded from and written through to it,
+ * so it also survives across runs.
+ */
+public class MetadataCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MetadataCache.class);
+
+    private final Duration ttl;
+    private final Path persistenceFile;
+    private final Clock clock;
+    private final Cache<URI, CachedMetadata> entries;
+
+    public MetadataCache(Duration ttl, int maxEntries) {
+        this(ttl, maxEntries, null, Clock.systemUTC());
+    }
+
+    public MetadataCache(Duration ttl, int maxEntries, Path persistenceFile) {
+        this(ttl, maxEntries, persistenceFile, Clock.systemUTC());
+    }
+
+    MetadataCache(Duration ttl, int maxEntries, Path persistenceFile, Clock clock) {
+        this.ttl = ttl;
+        this.persistenceFile = persistenceFile;
+        this.clock = clock;
+        this.entries = CacheBuilder.newBuilder()
+                .maximumSize(maxEntries)
+                .concurrencyLevel(1) // keeps eviction strictly least-recently-used
+                .build();
+        if (persistenceFile != null) {
+            load();
+        }
+    }
+
+    /**
+     * @return the cached metadata for {@code uri} if it was stored less than one TTL ago.
+     */
+    public Optional<RemoteFileMetadata> get(URI uri) {
+        CachedMetadata cached = entries.getIfPresent(uri);
+        if (cached == null) {
+            return Optional.empty();
+        }
+        if (isExpired(cached)) {
+            entries.invalidate(uri);
+            return Optional.empty();
+        }
+        return Optional.of(cached.metadata());
+    }
+
+    public void put(URI uri, RemoteFileMetadata metadata) {
+        entries.put(uri, new CachedMetadata(metadata, clock.instant()));
+        persist();
+    }
+
+    /**
+     * Drops the entry for {@code uri}, e.g. because a response showed the remote file has changed.
+     */
+    public void invalidate(URI uri) {
+        entries.invalidate(uri);
+        persist();
+    }
+
+    public long size() {
+        entries.cleanUp();
+        return entries.size();
+    }
+
+    private boolean isExpired(CachedMetadata cached) {
+        return !cached.storedAt().plus(ttl).isAfter(clock.instant());
+    }
+
+    private void load() {
+        if (!Files.exists(persistenceFile)) {
+            return;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(persistenceFile)) {
+            properties.load(in);
+        } catch (IOException e) {
+            LOGGER.warn("Could not load metadata cache from {}: {}", persistenceFile, e.getMessage());
+            return;
+        }
+
+        for (int i = 0; properties.containsKey(key(i, "uri")); i++) {
+            try {
+                URI uri = URI.create(properties.getProperty(key(i, "uri")));
+                RemoteFileMetadata metadata = new RemoteFileMetadata(
+                        Long.parseLong(properties.getProperty(key(i, "totalSize"))),
+                        Boolean.parseBoolean(properties.getProperty(key(i, "supportsRanges"))),
+                        properties.getProperty(key(i, "etag")),
+                        properties.getProperty(key(i, "lastModified")),
+                        properties.getProperty(key(i, "contentMd5")),
+                        ContentDigests.parseDigestHeader(properties.getProperty(key(i, "digests"))));
+                CachedMetadata cached = new CachedMetadata(
+                        metadata, Instant.ofEpochMilli(Long.parseLong(properties.getProperty(key(i, "storedAt")))));
+                if (!isExpired(cached)) {
+                    entries.put(uri, cached);
+                }
+            } catch (RuntimeException e) {
+                LOGGER.warn("Skipping malformed metadata cache entry {}: {}", i, e.getMessage());
+            }
+        }
+        LOGGER.debug("Loaded {} metadata cache entries from {}", entries.size(), persistenceFile);
+    }
+
+    private synchronized void persist() {
+        if (persistenceFile == null) {
+            return;
+        }
+        Properties properties = new Properties();
+        int i = 0;
+        for (Map.Entry<URI, CachedMetadata> entry : entries.asMap().entrySet()) {
+            RemoteFileMetadata metadata = entry.getValue().metadata();
+            properties.setProperty(key(i, "uri"), entry.getKey().toString());
+            properties.setProperty(key(i, "totalSize"), Long.toString(metadata.totalSize()));
+            properties.setProperty(key(i, "supportsRanges"), Boolean.toString(metadata.supportsRangeRequests()));
+            properties.setProperty(key(i, "storedAt"), Long.toString(entry.getValue().storedAt().toEpochMilli()));
+            setIfPresent(properties, key(i, "etag"), metadata.etag());
+            setIfPresent(properties, key(i, "lastModified"), metadata.lastModified());
+            setIfPresent(properties, key(i, "contentMd5"), metadata.contentMd5());
+            if (!metadata.digests().isEmpty()) {
+                properties.setProperty(key(i, "digests"), metadata.digests().toHeaderValue());
+            }
+            i++;
+        }
+
+        Path tempFile = null;
+        try {
+            Path parent = persistenceFile.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            // Write to a sibling of our own and move it into place, so a crash never leaves a half-written cache
+            // and processes sharing the cache never write into each other's temporary copy
+            tempFile = Files.createTempFile(parent, persistenceFile.getFileName().toString(), ".tmp");
+            try (OutputStream out = Files.newOutputStream(tempFile)) {
+                properties.store(out, "Reliable downloader metadata cache");
+            }
+            try {
+                Files.move(tempFile, persistenceFile, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, persistenceFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Could not persist metadata cache to {}: {}", persistenceFile, e.getMessage());
+            if (tempFile != null) {
+                try {
+                    Files.deleteIfExists(tempFile);
+                } catch (IOException ignored) {
+                    // Only a stray temporary file is left behind
+                }
+            }
+        }
+    }
+
+    private static String key(int index, String field) {
+        return "entry." + index + "." + field;
+    }
+
+    private static void setIfPresent(Properties properties, String key, String value) {
+        if (value != null) {
+            properties.setProperty(key, value);
+        }
+    }
+
+    private record CachedMetadata(RemoteFileMetadata metadata, Instant storedAt) {}
+}
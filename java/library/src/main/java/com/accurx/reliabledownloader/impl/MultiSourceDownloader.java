@@ -0,0 +1,591 @@
+package com.accurx.reliabledownloader.impl;
+
+import com.accurx.reliabledownloader.core.AbstractDownloader;
+import com.accurx.reliabledownloader.core.DownloaderConfig;
+import com.accurx.reliabledownloader.core.FileDownloader;
+import com.accurx.reliabledownloader.core.PartialFileOutputStream;
+import com.accurx.reliabledownloader.core.RemoteFileMetadata;
+import com.accurx.reliabledownloader.core.ThrottledException;
+import com.accurx.reliabledownloader.util.ContentRange;
+import com.accurx.reliabledownloader.util.DownloadProgressObserver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Downloads a file from several equivalent sources (the requested URI plus configured mirrors) at once.
+ * <p>
+ * Every source is probed first and only those agreeing with the primary on size and Content-MD5/ETag are used.
+ * The file is then split into one segment per {@link DownloaderConfig#getParallelConnections() connection}, and a
+ * {@link SegmentScheduler} lets a connection that runs out of work take the back half of the largest remaining
+ * segment, down to one chunk. Each segment request goes to a source picked by the throughput it has shown so far.
+ * Sources that keep failing, ignore ranges or crawl far behind the others are dropped, and their unfinished
+ * segments are picked up by the remaining ones.
+ * <p>
+ * Parallel ranges need positional writes, so this only applies when the destination is a
+ * {@link PartialFileOutputStream}; otherwise it downloads sequentially from the primary source.
+ */
+public class MultiSourceDownloader extends AbstractDownloader implements FileDownloader {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MultiSourceDownloader.class);
+    // A source is dropped after this many failed range requests in a row
+    private static final int MAX_CONSECUTIVE_FAILURES = 3;
+    // A source is considered stalled when it delivers less than this fraction of the fastest source's throughput
+    private static final double STALL_RATIO = 0.1;
+    // Don't judge a source as stalled before it has been busy this long
+    private static final long MIN_STALL_OBSERVATION_NANOS = 2_000_000_000L;
+    // Weight of the newest sample in a source's smoothed throughput
+    private static final double THROUGHPUT_SMOOTHING = 0.3;
+    // How often a worker waiting for a throttled source's connection limit to recover checks again
+    private static final long SOURCE_WAIT_MILLIS = 250;
+
+    private final DownloaderConfig config;
+    private final List<URI> mirrors;
+    private final MetadataCache metadataCache;
+    private final HttpRangeClient httpClient;
+    private final ReliableDownloader sequentialDownloader;
+
+    public MultiSourceDownloader(DownloaderConfig config, List<URI> mirrors) {
+        this(config, mirrors, null);
+    }
+
+    public MultiSourceDownloader(DownloaderConfig config, List<URI> mirrors, MetadataCache metadataCache) {
+        this.config = config;
+        this.mirrors = List.copyOf(mirrors);
+        this.metadataCache = metadataCache;
+        this.httpClient = new HttpRangeClient(config);
+        this.sequentialDownloader = new ReliableDownloader(config, metadataCache);
+        this.sequentialDownloader.addObserver(new ProgressForwarder());
+    }
+
+    @Override
+    protected void beforeDownload() {
+        // No specific setup needed before download starts in this implementation
+    }
+
+    @Override
+    protected void afterDownload() {
+        // No specific cleanup needed after download finishes in this implementation
+    }
+
+    @Override
+    public Optional<String> performDownload(URI source, OutputStream destination, long startOffset) throws Exception {
+        if (!(destination instanceof PartialFileOutputStream partialFile)) {
+            LOGGER.info("Destination does not support positional writes; downloading sequentially from {}", source);
+            return sequentialDownloader.performDownload(source, destination, startOffset);
+        }
+
+        List<URI> sources = Stream.concat(Stream.of(source), mirrors.stream()).distinct().toList();
+        List<Source> agreeingSources = probeSources(sources);
+        RemoteFileMetadata reference = agreeingSources.get(0).metadata;
+
+        List<Source> rangeSources = agreeingSources.stream()
+                .filter(s -> s.metadata.supportsRangeRequests())
+                .toList();
+        if (rangeSources.isEmpty()) {
+            LOGGER.warn("None of the {} source(s) support range requests; downloading sequentially from {}",
+                    agreeingSources.size(), source);
+            return sequentialDownloader.performDownload(source, destination, startOffset);
+        }
+
+        startOffset = validateResumeOffset(partialFile, reference, startOffset);
+        partialFile.expectDigests(reference.digests());
+        if (startOffset == 0) {
+            try {
+                partialFile.storeMetadata(reference);
+            } catch (IOException e) {
+                LOGGER.warn("Could not persist resume metadata: {}", e.getMessage());
+            }
+        }
+
+        LOGGER.info("Downloading {} bytes from {} source(s) over {} connection(s)",
+                reference.totalSize() - startOffset, rangeSources.size(), config.getParallelConnections());
+        new Transfer(partialFile, rangeSources, startOffset, reference.totalSize()).run();
+
+        return Optional.ofNullable(reference.contentMd5());
+    }
+
+    /**
+     * Probes all sources concurrently and returns those that serve the same file as the first reachable one,
+     * the primary first.
+     */
+    private List<Source> probeSources(List<URI> sources) throws Exception {
+        ExecutorService probes = Executors.newFixedThreadPool(sources.size());
+        try {
+            List<Future<RemoteFileMetadata>> results = new ArrayList<>();
+            for (URI uri : sources) {
+                results.add(probes.submit(() -> probe(uri)));
+            }
+
+            List<Source> agreeing = new ArrayList<>();
+            Exception primaryFailure = null;
+            for (int i = 0; i < sources.size(); i++) {
+                URI uri = sources.get(i);
+                RemoteFileMetadata metadata;
+                try {
+                    metadata = results.get(i).get();
+                } catch (ExecutionException e) {
+                    LOGGER.warn("Dropping source {}: probe failed: {}", uri, e.getCause().getMessage());
+                    if (primaryFailure == null && agreeing.isEmpty()) {
+                        primaryFailure = e.getCause() instanceof Exception cause ? cause : e;
+                    }
+                    continue;
+                }
+
+                if (agreeing.isEmpty() || agrees(agreeing.get(0).metadata, metadata)) {
+                    agreeing.add(new Source(uri, metadata));
+                } else {
+                    LOGGER.warn("Dropping source {}: it does not serve the same file as {}", uri, agreeing.get(0).uri);
+                }
+            }
+
+            if (agreeing.isEmpty()) {
+                throw primaryFailure != null ? primaryFailure : new IOException("No download source reachable");
+            }
+            return agreeing;
+        } finally {
+            probes.shutdownNow();
+        }
+    }
+
+    private RemoteFileMetadata probe(URI uri) throws IOException {
+        if (metadataCache != null) {
+            Optional<RemoteFileMetadata> cached = metadataCache.get(uri);
+            if (cached.isPresent()) {
+                return cached.get();
+            }
+        }
+        RemoteFileMetadata metadata = httpClient.probe(uri);
+        if (metadataCache != null) {
+            metadataCache.put(uri, metadata);
+        }
+        return metadata;
+    }
+
+    /**
+     * Sources agree when they have the same size and, where both advertise one, the same Content-MD5,
+     * or failing that the same ETag.
+     */
+    static boolean agrees(RemoteFileMetadata reference, RemoteFileMetadata candidate) {
+        if (reference.totalSize() != candidate.totalSize()) {
+            return false;
+        }
+        if (reference.contentMd5() != null && candidate.contentMd5() != null) {
+            return reference.contentMd5().equals(candidate.contentMd5());
+        }
+        if (reference.etag() != null && candidate.etag() != null) {
+            return reference.etag().equals(candidate.etag());
+        }
+        return true;
+    }
+
+    /**
+     * Restarts the partial file when it can't be a prefix of the current remote file.
+     */
+    private long validateResumeOffset(PartialFileOutputStream partialFile, RemoteFileMetadata reference,
+                                      long startOffset) throws IOException {
+        if (startOffset == 0) {
+            return 0;
+        }
+        Optional<String> storedValidator = partialFile.storedValidator();
+        boolean changed = storedValidator.isPresent() && !storedValidator.equals(reference.validator());
+        OptionalLong storedSize = partialFile.storedTotalSize();
+        boolean resized = storedSize.isPresent() && storedSize.getAsLong() != reference.totalSize();
+        if (changed || resized || startOffset > reference.totalSize()) {
+            LOGGER.warn("Partial file no longer matches the remote file; restarting download from 0.");
+            partialFile.truncate(0);
+            return 0;
+        }
+        return startOffset;
+    }
+
+    /**
+     * One parallel download: the segments still to fetch, the sources to fetch them from,
+     * and which bytes have landed so far.
+     */
+    private class Transfer {
+        private final PartialFileOutputStream partialFile;
+        private final List<Source> sources;
+        private final long startOffset;
+        private final long totalSize;
+        private final SegmentScheduler scheduler;
+        private final TreeMap<Long, Long> completed = new TreeMap<>();
+        private final AtomicLong downloaded;
+        private volatile IOException failure;
+
+        Transfer(PartialFileOutputStream partialFile, List<Source> sources, long startOffset, long totalSize) {
+            this.partialFile = partialFile;
+            this.sources = sources;
+            this.startOffset = startOffset;
+            this.totalSize = totalSize;
+            this.downloaded = new AtomicLong(startOffset);
+            this.scheduler = new SegmentScheduler(startOffset, totalSize,
+                    config.getParallelConnections(), config.getChunkSize());
+        }
+
+        void run() throws IOException, InterruptedException {
+            notifyProgress(startOffset, totalSize);
+            int workerCount = Math.max(1, scheduler.initialSegmentCount());
+            ExecutorService workers = Executors.newFixedThreadPool(workerCount);
+            try {
+                List<Future<?>> futures = new ArrayList<>();
+                for (int i = 0; i < workerCount; i++) {
+                    futures.add(workers.submit(() -> {
+                        workLoop();
+                        return null;
+                    }));
+                }
+                // Wait for every worker, even after a failure, so nothing writes once the file is trimmed
+                for (Future<?> future : futures) {
+                    try {
+                        future.get();
+                    } catch (ExecutionException e) {
+                        if (failure == null) {
+                            failure = e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                failure = new IOException("Download interrupted", e);
+                workers.shutdownNow();
+                keepContiguousPrefix();
+                throw e;
+            } finally {
+                workers.shutdownNow();
+            }
+
+            if (failure == null && (!scheduler.isDone() || downloaded.get() < totalSize)) {
+                failure = new IOException("Download workers stopped after " + downloaded.get() + " of "
+                        + totalSize + " bytes");
+            }
+            if (failure != null) {
+                keepContiguousPrefix();
+                throw failure;
+            }
+        }
+
+        private void workLoop() {
+            Optional<SegmentScheduler.Segment> next;
+            while (failure == null && (next = scheduler.next()).isPresent()) {
+                SegmentScheduler.Segment segment = next.get();
+                Source source;
+                try {
+                    source = awaitSource();
+                } catch (IOException e) {
+                    scheduler.fail(segment);
+                    failure = e;
+                    return;
+                } catch (InterruptedException e) {
+                    scheduler.fail(segment);
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (source == null) {
+                    // The transfer failed while this worker waited
+                    scheduler.fail(segment);
+                    return;
+                }
+
+                long from = segment.position();
+                long started = System.nanoTime();
+                try {
+                    fetchSegment(source, segment);
+                    recordSuccess(source, segment.position() - from, System.nanoTime() - started);
+                    scheduler.complete(segment);
+                } catch (IOException | SecurityException e) {
+                    scheduler.fail(segment);
+                    recordFailure(source, e);
+                } finally {
+                    release(source);
+                    if (segment.position() > from) {
+                        markCompleted(from, segment.position());
+                    }
+                }
+            }
+        }
+
+        /**
+         * Requests the rest of the segment and writes it in place until the segment is done, which may be
+         * before the response ends if another worker stole the tail in the meantime.
+         */
+        private void fetchSegment(Source source, SegmentScheduler.Segment segment) throws IOException {
+            long from = segment.position();
+            long to = segment.end();
+            HttpURLConnection conn = null;
+            try {
+                conn = httpClient.openRange(source.uri, from, to - 1);
+                int responseCode = conn.getResponseCode();
+                HttpRangeClient.checkResponse(source.uri, conn);
+                if (responseCode != HttpURLConnection.HTTP_PARTIAL) {
+                    throw new UnusableSourceException("Source " + source.uri + " ignored the range request (HTTP "
+                            + responseCode + ")");
+                }
+                Optional<ContentRange> contentRange = ContentRange.parse(conn.getHeaderField("Content-Range"));
+                if (contentRange.isPresent() && (contentRange.get().start() != from
+                        || (contentRange.get().isTotalKnown() && contentRange.get().total() != totalSize))) {
+                    throw new UnusableSourceException("Source " + source.uri + " answered with unexpected range "
+                            + conn.getHeaderField("Content-Range"));
+                }
+
+                try (InputStream in = conn.getInputStream()) {
+                    byte[] buffer = new byte[config.getBufferSize()];
+                    long position = from;
+                    long remaining;
+                    while ((remaining = segment.remaining()) > 0) {
+                        int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                        if (read == -1) {
+                            throw new IOException("Connection to " + source.uri + " closed after "
+                                    + (position - from) + " of " + (to - from) + " bytes");
+                        }
+                        partialFile.writeAt(buffer, 0, read, position);
+                        position += read;
+                        notifyProgress(downloaded.addAndGet(segment.advance(read)), totalSize);
+                    }
+                }
+            } finally {
+                if (conn != null) {
+                    conn.disconnect();
+                }
+            }
+        }
+
+        /**
+         * Picks the source for the next range. Sources that haven't served a range yet go first; after that
+         * the choice is random, weighted by each source's smoothed throughput. Sources whose host throttled us are
+         * skipped until its Retry-After has passed, and get no more connections than the {@link HostThrottle}
+         * allows.
+         *
+         * @return the source, or null if the only sources left are at their throttled connection limits
+         * @throws ThrottledException if every source left is waiting out a Retry-After
+         */
+        private synchronized Source selectSource() throws IOException {
+            List<Source> alive = sources.stream().filter(s -> !s.dropped).toList();
+            if (alive.isEmpty()) {
+                throw new IOException("All download sources failed", lastFailure());
+            }
+            List<Source> unpaused = alive.stream()
+                    .filter(s -> HostThrottle.global().pauseRemaining(s.host()).isZero())
+                    .toList();
+            if (unpaused.isEmpty()) {
+                throw allThrottled(alive);
+            }
+            List<Source> live = unpaused.stream()
+                    .filter(s -> s.active < HostThrottle.global().allowedConnections(s.host(),
+                            config.getParallelConnections()))
+                    .toList();
+            if (live.isEmpty()) {
+                return null;
+            }
+            for (Source source : live) {
+                if (source.requests == 0) {
+                    source.requests++;
+                    source.active++;
+                    return source;
+                }
+            }
+
+            double knownAverage = live.stream()
+                    .filter(s -> s.throughput > 0)
+                    .mapToDouble(s -> s.throughput)
+                    .average()
+                    .orElse(1);
+            double totalWeight = 0;
+            for (Source source : live) {
+                totalWeight += weight(source, knownAverage);
+            }
+            double pick = ThreadLocalRandom.current().nextDouble(totalWeight);
+            for (Source source : live) {
+                pick -= weight(source, knownAverage);
+                if (pick < 0) {
+                    source.requests++;
+                    source.active++;
+                    return source;
+                }
+            }
+            Source last = live.get(live.size() - 1);
+            last.requests++;
+            last.active++;
+            return last;
+        }
+
+        /**
+         * Waits for a source with a connection to spare, rather than leaving the segment to workers that may
+         * already have finished. Throttled sources only allow a few connections at a time.
+         *
+         * @return the source, or null if the transfer failed in the meantime
+         * @throws ThrottledException if every source left is waiting out a Retry-After
+         */
+        private synchronized Source awaitSource() throws IOException, InterruptedException {
+            while (failure == null) {
+                Source source = selectSource();
+                if (source != null) {
+                    return source;
+                }
+                // Woken when another worker releases a source; the timeout notices connection limits recovering
+                wait(SOURCE_WAIT_MILLIS);
+            }
+            return null;
+        }
+
+        private synchronized void release(Source source) {
+            source.active--;
+            notifyAll();
+        }
+
+        private ThrottledException allThrottled(List<Source> alive) {
+            Source soonest = alive.stream()
+                    .min(Comparator.comparing(s -> HostThrottle.global().pauseRemaining(s.host())))
+                    .orElseThrow();
+            if (soonest.lastFailure instanceof ThrottledException throttled) {
+                return throttled;
+            }
+            // Paused because of another download from the same host
+            return new ThrottledException("Every download source is throttling us", 503,
+                    HostThrottle.global().pauseRemaining(soonest.host()));
+        }
+
+        private double weight(Source source, double knownAverage) {
+            return source.throughput > 0 ? source.throughput : knownAverage;
+        }
+
+        private synchronized void recordSuccess(Source source, long bytes, long elapsedNanos) {
+            source.consecutiveFailures = 0;
+            source.busyNanos += elapsedNanos;
+            double sample = bytes / Math.max(elapsedNanos / 1e9, 1e-6);
+            source.throughput = source.throughput == 0
+                    ? sample
+                    : THROUGHPUT_SMOOTHING * sample + (1 - THROUGHPUT_SMOOTHING) * source.throughput;
+
+            List<Source> live = sources.stream().filter(s -> !s.dropped).toList();
+            double fastest = live.stream().mapToDouble(s -> s.throughput).max().orElse(0);
+            if (live.size() > 1 && source.busyNanos >= MIN_STALL_OBSERVATION_NANOS
+                    && source.throughput < STALL_RATIO * fastest) {
+                LOGGER.warn("Dropping source {}: stalled at {} B/s while the fastest source delivers {} B/s",
+                        source.uri, (long) source.throughput, (long) fastest);
+                source.dropped = true;
+            }
+        }
+
+        private synchronized void recordFailure(Source source, Exception e) {
+            source.lastFailure = e;
+            if (e instanceof ThrottledException throttled) {
+                // The source is fine, just busy; it sits out its Retry-After instead of counting towards a drop
+                HostThrottle.global().recordThrottled(source.host(), throttled);
+                return;
+            }
+            source.consecutiveFailures++;
+            boolean unusable = e instanceof UnusableSourceException
+                    || e instanceof FileNotFoundException
+                    || e instanceof SecurityException;
+            if (unusable || source.consecutiveFailures >= MAX_CONSECUTIVE_FAILURES) {
+                LOGGER.warn("Dropping source {} after {} failure(s): {}",
+                        source.uri, source.consecutiveFailures, e.getMessage());
+                source.dropped = true;
+            } else {
+                LOGGER.debug("Range request to {} failed, will retry: {}", source.uri, e.getMessage());
+            }
+        }
+
+        private synchronized Exception lastFailure() {
+            return sources.stream()
+                    .map(s -> s.lastFailure)
+                    .filter(e -> e != null)
+                    .reduce((first, second) -> second)
+                    .orElse(null);
+        }
+
+        private synchronized void markCompleted(long start, long end) {
+            completed.merge(start, end, Math::max);
+        }
+
+        /**
+         * Parallel ranges leave holes when a download fails. Resuming works from the file length, so cut the
+         * file back to the bytes that are contiguous from the start.
+         */
+        private synchronized void keepContiguousPrefix() {
+            long contiguousEnd = startOffset;
+            for (Map.Entry<Long, Long> entry : completed.entrySet()) {
+                if (entry.getKey() > contiguousEnd) {
+                    break;
+                }
+                contiguousEnd = Math.max(contiguousEnd, entry.getValue());
+            }
+            try {
+                partialFile.truncate(contiguousEnd);
+                LOGGER.info("Kept {} contiguous bytes of the partial download for resuming", contiguousEnd);
+            } catch (IOException e) {
+                LOGGER.error("Could not trim partial download to its contiguous prefix: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * A source of the file and what we have observed about it during the current download.
+     * Mutable state is guarded by the owning {@link Transfer}.
+     */
+    private static class Source {
+        final URI uri;
+        final RemoteFileMetadata metadata;
+        int requests;
+        int active;
+        int consecutiveFailures;
+        long busyNanos;
+        double throughput;
+        boolean dropped;
+        Exception lastFailure;
+
+        Source(URI uri, RemoteFileMetadata metadata) {
+            this.uri = uri;
+            this.metadata = metadata;
+        }
+
+        String host() {
+            return HostThrottle.hostOf(uri);
+        }
+    }
+
+    // The source can't serve this file correctly at all, so retrying it is pointless
+    private static class UnusableSourceException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        UnusableSourceException(String message) {
+            super(message);
+        }
+    }
+
+    private class ProgressForwarder implements DownloadProgressObserver {
+        @Override
+        public void onProgressUpdate(long bytesDownloaded, long totalBytes) {
+            notifyProgress(bytesDownloaded, totalBytes);
+        }
+
+        @Override
+        public void onComplete() {
+            // Completion is reported by this downloader itself
+        }
+
+        @Override
+        public void onError(Exception e) {
+            // Errors are reported by this downloader itself
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package com.accurx.reliabledownloader.impl;
+
+import com.accurx.reliabledownloader.core.ThrottledException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Takes a short look at the network between us and a file's host: round-trip and connection setup time, the
+ * speed of the first stretch of the file on one connection, and whether the server supports ranges and keeps
+ * connections alive. The result feeds {@link NetworkProfile#configure}.
+ * <p>
+ * It speaks HTTP/1.1 over a plain socket, as {@link NioFileDownloader} does, since the HTTP clients in the JDK
+ * hide connection setup and reuse, the very things it measures. Redirects are followed; proxies aren't used.
+ */
+public class NetworkProbe {
+    private static final Logger LOGGER = LoggerFactory.getLogger(NetworkProbe.class);
+    // Enough to get past TCP slow start on most links without spending long on a slow one
+    private static final int THROUGHPUT_SAMPLE_BYTES = 1 << 20;
+    private static final Duration THROUGHPUT_SAMPLE_TIME = Duration.ofSeconds(3);
+    private static final int MAX_REDIRECTS = 5;
+    private static final int MAX_HEADER_SIZE = 16 * 1024;
+
+    private final Duration timeout;
+
+    /**
+     * @param timeout for connecting and for each read
+     */
+    public NetworkProbe(Duration timeout) {
+        this.timeout = timeout;
+    }
+
+    public NetworkProfile probe(URI url) throws IOException {
+        URI target = url;
+        for (int redirects = 0; redirects <= MAX_REDIRECTS; redirects++) {
+            long setupStarted = System.nanoTime();
+            Connection connection = connect(target);
+            try {
+                long setupNanos = System.nanoTime() - setupStarted;
+                long rttNanos = connection.tcpConnectNanos;
+
+                long sent = System.nanoTime();
+                Response head = connection.exchange("HEAD", target, null);
+                rttNanos = Math.min(rttNanos, System.nanoTime() - sent);
+                if (head.isRedirect()) {
+                    target = target.resolve(head.header("location"));
+                    LOGGER.debug("Probe redirected to {}", target);
+                    continue;
+                }
+                head.check(target);
+                long fileSize = head.totalLength();
+                boolean rangeSupport = "bytes".equalsIgnoreCase(head.header("accept-ranges"));
+
+                // A GET on the same connection shows whether the server keeps connections alive
+                String range = "bytes=0-" + (THROUGHPUT_SAMPLE_BYTES - 1);
+                Response get = null;
+                boolean reuse = false;
+                if (head.keepAlive()) {
+                    try {
+                        sent = System.nanoTime();
+                        get = connection.exchange("GET", target, range);
+                        rttNanos = Math.min(rttNanos, System.nanoTime() - sent);
+                        reuse = true;
+                    } catch (IOException e) {
+                        LOGGER.debug("{} didn't serve a second request on the connection: {}", target, e.getMessage());
+                    }
+                }
+                if (get == null) {
+                    connection.close();
+                    connection = connect(target);
+                    get = connection.exchange("GET", target, range);
+                }
+                get.check(target);
+                rangeSupport = get.status == 206;
+                if (fileSize < 0) {
+                    fileSize = get.totalLength();
+                }
+                double throughput = connection.sampleThroughput(get);
+
+                return new NetworkProfile(target, Duration.ofNanos(rttNanos), Duration.ofNanos(setupNanos),
+                        throughput, rangeSupport, reuse, fileSize);
+            } finally {
+                connection.close();
+            }
+        }
+        throw new IOException("Too many redirects probing " + url);
+    }
+
+    private Connection connect(URI url) throws IOException {
+        boolean https = "https".equalsIgnoreCase(url.getScheme());
+        if (!https && !"http".equalsIgnoreCase(url.getScheme())) {
+            throw new IOException("Can't probe " + url + ": only http and https are supported");
+        }
+        int port = url.getPort() != -1 ? url.getPort() : https ? 443 : 80;
+        InetSocketAddress address = new InetSocketAddress(url.getHost(), port);
+        if (address.isUnresolved()) {
+            throw new IOException("Can't resolve " + url.getHost());
+        }
+        Socket socket = new Socket();
+        try {
+            socket.setSoTimeout((int) timeout.toMillis());
+            long started = System.nanoTime();
+            socket.connect(address, (int) timeout.toMillis());
+            long tcpConnectNanos = System.nanoTime() - started;
+            if (https) {
+                SSLSocket tls = (SSLSocket) ((SSLSocketFactory) SSLSocketFactory.getDefault())
+                        .createSocket(socket, url.getHost(), port, true);
+                tls.startHandshake();
+                socket = tls;
+            }
+            return new Connection(socket, tcpConnectNanos);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    private static class Connection implements AutoCloseable {
+        private final Socket socket;
+        private final InputStream in;
+        private final OutputStream out;
+        private final long tcpConnectNanos;
+
+        Connection(Socket socket, long tcpConnectNanos) throws IOException {
+            this.socket = socket;
+            this.in = new BufferedInputStream(socket.getInputStream());
+            this.out = socket.getOutputStream();
+            this.tcpConnectNanos = tcpConnectNanos;
+        }
+
+        /**
+         * Sends a request and reads the response headers. A HEAD response is complete after that; a GET body is
+         * left for {@link #sampleThroughput}.
+         */
+        Response exchange(String method, URI url, String range) throws IOException {
+            String path = url.getRawPath() == null || url.getRawPath().isEmpty() ? "/" : url.getRawPath();
+            if (url.getRawQuery() != null) {
+                path += "?" + url.getRawQuery();
+            }
+            StringBuilder request = new StringBuilder()
+                    .append(method).append(' ').append(path).append(" HTTP/1.1\r\n")
+                    .append("Host: ").append(url.getHost())
+                    .append(url.getPort() == -1 ? "" : ":" + url.getPort()).append("\r\n")
+                    .append("Accept-Encoding: identity\r\n")
+                    .append("Connection: keep-alive\r\n");
+            if (range != null) {
+                request.append("Range: ").append(range).append("\r\n");
+            }
+            out.write(request.append("\r\n").toString().getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+            return readResponse();
+        }
+
+        private Response readResponse() throws IOException {
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            int matched = 0;
+            while (matched < 4) {
+                int b = in.read();
+                if (b == -1) {
+                    throw new IOException("Connection closed before the response headers ended");
+                }
+                header.write(b);
+                if ((b == '\r' && matched % 2 == 0) || (b == '\n' && matched % 2 == 1)) {
+                    matched++;
+                } else {
+                    matched = b == '\r' ? 1 : 0;
+                }
+                if (header.size() > MAX_HEADER_SIZE) {
+                    throw new IOException("Response headers are too large");
+                }
+            }
+            String[] lines = header.toString(StandardCharsets.ISO_8859_1).split("\r\n");
+            String[] status = lines[0].split(" ", 3);
+            if (status.length < 2 || !status[0].startsWith("HTTP/1.")) {
+                throw new IOException("Malformed status line: " + lines[0]);
+            }
+            Map<String, String> headers = new HashMap<>();
+            for (int i = 1; i < lines.length; i++) {
+                int colon = lines[i].indexOf(':');
+                if (colon > 0) {
+                    headers.put(lines[i].substring(0, colon).trim().toLowerCase(Locale.ROOT),
+                            lines[i].substring(colon + 1).trim());
+                }
+            }
+            try {
+                return new Response(status[0], Integer.parseInt(status[1]), headers);
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed status line: " + lines[0]);
+            }
+        }
+
+        /**
+         * Reads the body, up to the sample size or time, timing it from its first byte so the wait for the
+         * server to start answering doesn't count.
+         *
+         * @return bytes per second
+         */
+        double sampleThroughput(Response response) throws IOException {
+            long limit = response.bodyLength() >= 0
+                    ? Math.min(response.bodyLength(), THROUGHPUT_SAMPLE_BYTES)
+                    : THROUGHPUT_SAMPLE_BYTES;
+            byte[] buffer = new byte[64 * 1024];
+            long read = 0;
+            long firstByteAt = 0;
+            long now = System.nanoTime();
+            while (read < limit) {
+                int n = in.read(buffer, 0, (int) Math.min(buffer.length, limit - read));
+                if (n == -1) {
+                    break;
+                }
+                now = System.nanoTime();
+                if (read == 0) {
+                    // The first read only says the body has started; time the rest
+                    firstByteAt = now;
+                } else if (now - firstByteAt >= THROUGHPUT_SAMPLE_TIME.toNanos()) {
+                    read += n;
+                    break;
+                }
+                read += n;
+            }
+            double seconds = (now - firstByteAt) / 1e9;
+            // A body that fits in the first read came in faster than we can tell
+            return read == 0 ? 0 : seconds <= 0 ? Double.MAX_VALUE : read / seconds;
+        }
+
+        @Override
+        public void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                LOGGER.debug("Error closing probe connection: {}", e.getMessage());
+            }
+        }
+    }
+
+    private record Response(String version, int status, Map<String, String> headers) {
+        String header(String name) {
+            return headers.get(name);
+        }
+
+        boolean isRedirect() {
+            return status >= 300 && status < 400 && header("location") != null;
+        }
+
+        boolean keepAlive() {
+            return version.equals("HTTP/1.1") && !"close".equalsIgnoreCase(header("connection"));
+        }
+
+        long bodyLength() {
+            return parseLength(header("content-length"));
+        }
+
+        /**
+         * @return the size of the whole file, which a range response gives in its Content-Range
+         */
+        long totalLength() {
+            String range = header("content-range");
+            return range == null ? bodyLength() : parseLength(range.substring(range.lastIndexOf('/') + 1));
+        }
+
+        private static long parseLength(String value) {
+            try {
+                return value == null ? -1 : Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+
+        void check(URI url) throws IOException {
+            if (status == 404) {
+                throw new FileNotFoundException("Resource not found: " + url);
+            }
+            if (ThrottledException.isThrottlingStatus(status)) {
+                throw ThrottledException.forResponse(url, status, header("retry-after"));
+            }
+            if (status >= 400) {
+                throw new IOException("HTTP error: " + status + " probing " + url);
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.accurx.reliabledownloader.impl;
+
+import com.accurx.reliabledownloader.core.DownloaderConfig;
+
+import java.net.URI;
+import java.time.Duration;
+
+/**
+ * What a {@link NetworkProbe} measured on the way to a host, and the downloader configuration that follows from it.
+ *
+ * @param url             where the probe ended up, after redirects
+ * @param rtt             round-trip time, the quickest of the TCP handshake and the requests on a warm connection
+ * @param setupTime       time to a usable connection: DNS, TCP and, for https, the TLS handshake
+ * @param throughput      bytes per second over the first part of the file, on a single connection
+ * @param rangeSupport    whether the server answered a range request with the range
+ * @param connectionReuse whether the server kept the connection open for a second request
+ * @param fileSize        the file's size, or -1 if the server didn't say
+ */
+public record NetworkProfile(URI url, Duration rtt, Duration setupTime, double throughput, boolean rangeSupport,
+                             boolean connectionReuse, long fileSize) {
+
+    public enum Engine {
+        /** The event-loop engine, with many keep-alive range connections on few threads */
+        NIO,
+        /** Chunked range requests, resuming after every failure */
+        RELIABLE,
+        /** One streaming request */
+        HTTP_CLIENT
+    }
+
+    // Below this much a link is slow enough that every chunk is worth resuming
+    private static final double POOR_THROUGHPUT = 256 * 1024;
+    private static final Duration POOR_RTT = Duration.ofMillis(300);
+    // A chunk should take about this long, so there are few requests but little to redo after a failure
+    private static final double SECONDS_PER_CHUNK = 2;
+    private static final int MIN_CHUNK_SIZE = 64 * 1024;
+    private static final int MAX_CHUNK_SIZE = 8 << 20;
+    private static final int MIN_BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_BUFFER_SIZE = 1 << 20;
+    // One connection moves at most a window per round trip, so longer round trips need more connections to fill
+    // the link; each one keeps about this much of a round trip busy
+    private static final long RTT_PER_CONNECTION_MILLIS = 25;
+    private static final int MAX_PARALLEL_CONNECTIONS = 16;
+
+    /**
+     * @return whether the link is slow or far enough away that downloads should be cautious
+     */
+    public boolean isPoor() {
+        return throughput < POOR_THROUGHPUT || rtt.compareTo(POOR_RTT) > 0;
+    }
+
+    /**
+     * A poor link gets the chunked downloader, which loses little to each failure. A good one gets the event-loop
+     * engine where it can run, over plain http to a server with ranges and keep-alive, and a single streaming
+     * request otherwise.
+     */
+    public Engine engine() {
+        if (isPoor() && rangeSupport) {
+            return Engine.RELIABLE;
+        }
+        if (rangeSupport && connectionReuse && "http".equalsIgnoreCase(url.getScheme())) {
+            return Engine.NIO;
+        }
+        return isPoor() ? Engine.RELIABLE : Engine.HTTP_CLIENT;
+    }
+
+    /**
+     * Sets everything the measurements say something about; other settings keep whatever the builder has.
+     */
+    public DownloaderConfig.Builder configure(DownloaderConfig.Builder builder) {
+        int chunkSize = powerOfTwo(throughput * SECONDS_PER_CHUNK, MIN_CHUNK_SIZE, MAX_CHUNK_SIZE);
+        // A bandwidth-delay product's worth, so a read can take in everything in flight
+        double bdp = throughput * rtt.toNanos() / 1e9;
+        int bufferSize = Math.min(powerOfTwo(bdp, MIN_BUFFER_SIZE, MAX_BUFFER_SIZE), chunkSize);
+        int connections = !rangeSupport ? 1 : (int) Math.max(2, Math.min(MAX_PARALLEL_CONNECTIONS,
+                rtt.toMillis() / RTT_PER_CONNECTION_MILLIS + 1));
+        if (fileSize >= 0) {
+            // No more connections than there are chunks to share out
+            connections = (int) Math.max(1, Math.min(connections, (fileSize + chunkSize - 1) / chunkSize));
+        }
+        Duration connectTimeout = clamp(setupTime.multipliedBy(10), Duration.ofSeconds(2), Duration.ofMinutes(1));
+        // Long enough for ten round trips, or a buffer's worth at a tenth of the measured speed
+        Duration bufferAtTenthSpeed = Duration.ofMillis((long) (bufferSize * 10_000 / Math.max(throughput, 1)));
+        Duration readTimeout = clamp(max(rtt.multipliedBy(10), bufferAtTenthSpeed),
+                Duration.ofSeconds(10), Duration.ofMinutes(5));
+
+        return builder
+                .chunkSize(chunkSize)
+                .bufferSize(bufferSize)
+                .parallelConnections(connections)
+                .connectTimeout(connectTimeout)
+                .readTimeout(readTimeout)
+                .maxRetries(isPoor() ? 5 : 3)
+                .retryDelay(isPoor() ? Duration.ofSeconds(3) : Duration.ofSeconds(1))
+                .nioEngineEnabled(engine() == Engine.NIO);
+    }
+
+    private static int powerOfTwo(double value, int min, int max) {
+        long rounded = Long.highestOneBit(Math.max(1, (long) value));
+        return (int) Math.max(min, Math.min(max, rounded));
+    }
+
+    private static Duration clamp(Duration value, Duration min, Duration max) {
+        return value.compareTo(min) < 0 ? min : value.compareTo(max) > 0 ? max : value;
+    }
+
+    private static Duration max(Duration a, Duration b) {
+        return a.compareTo(b) >= 0 ? a : b;
+    }
+
+    @Override
+    public String toString() {
+        return "NetworkProfile{" +
+                "url=" + url +
+                ", rtt=" + rtt.toMillis() + " ms" +
+                ", setupTime=" + setupTime.toMillis() + " ms" +
+                ", throughput=" + (long) throughput + " B/s" +
+                ", rangeSupport=" + rangeSupport +
+                ", connectionReuse=" + connectionReuse +
+                ", fileSize=" + fileSize +
+                ", engine=" + engine() +
+                '}';
+    }
+}
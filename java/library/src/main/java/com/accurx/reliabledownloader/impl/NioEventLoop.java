@@ -0,0 +1,230 @@
+package com.accurx.reliabledownloader.impl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * One selector thread driving any number of non-blocking channels.
+ * <p>
+ * Everything that touches a registered channel runs on the loop's thread, registration included; other threads
+ * hand work over with {@link #execute(Runnable)}. Each channel's attachment is a {@link Handler}, called when its
+ * key is ready and on every tick so it can enforce its own timeouts. The thread is started on demand and exits
+ * once it has had nothing to do for a while, so an idle downloader holds no threads. The selector itself is only
+ * released by {@link #close()}.
+ */
+final class NioEventLoop implements Executor {
+    private static final Logger LOGGER = LoggerFactory.getLogger(NioEventLoop.class);
+    private static final long TICK_MILLIS = 250;
+    // How long the thread lingers without channels or tasks before it exits
+    private static final long IDLE_NANOS = 30_000_000_000L;
+
+    private final String name;
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    // Guarded by this
+    private boolean running;
+    private boolean closed;
+
+    NioEventLoop(String name) throws IOException {
+        this.name = name;
+        this.selector = Selector.open();
+    }
+
+    /**
+     * Reacts to the events of one registered channel. An exception thrown from {@link #ready} or {@link #tick}
+     * cancels the key, closes the channel and is passed to {@link #failed}.
+     */
+    interface Handler {
+        void ready(SelectionKey key) throws IOException;
+
+        void tick(long nowNanos) throws IOException;
+
+        void failed(IOException e);
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        synchronized (this) {
+            if (closed) {
+                throw new RejectedExecutionException("Event loop " + name + " is closed");
+            }
+            tasks.add(task);
+            if (!running) {
+                running = true;
+                Thread thread = new Thread(this::run, name);
+                thread.setDaemon(true);
+                thread.start();
+            }
+        }
+        selector.wakeup();
+    }
+
+    /**
+     * Registers a channel with this loop. Only call it from the loop's thread.
+     */
+    SelectionKey register(SelectableChannel channel, int ops, Handler handler) throws IOException {
+        return channel.register(selector, ops, handler);
+    }
+
+    /**
+     * Fails every channel still registered and releases the selector. Work handed over afterwards is rejected.
+     */
+    void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (running) {
+                // The thread closes the selector on its way out
+                selector.wakeup();
+                return;
+            }
+        }
+        closeSelector();
+    }
+
+    private void run() {
+        long lastTick = System.nanoTime();
+        long idleSince = lastTick;
+        try {
+            while (true) {
+                selector.select(TICK_MILLIS);
+                if (isClosed()) {
+                    runTasks();
+                    failAll(new IOException("Event loop " + name + " was closed"));
+                    stop();
+                    return;
+                }
+                for (SelectionKey key : selector.selectedKeys()) {
+                    dispatch(key, false, 0);
+                }
+                selector.selectedKeys().clear();
+                runTasks();
+
+                long now = System.nanoTime();
+                if (now - lastTick >= TICK_MILLIS * 1_000_000) {
+                    lastTick = now;
+                    // Handlers may register or close channels, so tick a copy of the key set
+                    for (SelectionKey key : new ArrayList<>(selector.keys())) {
+                        dispatch(key, true, now);
+                    }
+                }
+
+                if (!selector.keys().isEmpty()) {
+                    idleSince = now;
+                } else if (now - idleSince >= IDLE_NANOS && stopIfIdle()) {
+                    return;
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            LOGGER.error("Event loop {} stopped: {}", name, e.getMessage());
+            failAll(e instanceof IOException io ? io : new IOException(e));
+            stop();
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                LOGGER.error("Event loop task failed", e);
+            }
+        }
+    }
+
+    private synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Ends the loop's thread, closing the selector if the loop was closed meanwhile.
+     */
+    private void stop() {
+        synchronized (this) {
+            running = false;
+            if (!closed) {
+                return;
+            }
+        }
+        closeSelector();
+    }
+
+    /**
+     * Like {@link #stop()}, unless work was handed over in the meantime.
+     *
+     * @return whether the thread should exit
+     */
+    private boolean stopIfIdle() {
+        synchronized (this) {
+            // Still holding the lock, so execute() can't slip a task in before running is cleared
+            if (!tasks.isEmpty()) {
+                return false;
+            }
+            stop();
+            return true;
+        }
+    }
+
+    private void closeSelector() {
+        try {
+            selector.close();
+        } catch (IOException e) {
+            LOGGER.debug("Error closing selector of {}: {}", name, e.getMessage());
+        }
+    }
+
+    private void dispatch(SelectionKey key, boolean tick, long now) {
+        if (!key.isValid() || !(key.attachment() instanceof Handler handler)) {
+            return;
+        }
+        try {
+            if (tick) {
+                handler.tick(now);
+            } else {
+                handler.ready(key);
+            }
+        } catch (IOException | RuntimeException e) {
+            closeQuietly(key);
+            handler.failed(e instanceof IOException io ? io : new IOException(e));
+        }
+    }
+
+    private void failAll(IOException e) {
+        List<SelectionKey> keys;
+        try {
+            keys = new ArrayList<>(selector.keys());
+        } catch (ClosedSelectorException closed) {
+            return;
+        }
+        for (SelectionKey key : keys) {
+            closeQuietly(key);
+            if (key.attachment() instanceof Handler handler) {
+                handler.failed(e);
+            }
+        }
+    }
+
+    static void closeQuietly(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            LOGGER.debug("Error closing channel: {}", e.getMessage());
+        }
+    }
+}
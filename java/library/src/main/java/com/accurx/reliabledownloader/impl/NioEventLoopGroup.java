@@ -0,0 +1,46 @@
+package com.accurx.reliabledownloader.impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The selector threads of the NIO engine, handed out round robin. One group can be shared by any number of
+ * {@link NioFileDownloader}s; its selectors stay open until the group is closed.
+ */
+public class NioEventLoopGroup implements Closeable {
+    private final NioEventLoop[] loops;
+    private final AtomicInteger next = new AtomicInteger();
+
+    public NioEventLoopGroup(int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Event loop threads must be positive");
+        }
+        loops = new NioEventLoop[threads];
+        try {
+            for (int i = 0; i < loops.length; i++) {
+                loops[i] = new NioEventLoop("nio-download-" + i);
+            }
+        } catch (IOException e) {
+            close();
+            throw new UncheckedIOException("Could not open a selector", e);
+        }
+    }
+
+    NioEventLoop next() {
+        return loops[Math.floorMod(next.getAndIncrement(), loops.length)];
+    }
+
+    /**
+     * Fails any transfer still running on the group and releases its selectors.
+     */
+    @Override
+    public void close() {
+        for (NioEventLoop loop : loops) {
+            if (loop != null) {
+                loop.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,761 @@
+package com.accurx.reliabledownloader.impl;
+
+import com.accurx.reliabledownloader.core.AbstractDownloader;
+import com.accurx.reliabledownloader.core.DownloaderConfig;
+import com.accurx.reliabledownloader.core.FileDownloader;
+import com.accurx.reliabledownloader.core.PartialFileOutputStream;
+import com.accurx.reliabledownloader.core.RemoteFileMetadata;
+import com.accurx.reliabledownloader.core.StallException;
+import com.accurx.reliabledownloader.core.ThrottledException;
+import com.accurx.reliabledownloader.util.ContentRange;
+import com.accurx.reliabledownloader.util.DownloadProgressObserver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Downloads a file over parallel range requests on non-blocking sockets, so a handful of selector threads can
+ * keep hundreds of connections busy instead of parking a thread on each.
+ * <p>
+ * It speaks just enough HTTP/1.1 for ranged GETs: one request at a time per connection, kept alive across
+ * segments, with bodies read into a direct buffer and written straight to the file channel. As in
+ * {@link MultiSourceDownloader}, the file is split into one segment per
+ * {@link DownloaderConfig#getParallelConnections() connection} and a {@link SegmentScheduler} lets idle
+ * connections steal from slow ones. Redirects are followed once, by the probe, and the connections go straight to
+ * where they lead. The selector threads are shared by every download this instance runs, or by several instances
+ * given one {@link NioEventLoopGroup}.
+ * <p>
+ * Anything the engine can't do, TLS, servers without range support or a destination that can't be written at
+ * arbitrary offsets, is downloaded sequentially by a {@link ReliableDownloader} instead.
+ */
+public class NioFileDownloader extends AbstractDownloader implements FileDownloader, Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(NioFileDownloader.class);
+    // The transfer fails after this many connections in a row ended in an error
+    private static final int MAX_CONSECUTIVE_FAILURES = 3;
+    // Likewise for connections dropped below the low-speed limit, counted apart from the failures
+    private static final int MAX_CONSECUTIVE_STALLS = 3;
+    private static final long SPEED_WINDOW_NANOS = 1_000_000_000L;
+    private static final int MAX_HEADER_SIZE = 16 * 1024;
+    private static final byte[] HEADER_END = {'\r', '\n', '\r', '\n'};
+
+    private final DownloaderConfig config;
+    private final MetadataCache metadataCache;
+    private final HttpRangeClient httpClient;
+    private final ReliableDownloader sequentialDownloader;
+    private final NioEventLoopGroup loops;
+    // Whether the loops were opened for this instance alone, and are closed with it
+    private final boolean ownsLoops;
+
+    public NioFileDownloader(DownloaderConfig config) {
+        this(config, null);
+    }
+
+    public NioFileDownloader(DownloaderConfig config, MetadataCache metadataCache) {
+        this(config, metadataCache, new NioEventLoopGroup(config.getEventLoopThreads()), true);
+    }
+
+    /**
+     * @param loops selector threads shared with other downloaders; closing this instance leaves them open
+     */
+    public NioFileDownloader(DownloaderConfig config, MetadataCache metadataCache, NioEventLoopGroup loops) {
+        this(config, metadataCache, loops, false);
+    }
+
+    private NioFileDownloader(DownloaderConfig config, MetadataCache metadataCache, NioEventLoopGroup loops,
+                              boolean ownsLoops) {
+        this.config = config;
+        this.metadataCache = metadataCache;
+        this.httpClient = new HttpRangeClient(config);
+        this.sequentialDownloader = new ReliableDownloader(config, metadataCache);
+        this.sequentialDownloader.addObserver(new ProgressForwarder());
+        this.loops = loops;
+        this.ownsLoops = ownsLoops;
+    }
+
+    /**
+     * Releases the selector threads, unless they were shared with this instance.
+     */
+    @Override
+    public void close() {
+        if (ownsLoops) {
+            loops.close();
+        }
+    }
+
+    @Override
+    protected void beforeDownload() {
+        // No specific setup needed before download starts in this implementation
+    }
+
+    @Override
+    protected void afterDownload() {
+        // No specific cleanup needed after download finishes in this implementation
+    }
+
+    @Override
+    public Optional<String> performDownload(URI source, OutputStream destination, long startOffset) throws Exception {
+        if (!(destination instanceof PartialFileOutputStream partialFile)) {
+            LOGGER.info("Destination does not support positional writes; downloading sequentially from {}", source);
+            return sequentialDownloader.performDownload(source, destination, startOffset);
+        }
+        if (!"http".equalsIgnoreCase(source.getScheme())) {
+            LOGGER.info("The NIO engine only speaks plain HTTP; downloading {} sequentially", source);
+            return sequentialDownloader.performDownload(source, destination, startOffset);
+        }
+
+        HttpRangeClient.ResolvedFile resolved = probe(source);
+        RemoteFileMetadata metadata = resolved.metadata();
+        URI location = resolved.location();
+        if (!location.equals(source)) {
+            LOGGER.debug("{} redirects to {}", source, location);
+        }
+        if (!"http".equalsIgnoreCase(location.getScheme())) {
+            LOGGER.info("{} redirects to {}, which the NIO engine can't speak; downloading sequentially",
+                    source, location);
+            return sequentialDownloader.performDownload(location, destination, startOffset);
+        }
+        if (!metadata.supportsRangeRequests()) {
+            LOGGER.warn("{} does not support range requests; downloading sequentially", source);
+            return sequentialDownloader.performDownload(location, destination, startOffset);
+        }
+
+        startOffset = validateResumeOffset(partialFile, metadata, startOffset);
+        partialFile.expectDigests(metadata.digests());
+        if (startOffset == 0) {
+            try {
+                partialFile.storeMetadata(metadata);
+            } catch (IOException e) {
+                LOGGER.warn("Could not persist resume metadata: {}", e.getMessage());
+            }
+        }
+
+        // Resolve once here rather than on a selector thread, where a slow lookup would stall every transfer
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getByName(location.getHost()),
+                location.getPort() == -1 ? 80 : location.getPort());
+        LOGGER.info("Downloading {} bytes over {} non-blocking connection(s)",
+                metadata.totalSize() - startOffset, config.getParallelConnections());
+        try {
+            new Transfer(location, address, metadata, partialFile, startOffset).run();
+        } catch (UnusableSourceException e) {
+            // Most likely the file changed since it was probed, so the retry has to probe it afresh
+            if (metadataCache != null) {
+                metadataCache.invalidate(source);
+            }
+            throw e;
+        }
+
+        return Optional.ofNullable(metadata.contentMd5());
+    }
+
+    /**
+     * @return the file's metadata and where redirects lead to. Metadata from the cache is taken to describe
+     * {@code uri} itself; should it redirect after all, the transfer fails as unusable and the retry resolves it.
+     */
+    private HttpRangeClient.ResolvedFile probe(URI uri) throws IOException {
+        if (metadataCache != null) {
+            Optional<RemoteFileMetadata> cached = metadataCache.get(uri);
+            if (cached.isPresent()) {
+                return new HttpRangeClient.ResolvedFile(uri, cached.get());
+            }
+        }
+        HttpRangeClient.ResolvedFile resolved = httpClient.resolve(uri);
+        if (metadataCache != null) {
+            metadataCache.put(uri, resolved.metadata());
+        }
+        return resolved;
+    }
+
+    /**
+     * Restarts the partial file when it can't be a prefix of the current remote file.
+     */
+    private long validateResumeOffset(PartialFileOutputStream partialFile, RemoteFileMetadata metadata,
+                                      long startOffset) throws IOException {
+        if (startOffset == 0) {
+            return 0;
+        }
+        Optional<String> storedValidator = partialFile.storedValidator();
+        boolean changed = storedValidator.isPresent() && !storedValidator.equals(metadata.validator());
+        OptionalLong storedSize = partialFile.storedTotalSize();
+        boolean resized = storedSize.isPresent() && storedSize.getAsLong() != metadata.totalSize();
+        if (changed || resized || startOffset > metadata.totalSize()) {
+            LOGGER.warn("Partial file no longer matches the remote file; restarting download from 0.");
+            partialFile.truncate(0);
+            return 0;
+        }
+        return startOffset;
+    }
+
+    private static int indexOf(ByteBuffer buffer, byte[] needle) {
+        outer:
+        for (int i = 0; i <= buffer.position() - needle.length; i++) {
+            for (int j = 0; j < needle.length; j++) {
+                if (buffer.get(i + j) != needle[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * One download: its segments, the connections working on them and which bytes have landed so far.
+     * Connections live on the selector threads; the calling thread only waits for the last of them to close.
+     */
+    private class Transfer {
+        private final URI source;
+        private final InetSocketAddress address;
+        private final RemoteFileMetadata metadata;
+        private final PartialFileOutputStream partialFile;
+        private final long startOffset;
+        private final long totalSize;
+        private final SegmentScheduler scheduler;
+        private final TreeMap<Long, Long> completed = new TreeMap<>();
+        private final AtomicLong downloaded;
+        private final AtomicInteger openConnections = new AtomicInteger();
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+        private final AtomicInteger consecutiveStalls = new AtomicInteger();
+        private final String host;
+        // Set once the host throttled us and this transfer shed connections; it grows back as the host allows
+        private volatile boolean shedConnections;
+        private volatile ThrottledException lastThrottled;
+        private final CompletableFuture<Void> finished = new CompletableFuture<>();
+        private volatile IOException failure;
+
+        Transfer(URI source, InetSocketAddress address, RemoteFileMetadata metadata,
+                 PartialFileOutputStream partialFile, long startOffset) {
+            this.source = source;
+            this.host = HostThrottle.hostOf(source);
+            this.address = address;
+            this.metadata = metadata;
+            this.partialFile = partialFile;
+            this.startOffset = startOffset;
+            this.totalSize = metadata.totalSize();
+            this.downloaded = new AtomicLong(startOffset);
+            this.scheduler = new SegmentScheduler(startOffset, totalSize,
+                    config.getParallelConnections(), config.getChunkSize());
+        }
+
+        void run() throws IOException, InterruptedException {
+            notifyProgress(startOffset, totalSize);
+            int connections = scheduler.initialSegmentCount();
+            if (connections == 0) {
+                return;
+            }
+            int allowed = HostThrottle.global().allowedConnections(host, connections);
+            if (allowed < connections) {
+                LOGGER.info("{} throttled us recently; starting with {} of {} connections", host, allowed, connections);
+                connections = allowed;
+                shedConnections = true;
+            }
+            for (int i = 0; i < connections; i++) {
+                openConnection();
+            }
+
+            try {
+                finished.get();
+            } catch (InterruptedException e) {
+                // Connections notice on their next tick; wait for them so nothing writes once the file is trimmed
+                fail(new IOException("Download interrupted", e));
+                awaitConnectionsClosed();
+                keepContiguousPrefix();
+                throw e;
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+
+            if (failure == null && downloaded.get() < totalSize) {
+                // Connections shed at the same time can leave none to fail the transfer with the throttling
+                failure = lastThrottled != null ? lastThrottled : new IOException("Connections to " + source
+                        + " closed after " + downloaded.get() + " of " + totalSize + " bytes");
+            }
+            if (failure != null) {
+                keepContiguousPrefix();
+                throw failure;
+            }
+        }
+
+        private void awaitConnectionsClosed() {
+            boolean interrupted = false;
+            while (!finished.isDone()) {
+                try {
+                    finished.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    break;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void openConnection() {
+            openConnections.incrementAndGet();
+            NioEventLoop loop = loops.next();
+            try {
+                loop.execute(() -> new RangeConnection(this, loop).start());
+            } catch (RejectedExecutionException e) {
+                fail(new IOException("The NIO engine was closed", e));
+                connectionClosed();
+            }
+        }
+
+        void connectionClosed() {
+            if (openConnections.decrementAndGet() == 0) {
+                finished.complete(null);
+            }
+        }
+
+        void fail(IOException e) {
+            synchronized (this) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+
+        /**
+         * Counts a failed connection, and gives up on the transfer once too many fail in a row or the
+         * failure is one that another connection would run into as well.
+         *
+         * @return whether to carry on with a fresh connection
+         */
+        boolean recordFailure(IOException e) {
+            if (e instanceof ThrottledException throttled) {
+                HostThrottle.global().recordThrottled(host, throttled);
+                lastThrottled = throttled;
+                // This connection is closing; it goes for good while others remain, to take load off the host.
+                // The last one fails the transfer, so the retry waits out the Retry-After.
+                if (openConnections.get() <= 1) {
+                    fail(e);
+                    return false;
+                }
+                shedConnections = true;
+                return false;
+            }
+            if (e instanceof StallException) {
+                if (consecutiveStalls.incrementAndGet() >= MAX_CONSECUTIVE_STALLS) {
+                    fail(e);
+                    return false;
+                }
+                LOGGER.warn("{}; reconnecting", e.getMessage());
+                return failure == null;
+            }
+            boolean unusable = e instanceof UnusableSourceException || e instanceof FileNotFoundException;
+            if (unusable || consecutiveFailures.incrementAndGet() >= MAX_CONSECUTIVE_FAILURES) {
+                fail(e);
+                return false;
+            }
+            LOGGER.debug("Connection to {} failed, reconnecting: {}", source, e.getMessage());
+            return failure == null;
+        }
+
+        void recordSuccess() {
+            consecutiveFailures.set(0);
+            consecutiveStalls.set(0);
+            if (shedConnections && failure == null) {
+                growConnection();
+            }
+        }
+
+        /**
+         * Opens one more connection if the throttled host allows more than are open, until back at full strength.
+         */
+        private void growConnection() {
+            int configured = config.getParallelConnections();
+            int allowed = HostThrottle.global().allowedConnections(host, configured);
+            if (openConnections.get() < allowed && HostThrottle.global().pauseRemaining(host).isZero()) {
+                openConnection();
+            }
+            if (allowed >= configured) {
+                shedConnections = false;
+            }
+        }
+
+        void written(long bytes) {
+            notifyProgress(downloaded.addAndGet(bytes), totalSize);
+        }
+
+        synchronized void markCompleted(long start, long end) {
+            if (end > start) {
+                completed.merge(start, end, Math::max);
+            }
+        }
+
+        /**
+         * Parallel ranges leave holes when a download fails. Resuming works from the file length, so cut the
+         * file back to the bytes that are contiguous from the start.
+         */
+        private synchronized void keepContiguousPrefix() {
+            long contiguousEnd = startOffset;
+            for (Map.Entry<Long, Long> entry : completed.entrySet()) {
+                if (entry.getKey() > contiguousEnd) {
+                    break;
+                }
+                contiguousEnd = Math.max(contiguousEnd, entry.getValue());
+            }
+            try {
+                partialFile.truncate(contiguousEnd);
+                LOGGER.info("Kept {} contiguous bytes of the partial download for resuming", contiguousEnd);
+            } catch (IOException e) {
+                LOGGER.error("Could not trim partial download to its contiguous prefix: {}", e.getMessage());
+            }
+        }
+    }
+
+    private enum State { CONNECTING, SENDING, HEADERS, BODY }
+
+    /**
+     * One keep-alive connection working through segments of a transfer, one ranged GET at a time.
+     * Only ever touched by the thread of the loop it is registered with.
+     */
+    private class RangeConnection implements NioEventLoop.Handler {
+        private final Transfer transfer;
+        private final NioEventLoop loop;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(config.getBufferSize());
+        private SocketChannel channel;
+        private SelectionKey key;
+        private State state = State.CONNECTING;
+        private ByteBuffer request;
+        private SegmentScheduler.Segment segment;
+        private long segmentFrom;
+        private long bodyRemaining;
+        private boolean keepAlive;
+        private long lastActivity = System.nanoTime();
+        // Body bytes since speedWindowStart, and how long the connection has been below the low-speed limit
+        private long speedWindowStart;
+        private long speedWindowBytes;
+        private long slowNanos;
+        private boolean closed;
+
+        RangeConnection(Transfer transfer, NioEventLoop loop) {
+            this.transfer = transfer;
+            this.loop = loop;
+        }
+
+        void start() {
+            try {
+                channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                if (config.getSocketReceiveBufferSize() > 0) {
+                    // Has to be set before connecting for the TCP window scale to take it into account
+                    channel.setOption(StandardSocketOptions.SO_RCVBUF, config.getSocketReceiveBufferSize());
+                }
+                key = loop.register(channel, SelectionKey.OP_CONNECT, this);
+                if (channel.connect(transfer.address)) {
+                    nextSegment();
+                }
+            } catch (IOException | RuntimeException e) {
+                if (key != null) {
+                    NioEventLoop.closeQuietly(key);
+                } else if (channel != null) {
+                    try {
+                        channel.close();
+                    } catch (IOException ignored) {
+                        // Nothing to salvage
+                    }
+                }
+                failed(e instanceof IOException io ? io : new IOException(e));
+            }
+        }
+
+        @Override
+        public void ready(SelectionKey key) throws IOException {
+            if (transfer.failure != null) {
+                close();
+                return;
+            }
+            if (key.isConnectable() && channel.finishConnect()) {
+                nextSegment();
+                return;
+            }
+            if (key.isWritable()) {
+                channel.write(request);
+                lastActivity = System.nanoTime();
+                if (!request.hasRemaining()) {
+                    state = State.HEADERS;
+                    buffer.clear();
+                    key.interestOps(SelectionKey.OP_READ);
+                }
+                return;
+            }
+            if (key.isReadable()) {
+                read();
+            }
+        }
+
+        @Override
+        public void tick(long nowNanos) throws IOException {
+            if (transfer.failure != null) {
+                close();
+                return;
+            }
+            long timeout = (state == State.CONNECTING ? config.getConnectTimeout() : config.getReadTimeout()).toNanos();
+            if (nowNanos - lastActivity > timeout) {
+                throw new SocketTimeoutException((state == State.CONNECTING ? "Connect" : "Read")
+                        + " timed out talking to " + transfer.source);
+            }
+            checkSpeed(nowNanos);
+        }
+
+        /**
+         * Drops the connection once it has been below the low-speed limit for the low-speed time, as curl does.
+         */
+        private void checkSpeed(long nowNanos) throws StallException {
+            long elapsed = nowNanos - speedWindowStart;
+            if (config.getLowSpeedLimit() == 0 || segment == null || elapsed < SPEED_WINDOW_NANOS) {
+                return;
+            }
+            boolean slow = speedWindowBytes * 1_000_000_000L / elapsed < config.getLowSpeedLimit();
+            slowNanos = slow ? slowNanos + elapsed : 0;
+            speedWindowStart = nowNanos;
+            speedWindowBytes = 0;
+            if (slowNanos >= config.getLowSpeedTime().toNanos()) {
+                throw new StallException("Connection to " + transfer.source + " stalled below "
+                        + config.getLowSpeedLimit() + " bytes/s at byte " + segment.position());
+            }
+        }
+
+        @Override
+        public void failed(IOException e) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (segment != null) {
+                transfer.markCompleted(segmentFrom, segment.position());
+                transfer.scheduler.fail(segment);
+                segment = null;
+            }
+            if (transfer.recordFailure(e)) {
+                transfer.openConnection();
+            }
+            transfer.connectionClosed();
+        }
+
+        /**
+         * Sends the request for the next segment on this connection, or closes it when there is nothing left.
+         */
+        private void nextSegment() {
+            Optional<SegmentScheduler.Segment> next = transfer.failure == null
+                    ? transfer.scheduler.next()
+                    : Optional.empty();
+            if (next.isEmpty()) {
+                close();
+                return;
+            }
+            segment = next.get();
+            segmentFrom = segment.position();
+            request = ByteBuffer.wrap(requestFor(segmentFrom, segment.end() - 1));
+            state = State.SENDING;
+            lastActivity = System.nanoTime();
+            speedWindowStart = lastActivity;
+            speedWindowBytes = 0;
+            slowNanos = 0;
+            key.interestOps(SelectionKey.OP_WRITE);
+        }
+
+        private byte[] requestFor(long from, long to) {
+            URI source = transfer.source;
+            String path = source.getRawPath() == null || source.getRawPath().isEmpty() ? "/" : source.getRawPath();
+            if (source.getRawQuery() != null) {
+                path += "?" + source.getRawQuery();
+            }
+            StringBuilder request = new StringBuilder()
+                    .append("GET ").append(path).append(" HTTP/1.1\r\n")
+                    .append("Host: ").append(source.getHost())
+                    .append(source.getPort() == -1 ? "" : ":" + source.getPort()).append("\r\n")
+                    .append("Range: bytes=").append(from).append('-').append(to).append("\r\n")
+                    .append("Accept-Encoding: identity\r\n");
+            // A changed file then answers 200 instead of splicing bytes of two versions together
+            transfer.metadata.validator().ifPresent(validator ->
+                    request.append("If-Range: ").append(validator).append("\r\n"));
+            request.append("Connection: keep-alive\r\n\r\n");
+            return request.toString().getBytes(StandardCharsets.ISO_8859_1);
+        }
+
+        private void read() throws IOException {
+            int read = channel.read(buffer);
+            if (read == -1) {
+                throw new IOException("Connection to " + transfer.source + " closed after "
+                        + (segment == null ? 0 : segment.position() - segmentFrom) + " bytes of the range");
+            }
+            if (read == 0) {
+                return;
+            }
+            lastActivity = System.nanoTime();
+            if (state == State.HEADERS) {
+                int headerEnd = indexOf(buffer, HEADER_END);
+                if (headerEnd < 0) {
+                    if (!buffer.hasRemaining() || buffer.position() >= MAX_HEADER_SIZE) {
+                        throw new IOException("Response headers from " + transfer.source + " are too large");
+                    }
+                    return;
+                }
+                byte[] header = new byte[headerEnd];
+                buffer.flip();
+                buffer.get(header);
+                buffer.position(headerEnd + HEADER_END.length);
+                buffer.compact();
+                parseResponse(new String(header, StandardCharsets.ISO_8859_1));
+                state = State.BODY;
+            }
+            writeBody();
+        }
+
+        private void parseResponse(String header) throws IOException {
+            String[] lines = header.split("\r\n");
+            String[] status = lines[0].split(" ", 3);
+            if (status.length < 2 || !status[0].startsWith("HTTP/1.")) {
+                throw new IOException("Malformed status line from " + transfer.source + ": " + lines[0]);
+            }
+            int code;
+            try {
+                code = Integer.parseInt(status[1]);
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed status line from " + transfer.source + ": " + lines[0]);
+            }
+            Map<String, String> headers = new HashMap<>();
+            for (int i = 1; i < lines.length; i++) {
+                int colon = lines[i].indexOf(':');
+                if (colon > 0) {
+                    headers.put(lines[i].substring(0, colon).trim().toLowerCase(Locale.ROOT),
+                            lines[i].substring(colon + 1).trim());
+                }
+            }
+
+            if (code == 404) {
+                throw new FileNotFoundException("Resource not found: " + transfer.source);
+            }
+            if (ThrottledException.isThrottlingStatus(code)) {
+                throw ThrottledException.forResponse(transfer.source, code, headers.get("retry-after"));
+            }
+            if (code >= 400) {
+                throw new IOException("HTTP error: " + code + " for " + transfer.source);
+            }
+            if (code != 206) {
+                throw new UnusableSourceException(transfer.source + " ignored the range request (HTTP " + code
+                        + "); the file may have changed");
+            }
+            if (headers.containsKey("transfer-encoding")
+                    || ContentDecoding.isEncoded(headers.get("content-encoding"))) {
+                throw new UnusableSourceException(transfer.source + " sent an encoded range, which isn't supported");
+            }
+            ContentRange contentRange = ContentRange.parse(headers.get("content-range"))
+                    .orElseThrow(() -> new IOException("Missing Content-Range for ranged response from "
+                            + transfer.source));
+            if (contentRange.start() != segmentFrom
+                    || (contentRange.isTotalKnown() && contentRange.total() != transfer.totalSize)) {
+                throw new UnusableSourceException(transfer.source + " answered with unexpected range "
+                        + headers.get("content-range"));
+            }
+            bodyRemaining = contentRange.end() - contentRange.start() + 1;
+            keepAlive = status[0].equals("HTTP/1.1") && !"close".equalsIgnoreCase(headers.get("connection"));
+        }
+
+        /**
+         * Writes the body bytes in the buffer that still belong to the segment. Once the segment is done the
+         * connection moves on to the next one, on a fresh connection if the response isn't finished because
+         * another connection stole the segment's tail in the meantime.
+         */
+        private void writeBody() throws IOException {
+            buffer.flip();
+            long take = Math.min(buffer.remaining(), Math.min(bodyRemaining, segment.remaining()));
+            if (take > 0) {
+                long position = segment.position();
+                ByteBuffer body = buffer.duplicate();
+                body.limit(body.position() + (int) take);
+                transfer.partialFile.writeAt(body, position);
+                buffer.position(buffer.position() + (int) take);
+                bodyRemaining -= take;
+                speedWindowBytes += take;
+                transfer.written(segment.advance(take));
+            }
+            buffer.compact();
+
+            if (segment.remaining() == 0) {
+                transfer.markCompleted(segmentFrom, segment.position());
+                transfer.scheduler.complete(segment);
+                transfer.recordSuccess();
+                segment = null;
+                if (bodyRemaining == 0 && keepAlive && buffer.position() == 0) {
+                    nextSegment();
+                } else {
+                    // Open the replacement first so the transfer never looks finished in between
+                    if (transfer.failure == null) {
+                        transfer.openConnection();
+                    }
+                    close();
+                }
+            } else if (bodyRemaining == 0) {
+                throw new IOException(transfer.source + " ended the range short of the requested bytes");
+            }
+        }
+
+        private void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (segment != null) {
+                transfer.markCompleted(segmentFrom, segment.position());
+                transfer.scheduler.fail(segment);
+                segment = null;
+            }
+            NioEventLoop.closeQuietly(key);
+            transfer.connectionClosed();
+        }
+    }
+
+    // The server can't serve this file correctly, so another connection would fail the same way
+    private static class UnusableSourceException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        UnusableSourceException(String message) {
+            super(message);
+        }
+    }
+
+    private class ProgressForwarder implements DownloadProgressObserver {
+        @Override
+        public void onProgressUpdate(long bytesDownloaded, long totalBytes) {
+            notifyProgress(bytesDownloaded, totalBytes);
+        }
+
+        @Override
+        public void onComplete() {
+            // Completion is reported by this downloader itself
+        }
+
+        @Override
+        public void onError(Exception e) {
+            // Errors are reported by this downloader itself
+        }
+    }
+}
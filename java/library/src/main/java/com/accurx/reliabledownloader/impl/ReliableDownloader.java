@@ -3,7 +3,14 @@ package com.accurx.reliabledownloader.impl;
 import com.accurx.reliabledownloader.core.AbstractDownloader;
 import com.accurx.reliabledownloader.core.DownloaderConfig;
 import com.accurx.reliabledownloader.core.FileDownloader;
+import com.accurx.reliabledownloader.core.PartialFileOutputStream;
 import com.accurx.reliabledownloader.core.RangeNotSupportedException;
+import com.accurx.reliabledownloader.core.RemoteFileMetadata;
+import com.accurx.reliabledownloader.core.StallException;
+import com.accurx.reliabledownloader.core.ThrottledException;
+import com.accurx.reliabledownloader.util.ContentRange;
+import com.accurx.reliabledownloader.util.DigestAlgorithm;
+import com.accurx.reliabledownloader.util.MultiDigest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -14,17 +21,63 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URI;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.Base64;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ReliableDownloader extends AbstractDownloader implements FileDownloader {
     private static final Logger LOGGER = LoggerFactory.getLogger(ReliableDownloader.class);
+    // A chunk is hedged once it has run this many times the p95 of recent chunks...
+    private static final double HEDGE_PERCENTILE = 0.95;
+    private static final double HEDGE_DELAY_FACTOR = 2.0;
+    // ...but never sooner than this, so ordinary jitter on a fast connection doesn't cause duplicate requests
+    private static final long MIN_HEDGE_DELAY_MILLIS = 1000;
+    // Completed chunks needed before the p95 is trusted
+    private static final int MIN_HEDGE_SAMPLES = 5;
+    private static final int CHUNK_LATENCY_WINDOW = 100;
+    // Give up on the download after this many stalled connections in a row that didn't deliver a single byte
+    private static final int MAX_STALLS_WITHOUT_PROGRESS = 3;
+    private static final ExecutorService HEDGE_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "hedged-chunk-request");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     private final DownloaderConfig config;
+    private final MetadataCache metadataCache;
+    private final HttpRangeClient httpClient;
+    private final LatencyTracker chunkLatency = new LatencyTracker(CHUNK_LATENCY_WINDOW);
+    private final AtomicInteger hedgesIssued = new AtomicInteger();
+    private final LowSpeedWatchdog lowSpeedWatchdog;
+    private final AtomicInteger stalls = new AtomicInteger();
 
     public ReliableDownloader(DownloaderConfig config) {
+        this(config, null);
+    }
+
+    /**
+     * @param metadataCache shared cache of probe results, or null to always probe the server
+     */
+    public ReliableDownloader(DownloaderConfig config, MetadataCache metadataCache) {
         this.config = config;
+        this.metadataCache = metadataCache;
+        this.httpClient = new HttpRangeClient(config);
+        this.lowSpeedWatchdog = LowSpeedWatchdog.from(config);
+    }
+
+    /**
+     * @return how many connections were dropped for staying below the low-speed limit. They are re-requested on a
+     * fresh connection rather than failing the download, so they are not among its errors.
+     */
+    public int getStallCount() {
+        return stalls.get();
     }
 
     @Override
@@ -39,16 +92,46 @@ public class ReliableDownloader extends AbstractDownloader implements FileDownlo
 
     @Override
     public Optional<String> performDownload(URI contentFileUrl, OutputStream destination, long startOffset) throws Exception {
+        PartialFileOutputStream partialFile = destination instanceof PartialFileOutputStream p ? p : null;
+        chunkLatency.reset();
+        hedgesIssued.set(0);
+
+        // A partial file fetched against a known validator can be resumed with a single If-Range GET:
+        // the server answers 206 if it is unchanged, or the complete new body if it is not.
+        String ifRange = null;
+        if (config.isResumeSupport() && startOffset > 0 && partialFile != null) {
+            ifRange = partialFile.storedValidator().orElse(null);
+        }
+
+        // Resume a little before the end of the partial file and compare the overlap with what is on disk,
+        // so a torn write from the previous run is cut off at the first bad byte instead of being built upon
+        OutputStream output = destination;
+        if (config.isResumeSupport() && startOffset > 0 && partialFile != null && config.getResumeOverlapSize() > 0) {
+            long overlapStart = Math.max(0, startOffset - config.getResumeOverlapSize());
+            LOGGER.info("Downloading bytes {}-{} again to check the end of the partial file.",
+                    overlapStart, startOffset - 1);
+            output = new OverlapCheckingOutputStream(partialFile, overlapStart, startOffset);
+            startOffset = overlapStart;
+        }
+
+        if (!config.isHeadProbeEnabled() || ifRange != null) {
+            return performProbelessDownload(contentFileUrl, destination, output, startOffset, ifRange);
+        }
+
         long totalSize = -1; // Overall total size
         boolean supportsRangeRequests = false;
+        String advertisedMd5;
+        String validator;
         long currentDownloadedBytes = startOffset; // Initialize with startOffset for resuming
 
         try {
             // Step 1: Initialize download (get total size, check range support)
             // Pass the current offset to initializeDownload to verify consistency with server
-            DownloadInitializationResult initResult = initializeDownload(contentFileUrl, startOffset);
+            RemoteFileMetadata initResult = resolveMetadata(contentFileUrl, startOffset);
             totalSize = initResult.totalSize();
             supportsRangeRequests = initResult.supportsRangeRequests();
+            advertisedMd5 = initResult.contentMd5();
+            validator = initResult.validator().orElse(null);
 
             // If the server doesn't support range requests, we must start from 0 regardless of startOffset
             if (!supportsRangeRequests && startOffset > 0) {
@@ -56,6 +139,11 @@ public class ReliableDownloader extends AbstractDownloader implements FileDownlo
                         "Throwing RangeNotSupportedException");
                 throw new RangeNotSupportedException();
             }
+
+            if (startOffset == 0) {
+                storeResumeMetadata(partialFile, initResult);
+            }
+            reportDigests(partialFile, initResult);
         } catch (Exception e) {
             LOGGER.error("Download Initialization failed: {}", e.getMessage());
             throw e;
@@ -68,40 +156,91 @@ public class ReliableDownloader extends AbstractDownloader implements FileDownlo
                 LOGGER.info("File already fully downloaded. Skipping download process.");
             }
 
-            ByteArrayOutputStream md5Buffer = null;
+            MultiDigest md5 = null;
             if (startOffset == 0 && config.isVerifyHash()) {
-                md5Buffer = new ByteArrayOutputStream();
+                md5 = new MultiDigest(EnumSet.of(DigestAlgorithm.MD5));
             }
             OutputStream finalDestination;
-            if (md5Buffer != null) {
-                finalDestination = new MultiOutputStream(destination, md5Buffer);
+            if (md5 != null) {
+                finalDestination = new MultiOutputStream(output, md5.asOutputStream());
             } else {
-                finalDestination = destination;
+                finalDestination = output;
             }
 
             // Notify initial progress with the existing downloaded bytes
             notifyProgress(currentDownloadedBytes, totalSize);
 
             // Step 2: Download chunks
-            // Loop until all bytes are downloaded
-            while (currentDownloadedBytes < totalSize) {
-                // Pass the current offset and get the bytes downloaded in this chunk
-                long bytesInThisChunk = downloadChunk(contentFileUrl, finalDestination,
-                        currentDownloadedBytes, totalSize, supportsRangeRequests);
-
-                // Add the bytes downloaded in this chunk to the cumulative total
-                currentDownloadedBytes += bytesInThisChunk;
+            // Cached metadata may be out of date, so pin the download to the version it describes
+            downloadRemainingChunks(contentFileUrl, finalDestination, currentDownloadedBytes, totalSize,
+                    supportsRangeRequests, validator);
 
-                // Notify progress *after* updating the cumulative downloaded bytes
-                notifyProgress(currentDownloadedBytes, totalSize);
+            // Step 3: Verify hash if configured. The server's Content-MD5 is preferred, as it also catches
+            // bytes corrupted in transit (and blocks repaired afterwards); the hash of what we received is the fallback
+            if (config.isVerifyHash() && advertisedMd5 != null) {
+                return Optional.of(advertisedMd5);
             }
+            if (config.isVerifyHash() && md5 != null) {
+                return md5.digests().get(DigestAlgorithm.MD5);
+            }
+
+            return Optional.empty();
+        } catch (Exception e) {
+            LOGGER.error("Download failed: {}", e.getMessage());
+            throw e;
+        }
+    }
 
-            // Step 3: Verify hash if configured
-            if (config.isVerifyHash() && md5Buffer != null) {
-                String contentMd5 = calculateMd5(md5Buffer.toByteArray());
-                return Optional.of(contentMd5);
+    /**
+     * Downloads without a HEAD probe. The first request is already a ranged GET for the first chunk,
+     * and the file size, range support and validators are taken from its response headers.
+     * Files no larger than one chunk therefore complete in a single request.
+     * When {@code ifRange} is set the first request is conditional on the partial file still being current.
+     *
+     * @param destination the stream the caller was given
+     * @param output      where the body is written, i.e. {@code destination} or an overlap check in front of it
+     */
+    private Optional<String> performProbelessDownload(URI contentFileUrl, OutputStream destination,
+                                                      OutputStream output, long startOffset, String ifRange)
+            throws Exception {
+        // A conditional resume may turn into a fresh download, so hash in that case too
+        MultiDigest md5 = null;
+        if ((startOffset == 0 || ifRange != null) && config.isVerifyHash()) {
+            md5 = new MultiDigest(EnumSet.of(DigestAlgorithm.MD5));
+        }
+        OutputStream finalDestination = md5 != null
+                ? new MultiOutputStream(output, md5.asOutputStream())
+                : output;
+
+        FirstChunkResult firstChunk;
+        try {
+            firstChunk = downloadFirstChunk(contentFileUrl, destination, finalDestination, startOffset, ifRange);
+            if (firstChunk.startOffset() == 0) {
+                storeResumeMetadata(destination, firstChunk.metadata());
+            }
+            reportDigests(destination, firstChunk.metadata());
+            if (metadataCache != null) {
+                metadataCache.put(contentFileUrl, firstChunk.metadata());
             }
+        } catch (Exception e) {
+            LOGGER.error("Download Initialization failed: {}", e.getMessage());
+            throw e;
+        }
+
+        try {
+            RemoteFileMetadata metadata = firstChunk.metadata();
+            long currentDownloadedBytes = firstChunk.startOffset() + firstChunk.bytesRead();
+            notifyProgress(currentDownloadedBytes, metadata.totalSize());
 
+            downloadRemainingChunks(contentFileUrl, finalDestination, currentDownloadedBytes, metadata.totalSize(),
+                    metadata.supportsRangeRequests(), metadata.validator().orElse(null));
+
+            if (config.isVerifyHash() && metadata.contentMd5() != null) {
+                return Optional.of(metadata.contentMd5());
+            }
+            if (config.isVerifyHash() && md5 != null && firstChunk.startOffset() == 0) {
+                return md5.digests().get(DigestAlgorithm.MD5);
+            }
             return Optional.empty();
         } catch (Exception e) {
             LOGGER.error("Download failed: {}", e.getMessage());
@@ -109,12 +248,243 @@ public class ReliableDownloader extends AbstractDownloader implements FileDownlo
         }
     }
 
-    private DownloadInitializationResult initializeDownload(URI contentFileUrl, long currentOffset) throws IOException {
+    /**
+     * Loops until all bytes are downloaded.
+     *
+     * @param validator sent in {@code If-Range} with every chunk, so a file replaced since its metadata was taken,
+     *                  or part way through, restarts the download instead of mixing two versions; null to send none
+     */
+    private void downloadRemainingChunks(URI contentFileUrl, OutputStream destination,
+                                         long currentDownloadedBytes, long totalSize,
+                                         boolean supportsRangeRequests, String validator)
+            throws IOException, RangeNotSupportedException {
+        int stallsWithoutProgress = 0;
+        while (currentDownloadedBytes < totalSize) {
+            // Pass the current offset and get the bytes downloaded in this chunk
+            int stallsBefore = stalls.get();
+            long bytesInThisChunk = downloadChunk(contentFileUrl, destination,
+                    currentDownloadedBytes, totalSize, supportsRangeRequests, validator);
+            if (stalls.get() == stallsBefore || bytesInThisChunk > 0) {
+                stallsWithoutProgress = 0;
+            } else if (++stallsWithoutProgress >= MAX_STALLS_WITHOUT_PROGRESS) {
+                throw new StallException("Gave up on " + contentFileUrl + " after " + stallsWithoutProgress
+                        + " stalled connections in a row without progress");
+            }
+
+            // Add the bytes downloaded in this chunk to the cumulative total
+            currentDownloadedBytes += bytesInThisChunk;
+
+            // Notify progress *after* updating the cumulative downloaded bytes
+            notifyProgress(currentDownloadedBytes, totalSize);
+        }
+    }
+
+    /**
+     * Issues the first data request of a probe-less download and streams its body to the destination.
+     * A 206 carries the total size in Content-Range; a 200 means the server ignored the range (or, for an
+     * If-Range request, that the file changed), in which case the whole body is consumed here.
+     *
+     * @param target the stream the caller was given, used to restart a partial file in place
+     * @param destination where the body is written (possibly {@code target} teed into a hash buffer)
+     */
+    private FirstChunkResult downloadFirstChunk(URI contentFileUrl, OutputStream target, OutputStream destination,
+                                                long startOffset, String ifRange)
+            throws IOException, RangeNotSupportedException {
         HttpURLConnection conn = null;
+        LowSpeedWatchdog.Watch watch = null;
         try {
-            conn = (HttpURLConnection) contentFileUrl.toURL().openConnection();
-            conn.setConnectTimeout((int) config.getConnectTimeout().toMillis());
-            conn.setReadTimeout((int) config.getReadTimeout().toMillis());
+            conn = httpClient.open(contentFileUrl);
+            conn.setReadTimeout((int) lowSpeedWatchdog.readTimeout(config.getReadTimeout()).toMillis());
+            watch = lowSpeedWatchdog.watch(conn::disconnect);
+            if (config.isResumeSupport()) {
+                long endByte = startOffset + config.getChunkSize() - 1;
+                conn.setRequestProperty("Range", String.format("bytes=%d-%d", startOffset, endByte));
+                LOGGER.debug("Sending probe-less ranged GET: bytes={}-{}", startOffset, endByte);
+            }
+            if (ifRange != null) {
+                conn.setRequestProperty("If-Range", ifRange);
+                LOGGER.debug("Resuming conditionally with If-Range: {}", ifRange);
+            }
+            if (!config.isResumeSupport() && config.isCompressionEnabled()) {
+                conn.setRequestProperty("Accept-Encoding", ContentDecoding.ACCEPT_ENCODING);
+            }
+
+            int responseCode = conn.getResponseCode();
+            if (responseCode == 416) {
+                return handleUnsatisfiableFirstRange(contentFileUrl, conn, startOffset);
+            }
+            if (responseCode >= HttpURLConnection.HTTP_BAD_REQUEST) {
+                String responseMessage = conn.getResponseMessage();
+                if (responseCode == HttpURLConnection.HTTP_NOT_FOUND) {
+                    throw new FileNotFoundException("Resource not found: " + contentFileUrl);
+                } else if (responseCode == HttpURLConnection.HTTP_FORBIDDEN) {
+                    throw new SecurityException("Access forbidden: " + contentFileUrl);
+                } else if (ThrottledException.isThrottlingStatus(responseCode)) {
+                    throw ThrottledException.forResponse(contentFileUrl, responseCode,
+                            conn.getHeaderField("Retry-After"));
+                } else {
+                    throw new IOException("HTTP error: " + responseCode + " " + responseMessage + " for " + contentFileUrl);
+                }
+            }
+
+            long totalSize;
+            boolean supportsRangeRequests;
+            if (responseCode == HttpURLConnection.HTTP_PARTIAL) {
+                ContentRange contentRange = ContentRange.parse(conn.getHeaderField("Content-Range"))
+                        .filter(ContentRange::isTotalKnown)
+                        .orElseThrow(() -> new IOException("Could not determine file size for " + contentFileUrl));
+                totalSize = contentRange.total();
+                supportsRangeRequests = true;
+                if (ifRange != null && target instanceof PartialFileOutputStream partialFile) {
+                    OptionalLong storedSize = partialFile.storedTotalSize();
+                    if (storedSize.isPresent() && storedSize.getAsLong() != totalSize) {
+                        // The validator still matches, yet this is another file: replaced within Last-Modified's second
+                        LOGGER.warn("Remote file size changed from {} to {} bytes since the partial download. " +
+                                "Restarting from 0.", storedSize.getAsLong(), totalSize);
+                        throw new RangeNotSupportedException();
+                    }
+                }
+            } else if (responseCode == HttpURLConnection.HTTP_OK) {
+                if (startOffset > 0) {
+                    if (ifRange == null || !(target instanceof PartialFileOutputStream partialFile)) {
+                        LOGGER.warn("Server ignored Range header while resuming. Throwing RangeNotSupportedException");
+                        throw new RangeNotSupportedException();
+                    }
+                    LOGGER.warn("Remote file changed since the partial download (If-Range did not match). " +
+                            "Discarding {} bytes and using the full response instead.", startOffset);
+                    partialFile.truncate(0);
+                    startOffset = 0;
+                }
+                totalSize = conn.getContentLengthLong();
+                supportsRangeRequests = false;
+            } else {
+                throw new IOException("HTTP error: " + responseCode + " " + conn.getResponseMessage()
+                        + " for " + contentFileUrl);
+            }
+
+            RemoteFileMetadata metadata = HttpRangeClient.readMetadata(conn, totalSize, supportsRangeRequests);
+            LOGGER.info("Download size: {} bytes, Resume support: {}", totalSize, supportsRangeRequests);
+            ContentDecoding decoding = contentDecoding(contentFileUrl, conn, metadata, supportsRangeRequests);
+
+            long bytesRead = 0;
+            try (InputStream in = decoding == null ? conn.getInputStream() : decoding.decode(conn.getInputStream())) {
+                byte[] buffer = new byte[config.getBufferSize()];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    destination.write(buffer, 0, read);
+                    bytesRead += read;
+                    watch.record(read);
+                    if (watch.stalled()) {
+                        throw watch.stallException(contentFileUrl);
+                    }
+                }
+            }
+
+            long received = decoding == null ? bytesRead : decoding.wireBytes();
+            if (!supportsRangeRequests && totalSize != -1 && received < totalSize) {
+                throw new IOException("Connection closed after " + received + " of " + totalSize
+                        + " bytes for " + contentFileUrl);
+            }
+            if (decoding != null) {
+                decoding.verify(contentFileUrl);
+                // Size and digests in the headers describe the encoded body; the file is what it decoded to
+                metadata = new RemoteFileMetadata(startOffset + bytesRead, false, metadata.etag(),
+                        metadata.lastModified(), null);
+            } else if (totalSize == -1) {
+                // No Content-Length on a full response: the body we just consumed is the whole file.
+                metadata = HttpRangeClient.readMetadata(conn, startOffset + bytesRead, false);
+            }
+            return new FirstChunkResult(metadata, startOffset, bytesRead);
+        } catch (IOException e) {
+            if (watch != null && watch.stalled(e)) {
+                stalls.incrementAndGet();
+                throw watch.stallException(contentFileUrl);
+            }
+            throw e;
+        } finally {
+            if (watch != null) {
+                watch.close();
+            }
+            if (conn != null) {
+                conn.disconnect();
+            }
+        }
+    }
+
+    private FirstChunkResult handleUnsatisfiableFirstRange(URI contentFileUrl, HttpURLConnection conn, long startOffset)
+            throws RangeNotSupportedException {
+        long remoteSize = ContentRange.parse(conn.getHeaderField("Content-Range"))
+                .filter(ContentRange::isTotalKnown)
+                .map(ContentRange::total)
+                .orElse(startOffset == 0 ? 0L : -1L);
+
+        if (remoteSize == startOffset) {
+            // Either an empty remote file, or a partial file that is in fact already complete.
+            LOGGER.info("Requested range starts at end of file ({} bytes); nothing left to download.", remoteSize);
+            return new FirstChunkResult(HttpRangeClient.readMetadata(conn, remoteSize, true), startOffset, 0);
+        }
+
+        LOGGER.warn("Server returned 416 (Range Not Satisfiable) for offset {} of {}. " +
+                "The local partial file no longer matches the remote file; restarting from 0.",
+                startOffset, contentFileUrl);
+        throw new RangeNotSupportedException();
+    }
+
+    /**
+     * Returns the metadata for the file, from the shared cache when a recent probe of this URI is available,
+     * otherwise by probing the server (and caching the result).
+     */
+    private RemoteFileMetadata resolveMetadata(URI contentFileUrl, long startOffset) throws IOException {
+        if (metadataCache != null) {
+            Optional<RemoteFileMetadata> cached = metadataCache.get(contentFileUrl);
+            if (cached.isPresent() && startOffset <= cached.get().totalSize()) {
+                LOGGER.info("Download size: {} bytes, Resume support: {} (cached)",
+                        cached.get().totalSize(), cached.get().supportsRangeRequests());
+                return cached.get();
+            }
+        }
+        RemoteFileMetadata metadata = initializeDownload(contentFileUrl, startOffset);
+        if (metadataCache != null) {
+            metadataCache.put(contentFileUrl, metadata);
+        }
+        return metadata;
+    }
+
+    private void verifyTotalSize(URI contentFileUrl, HttpURLConnection conn, long expectedTotalSize)
+            throws IOException {
+        Optional<ContentRange> contentRange = ContentRange.parse(conn.getHeaderField("Content-Range"));
+        if (contentRange.isPresent() && contentRange.get().isTotalKnown()
+                && contentRange.get().total() != expectedTotalSize) {
+            if (metadataCache != null) {
+                metadataCache.invalidate(contentFileUrl);
+            }
+            throw new IOException("Remote file size changed from " + expectedTotalSize + " to "
+                    + contentRange.get().total() + " bytes during download of " + contentFileUrl);
+        }
+    }
+
+    private void storeResumeMetadata(OutputStream destination, RemoteFileMetadata metadata) {
+        if (destination instanceof PartialFileOutputStream partialFile) {
+            try {
+                partialFile.storeMetadata(metadata);
+            } catch (IOException e) {
+                // Only costs us a conditional resume later, so don't fail the download over it
+                LOGGER.warn("Could not persist resume metadata: {}", e.getMessage());
+            }
+        }
+    }
+
+    // Passes the advertised digests on, so the command can verify with the one its policy prefers
+    private void reportDigests(OutputStream destination, RemoteFileMetadata metadata) {
+        if (destination instanceof PartialFileOutputStream partialFile) {
+            partialFile.expectDigests(metadata.digests());
+        }
+    }
+
+    private RemoteFileMetadata initializeDownload(URI contentFileUrl, long currentOffset) throws IOException {
+        HttpURLConnection conn = null;
+        try {
+            conn = httpClient.open(contentFileUrl);
             conn.setRequestMethod("HEAD");
 
             // If resuming, send a Range header even for the HEAD request to check consistency
@@ -134,9 +504,7 @@ public class ReliableDownloader extends AbstractDownloader implements FileDownlo
                 currentOffset = 0; // Reset offset, force full download
                 // Re-try HEAD request without Range header to get correct total size
                 conn.disconnect(); // Disconnect current connection
-                conn = (HttpURLConnection) contentFileUrl.toURL().openConnection();
-                conn.setConnectTimeout((int) config.getConnectTimeout().toMillis());
-                conn.setReadTimeout((int) config.getReadTimeout().toMillis());
+                conn = httpClient.open(contentFileUrl);
                 conn.setRequestMethod("HEAD");
                 conn.connect();
                 responseCode = conn.getResponseCode(); // Get new response code
@@ -148,6 +516,9 @@ public class ReliableDownloader extends AbstractDownloader implements FileDownlo
                     throw new FileNotFoundException("Resource not found: " + contentFileUrl);
                 } else if (responseCode == HttpURLConnection.HTTP_FORBIDDEN) {
                     throw new SecurityException("Access forbidden: " + contentFileUrl);
+                } else if (ThrottledException.isThrottlingStatus(responseCode)) {
+                    throw ThrottledException.forResponse(contentFileUrl, responseCode,
+                            conn.getHeaderField("Retry-After"));
                 } else {
                     throw new IOException("HTTP error: " + responseCode + " " + responseMessage + " for " + contentFileUrl);
                 }
@@ -180,9 +551,7 @@ public class ReliableDownloader extends AbstractDownloader implements FileDownlo
                         contentFileUrl);
                 HttpURLConnection getConn = null; // Corrected: new connection for GET
                 try {
-                    getConn = (HttpURLConnection) contentFileUrl.toURL().openConnection();
-                    getConn.setConnectTimeout((int) config.getConnectTimeout().toMillis());
-                    getConn.setReadTimeout((int) config.getReadTimeout().toMillis());
+                    getConn = httpClient.open(contentFileUrl);
                     getConn.setRequestMethod("GET");
                     // Request a small range to avoid downloading the whole file
                     getConn.setRequestProperty("Range", "bytes=0-0"); // Request just 1 byte
@@ -226,7 +595,7 @@ public class ReliableDownloader extends AbstractDownloader implements FileDownlo
 
 
             LOGGER.info("Download size: {} bytes, Resume support: {}", totalSize, supportsRangeRequests);
-            return new DownloadInitializationResult(totalSize, supportsRangeRequests);
+            return HttpRangeClient.readMetadata(conn, totalSize, supportsRangeRequests);
         } finally {
             if (conn != null) {
                 conn.disconnect();
@@ -234,19 +603,33 @@ public class ReliableDownloader extends AbstractDownloader implements FileDownlo
         }
     }
 
-    private long downloadChunk(URI contentFileUrl, OutputStream destination,
-                               long currentOffset, long totalSize, boolean supportsRangeRequests) throws IOException {
+    private long downloadChunk(URI contentFileUrl, OutputStream destination, long currentOffset, long totalSize,
+                               boolean supportsRangeRequests, String ifRange)
+            throws IOException, RangeNotSupportedException {
+        long startedAt = System.nanoTime();
+        ChunkRace race = supportsRangeRequests
+                ? scheduleHedge(contentFileUrl, currentOffset, Math.min(currentOffset + config.getChunkSize(), totalSize),
+                        totalSize, ifRange)
+                : null;
         HttpURLConnection conn = null;
+        LowSpeedWatchdog.Watch watch = null;
+        boolean stalled = false;
         long bytesReadInChunk = 0;
         try {
-            conn = (HttpURLConnection) contentFileUrl.toURL().openConnection();
-            conn.setConnectTimeout((int) config.getConnectTimeout().toMillis());
-            conn.setReadTimeout((int) config.getReadTimeout().toMillis());
+            conn = httpClient.open(contentFileUrl);
+            conn.setReadTimeout((int) lowSpeedWatchdog.readTimeout(config.getReadTimeout()).toMillis());
+            watch = lowSpeedWatchdog.watch(conn::disconnect);
+            if (race != null) {
+                race.setPrimary(conn);
+            }
 
             // If range requests are supported and we're resuming, set the Range header
             if (supportsRangeRequests) {
                 long endByte = Math.min(currentOffset + config.getChunkSize() - 1, totalSize - 1);
                 conn.setRequestProperty("Range", String.format("bytes=%d-%d", currentOffset, endByte));
+                if (ifRange != null) {
+                    conn.setRequestProperty("If-Range", ifRange);
+                }
                 LOGGER.debug("Downloading chunk: {} to {}", currentOffset, endByte);
             } else {
                 // If not supporting range requests, ensure we always start from 0.
@@ -254,6 +637,9 @@ public class ReliableDownloader extends AbstractDownloader implements FileDownlo
                     LOGGER.warn("Server does not support range requests, but an offset was requested. " +
                             "This chunk download will likely start from the beginning of the file.");
                 }
+                if (config.isCompressionEnabled()) {
+                    conn.setRequestProperty("Accept-Encoding", ContentDecoding.ACCEPT_ENCODING);
+                }
             }
 
             int responseCode = conn.getResponseCode();
@@ -263,6 +649,9 @@ public class ReliableDownloader extends AbstractDownloader implements FileDownlo
                     throw new FileNotFoundException("Resource not found during chunk download: " + contentFileUrl);
                 } else if (responseCode == HttpURLConnection.HTTP_FORBIDDEN) {
                     throw new SecurityException("Access forbidden during chunk download: " + contentFileUrl);
+                } else if (ThrottledException.isThrottlingStatus(responseCode)) {
+                    throw ThrottledException.forResponse(contentFileUrl, responseCode,
+                            conn.getHeaderField("Retry-After"));
                 } else if (responseCode == HttpURLConnection.HTTP_PARTIAL && !supportsRangeRequests) {
                     LOGGER.warn("Received partial content without requesting range for {}", contentFileUrl);
                 } else if (responseCode == HttpURLConnection.HTTP_OK && supportsRangeRequests && currentOffset > 0) {
@@ -275,34 +664,189 @@ public class ReliableDownloader extends AbstractDownloader implements FileDownlo
                 }
             }
 
-            try (InputStream in = conn.getInputStream()) {
+            if (responseCode == HttpURLConnection.HTTP_OK && supportsRangeRequests && ifRange != null) {
+                // The validator didn't match: the file was replaced since its size and ranges were taken
+                if (metadataCache != null) {
+                    metadataCache.invalidate(contentFileUrl);
+                }
+                LOGGER.warn("Remote file changed during the download (If-Range did not match) for {}. " +
+                        "Restarting the download from 0.", contentFileUrl);
+                throw new RangeNotSupportedException();
+            }
+
+            // The expected size may come from the metadata cache, so make sure the file wasn't replaced since
+            if (responseCode == HttpURLConnection.HTTP_PARTIAL) {
+                verifyTotalSize(contentFileUrl, conn, totalSize);
+            }
+
+            ContentDecoding decoding = contentDecoding(contentFileUrl, conn,
+                    HttpRangeClient.readMetadata(conn, totalSize, supportsRangeRequests), supportsRangeRequests);
+            try (InputStream in = decoding == null ? conn.getInputStream() : decoding.decode(conn.getInputStream())) {
                 byte[] buffer = new byte[config.getBufferSize()];
                 int bytesRead;
 
                 while ((bytesRead = in.read(buffer)) != -1) {
-                    destination.write(buffer, 0, bytesRead);
+                    if (race == null) {
+                        destination.write(buffer, 0, bytesRead);
+                    } else if (!race.writePrimary(destination, buffer, bytesRead)) {
+                        break; // The hedged request delivered the rest of the chunk first
+                    }
                     bytesReadInChunk += bytesRead; // Accumulate bytes read in this chunk
+                    watch.record(bytesRead);
+                    if (watch.stalled()) {
+                        throw watch.stallException(contentFileUrl);
+                    }
 
                     if (supportsRangeRequests && bytesReadInChunk >= config.getChunkSize()) {
                         break;
                     }
                 }
             }
+            if (decoding != null) {
+                decoding.verify(contentFileUrl);
+            }
+        } catch (IOException | RuntimeException e) {
+            // Losing the race disconnects the primary request, which surfaces here as a read failure
+            if (race != null && race.hedgeWon()) {
+                LOGGER.debug("Abandoned primary request for chunk at {}: {}", currentOffset, e.getMessage());
+            } else if (watch != null && e instanceof IOException io && watch.stalled(io)) {
+                stalled = true;
+            } else {
+                throw e;
+            }
         } finally {
+            if (watch != null) {
+                watch.close();
+            }
             if (conn != null) {
                 conn.disconnect();
             }
+            if (race != null) {
+                race.finish();
+            }
+        }
+        if (race != null && race.hedgeWon()) {
+            bytesReadInChunk += race.writeHedgedRemainder(destination);
+        } else if (stalled) {
+            stalls.incrementAndGet();
+            if (!supportsRangeRequests) {
+                throw watch.stallException(contentFileUrl);
+            }
+            // Keep what arrived; the caller asks for the rest of the range on a fresh connection
+            LOGGER.warn("Connection for {} stalled below {} bytes/s at byte {}; reconnecting",
+                    contentFileUrl, config.getLowSpeedLimit(), currentOffset + bytesReadInChunk);
+            return bytesReadInChunk;
         }
+        chunkLatency.record(System.nanoTime() - startedAt);
         return bytesReadInChunk; // Return how many bytes were downloaded in this chunk
     }
 
-    private String calculateMd5(byte[] data) throws IOException {
-        try {
-            MessageDigest digest = MessageDigest.getInstance("MD5");
-            byte[] hash = digest.digest(data);
-            return Base64.getEncoder().encodeToString(hash);
-        } catch (NoSuchAlgorithmException e) {
-            throw new IOException("MD5 calculation failed", e);
+    /**
+     * @return a decoder for a response body sent with a Content-Encoding, or null for an identity body
+     * @throws IOException for an encoded range response, whose offsets would be meaningless for the file
+     */
+    private ContentDecoding contentDecoding(URI contentFileUrl, HttpURLConnection conn, RemoteFileMetadata metadata,
+                                            boolean ranged) throws IOException {
+        String contentEncoding = conn.getContentEncoding();
+        if (!ContentDecoding.isEncoded(contentEncoding)) {
+            return null;
+        }
+        if (ranged) {
+            throw new IOException("Server applied Content-Encoding " + contentEncoding + " to a range of "
+                    + contentFileUrl);
+        }
+        ContentDecoding decoding = new ContentDecoding(contentEncoding, metadata.digests());
+        LOGGER.info("Server sent the file {}-encoded, decoding it as it arrives.", decoding.encoding());
+        return decoding;
+    }
+
+    /**
+     * Arms a hedge for the chunk [{@code start}, {@code end}): if it is still running after twice the p95 of recent
+     * chunk times, a duplicate request for its unfinished remainder is sent and whichever finishes first is kept.
+     *
+     * @return the race to pass the primary request through, or null if this chunk is not eligible for hedging
+     */
+    private ChunkRace scheduleHedge(URI contentFileUrl, long start, long end, long totalSize, String ifRange) {
+        if (hedgesIssued.get() >= config.getMaxHedgedRequests() || chunkLatency.sampleCount() < MIN_HEDGE_SAMPLES) {
+            return null;
+        }
+        // A second request is the last thing a host that is throttling us needs
+        if (HostThrottle.global().isThrottled(HostThrottle.hostOf(contentFileUrl))) {
+            return null;
+        }
+        long p95Millis = TimeUnit.NANOSECONDS.toMillis(chunkLatency.percentile(HEDGE_PERCENTILE).orElse(0));
+        long delayMillis = Math.max(MIN_HEDGE_DELAY_MILLIS, (long) (p95Millis * HEDGE_DELAY_FACTOR));
+        ChunkRace race = new ChunkRace(contentFileUrl, start, end, totalSize, ifRange, delayMillis);
+        CompletableFuture.runAsync(race::hedge,
+                CompletableFuture.delayedExecutor(delayMillis, TimeUnit.MILLISECONDS, HEDGE_EXECUTOR));
+        return race;
+    }
+
+    /**
+     * Sits in front of a partial file while the bytes it already has are downloaded again. Those bytes are
+     * compared with the file rather than written; at the first one that differs the file is truncated and
+     * everything from there on, including the rest of the overlap, is appended as usual.
+     */
+    private static class OverlapCheckingOutputStream extends OutputStream {
+        private final PartialFileOutputStream partialFile;
+        private final long overlapEnd;
+        private long position;
+        private boolean checking = true;
+
+        OverlapCheckingOutputStream(PartialFileOutputStream partialFile, long overlapStart, long overlapEnd) {
+            this.partialFile = partialFile;
+            this.position = overlapStart;
+            this.overlapEnd = overlapEnd;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (checking) {
+                int toCheck = (int) Math.min(len, overlapEnd - position);
+                int matching = matchingPrefix(b, off, toCheck);
+                position += matching;
+                off += matching;
+                len -= matching;
+                if (matching < toCheck) {
+                    cutTail();
+                } else if (position == overlapEnd) {
+                    LOGGER.info("End of the partial file matches the server, resuming from {} bytes.", position);
+                    checking = false;
+                }
+            }
+            if (len > 0) {
+                partialFile.write(b, off, len);
+            }
+        }
+
+        private int matchingPrefix(byte[] b, int off, int len) throws IOException {
+            ByteBuffer onDisk = ByteBuffer.allocate(len);
+            while (onDisk.hasRemaining()) {
+                if (partialFile.readAt(onDisk, position + onDisk.position()) == -1) {
+                    break; // File ends inside the overlap, so the rest counts as a mismatch
+                }
+            }
+            int mismatch = Arrays.mismatch(onDisk.array(), 0, onDisk.position(), b, off, off + len);
+            return mismatch < 0 ? len : mismatch;
+        }
+
+        private void cutTail() throws IOException {
+            // The file is shorter than the position if it was restarted from scratch while we were checking
+            long goodLength = Math.min(position, partialFile.size());
+            LOGGER.warn("Partial file differs from the server at byte {}; discarding {} bytes from there.",
+                    goodLength, overlapEnd - goodLength);
+            partialFile.truncate(goodLength);
+            checking = false;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            partialFile.flush();
         }
     }
 
@@ -343,23 +887,148 @@ public class ReliableDownloader extends AbstractDownloader implements FileDownlo
         }
     }
 
-    // Helper class to hold the result of initializeDownload
-    // Used to avoid passing 3 values around in performDownload
-    private static class DownloadInitializationResult {
-        final long totalSize;
-        final boolean supportsRangeRequests;
+    /**
+     * A chunk request and the duplicate that may be sent for its remainder. The primary request writes through
+     * {@link #writePrimary}; once the hedge has the complete remainder it wins, the primary is disconnected,
+     * and the caller copies whatever the primary hadn't written yet from the hedge's buffer.
+     */
+    private final class ChunkRace {
+        private final URI url;
+        private final long start;
+        private final long end;
+        private final long totalSize;
+        private final String ifRange;
+        private final long delayMillis;
+        private volatile HttpURLConnection primary;
+        private volatile HttpURLConnection hedgeConnection;
+        // Guarded by this
+        private long primaryWritten;
+        private boolean finished;
+        private boolean hedgeWon;
+        private long hedgeStart;
+        private byte[] hedgeBody;
 
-        DownloadInitializationResult(long totalSize, boolean supportsRangeRequests) {
+        ChunkRace(URI url, long start, long end, long totalSize, String ifRange, long delayMillis) {
+            this.url = url;
+            this.start = start;
+            this.end = end;
             this.totalSize = totalSize;
-            this.supportsRangeRequests = supportsRangeRequests;
+            this.ifRange = ifRange;
+            this.delayMillis = delayMillis;
+        }
+
+        void setPrimary(HttpURLConnection primary) {
+            this.primary = primary;
+        }
+
+        /**
+         * @return false once the hedge has won, in which case nothing was written
+         */
+        synchronized boolean writePrimary(OutputStream destination, byte[] buffer, int length) throws IOException {
+            if (hedgeWon) {
+                return false;
+            }
+            destination.write(buffer, 0, length);
+            primaryWritten += length;
+            return true;
+        }
+
+        synchronized boolean hedgeWon() {
+            return hedgeWon;
         }
 
-        public long totalSize() {
-            return totalSize;
+        // Called by the primary once it is done, one way or another: from now on the hedge can no longer win
+        void finish() {
+            HttpURLConnection hedge;
+            synchronized (this) {
+                finished = true;
+                hedge = hedgeWon ? null : hedgeConnection;
+            }
+            if (hedge != null) {
+                hedge.disconnect();
+            }
         }
 
-        public boolean supportsRangeRequests() {
-            return supportsRangeRequests;
+        synchronized long writeHedgedRemainder(OutputStream destination) throws IOException {
+            int skip = (int) Math.min(start + primaryWritten - hedgeStart, hedgeBody.length);
+            destination.write(hedgeBody, skip, hedgeBody.length - skip);
+            return hedgeBody.length - skip;
+        }
+
+        // Runs on the hedge executor once the delay has passed
+        void hedge() {
+            long from;
+            synchronized (this) {
+                if (finished) {
+                    return;
+                }
+                from = start + primaryWritten;
+            }
+            int max = config.getMaxHedgedRequests();
+            if (from >= end || hedgesIssued.getAndUpdate(n -> n < max ? n + 1 : n) >= max) {
+                return;
+            }
+            LOGGER.info("Chunk {}-{} has run for more than {} ms; hedging its remaining {} bytes",
+                    start, end - 1, delayMillis, end - from);
+
+            HttpURLConnection conn = null;
+            try {
+                conn = httpClient.openRange(url, from, end - 1);
+                if (ifRange != null) {
+                    // A replaced file then answers 200, which the primary request deals with
+                    conn.setRequestProperty("If-Range", ifRange);
+                }
+                hedgeConnection = conn;
+                if (conn.getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+                    LOGGER.debug("Hedged request for chunk at {} got HTTP {}", start, conn.getResponseCode());
+                    return;
+                }
+                Optional<ContentRange> contentRange = ContentRange.parse(conn.getHeaderField("Content-Range"));
+                if (contentRange.isEmpty() || contentRange.get().start() != from
+                        || (contentRange.get().isTotalKnown() && contentRange.get().total() != totalSize)) {
+                    LOGGER.debug("Hedged request for chunk at {} got unexpected range {}",
+                            start, conn.getHeaderField("Content-Range"));
+                    return;
+                }
+
+                ByteArrayOutputStream body = new ByteArrayOutputStream((int) (end - from));
+                try (InputStream in = conn.getInputStream()) {
+                    byte[] buffer = new byte[config.getBufferSize()];
+                    int read;
+                    while (body.size() < end - from && (read = in.read(buffer)) != -1) {
+                        body.write(buffer, 0, read);
+                    }
+                }
+                if (body.size() < end - from) {
+                    LOGGER.debug("Hedged request for chunk at {} ended early", start);
+                    return;
+                }
+
+                HttpURLConnection loser;
+                synchronized (this) {
+                    if (finished) {
+                        return;
+                    }
+                    hedgeWon = true;
+                    hedgeStart = from;
+                    hedgeBody = Arrays.copyOf(body.toByteArray(), (int) (end - from));
+                    loser = primary;
+                }
+                LOGGER.info("Hedged request finished chunk {}-{} first", start, end - 1);
+                if (loser != null) {
+                    loser.disconnect();
+                }
+            } catch (IOException | RuntimeException e) {
+                LOGGER.debug("Hedged request for chunk at {} failed: {}", start, e.getMessage());
+            } finally {
+                if (conn != null) {
+                    conn.disconnect();
+                }
+            }
         }
     }
-}
\ No newline at end of file
+
+    // Result of the first probe-less request: what we learned about the file, the offset the body was
+    // written from (0 if a conditional resume restarted the file) and how many bytes it carried
+    private record FirstChunkResult(RemoteFileMetadata metadata, long startOffset, long bytesRead) {}
+}
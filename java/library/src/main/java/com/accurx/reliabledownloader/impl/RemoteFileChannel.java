@@ -0,0 +1,252 @@
+package com.accurx.reliabledownloader.impl;
+
+import com.accurx.reliabledownloader.core.DownloaderConfig;
+import com.accurx.reliabledownloader.core.RemoteFileMetadata;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A read-only {@link SeekableByteChannel} over a remote file that fetches only the bytes that are read, using
+ * range requests, e.g. to look at the header or the trailing index of a huge archive without downloading it.
+ * <p>
+ * The file is read in blocks of {@link DownloaderConfig#getChunkSize()} bytes, which are kept in an LRU cache.
+ * All missing blocks a read needs are fetched with one request per contiguous run, and while the reads are
+ * sequential such a fetch also covers a read-ahead window that doubles up to {@link #MAX_READ_AHEAD_BLOCKS}, or
+ * half the cache if that is smaller, so read-ahead never pushes out the blocks being read.
+ * <p>
+ * Fetches are retried under the configured {@link RetryPolicy} and pinned to the version of the file that was
+ * probed when opening it; if the file is replaced while it is being read, reads fail with a
+ * {@link com.accurx.reliabledownloader.core.RemoteFileChangedException}.
+ */
+public class RemoteFileChannel implements SeekableByteChannel {
+    private static final int DEFAULT_CACHE_BLOCKS = 64;
+    private static final int MAX_READ_AHEAD_BLOCKS = 16;
+
+    private final URI url;
+    private final HttpRangeClient httpClient;
+    private final RetryPolicy retryPolicy;
+    private final RemoteFileMetadata metadata;
+    private final long size;
+    private final int blockSize;
+    private final Map<Long, byte[]> cache;
+    private final int maxReadAheadBlocks;
+    private long position;
+    // Where the previous read ended, to recognise sequential access
+    private long lastReadEnd = -1;
+    private int readAheadBlocks;
+    private boolean open = true;
+
+    private RemoteFileChannel(URI url, DownloaderConfig config, HttpRangeClient httpClient,
+                              RemoteFileMetadata metadata, int cacheBlocks) {
+        this.url = url;
+        this.httpClient = httpClient;
+        this.retryPolicy = RetryPolicy.from(config);
+        this.metadata = metadata;
+        this.size = metadata.totalSize();
+        this.blockSize = config.getChunkSize();
+        this.maxReadAheadBlocks = Math.min(MAX_READ_AHEAD_BLOCKS, cacheBlocks / 2);
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+                return size() > cacheBlocks;
+            }
+        };
+    }
+
+    public static RemoteFileChannel open(URI url, DownloaderConfig config) throws IOException {
+        return open(url, config, DEFAULT_CACHE_BLOCKS);
+    }
+
+    /**
+     * Probes the file for its size and range support; nothing else is fetched until it is read.
+     *
+     * @param cacheBlocks how many blocks to keep in memory
+     * @throws IOException if the file can't be reached or the server doesn't support range requests
+     */
+    public static RemoteFileChannel open(URI url, DownloaderConfig config, int cacheBlocks) throws IOException {
+        return open(url, config, new HttpRangeClient(config).probe(url), cacheBlocks);
+    }
+
+    /**
+     * Opens the file with metadata the caller already probed, e.g. to pick another strategy first when the
+     * server doesn't support ranges.
+     */
+    public static RemoteFileChannel open(URI url, DownloaderConfig config, RemoteFileMetadata metadata,
+                                         int cacheBlocks) throws IOException {
+        if (cacheBlocks <= 0) {
+            throw new IllegalArgumentException("Cache size must be positive");
+        }
+        if (!metadata.supportsRangeRequests() && metadata.totalSize() > 0) {
+            throw new IOException("Random access needs range requests, which " + url + " does not support");
+        }
+        if (metadata.totalSize() < 0) {
+            throw new IOException("Could not determine file size for " + url);
+        }
+        return new RemoteFileChannel(url, config, new HttpRangeClient(config), metadata, cacheBlocks);
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst) throws IOException {
+        ensureOpen();
+        if (position >= size) {
+            return -1;
+        }
+        // Like a socket channel, a large read may return fewer bytes than asked for
+        long maxRead = (long) MAX_READ_AHEAD_BLOCKS * blockSize;
+        int length = (int) Math.min(Math.min(dst.remaining(), maxRead), size - position);
+        if (length == 0) {
+            return 0;
+        }
+
+        long firstBlock = blockIndex(position);
+        long lastBlock = blockIndex(position + length - 1);
+        updateReadAhead();
+        Map<Long, byte[]> blocks = new HashMap<>();
+        load(firstBlock, lastBlock, Math.min(lastBlock + readAheadBlocks, blockIndex(size - 1)), blocks);
+
+        int copied = 0;
+        for (long block = firstBlock; block <= lastBlock; block++) {
+            byte[] data = blocks.get(block);
+            int offset = (int) (position + copied - block * blockSize);
+            int n = Math.min(length - copied, data.length - offset);
+            dst.put(data, offset, n);
+            copied += n;
+        }
+        position += copied;
+        lastReadEnd = position;
+        return copied;
+    }
+
+    /**
+     * Grows the read-ahead window while reads continue where the previous one ended and drops it on a seek.
+     */
+    private void updateReadAhead() {
+        if (position == lastReadEnd) {
+            readAheadBlocks = Math.min(readAheadBlocks == 0 ? 1 : readAheadBlocks * 2, maxReadAheadBlocks);
+        } else {
+            readAheadBlocks = 0;
+        }
+    }
+
+    /**
+     * Collects blocks {@code first} to {@code last} into {@code blocks}, from the cache where possible. If any
+     * has to be fetched, the uncached blocks up to {@code readAheadEnd} are fetched along with it, one request
+     * per contiguous run. Handing the blocks over directly means a small cache can't evict one the current read
+     * still needs.
+     */
+    private void load(long first, long last, long readAheadEnd, Map<Long, byte[]> blocks) throws IOException {
+        for (long block = first; block <= last; block++) {
+            byte[] cached = cache.get(block);
+            if (cached != null) {
+                blocks.put(block, cached);
+            }
+        }
+        if (blocks.size() == last - first + 1) {
+            return;
+        }
+        long runStart = -1;
+        for (long block = first; block <= readAheadEnd + 1; block++) {
+            boolean missing = block <= readAheadEnd && !blocks.containsKey(block) && !cache.containsKey(block);
+            if (missing && runStart < 0) {
+                runStart = block;
+            } else if (!missing && runStart >= 0) {
+                fetchBlocks(runStart, block - 1, blocks);
+                runStart = -1;
+            }
+        }
+    }
+
+    private void fetchBlocks(long first, long last, Map<Long, byte[]> blocks) throws IOException {
+        long start = first * blockSize;
+        int length = (int) (Math.min(size, (last + 1) * blockSize) - start);
+        byte[] data = fetchWithRetry(start, length);
+        for (long block = first; block <= last; block++) {
+            int offset = (int) ((block - first) * blockSize);
+            int n = Math.min(blockSize, length - offset);
+            byte[] blockData = new byte[n];
+            System.arraycopy(data, offset, blockData, 0, n);
+            cache.put(block, blockData);
+            blocks.put(block, blockData);
+        }
+    }
+
+    /**
+     * Fetches with the configured retries, and only from the version of the file that was opened, so a file
+     * replaced mid-read fails instead of mixing blocks of two versions.
+     */
+    private byte[] fetchWithRetry(long start, int length) throws IOException {
+        try {
+            return retryPolicy.execute(url, attempt -> httpClient.fetchRange(url, start, length, metadata));
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while retrying a range request");
+        } catch (Exception e) {
+            throw new IOException("Fetching bytes " + start + "-" + (start + length - 1) + " of " + url
+                    + " failed", e);
+        }
+    }
+
+    private long blockIndex(long offset) {
+        return offset / blockSize;
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized long position() throws IOException {
+        ensureOpen();
+        return position;
+    }
+
+    @Override
+    public synchronized SeekableByteChannel position(long newPosition) throws IOException {
+        ensureOpen();
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("Position cannot be negative");
+        }
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        ensureOpen();
+        return size;
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public synchronized void close() {
+        open = false;
+        cache.clear();
+    }
+
+    private void ensureOpen() throws ClosedChannelException {
+        if (!isOpen()) {
+            throw new ClosedChannelException();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.accurx.reliabledownloader.impl;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Caps retries across every download sharing it, so a widespread outage doesn't multiply the load on the servers
+ * by the retry count just when they are struggling.
+ * <p>
+ * Each download deposits a fraction of a token and each retry withdraws a whole one; on top of that a small
+ * reserve refills over time so that occasional failures can always be retried. Once the balance is spent,
+ * failures are reported straight away instead of retried.
+ */
+public class RetryBudget {
+    private final double retryRatio;
+    private final double minRetriesPerSecond;
+    private final double maxBalance;
+    private final LongSupplier nanoClock;
+    // Guarded by this
+    private double balance;
+    private long lastRefill;
+
+    /**
+     * @param retryRatio          retries allowed per download on top of the reserve, e.g. 0.2 for one in five
+     * @param minRetriesPerSecond rate at which the reserve refills regardless of traffic
+     * @param maxBalance          most retries that can be saved up for a burst
+     */
+    public RetryBudget(double retryRatio, double minRetriesPerSecond, double maxBalance) {
+        this(retryRatio, minRetriesPerSecond, maxBalance, System::nanoTime);
+    }
+
+    RetryBudget(double retryRatio, double minRetriesPerSecond, double maxBalance, LongSupplier nanoClock) {
+        if (retryRatio < 0 || minRetriesPerSecond < 0 || maxBalance < 1) {
+            throw new IllegalArgumentException("Retry budget needs a non-negative ratio and rate and room for a retry");
+        }
+        this.retryRatio = retryRatio;
+        this.minRetriesPerSecond = minRetriesPerSecond;
+        this.maxBalance = maxBalance;
+        this.nanoClock = nanoClock;
+        this.balance = maxBalance;
+        this.lastRefill = nanoClock.getAsLong();
+    }
+
+    /**
+     * Records a new download, which earns {@code retryRatio} of a retry.
+     */
+    public synchronized void recordRequest() {
+        refill();
+        balance = Math.min(maxBalance, balance + retryRatio);
+    }
+
+    /**
+     * @return whether a retry may go ahead; if so it has been paid for
+     */
+    public synchronized boolean tryAcquire() {
+        refill();
+        if (balance < 1) {
+            return false;
+        }
+        balance -= 1;
+        return true;
+    }
+
+    public synchronized double balance() {
+        refill();
+        return balance;
+    }
+
+    private void refill() {
+        long now = nanoClock.getAsLong();
+        balance = Math.min(maxBalance, balance + (now - lastRefill) / 1e9 * minRetriesPerSecond);
+        lastRefill = now;
+    }
+}
@@ -0,0 +1,36 @@
+package com.accurx.reliabledownloader.impl;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts what retrying cost: how many retries ran, how long downloads sat in backoff, and how many failures were
+ * reported without a retry because the budget was spent or the host's circuit was open.
+ */
+public class RetryMetrics {
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder backoffNanos = new LongAdder();
+    private final LongAdder budgetRejections = new LongAdder();
+    private final LongAdder circuitRejections = new LongAdder();
+
+    void recordBackoff(long nanos) {
+        retries.increment();
+        backoffNanos.add(nanos);
+    }
+
+    void recordBudgetRejection() {
+        budgetRejections.increment();
+    }
+
+    void recordCircuitRejection() {
+        circuitRejections.increment();
+    }
+
+    public Snapshot snapshot() {
+        return new Snapshot(retries.sum(), Duration.ofNanos(backoffNanos.sum()),
+                budgetRejections.sum(), circuitRejections.sum());
+    }
+
+    public record Snapshot(long retries, Duration timeInBackoff, long budgetRejections, long circuitRejections) {
+    }
+}
@@ -0,0 +1,248 @@
+package com.accurx.reliabledownloader.impl;
+
+import com.accurx.reliabledownloader.core.CircuitOpenException;
+import com.accurx.reliabledownloader.core.DownloaderConfig;
+import com.accurx.reliabledownloader.core.RemoteFileChangedException;
+import com.accurx.reliabledownloader.core.ThrottledException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides whether and when a failed download is tried again.
+ * <p>
+ * Delays use decorrelated jitter: each one is drawn uniformly between the base delay and three times the previous
+ * delay, capped at {@code maxDelay}. It grows about as fast as plain exponential backoff, but clients that failed
+ * together spread out instead of retrying in lockstep. Retries also have to fit a {@link RetryBudget} and the
+ * host's circuit must be closed ({@link HostCircuitBreakers}). Unless given their own, all policies share one
+ * process-wide budget, set of circuit breakers and {@link RetryMetrics}.
+ * <p>
+ * A server that throttles us with a {@code Retry-After} knows best when to come back, so that delay replaces the
+ * backoff, with a little jitter on top, and the host goes into the {@link HostThrottle}. If it asks for longer than
+ * the maximum delay, the {@link ThrottledException} is thrown right away rather than coming back early only to be
+ * turned away again.
+ */
+public class RetryPolicy {
+    private static final Logger LOGGER = LoggerFactory.getLogger(RetryPolicy.class);
+    // One retry per five downloads, with a reserve of ten per second and bursts of up to a hundred
+    private static final RetryBudget GLOBAL_BUDGET = new RetryBudget(0.2, 10, 100);
+    private static final HostCircuitBreakers GLOBAL_CIRCUIT_BREAKERS =
+            new HostCircuitBreakers(5, Duration.ofSeconds(30));
+    private static final RetryMetrics GLOBAL_METRICS = new RetryMetrics();
+
+    private final int maxAttempts;
+    private final Duration baseDelay;
+    private final Duration maxDelay;
+    private final RetryBudget budget;
+    private final HostCircuitBreakers circuitBreakers;
+    private final RetryMetrics metrics;
+    private final HostThrottle throttle;
+
+    /**
+     * One try at a request that {@link #execute} may repeat.
+     */
+    @FunctionalInterface
+    public interface Attempt<T> {
+        /**
+         * @param attempt which try this is, counting from 1
+         */
+        T run(int attempt) throws Exception;
+    }
+
+    /**
+     * @param maxAttempts attempts in total, the first one included
+     */
+    public RetryPolicy(int maxAttempts, Duration baseDelay, Duration maxDelay) {
+        this(maxAttempts, baseDelay, maxDelay, GLOBAL_BUDGET, GLOBAL_CIRCUIT_BREAKERS, GLOBAL_METRICS);
+    }
+
+    public RetryPolicy(int maxAttempts, Duration baseDelay, Duration maxDelay, RetryBudget budget,
+                       HostCircuitBreakers circuitBreakers, RetryMetrics metrics) {
+        this(maxAttempts, baseDelay, maxDelay, budget, circuitBreakers, metrics, HostThrottle.global());
+    }
+
+    public RetryPolicy(int maxAttempts, Duration baseDelay, Duration maxDelay, RetryBudget budget,
+                       HostCircuitBreakers circuitBreakers, RetryMetrics metrics, HostThrottle throttle) {
+        this.maxAttempts = maxAttempts;
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay.compareTo(baseDelay) < 0 ? baseDelay : maxDelay;
+        this.budget = budget;
+        this.circuitBreakers = circuitBreakers;
+        this.metrics = metrics;
+        this.throttle = throttle;
+    }
+
+    public static RetryPolicy from(DownloaderConfig config) {
+        return new RetryPolicy(config.getMaxRetries(), config.getRetryDelay(), config.getMaxRetryDelay());
+    }
+
+    /**
+     * @return retry counts and time spent in backoff across every policy using the shared metrics
+     */
+    public static RetryMetrics globalMetrics() {
+        return GLOBAL_METRICS;
+    }
+
+    public int maxAttempts() {
+        return maxAttempts;
+    }
+
+    public Duration baseDelay() {
+        return baseDelay;
+    }
+
+    public Duration maxDelay() {
+        return maxDelay;
+    }
+
+    public RetryBudget budget() {
+        return budget;
+    }
+
+    public HostCircuitBreakers circuitBreakers() {
+        return circuitBreakers;
+    }
+
+    public RetryMetrics metrics() {
+        return metrics;
+    }
+
+    public HostThrottle throttle() {
+        return throttle;
+    }
+
+    /**
+     * @param previous the delay before the previous retry, or the base delay before the first one
+     * @return the delay before the next retry
+     */
+    public Duration nextDelay(Duration previous) {
+        long base = baseDelay.toMillis();
+        long upper = Math.max(base, Math.min(maxDelay.toMillis(), previous.toMillis() * 3));
+        long delay = upper > base ? ThreadLocalRandom.current().nextLong(base, upper + 1) : base;
+        return Duration.ofMillis(delay);
+    }
+
+    /**
+     * @param failure the exception the previous attempt failed with
+     * @return the delay before the next retry: what the server asked for if it throttled us with a Retry-After,
+     * plus up to a tenth more so clients told the same time don't all return at once. The jitter stops at the
+     * maximum delay, but the Retry-After itself is never cut short; see {@link #waitsTooLong}.
+     */
+    public Duration nextDelay(Duration previous, IOException failure) {
+        if (failure instanceof ThrottledException throttled && throttled.getRetryAfter().isPresent()) {
+            long retryAfter = throttled.getRetryAfter().get().toMillis();
+            long jitter = ThreadLocalRandom.current().nextLong(retryAfter / 10 + 1);
+            return Duration.ofMillis(Math.max(retryAfter, Math.min(maxDelay.toMillis(), retryAfter + jitter)));
+        }
+        return nextDelay(previous);
+    }
+
+    /**
+     * @return whether the server asked us to stay away for longer than this policy waits between attempts
+     */
+    public boolean waitsTooLong(ThrottledException throttled) {
+        return throttled.getRetryAfter().filter(retryAfter -> retryAfter.compareTo(maxDelay) > 0).isPresent();
+    }
+
+    /**
+     * A missing file, a file replaced mid-read or an open circuit won't be fixed by trying again right away.
+     */
+    public boolean isRetryable(Exception e) {
+        return !(e instanceof FileNotFoundException) && !(e instanceof CircuitOpenException)
+                && !(e instanceof RemoteFileChangedException);
+    }
+
+    /**
+     * Runs {@code attempt} until it succeeds, retrying failed attempts after this policy's backoff for as long as
+     * the budget, the host's circuit and the attempt limit allow. Only {@link IOException}s are retried; anything
+     * else is passed straight through, without counting for or against the host's circuit.
+     *
+     * @param source the request's URI, whose host the circuit breakers and throttling apply to
+     */
+    public <T> T execute(URI source, Attempt<T> attempt) throws Exception {
+        // Host and port, so two servers on one machine get separate circuits
+        String host = HostThrottle.hostOf(source);
+        int attempts = 0;
+        Duration delay = baseDelay;
+        budget.recordRequest();
+        while (attempts < maxAttempts) {
+            // Another download may have been throttled by this host in the meantime
+            Duration pause = throttle.pauseRemaining(host);
+            if (pause.compareTo(maxDelay) > 0) {
+                // The status that started the pause isn't kept; 429 is the generic "slow down"
+                throw new ThrottledException("Not sending " + source + ": " + host + " asked us to hold off for "
+                        + "another " + pause.toMillis() + " ms, longer than we wait between attempts", 429, pause);
+            }
+            try {
+                circuitBreakers.checkAllowed(host);
+            } catch (IOException e) {
+                metrics.recordCircuitRejection();
+                throw e;
+            }
+            boolean outcomeRecorded = false;
+            try {
+                pause = min(throttle.pauseRemaining(host), maxDelay);
+                if (!pause.isZero()) {
+                    LOGGER.debug("{} asked us to hold off; waiting {} ms", host, pause.toMillis());
+                    backoff(pause);
+                }
+                T result = attempt.run(attempts + 1);
+                outcomeRecorded = true;
+                circuitBreakers.recordSuccess(host);
+                return result;
+            } catch (IOException e) {
+                outcomeRecorded = true;
+                attempts++;
+                circuitBreakers.recordFailure(host, e);
+                if (e instanceof ThrottledException throttled) {
+                    throttle.recordThrottled(host, throttled);
+                }
+                if (attempts == maxAttempts || !isRetryable(e)) throw e;
+                if (e instanceof ThrottledException throttled && waitsTooLong(throttled)) {
+                    LOGGER.warn("{} asked us to wait {} ms, longer than we wait between attempts; not retrying {}",
+                            host, throttled.getRetryAfter().orElseThrow().toMillis(), source);
+                    throw e;
+                }
+                if (circuitBreakers.state(host) == HostCircuitBreakers.State.OPEN) {
+                    metrics.recordCircuitRejection();
+                    throw new CircuitOpenException("Not retrying " + source + ": " + host
+                            + " is unreachable and its circuit is now open", e);
+                }
+                if (!budget.tryAcquire()) {
+                    metrics.recordBudgetRejection();
+                    LOGGER.warn("Retry budget exhausted; not retrying {} after: {}", source, e.getMessage());
+                    throw e;
+                }
+                delay = nextDelay(delay, e);
+                LOGGER.debug("Attempt {} of {} for {} failed ({}); retrying in {} ms",
+                        attempts, maxAttempts, source, e.getMessage(), delay.toMillis());
+                backoff(delay);
+            } finally {
+                // Anything else (a refused range, a 403, an interrupt) says nothing about reachability, but must
+                // not leave a half-open circuit waiting forever for its trial to finish
+                if (!outcomeRecorded) {
+                    circuitBreakers.releaseTrial(host);
+                }
+            }
+        }
+        throw new IOException("Download failed after " + maxAttempts + " attempts");
+    }
+
+    private static Duration min(Duration a, Duration b) {
+        return a.compareTo(b) <= 0 ? a : b;
+    }
+
+    private void backoff(Duration delay) throws InterruptedException {
+        long started = System.nanoTime();
+        try {
+            Thread.sleep(delay.toMillis());
+        } finally {
+            metrics.recordBackoff(System.nanoTime() - started);
+        }
+    }
+}
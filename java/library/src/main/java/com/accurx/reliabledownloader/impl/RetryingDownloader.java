@@ -1,54 +1,55 @@
 package com.accurx.reliabledownloader.impl;
 
-import com.accurx.reliabledownloader.core.AbstractDownloader;
 import com.accurx.reliabledownloader.core.FileDownloader;
-import com.accurx.reliabledownloader.core.RangeNotSupportedException;
+import com.accurx.reliabledownloader.core.PartialFileOutputStream;
 import com.accurx.reliabledownloader.util.DownloadProgressObserver;
+import com.google.common.io.CountingOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.io.IOException;
 import java.io.OutputStream;
 import java.net.URI;
 import java.time.Duration;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class RetryingDownloader implements FileDownloader {
+    private static final Logger LOGGER = LoggerFactory.getLogger(RetryingDownloader.class);
+    // Cap for the old constructor, which predates configurable caps
+    private static final Duration DEFAULT_MAX_DELAY = Duration.ofMinutes(1);
+
     private final FileDownloader delegate;
-    private final int maxRetries;
-    private final Duration retryDelay;
+    private final RetryPolicy policy;
 
     public RetryingDownloader(FileDownloader delegate, int maxRetries, Duration retryDelay) {
+        this(delegate, new RetryPolicy(maxRetries, retryDelay, DEFAULT_MAX_DELAY));
+    }
+
+    public RetryingDownloader(FileDownloader delegate, RetryPolicy policy) {
         this.delegate = delegate;
-        this.maxRetries = maxRetries;
-        this.retryDelay = retryDelay;
+        this.policy = policy;
     }
 
     @Override
     public Optional<String> downloadFile(URI source, OutputStream destination, long startOffset) throws Exception {
-        int attempts = 0;
-        while (attempts < maxRetries) {
-            try {
-                return delegate.downloadFile(source, destination, startOffset);
-            } catch (RangeNotSupportedException e) {
-                throw e;
-            } catch (IOException e) {
-                attempts++;
-                if (attempts == maxRetries) throw e;
-                Thread.sleep(calculateBackoff(attempts));
+        // A partial file knows its own length; for any other stream, count what the attempts write
+        CountingOutputStream counted = destination instanceof PartialFileOutputStream
+                ? null
+                : new CountingOutputStream(destination);
+        OutputStream target = counted == null ? destination : counted;
+        AtomicLong offset = new AtomicLong(startOffset);
+        return policy.execute(source, attempt -> {
+            if (attempt > 1) {
+                long committed = counted == null
+                        ? ((PartialFileOutputStream) destination).size()
+                        : startOffset + counted.getCount();
+                if (committed != offset.get()) {
+                    LOGGER.info("Resuming {} from byte {}, where the failed attempt left off", source, committed);
+                    offset.set(committed);
+                }
             }
-        }
-        throw new IOException("Download failed after " + maxRetries + " attempts");
-    }
-
-    /**
-     * Calculates the backoff delay for retries using an exponential backoff strategy.
-     * The delay increases with each attempt.
-     * @param attempts The current number of retry attempts (1-based).
-     * @return The delay in milliseconds.
-     */
-    private long calculateBackoff(int attempts) {
-        long baseDelay = retryDelay.toMillis();
-        // Exponential backoff: baseDelay * 2^(attempts - 1)
-        return baseDelay * (long) Math.pow(2, attempts - 1);
+            return delegate.downloadFile(source, target, offset.get());
+        });
     }
 
     @Override
@@ -57,4 +58,3 @@ public class RetryingDownloader implements FileDownloader {
         delegate.addObserver(observer);
     }
 }
-
@@ -0,0 +1,161 @@
+package com.accurx.reliabledownloader.impl;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Hands out byte ranges of a file to parallel download workers with work stealing.
+ * <p>
+ * The file starts out split into one segment per connection. A worker that has nothing left to do takes the
+ * back half of the in-flight segment with the most bytes remaining, as long as both halves stay at least
+ * {@code minSplitSize} long; the worker that owned it simply stops earlier. That keeps every connection busy
+ * until the end, so a slow connection only ever holds up a small piece of the file.
+ */
+public class SegmentScheduler {
+    private final long minSplitSize;
+    private final Deque<Segment> pending = new ArrayDeque<>();
+    private final List<Segment> active = new ArrayList<>();
+    private final int initialSegments;
+
+    /**
+     * @param start        first byte to download
+     * @param end          end of the range to download (exclusive)
+     * @param segments     number of segments to split the range into up front, normally the connection count
+     * @param minSplitSize smallest segment that is created by splitting
+     */
+    public SegmentScheduler(long start, long end, int segments, long minSplitSize) {
+        if (segments <= 0 || minSplitSize <= 0) {
+            throw new IllegalArgumentException("Segment count and minimum split size must be positive");
+        }
+        this.minSplitSize = minSplitSize;
+        long length = Math.max(0, end - start);
+        int count = (int) Math.min(segments, (length + minSplitSize - 1) / minSplitSize);
+        long segmentStart = start;
+        for (int i = 0; i < count; i++) {
+            // Spread the remainder over the first segments so sizes differ by at most one byte
+            long size = length / count + (i < length % count ? 1 : 0);
+            pending.add(new Segment(segmentStart, segmentStart + size));
+            segmentStart += size;
+        }
+        this.initialSegments = count;
+    }
+
+    public int initialSegmentCount() {
+        return initialSegments;
+    }
+
+    /**
+     * @return a segment to work on: a pending one if there is any, otherwise the back half of the largest
+     * in-flight segment, or empty once nothing is left that is worth splitting.
+     */
+    public synchronized Optional<Segment> next() {
+        Segment segment = pending.pollFirst();
+        if (segment == null) {
+            segment = steal();
+        }
+        if (segment != null) {
+            active.add(segment);
+        }
+        return Optional.ofNullable(segment);
+    }
+
+    private Segment steal() {
+        Segment victim = active.stream()
+                .max(Comparator.comparingLong(s -> s.end - s.position))
+                .orElse(null);
+        if (victim == null || victim.end - victim.position < 2 * minSplitSize) {
+            return null;
+        }
+        long middle = victim.position + (victim.end - victim.position) / 2;
+        Segment tail = new Segment(middle, victim.end);
+        victim.end = middle;
+        return tail;
+    }
+
+    /**
+     * Marks a segment as fully downloaded.
+     */
+    public synchronized void complete(Segment segment) {
+        active.remove(segment);
+    }
+
+    /**
+     * Gives up on a segment; the bytes it has not downloaded yet go back to the front of the queue.
+     */
+    public synchronized void fail(Segment segment) {
+        active.remove(segment);
+        if (segment.position < segment.end) {
+            pending.addFirst(new Segment(segment.position, segment.end));
+        }
+    }
+
+    /**
+     * @return whether every byte has been handed out and its segment completed
+     */
+    public synchronized boolean isDone() {
+        return pending.isEmpty() && active.isEmpty();
+    }
+
+    /**
+     * A range [start, end) being downloaded by one worker. Its end can move forward when another worker
+     * steals the tail, so the owner must check {@link #remaining()} as it goes rather than trust its request.
+     */
+    public final class Segment {
+        private final long start;
+        private long position;
+        private long end;
+
+        private Segment(long start, long end) {
+            this.start = start;
+            this.position = start;
+            this.end = end;
+        }
+
+        public long start() {
+            return start;
+        }
+
+        public long position() {
+            synchronized (SegmentScheduler.this) {
+                return position;
+            }
+        }
+
+        public long end() {
+            synchronized (SegmentScheduler.this) {
+                return end;
+            }
+        }
+
+        public long remaining() {
+            synchronized (SegmentScheduler.this) {
+                return end - position;
+            }
+        }
+
+        /**
+         * Records that {@code length} bytes were written at the current position.
+         *
+         * @return how many of them still belonged to this segment; any beyond its (possibly shrunk) end
+         * were written into a stolen tail, which is harmless as they are the same bytes.
+         */
+        public long advance(long length) {
+            synchronized (SegmentScheduler.this) {
+                long accepted = Math.min(length, end - position);
+                position += accepted;
+                return accepted;
+            }
+        }
+
+        @Override
+        public String toString() {
+            synchronized (SegmentScheduler.this) {
+                return "Segment[" + start + ", " + position + ", " + end + ")";
+            }
+        }
+    }
+}
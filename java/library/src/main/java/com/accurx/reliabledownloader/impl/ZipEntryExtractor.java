@@ -0,0 +1,337 @@
+package com.accurx.reliabledownloader.impl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Extracts individual entries of a ZIP (or JAR) archive by reading only its end-of-central-directory record,
+ * its central directory and the entries themselves.
+ * <p>
+ * Over a {@link RemoteFileChannel} that turns into a handful of range requests, so one small entry can be
+ * taken out of a huge bundle without downloading the rest. Stored and deflated entries are supported, ZIP64
+ * included; every extracted entry is checked against the CRC-32 and size in the central directory.
+ */
+public class ZipEntryExtractor {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ZipEntryExtractor.class);
+
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int EOCD_SIZE = 22;
+    private static final int MAX_COMMENT_LENGTH = 0xffff;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int ZIP64_LOCATOR_SIZE = 20;
+    private static final int ZIP64_EOCD_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_EOCD_SIZE = 56;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final long ZIP64_MAGIC = 0xffffffffL;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private final SeekableByteChannel archive;
+    private List<Entry> entries;
+
+    /**
+     * One file in the central directory.
+     *
+     * @param localHeaderOffset where the entry's local header starts; its data follows that header
+     */
+    public record Entry(String name, int method, int flags, long crc, long compressedSize, long size,
+                        long localHeaderOffset) {
+        public boolean isDirectory() {
+            return name.endsWith("/");
+        }
+    }
+
+    /**
+     * @param archive the archive to read; it isn't closed by the extractor
+     */
+    public ZipEntryExtractor(SeekableByteChannel archive) {
+        this.archive = archive;
+    }
+
+    /**
+     * @return every entry of the archive, read from the central directory on first use
+     */
+    public synchronized List<Entry> entries() throws IOException {
+        if (entries == null) {
+            entries = readCentralDirectory();
+        }
+        return entries;
+    }
+
+    /**
+     * Extracts the named entries below {@code directory}, keeping their paths inside the archive. Entries are
+     * read in archive order, so a remote channel sees mostly sequential reads.
+     *
+     * @return the extracted file of each requested entry
+     * @throws IOException if an entry is missing, can't be decompressed or fails its CRC check
+     */
+    public Map<String, Path> extract(Collection<String> names, Path directory) throws IOException {
+        Map<String, Entry> byName = new LinkedHashMap<>();
+        for (Entry entry : entries()) {
+            byName.putIfAbsent(entry.name(), entry);
+        }
+        Set<String> missing = new LinkedHashSet<>(names);
+        missing.removeAll(byName.keySet());
+        if (!missing.isEmpty()) {
+            throw new IOException("Archive has no entries named " + missing);
+        }
+
+        List<Entry> requested = new ArrayList<>();
+        for (String name : new LinkedHashSet<>(names)) {
+            requested.add(byName.get(name));
+        }
+        requested.sort(Comparator.comparingLong(Entry::localHeaderOffset));
+
+        Path root = directory.toAbsolutePath().normalize();
+        Map<String, Path> extracted = new LinkedHashMap<>();
+        for (Entry entry : requested) {
+            Path target = root.resolve(entry.name()).normalize();
+            if (!target.startsWith(root) || target.equals(root)) {
+                throw new IOException("Entry " + entry.name() + " would be extracted outside " + directory);
+            }
+            if (entry.isDirectory()) {
+                Files.createDirectories(target);
+            } else {
+                extractEntry(entry, target);
+            }
+            extracted.put(entry.name(), target);
+        }
+        return extracted;
+    }
+
+    private void extractEntry(Entry entry, Path target) throws IOException {
+        if ((entry.flags() & 1) != 0) {
+            throw new IOException("Entry " + entry.name() + " is encrypted");
+        }
+        if (entry.method() != STORED && entry.method() != DEFLATED) {
+            throw new IOException("Entry " + entry.name() + " uses unsupported compression method "
+                    + entry.method());
+        }
+
+        ByteBuffer localHeader = read(entry.localHeaderOffset(), LOCAL_HEADER_SIZE);
+        if (localHeader.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+            throw new IOException("No local header at offset " + entry.localHeaderOffset() + " for "
+                    + entry.name());
+        }
+        // The local name and extra field may differ in length from the central directory's copies
+        long dataStart = entry.localHeaderOffset() + LOCAL_HEADER_SIZE
+                + u16(localHeader, 26) + u16(localHeader, 28);
+
+        Files.createDirectories(target.getParent());
+        Path tempFile = Path.of(target + ".tmp");
+        CRC32 crc = new CRC32();
+        long written = 0;
+        InputStream data = new RangeInputStream(dataStart, entry.compressedSize());
+        // An InflaterInputStream only ends an Inflater it created itself, so ours is ended here
+        Inflater inflater = entry.method() == DEFLATED ? new Inflater(true) : null;
+        if (inflater != null) {
+            data = new InflaterInputStream(data, inflater, COPY_BUFFER_SIZE);
+        }
+        try (InputStream in = data; OutputStream out = Files.newOutputStream(tempFile)) {
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, n);
+                out.write(buffer, 0, n);
+                written += n;
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(tempFile);
+            throw e;
+        } finally {
+            if (inflater != null) {
+                inflater.end();
+            }
+        }
+
+        if (written != entry.size() || crc.getValue() != entry.crc()) {
+            Files.deleteIfExists(tempFile);
+            throw new IOException("Entry " + entry.name() + " failed its CRC check (expected " + entry.size()
+                    + " bytes with CRC " + Long.toHexString(entry.crc()) + ", got " + written + " bytes with CRC "
+                    + Long.toHexString(crc.getValue()) + ")");
+        }
+        Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING);
+        LOGGER.info("Extracted {} ({} bytes) to {}.", entry.name(), written, target);
+    }
+
+    private List<Entry> readCentralDirectory() throws IOException {
+        long size = archive.size();
+        int tailLength = (int) Math.min(size, EOCD_SIZE + MAX_COMMENT_LENGTH);
+        long tailStart = size - tailLength;
+        ByteBuffer tail = read(tailStart, tailLength);
+
+        int eocd = -1;
+        for (int i = tailLength - EOCD_SIZE; i >= 0; i--) {
+            // Check the comment length too, so a signature inside the comment isn't mistaken for the record
+            if (tail.getInt(i) == EOCD_SIGNATURE && i + EOCD_SIZE + u16(tail, i + 20) <= tailLength) {
+                eocd = i;
+                break;
+            }
+        }
+        if (eocd < 0) {
+            throw new IOException("Not a ZIP archive: no end of central directory record found");
+        }
+
+        long entryCount = u16(tail, eocd + 10);
+        long directorySize = u32(tail, eocd + 12);
+        long directoryOffset = u32(tail, eocd + 16);
+        if (entryCount == 0xffff || directorySize == ZIP64_MAGIC || directoryOffset == ZIP64_MAGIC) {
+            long locator = tailStart + eocd - ZIP64_LOCATOR_SIZE;
+            ByteBuffer locatorRecord = locator >= 0 ? read(locator, ZIP64_LOCATOR_SIZE) : null;
+            if (locatorRecord != null && locatorRecord.getInt(0) == ZIP64_LOCATOR_SIGNATURE) {
+                ByteBuffer zip64Eocd = read(locatorRecord.getLong(8), ZIP64_EOCD_SIZE);
+                if (zip64Eocd.getInt(0) != ZIP64_EOCD_SIGNATURE) {
+                    throw new IOException("Corrupt ZIP64 end of central directory record");
+                }
+                entryCount = zip64Eocd.getLong(32);
+                directorySize = zip64Eocd.getLong(40);
+                directoryOffset = zip64Eocd.getLong(48);
+            }
+        }
+        if (directorySize > Integer.MAX_VALUE || directoryOffset + directorySize > size) {
+            throw new IOException("Corrupt ZIP archive: central directory of " + directorySize + " bytes at "
+                    + directoryOffset + " doesn't fit in " + size + " bytes");
+        }
+
+        ByteBuffer directory = read(directoryOffset, (int) directorySize);
+        List<Entry> result = new ArrayList<>();
+        int pos = 0;
+        while (result.size() < entryCount) {
+            if (pos + CENTRAL_HEADER_SIZE > directorySize || directory.getInt(pos) != CENTRAL_HEADER_SIGNATURE) {
+                throw new IOException("Corrupt ZIP central directory at entry " + result.size());
+            }
+            int nameLength = u16(directory, pos + 28);
+            int extraLength = u16(directory, pos + 30);
+            int commentLength = u16(directory, pos + 32);
+            byte[] name = new byte[nameLength];
+            directory.get(pos + CENTRAL_HEADER_SIZE, name);
+
+            long compressedSize = u32(directory, pos + 20);
+            long uncompressedSize = u32(directory, pos + 24);
+            long localHeaderOffset = u32(directory, pos + 42);
+            // ZIP64 sizes and offsets live in an extra field, in this order, for the values that overflowed
+            int extra = pos + CENTRAL_HEADER_SIZE + nameLength;
+            int extraEnd = extra + extraLength;
+            while (extra + 4 <= extraEnd) {
+                int id = u16(directory, extra);
+                int length = u16(directory, extra + 2);
+                if (id == ZIP64_EXTRA_ID) {
+                    int field = extra + 4;
+                    if (uncompressedSize == ZIP64_MAGIC) {
+                        uncompressedSize = directory.getLong(field);
+                        field += 8;
+                    }
+                    if (compressedSize == ZIP64_MAGIC) {
+                        compressedSize = directory.getLong(field);
+                        field += 8;
+                    }
+                    if (localHeaderOffset == ZIP64_MAGIC) {
+                        localHeaderOffset = directory.getLong(field);
+                    }
+                }
+                extra += 4 + length;
+            }
+
+            result.add(new Entry(
+                    new String(name, StandardCharsets.UTF_8),
+                    u16(directory, pos + 10),
+                    u16(directory, pos + 8),
+                    u32(directory, pos + 16),
+                    compressedSize,
+                    uncompressedSize,
+                    localHeaderOffset));
+            pos = extraEnd + commentLength;
+        }
+        return result;
+    }
+
+    /**
+     * Reads exactly {@code length} bytes at {@code position} into a little-endian buffer.
+     */
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        synchronized (archive) {
+            archive.position(position);
+            while (buffer.hasRemaining()) {
+                if (archive.read(buffer) == -1) {
+                    throw new EOFException("Archive ended at " + (position + buffer.position()) + " while reading "
+                            + length + " bytes at " + position);
+                }
+            }
+        }
+        return buffer.flip();
+    }
+
+    private static int u16(ByteBuffer buffer, int index) {
+        return Short.toUnsignedInt(buffer.getShort(index));
+    }
+
+    private static long u32(ByteBuffer buffer, int index) {
+        return Integer.toUnsignedLong(buffer.getInt(index));
+    }
+
+    /**
+     * Streams one byte range of the archive.
+     */
+    private final class RangeInputStream extends InputStream {
+        private long position;
+        private final long end;
+
+        RangeInputStream(long start, long length) {
+            this.position = start;
+            this.end = start + length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (position >= end) {
+                return -1;
+            }
+            int length = (int) Math.min(len, end - position);
+            int n;
+            synchronized (archive) {
+                archive.position(position);
+                n = archive.read(ByteBuffer.wrap(b, off, length));
+            }
+            if (n == -1) {
+                throw new EOFException("Archive ended at " + position + ", inside an entry ending at " + end);
+            }
+            position += n;
+            return n;
+        }
+    }
+}
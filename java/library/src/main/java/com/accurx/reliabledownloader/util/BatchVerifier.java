@@ -0,0 +1,201 @@
+package com.accurx.reliabledownloader.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Verifies many files against their expected digests in parallel, e.g. to audit a download directory full of
+ * cached installers.
+ * <p>
+ * Files are hashed on a fork-join pool through {@link MultiDigest}, which reads with large direct buffers or
+ * memory maps big files. Hashing is CPU bound while the files are in the page cache but I/O bound when they
+ * aren't, so the number of files being read at once is capped separately from the pool's parallelism to keep
+ * a spinning disk or network share from thrashing.
+ */
+public class BatchVerifier {
+    private static final Logger LOGGER = LoggerFactory.getLogger(BatchVerifier.class);
+    private static final int DEFAULT_MAX_CONCURRENT_READS = 4;
+
+    private final int parallelism;
+    private final int maxConcurrentReads;
+
+    public BatchVerifier() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_MAX_CONCURRENT_READS);
+    }
+
+    /**
+     * @param parallelism        number of threads hashing files
+     * @param maxConcurrentReads number of files read at the same time
+     */
+    public BatchVerifier(int parallelism, int maxConcurrentReads) {
+        if (parallelism <= 0 || maxConcurrentReads <= 0) {
+            throw new IllegalArgumentException("Parallelism and concurrent reads must be positive");
+        }
+        this.parallelism = parallelism;
+        this.maxConcurrentReads = maxConcurrentReads;
+    }
+
+    /**
+     * Checks every file against the cheapest of its expected digests.
+     *
+     * @return a report of the files that matched, didn't match, or couldn't be checked, in path order
+     */
+    public Report verify(Map<Path, ContentDigests> expected) {
+        List<Map.Entry<Path, ContentDigests>> entries = new ArrayList<>(expected.entrySet());
+        entries.sort(Map.Entry.comparingByKey(Comparator.naturalOrder()));
+        if (entries.isEmpty()) {
+            return new Report(0, List.of(), List.of());
+        }
+
+        Semaphore reads = new Semaphore(maxConcurrentReads);
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        List<Outcome> outcomes;
+        try {
+            outcomes = pool.invoke(new VerifyTask(entries, 0, entries.size(), reads));
+        } finally {
+            pool.shutdown();
+        }
+
+        int verified = 0;
+        List<Mismatch> mismatches = new ArrayList<>();
+        List<Failure> failures = new ArrayList<>();
+        for (Outcome outcome : outcomes) {
+            if (outcome.mismatch() != null) {
+                mismatches.add(outcome.mismatch());
+            } else if (outcome.failure() != null) {
+                failures.add(outcome.failure());
+            } else {
+                verified++;
+            }
+        }
+        LOGGER.info("Verified {} files: {} matched, {} mismatched, {} failed",
+                entries.size(), verified, mismatches.size(), failures.size());
+        return new Report(verified, List.copyOf(mismatches), List.copyOf(failures));
+    }
+
+    private static Outcome check(Path file, ContentDigests expected, Semaphore reads) {
+        DigestAlgorithm algorithm = expected.cheapest(false).orElse(null);
+        if (algorithm == null) {
+            return Outcome.failed(file, "No expected digest");
+        }
+        String expectedValue = expected.get(algorithm).orElseThrow();
+        try {
+            // Lets the pool start a compensating thread while this one waits, so hashing keeps its parallelism
+            ForkJoinPool.managedBlock(new ReadPermit(reads));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Outcome.failed(file, "Interrupted");
+        }
+        try {
+            String actual = MultiDigest.of(file, EnumSet.of(algorithm)).get(algorithm).orElseThrow();
+            return expectedValue.equals(actual)
+                    ? Outcome.MATCHED
+                    : new Outcome(new Mismatch(file, algorithm, expectedValue, actual), null);
+        } catch (NoSuchFileException e) {
+            return Outcome.failed(file, "File not found");
+        } catch (IOException e) {
+            return Outcome.failed(file, Files.isDirectory(file) ? "Not a regular file" : e.toString());
+        } finally {
+            reads.release();
+        }
+    }
+
+    /**
+     * Waits for one of the read permits without tying up a fork-join worker.
+     */
+    private static class ReadPermit implements ForkJoinPool.ManagedBlocker {
+        private final Semaphore reads;
+        private boolean acquired;
+
+        ReadPermit(Semaphore reads) {
+            this.reads = reads;
+        }
+
+        @Override
+        public boolean block() throws InterruptedException {
+            if (!acquired) {
+                reads.acquire();
+                acquired = true;
+            }
+            return true;
+        }
+
+        @Override
+        public boolean isReleasable() {
+            return acquired || (acquired = reads.tryAcquire());
+        }
+    }
+
+    /**
+     * Splits the list in halves until single files are left, so idle workers can steal the remaining halves.
+     */
+    private static class VerifyTask extends RecursiveTask<List<Outcome>> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Map.Entry<Path, ContentDigests>> entries;
+        private final int from;
+        private final int to;
+        private final Semaphore reads;
+
+        VerifyTask(List<Map.Entry<Path, ContentDigests>> entries, int from, int to, Semaphore reads) {
+            this.entries = entries;
+            this.from = from;
+            this.to = to;
+            this.reads = reads;
+        }
+
+        @Override
+        protected List<Outcome> compute() {
+            if (to - from == 1) {
+                Map.Entry<Path, ContentDigests> entry = entries.get(from);
+                return List.of(check(entry.getKey(), entry.getValue(), reads));
+            }
+            int middle = (from + to) >>> 1;
+            VerifyTask left = new VerifyTask(entries, from, middle, reads);
+            left.fork();
+            List<Outcome> right = new VerifyTask(entries, middle, to, reads).compute();
+            List<Outcome> outcomes = new ArrayList<>(left.join());
+            outcomes.addAll(right);
+            return outcomes;
+        }
+    }
+
+    private record Outcome(Mismatch mismatch, Failure failure) {
+        static final Outcome MATCHED = new Outcome(null, null);
+
+        static Outcome failed(Path file, String reason) {
+            return new Outcome(null, new Failure(file, reason));
+        }
+    }
+
+    public record Mismatch(Path file, DigestAlgorithm algorithm, String expected, String actual) {
+    }
+
+    public record Failure(Path file, String reason) {
+    }
+
+    /**
+     * @param verified   number of files that matched their expected digest
+     * @param mismatches files whose content doesn't match
+     * @param failures   files that couldn't be checked, e.g. because they are missing
+     */
+    public record Report(int verified, List<Mismatch> mismatches, List<Failure> failures) {
+
+        public boolean isClean() {
+            return mismatches.isEmpty() && failures.isEmpty();
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.accurx.reliabledownloader.util;
+
+import com.google.common.io.BaseEncoding;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Expected hashes of the fixed-size blocks of a file, so that a corrupted download can be repaired by
+ * refetching only the blocks that don't match instead of the whole file.
+ * <p>
+ * The text form, e.g. published next to the file, is a header followed by one hex hash per block:
+ * <pre>
+ * algorithm: SHA-256
+ * block-size: 1048576
+ * length: 2147483648
+ * 9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08
+ * ...
+ * </pre>
+ * Blank lines and lines starting with {@code #} are ignored. A block line may also start with the block's
+ * {@link RollingChecksum} in hex, e.g. {@code 0a1b2c3d 9f86d0...}; with those the blocks can be found in an
+ * older version of the file even where they have moved, as zsync does.
+ */
+public class BlockManifest {
+
+    private final DigestAlgorithm algorithm;
+    private final int blockSize;
+    private final long length;
+    private final List<String> blockHashes;
+    private final List<Integer> rollingChecksums;
+
+    public BlockManifest(DigestAlgorithm algorithm, int blockSize, long length, List<String> blockHashes) {
+        this(algorithm, blockSize, length, blockHashes, List.of());
+    }
+
+    /**
+     * @param rollingChecksums the {@link RollingChecksum} of every block, or an empty list if not known
+     */
+    public BlockManifest(DigestAlgorithm algorithm, int blockSize, long length, List<String> blockHashes,
+                         List<Integer> rollingChecksums) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("Block size must be positive");
+        }
+        if (length < 0) {
+            throw new IllegalArgumentException("Length cannot be negative");
+        }
+        long expectedBlocks = (length + blockSize - 1) / blockSize;
+        if (blockHashes.size() != expectedBlocks) {
+            throw new IllegalArgumentException("Manifest has " + blockHashes.size() + " block hashes, expected "
+                    + expectedBlocks + " for " + length + " bytes in blocks of " + blockSize);
+        }
+        if (!rollingChecksums.isEmpty() && rollingChecksums.size() != blockHashes.size()) {
+            throw new IllegalArgumentException("Manifest has " + rollingChecksums.size()
+                    + " rolling checksums for " + blockHashes.size() + " blocks");
+        }
+        this.algorithm = algorithm;
+        this.blockSize = blockSize;
+        this.length = length;
+        this.blockHashes = blockHashes.stream().map(hash -> hash.toLowerCase(Locale.ROOT)).toList();
+        this.rollingChecksums = List.copyOf(rollingChecksums);
+    }
+
+    /**
+     * Computes the manifest of {@code content}, e.g. for a caller that publishes or already knows the file.
+     */
+    public static BlockManifest of(DigestAlgorithm algorithm, int blockSize, byte[] content) {
+        List<String> hashes = new ArrayList<>();
+        List<Integer> rollingChecksums = new ArrayList<>();
+        for (int offset = 0; offset < content.length; offset += blockSize) {
+            int len = Math.min(blockSize, content.length - offset);
+            hashes.add(hash(algorithm, content, offset, len));
+            rollingChecksums.add(RollingChecksum.of(content, offset, len));
+        }
+        return new BlockManifest(algorithm, blockSize, content.length, hashes, rollingChecksums);
+    }
+
+    public static BlockManifest parse(InputStream in) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        DigestAlgorithm algorithm = null;
+        Integer blockSize = null;
+        Long length = null;
+        List<String> hashes = new ArrayList<>();
+        List<Integer> rollingChecksums = new ArrayList<>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            int colon = line.indexOf(':');
+            if (colon < 0) {
+                String[] fields = line.split("\\s+");
+                if (fields.length > 2) {
+                    throw new IOException("Invalid block hash line '" + line + "'");
+                }
+                if (fields.length == 2) {
+                    try {
+                        rollingChecksums.add(Integer.parseUnsignedInt(fields[0], 16));
+                    } catch (NumberFormatException e) {
+                        throw new IOException("Invalid rolling checksum '" + fields[0] + "'", e);
+                    }
+                }
+                hashes.add(fields[fields.length - 1]);
+                continue;
+            }
+            String key = line.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+            String value = line.substring(colon + 1).trim();
+            try {
+                switch (key) {
+                    case "algorithm" -> algorithm = DigestAlgorithm.fromHeaderToken(value).orElseThrow(
+                            () -> new IllegalArgumentException("Unsupported block hash algorithm: " + value));
+                    case "block-size" -> blockSize = Integer.parseInt(value);
+                    case "length" -> length = Long.parseLong(value);
+                    default -> throw new IOException("Unknown block manifest field: " + key);
+                }
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Invalid block manifest field '" + line + "': " + e.getMessage(), e);
+            }
+        }
+        if (algorithm == null || blockSize == null || length == null) {
+            throw new IOException("Block manifest must declare algorithm, block-size and length");
+        }
+        if (!rollingChecksums.isEmpty() && rollingChecksums.size() != hashes.size()) {
+            throw new IOException("Either all or none of the block hash lines must have a rolling checksum");
+        }
+        try {
+            return new BlockManifest(algorithm, blockSize, length, hashes, rollingChecksums);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid block manifest: " + e.getMessage(), e);
+        }
+    }
+
+    public DigestAlgorithm algorithm() {
+        return algorithm;
+    }
+
+    public int blockSize() {
+        return blockSize;
+    }
+
+    /**
+     * @return the size of the complete file in bytes.
+     */
+    public long length() {
+        return length;
+    }
+
+    public int blockCount() {
+        return blockHashes.size();
+    }
+
+    public long blockStart(int block) {
+        return (long) block * blockSize;
+    }
+
+    public int blockLength(int block) {
+        return (int) Math.min(blockSize, length - blockStart(block));
+    }
+
+    /**
+     * @return the index of the block containing byte {@code position}.
+     */
+    public int blockAt(long position) {
+        return (int) (position / blockSize);
+    }
+
+    public boolean matches(int block, byte[] data, int offset, int len) {
+        return len == blockLength(block) && blockHashes.get(block).equals(hash(algorithm, data, offset, len));
+    }
+
+    /**
+     * @return the expected hash of a block in lowercase hex, as {@link #hash} computes it.
+     */
+    public String blockHash(int block) {
+        return blockHashes.get(block);
+    }
+
+    public boolean hasRollingChecksums() {
+        return !rollingChecksums.isEmpty();
+    }
+
+    public int rollingChecksum(int block) {
+        return rollingChecksums.get(block);
+    }
+
+    /**
+     * @return the hash of {@code len} bytes of {@code data} in lowercase hex, the form manifests are written in.
+     */
+    public static String hash(DigestAlgorithm algorithm, byte[] data, int offset, int len) {
+        MultiDigest digest = new MultiDigest(EnumSet.of(algorithm));
+        digest.update(data, offset, len);
+        String base64 = digest.digests().get(algorithm).orElseThrow();
+        return BaseEncoding.base16().lowerCase().encode(Base64.getDecoder().decode(base64));
+    }
+}
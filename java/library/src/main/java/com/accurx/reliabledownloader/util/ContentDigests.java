@@ -0,0 +1,135 @@
+package com.accurx.reliabledownloader.util;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Base64 digests of a file, keyed by algorithm: either those a server advertised, those a caller expects,
+ * or those computed over the bytes received.
+ * <p>
+ * Servers advertise digests in {@code Content-MD5}, {@code Digest} (e.g. {@code SHA-256=abc=, MD5=def=})
+ * and {@code Repr-Digest} (e.g. {@code sha-256=:abc=:}); unknown algorithms are ignored.
+ */
+public final class ContentDigests {
+    private static final ContentDigests NONE = new ContentDigests(Map.of());
+
+    private final Map<DigestAlgorithm, String> values;
+
+    private ContentDigests(Map<DigestAlgorithm, String> values) {
+        this.values = values;
+    }
+
+    public static ContentDigests none() {
+        return NONE;
+    }
+
+    public static ContentDigests of(Map<DigestAlgorithm, String> values) {
+        if (values.isEmpty()) {
+            return NONE;
+        }
+        return new ContentDigests(Collections.unmodifiableMap(new EnumMap<>(values)));
+    }
+
+    public static ContentDigests of(DigestAlgorithm algorithm, String value) {
+        return of(Map.of(algorithm, value));
+    }
+
+    /**
+     * @param contentMd5 the {@code Content-MD5} header value, or null
+     * @param digest     the {@code Digest} header value, or null
+     * @param reprDigest the {@code Repr-Digest} header value, or null
+     */
+    public static ContentDigests fromHeaders(String contentMd5, String digest, String reprDigest) {
+        Map<DigestAlgorithm, String> values = new EnumMap<>(DigestAlgorithm.class);
+        // Listed from least to most specific, so Repr-Digest wins when headers disagree
+        if (contentMd5 != null && !contentMd5.isBlank()) {
+            values.put(DigestAlgorithm.MD5, contentMd5.trim());
+        }
+        values.putAll(parseDigestHeader(digest).values);
+        values.putAll(parseDigestHeader(reprDigest).values);
+        return of(values);
+    }
+
+    /**
+     * Parses a {@code Digest} or {@code Repr-Digest} header; the latter wraps values in colons.
+     */
+    public static ContentDigests parseDigestHeader(String header) {
+        if (header == null || header.isBlank()) {
+            return NONE;
+        }
+        Map<DigestAlgorithm, String> values = new EnumMap<>(DigestAlgorithm.class);
+        for (String member : header.split(",")) {
+            int equals = member.indexOf('=');
+            if (equals <= 0) {
+                continue;
+            }
+            String value = member.substring(equals + 1).trim();
+            if (value.length() >= 2 && value.startsWith(":") && value.endsWith(":")) {
+                value = value.substring(1, value.length() - 1);
+            }
+            String encoded = value;
+            DigestAlgorithm.fromHeaderToken(member.substring(0, equals))
+                    .ifPresent(algorithm -> values.put(algorithm, encoded));
+        }
+        return of(values);
+    }
+
+    public Optional<String> get(DigestAlgorithm algorithm) {
+        return Optional.ofNullable(values.get(algorithm));
+    }
+
+    public Set<DigestAlgorithm> algorithms() {
+        return values.keySet();
+    }
+
+    public boolean isEmpty() {
+        return values.isEmpty();
+    }
+
+    /**
+     * @return these digests plus those of {@code other} for algorithms not present here.
+     */
+    public ContentDigests merge(ContentDigests other) {
+        Map<DigestAlgorithm, String> merged = new EnumMap<>(DigestAlgorithm.class);
+        merged.putAll(other.values);
+        merged.putAll(values);
+        return of(merged);
+    }
+
+    /**
+     * @return the cheapest algorithm available here that meets the policy.
+     */
+    public Optional<DigestAlgorithm> cheapest(boolean requireCryptographic) {
+        return values.keySet().stream()
+                .filter(algorithm -> !requireCryptographic || algorithm.isCryptographic())
+                .min(Enum::compareTo);
+    }
+
+    /**
+     * @return the digests in {@code Digest} header form, which {@link #parseDigestHeader(String)} reads back.
+     */
+    public String toHeaderValue() {
+        return values.entrySet().stream()
+                .map(entry -> entry.getKey().headerToken() + "=" + entry.getValue())
+                .collect(Collectors.joining(", "));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof ContentDigests other && values.equals(other.values);
+    }
+
+    @Override
+    public int hashCode() {
+        return values.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "ContentDigests{" + toHeaderValue() + "}";
+    }
+}
@@ -0,0 +1,38 @@
+package com.accurx.reliabledownloader.util;
+
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Parsed form of a {@code Content-Range} response header, e.g. {@code bytes 0-99/200}.
+ * Unsatisfied ranges ({@code bytes *}{@code /200}) have start and end of -1,
+ * and an unknown complete length ({@code bytes 0-99/*}) is reported as a total of -1.
+ */
+public record ContentRange(long start, long end, long total) {
+
+    private static final Pattern CONTENT_RANGE =
+            Pattern.compile("^bytes\\s+(?:(?<from>\\d+)-(?<to>\\d+)|\\*)/(?<total>\\d+|\\*)$");
+
+    public static Optional<ContentRange> parse(String header) {
+        if (header == null) {
+            return Optional.empty();
+        }
+        Matcher matcher = CONTENT_RANGE.matcher(header.trim());
+        if (!matcher.matches()) {
+            return Optional.empty();
+        }
+        try {
+            long start = matcher.group("from") != null ? Long.parseLong(matcher.group("from")) : -1;
+            long end = matcher.group("to") != null ? Long.parseLong(matcher.group("to")) : -1;
+            long total = "*".equals(matcher.group("total")) ? -1 : Long.parseLong(matcher.group("total"));
+            return Optional.of(new ContentRange(start, end, total));
+        } catch (NumberFormatException e) {
+            return Optional.empty();
+        }
+    }
+
+    public boolean isTotalKnown() {
+        return total >= 0;
+    }
+}
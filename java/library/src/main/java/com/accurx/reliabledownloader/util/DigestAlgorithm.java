@@ -0,0 +1,54 @@
+package com.accurx.reliabledownloader.util;
+
+import java.util.Locale;
+import java.util.Optional;
+
+/**
+ * Checksums a download can be verified with, declared from cheapest to most expensive to compute.
+ * Header tokens follow the HTTP digest algorithm registry ({@code Digest} / {@code Repr-Digest}).
+ */
+public enum DigestAlgorithm {
+    // Hardware accelerated on current CPUs; catches corruption but not tampering
+    CRC32C("crc32c", null, false),
+    MD5("md5", "MD5", false),
+    SHA_256("sha-256", "SHA-256", true),
+    SHA_512("sha-512", "SHA-512", true);
+
+    private final String headerToken;
+    private final String messageDigestName;
+    private final boolean cryptographic;
+
+    DigestAlgorithm(String headerToken, String messageDigestName, boolean cryptographic) {
+        this.headerToken = headerToken;
+        this.messageDigestName = messageDigestName;
+        this.cryptographic = cryptographic;
+    }
+
+    public String headerToken() {
+        return headerToken;
+    }
+
+    /**
+     * @return the {@link java.security.MessageDigest} name, or null for checksums computed another way.
+     */
+    String messageDigestName() {
+        return messageDigestName;
+    }
+
+    /**
+     * @return whether the digest also protects against deliberate modification, not just corruption.
+     */
+    public boolean isCryptographic() {
+        return cryptographic;
+    }
+
+    public static Optional<DigestAlgorithm> fromHeaderToken(String token) {
+        String normalized = token.trim().toLowerCase(Locale.ROOT);
+        for (DigestAlgorithm algorithm : values()) {
+            if (algorithm.headerToken.equals(normalized)) {
+                return Optional.of(algorithm);
+            }
+        }
+        return Optional.empty();
+    }
+}
@@ -0,0 +1,150 @@
+package com.accurx.reliabledownloader.util;
+
+import com.google.common.io.BaseEncoding;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * A list of files to download in one go, e.g. everything a rollout installs.
+ * <p>
+ * The text form has one {@code key: value} line per field, and each entry starts with its {@code url} line:
+ * <pre>
+ * url: https://cdn.example.com/app/4.2/app.msi
+ * destination: downloads/app.msi
+ * size: 104857600
+ * sha-256: 9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08
+ * mirrors: https://mirror1.example.com/app.msi, https://mirror2.example.com/app.msi
+ * priority: 10
+ * </pre>
+ * Only {@code url} and {@code destination} are required. Hashes are keyed by their {@link DigestAlgorithm} header
+ * token and given in hex or Base64. Entries with a higher priority start first; the default is 0. Blank lines
+ * and lines starting with {@code #} are ignored.
+ */
+public record DownloadManifest(List<Entry> entries) {
+
+    /**
+     * @param size     the file's expected size in bytes, or -1 if not given
+     * @param priority higher starts earlier
+     */
+    public record Entry(URI url, Path destination, ContentDigests expectedDigests, long size, List<URI> mirrors,
+                        int priority) {
+        public Entry {
+            expectedDigests = expectedDigests == null ? ContentDigests.none() : expectedDigests;
+            mirrors = mirrors == null ? List.of() : List.copyOf(mirrors);
+        }
+    }
+
+    public DownloadManifest {
+        entries = List.copyOf(entries);
+    }
+
+    public static DownloadManifest parse(InputStream in) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        List<Entry> entries = new ArrayList<>();
+        Set<Path> destinations = new HashSet<>();
+        EntryBuilder current = null;
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            int colon = line.indexOf(':');
+            if (colon <= 0) {
+                throw new IOException("Invalid download manifest line " + lineNumber + ": '" + line + "'");
+            }
+            String key = line.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+            String value = line.substring(colon + 1).trim();
+            if (key.equals("url")) {
+                if (current != null) {
+                    entries.add(current.build(destinations));
+                }
+                current = new EntryBuilder();
+            } else if (current == null) {
+                throw new IOException("Download manifest line " + lineNumber + " comes before the first url");
+            }
+            try {
+                current.set(key, value);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Invalid download manifest field on line " + lineNumber + " '" + line
+                        + "': " + e.getMessage(), e);
+            }
+        }
+        if (current != null) {
+            entries.add(current.build(destinations));
+        }
+        return new DownloadManifest(entries);
+    }
+
+    private static class EntryBuilder {
+        private URI url;
+        private Path destination;
+        private final Map<DigestAlgorithm, String> digests = new EnumMap<>(DigestAlgorithm.class);
+        private long size = -1;
+        private List<URI> mirrors = List.of();
+        private int priority;
+
+        void set(String key, String value) {
+            Optional<DigestAlgorithm> algorithm = DigestAlgorithm.fromHeaderToken(key);
+            if (algorithm.isPresent()) {
+                digests.put(algorithm.get(), toBase64(value));
+                return;
+            }
+            switch (key) {
+                case "url" -> url = URI.create(value);
+                case "destination" -> destination = Path.of(value);
+                case "size" -> {
+                    size = Long.parseLong(value);
+                    if (size < 0) {
+                        throw new IllegalArgumentException("Size cannot be negative");
+                    }
+                }
+                case "mirrors" -> mirrors = Arrays.stream(value.split(","))
+                        .map(String::trim)
+                        .filter(mirror -> !mirror.isEmpty())
+                        .map(URI::create)
+                        .toList();
+                case "priority" -> priority = Integer.parseInt(value);
+                default -> throw new IllegalArgumentException("Unknown field " + key);
+            }
+        }
+
+        Entry build(Set<Path> destinations) throws IOException {
+            if (destination == null) {
+                throw new IOException("Download manifest entry " + url + " has no destination");
+            }
+            if (!destinations.add(destination.toAbsolutePath().normalize())) {
+                throw new IOException("Download manifest has more than one entry for " + destination);
+            }
+            return new Entry(url, destination, ContentDigests.of(digests), size, mirrors, priority);
+        }
+
+        /**
+         * Digests are compared in Base64, the form HTTP headers carry them in; manifests often have hex.
+         */
+        private static String toBase64(String value) {
+            if (value.length() % 2 == 0 && value.matches("[0-9a-fA-F]+")) {
+                return BaseEncoding.base64().encode(BaseEncoding.base16().decode(value.toUpperCase(Locale.ROOT)));
+            }
+            BaseEncoding.base64().decode(value); // throws IllegalArgumentException if it's neither
+            return value;
+        }
+    }
+}
@@ -1,18 +1,18 @@
 package com.accurx.reliabledownloader.util;
 
-import com.google.common.hash.Hashing;
-import com.google.common.io.BaseEncoding;
-import com.google.common.io.Files;
-
 import java.io.File;
 import java.io.IOException;
+import java.util.EnumSet;
 
 public class Md5 {
 
+    /**
+     * @return the Base64 MD5 of the file, hashed through a direct buffer or memory mapping by {@link MultiDigest}.
+     */
     public static String contentMd5(File file) throws IOException
     {
-        return BaseEncoding.base64().encode(
-                Files.asByteSource(file).hash(Hashing.md5()).asBytes()
-        );
+        return MultiDigest.of(file.toPath(), EnumSet.of(DigestAlgorithm.MD5))
+                .get(DigestAlgorithm.MD5)
+                .orElseThrow();
     }
 }
@@ -0,0 +1,137 @@
+package com.accurx.reliabledownloader.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32C;
+
+/**
+ * Computes several digests in a single pass over the data, so e.g. a cheap CRC32C and a SHA-256 cost one read
+ * of each buffer rather than one read of the whole file per algorithm.
+ */
+public class MultiDigest {
+    private static final int FILE_BUFFER_SIZE = 1 << 20; // 1 MB
+    // Files at least this large are memory mapped instead of copied through a buffer
+    private static final long MMAP_THRESHOLD = 64L << 20; // 64 MB
+    // Mapped in windows so huge files don't need one huge mapping
+    private static final long MMAP_WINDOW = 256L << 20; // 256 MB
+
+    private final Map<DigestAlgorithm, MessageDigest> messageDigests = new EnumMap<>(DigestAlgorithm.class);
+    private final CRC32C crc32c;
+
+    public MultiDigest(Set<DigestAlgorithm> algorithms) {
+        for (DigestAlgorithm algorithm : algorithms) {
+            if (algorithm.messageDigestName() != null) {
+                try {
+                    messageDigests.put(algorithm, MessageDigest.getInstance(algorithm.messageDigestName()));
+                } catch (NoSuchAlgorithmException e) {
+                    throw new IllegalStateException(algorithm.messageDigestName() + " not available", e);
+                }
+            }
+        }
+        this.crc32c = algorithms.contains(DigestAlgorithm.CRC32C) ? new CRC32C() : null;
+    }
+
+    /**
+     * Digests {@code file} in one pass. Large files are memory mapped and smaller ones read through a direct
+     * buffer, so the bytes are hashed without being copied onto the Java heap.
+     */
+    public static ContentDigests of(Path file, Set<DigestAlgorithm> algorithms) throws IOException {
+        MultiDigest digest = new MultiDigest(algorithms);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size >= MMAP_THRESHOLD) {
+                for (long position = 0; position < size; position += MMAP_WINDOW) {
+                    long length = Math.min(MMAP_WINDOW, size - position);
+                    digest.update(channel.map(FileChannel.MapMode.READ_ONLY, position, length));
+                }
+            } else {
+                ByteBuffer buffer = ByteBuffer.allocateDirect(FILE_BUFFER_SIZE);
+                while (channel.read(buffer) != -1) {
+                    buffer.flip();
+                    digest.update(buffer);
+                    buffer.clear();
+                }
+            }
+        }
+        return digest.digests();
+    }
+
+    public void update(byte[] data, int offset, int length) {
+        for (MessageDigest messageDigest : messageDigests.values()) {
+            messageDigest.update(data, offset, length);
+        }
+        if (crc32c != null) {
+            crc32c.update(data, offset, length);
+        }
+    }
+
+    public void update(ByteBuffer data) {
+        for (MessageDigest messageDigest : messageDigests.values()) {
+            messageDigest.update(data.duplicate());
+        }
+        if (crc32c != null) {
+            crc32c.update(data.duplicate());
+        }
+        data.position(data.limit());
+    }
+
+    public Set<DigestAlgorithm> algorithms() {
+        Set<DigestAlgorithm> algorithms = EnumSet.noneOf(DigestAlgorithm.class);
+        algorithms.addAll(messageDigests.keySet());
+        if (crc32c != null) {
+            algorithms.add(DigestAlgorithm.CRC32C);
+        }
+        return algorithms;
+    }
+
+    /**
+     * @return the Base64 digests of everything passed so far; more data can still be added afterwards.
+     */
+    public ContentDigests digests() {
+        Map<DigestAlgorithm, String> values = new EnumMap<>(DigestAlgorithm.class);
+        for (Map.Entry<DigestAlgorithm, MessageDigest> entry : messageDigests.entrySet()) {
+            values.put(entry.getKey(), Base64.getEncoder().encodeToString(snapshot(entry.getValue())));
+        }
+        if (crc32c != null) {
+            byte[] crc = ByteBuffer.allocate(Integer.BYTES).putInt((int) crc32c.getValue()).array();
+            values.put(DigestAlgorithm.CRC32C, Base64.getEncoder().encodeToString(crc));
+        }
+        return ContentDigests.of(values);
+    }
+
+    /**
+     * @return a sink that feeds everything written to it into this digest.
+     */
+    public OutputStream asOutputStream() {
+        return new OutputStream() {
+            @Override
+            public void write(int b) {
+                update(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                update(b, off, len);
+            }
+        };
+    }
+
+    private static byte[] snapshot(MessageDigest messageDigest) {
+        try {
+            return ((MessageDigest) messageDigest.clone()).digest();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(messageDigest.getAlgorithm() + " digest cannot be snapshotted", e);
+        }
+    }
+}
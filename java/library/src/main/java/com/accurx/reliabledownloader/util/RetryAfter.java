@@ -0,0 +1,49 @@
+package com.accurx.reliabledownloader.util;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Optional;
+
+/**
+ * Parses a {@code Retry-After} response header, which is either a number of seconds ({@code 120}) or an HTTP date
+ * ({@code Wed, 21 Oct 2015 07:28:00 GMT}). A date in the past means the request may be retried right away; anything
+ * beyond {@link #MAX} is taken as {@link #MAX}, so callers can safely convert the result to nanoseconds.
+ */
+public final class RetryAfter {
+    public static final Duration MAX = Duration.ofDays(1);
+
+    private RetryAfter() {
+    }
+
+    public static Optional<Duration> parse(String header) {
+        return parse(header, Instant.now());
+    }
+
+    public static Optional<Duration> parse(String header, Instant now) {
+        if (header == null || header.isBlank()) {
+            return Optional.empty();
+        }
+        String value = header.trim();
+        if (value.chars().allMatch(Character::isDigit)) {
+            try {
+                return Optional.of(Duration.ofSeconds(Math.min(Long.parseLong(value), MAX.getSeconds())));
+            } catch (NumberFormatException e) {
+                // Only a number too large for a long gets here
+                return Optional.of(MAX);
+            }
+        }
+        try {
+            Instant retryAt = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+            if (!retryAt.isAfter(now)) {
+                return Optional.of(Duration.ZERO);
+            }
+            Duration wait = Duration.between(now, retryAt);
+            return Optional.of(wait.compareTo(MAX) > 0 ? MAX : wait);
+        } catch (DateTimeParseException e) {
+            return Optional.empty();
+        }
+    }
+}
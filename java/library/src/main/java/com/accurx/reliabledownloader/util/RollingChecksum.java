@@ -0,0 +1,40 @@
+package com.accurx.reliabledownloader.util;
+
+/**
+ * The rsync/zsync weak checksum of a fixed-size window, which can slide one byte along in constant time.
+ * It is only a cheap filter: a matching value must be confirmed with a strong hash.
+ */
+public final class RollingChecksum {
+    private final int windowSize;
+    private int a;
+    private int b;
+
+    /**
+     * Starts with the window {@code data[offset, offset + length)}.
+     */
+    public RollingChecksum(byte[] data, int offset, int length) {
+        this.windowSize = length;
+        for (int i = 0; i < length; i++) {
+            int value = data[offset + i] & 0xff;
+            a += value;
+            b += (length - i) * value;
+        }
+    }
+
+    public static int of(byte[] data, int offset, int length) {
+        return new RollingChecksum(data, offset, length).value();
+    }
+
+    /**
+     * Slides the window one byte: {@code out} leaves at the front and {@code in} enters at the back.
+     */
+    public void roll(byte out, byte in) {
+        int outValue = out & 0xff;
+        a += (in & 0xff) - outValue;
+        b += a - windowSize * outValue;
+    }
+
+    public int value() {
+        return (b << 16) | (a & 0xffff);
+    }
+}
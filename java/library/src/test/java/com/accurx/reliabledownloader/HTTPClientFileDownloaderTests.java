@@ -19,9 +19,13 @@ import java.net.http.HttpClient;
 import java.net.http.HttpHeaders;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Base64;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.zip.GZIPOutputStream;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
@@ -218,4 +222,84 @@ class HTTPClientFileDownloaderTests {
         verify(mockObserver, never()).onComplete();
         verify(mockObserver, never()).onProgressUpdate(any(Long.class), any(Long.class));
     }
-}
\ No newline at end of file
+
+    @Test
+    @DisplayName("should skip the HEAD request when the probe is disabled")
+    void performDownload_headProbeDisabled_sendsOnlyGet() throws Exception {
+        String fileContent = "Content.";
+        HTTPClientFileDownloader probelessDownloader = new HTTPClientFileDownloader(() -> mockHttpClient, false);
+
+        when(mockHttpClient.send(any(HttpRequest.class), eq(HttpResponse.BodyHandlers.ofInputStream())))
+                .thenReturn(mockGetResponse);
+        when(mockGetResponse.statusCode()).thenReturn(200);
+        when(mockGetResponse.headers()).thenReturn(HttpHeaders.of(
+                Map.of("Content-Length", List.of(String.valueOf(fileContent.length())),
+                        "Accept-Ranges", List.of("bytes")), (a, b) -> true));
+        when(mockGetResponse.body()).thenReturn(new ByteArrayInputStream(fileContent.getBytes()));
+
+        ByteArrayOutputStream destination = new ByteArrayOutputStream();
+        probelessDownloader.performDownload(testUri, destination, 0);
+
+        assertEquals(fileContent, destination.toString());
+        verify(mockHttpClient, times(1)).send(any(HttpRequest.class), any());
+        verify(mockHttpClient, never()).send(argThat(req -> req.method().equals("HEAD")), any());
+    }
+
+    @Test
+    @DisplayName("should ask for compression when enabled and decode the body, reporting progress in encoded bytes")
+    void performDownload_compressionEnabled_decodesGzipBody() throws Exception {
+        byte[] content = "{\"key\": \"value\"}\n".repeat(200).getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(gzipped)) {
+            gzip.write(content);
+        }
+        byte[] encoded = gzipped.toByteArray();
+        HTTPClientFileDownloader downloader = new HTTPClientFileDownloader(() -> mockHttpClient, false, true);
+        downloader.addObserver(mockObserver);
+
+        when(mockHttpClient.send(any(HttpRequest.class), eq(HttpResponse.BodyHandlers.ofInputStream())))
+                .thenReturn(mockGetResponse);
+        when(mockGetResponse.statusCode()).thenReturn(200);
+        when(mockGetResponse.headers()).thenReturn(HttpHeaders.of(
+                Map.of("Content-Length", List.of(String.valueOf(encoded.length)),
+                        "Content-Encoding", List.of("gzip"),
+                        "Content-MD5", List.of(Base64.getEncoder().encodeToString(
+                                MessageDigest.getInstance("MD5").digest(encoded)))), (a, b) -> true));
+        when(mockGetResponse.body()).thenReturn(new ByteArrayInputStream(encoded));
+
+        ByteArrayOutputStream destination = new ByteArrayOutputStream();
+        Optional<String> md5 = downloader.performDownload(testUri, destination, 0);
+
+        assertArrayEquals(content, destination.toByteArray());
+        // The file is the decoded content, so that is what the returned MD5 describes
+        assertEquals(Base64.getEncoder().encodeToString(MessageDigest.getInstance("MD5").digest(content)),
+                md5.orElseThrow());
+        verify(mockHttpClient).send(argThat(req -> req.headers().firstValue("Accept-Encoding")
+                .orElse("").contains("gzip")), any());
+        verify(mockObserver, atLeastOnce()).onProgressUpdate(eq((long) encoded.length), eq((long) encoded.length));
+    }
+
+    @Test
+    @DisplayName("should request only the rest of the file when resuming at an offset")
+    void performDownload_startOffset_sendsRangeAndAppends() throws Exception {
+        String fileContent = "This is a test file content.";
+        HTTPClientFileDownloader probelessDownloader = new HTTPClientFileDownloader(() -> mockHttpClient, false);
+
+        when(mockHttpClient.send(any(HttpRequest.class), eq(HttpResponse.BodyHandlers.ofInputStream())))
+                .thenReturn(mockGetResponse);
+        when(mockGetResponse.statusCode()).thenReturn(206);
+        when(mockGetResponse.headers()).thenReturn(HttpHeaders.of(
+                Map.of("Content-Length", List.of(String.valueOf(fileContent.length() - 10)),
+                        "Content-Range", List.of("bytes 10-" + (fileContent.length() - 1) + "/" + fileContent.length())),
+                (a, b) -> true));
+        when(mockGetResponse.body()).thenReturn(new ByteArrayInputStream(fileContent.substring(10).getBytes()));
+
+        ByteArrayOutputStream destination = new ByteArrayOutputStream();
+        destination.write(fileContent.substring(0, 10).getBytes());
+        probelessDownloader.performDownload(testUri, destination, 10);
+
+        assertEquals(fileContent, destination.toString());
+        verify(mockHttpClient).send(argThat(req -> req.headers().firstValue("Range").orElse("").equals("bytes=10-")),
+                any());
+    }
+}
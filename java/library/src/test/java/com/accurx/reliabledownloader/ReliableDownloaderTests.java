@@ -1,6 +1,8 @@
 package com.accurx.reliabledownloader;
 
 import com.accurx.reliabledownloader.core.*;
+import com.accurx.reliabledownloader.impl.MetadataCache;
+import com.accurx.reliabledownloader.impl.ReliableDownloader;
 import com.accurx.reliabledownloader.mocks.FakeCdn;
 import com.accurx.reliabledownloader.util.Md5;
 import okhttp3.mockwebserver.RecordedRequest;
@@ -95,6 +97,13 @@ class ReliableDownloaderTests {
     @Test
     @DisplayName("should resume download from offset when server supports ranges")
     void resumeDownloadSuccessWhenServerSupportsRanges() throws Exception {
+        // Without a resume overlap, so the request starts right where the partial file ends
+        downloader = new DownloaderFactory().createReliableDownloader(new DownloaderConfig.Builder()
+                .maxRetries(1)
+                .connectTimeout(Duration.ofSeconds(3))
+                .retryDelay(Duration.ofSeconds(1))
+                .resumeOverlapSize(0)
+                .build());
         setupFakeCdn(TEST_FILE_NAME, TEST_CONTENT);
         URI downloadUri = fakeCdn.getAcceptRangesUri();
         FileDownloadSettings settings = new FileDownloadSettings(downloadUri, destinationFilePath, true);
@@ -280,4 +289,294 @@ class ReliableDownloaderTests {
         assertFalse(Files.exists(destinationFilePath));
         assertFalse(Files.exists(Path.of(destinationFilePath.toString() + ".tmp")));
     }
-}
\ No newline at end of file
+
+    @Test
+    @DisplayName("should download a small file with a single ranged GET when the HEAD probe is disabled")
+    void probelessDownloadOfSmallFileUsesSingleRequest() throws Exception {
+        downloader = new DownloaderFactory().createReliableDownloader(new DownloaderConfig.Builder()
+                .maxRetries(1)
+                .connectTimeout(Duration.ofSeconds(3))
+                .retryDelay(Duration.ofSeconds(1))
+                .headProbeEnabled(false)
+                .build());
+        setupFakeCdn(TEST_FILE_NAME, TEST_CONTENT);
+        FileDownloadSettings settings =
+                new FileDownloadSettings(fakeCdn.getAcceptRangesUri(), destinationFilePath, true);
+
+        new FileDownloadCommand(downloader, settings).run();
+
+        assertEquals(TEST_CONTENT, Files.readString(destinationFilePath));
+        assertEquals(1, fakeCdn.getServer().getRequestCount());
+        RecordedRequest request = fakeCdn.getServer().takeRequest(1, TimeUnit.SECONDS);
+        assertNotNull(request);
+        assertEquals("GET", request.getMethod());
+        assertTrue(request.getHeader("Range").startsWith("bytes=0-"));
+    }
+
+    @Test
+    @DisplayName("should download a multi-chunk file without a HEAD probe")
+    void probelessDownloadOfMultiChunkFile() throws Exception {
+        downloader = new DownloaderFactory().createReliableDownloader(new DownloaderConfig.Builder()
+                .maxRetries(1)
+                .connectTimeout(Duration.ofSeconds(3))
+                .retryDelay(Duration.ofSeconds(1))
+                .chunkSize(16)
+                .headProbeEnabled(false)
+                .build());
+        setupFakeCdn(TEST_FILE_NAME, TEST_CONTENT);
+        FileDownloadSettings settings =
+                new FileDownloadSettings(fakeCdn.getAcceptRangesUri(), destinationFilePath, true);
+
+        new FileDownloadCommand(downloader, settings).run();
+
+        assertEquals(TEST_CONTENT, Files.readString(destinationFilePath));
+        int expectedRequests = (TEST_CONTENT.length() + 15) / 16;
+        assertEquals(expectedRequests, fakeCdn.getServer().getRequestCount());
+        for (int i = 0; i < expectedRequests; i++) {
+            assertEquals("GET", fakeCdn.getServer().takeRequest(1, TimeUnit.SECONDS).getMethod());
+        }
+    }
+
+    @Test
+    @DisplayName("should resume with a single If-Range GET when the partial file has a stored validator")
+    void conditionalResumeWhenRemoteFileUnchanged() throws Exception {
+        downloader = new DownloaderFactory().createReliableDownloader(new DownloaderConfig.Builder()
+                .maxRetries(1)
+                .connectTimeout(Duration.ofSeconds(3))
+                .retryDelay(Duration.ofSeconds(1))
+                .resumeOverlapSize(0)
+                .build());
+        setupFakeCdn(TEST_FILE_NAME, TEST_CONTENT);
+        FileDownloadSettings settings =
+                new FileDownloadSettings(fakeCdn.getAcceptRangesUri(), destinationFilePath, true);
+        Path tempFile = Path.of(destinationFilePath.toString() + ".tmp");
+        byte[] fullContentBytes = TEST_CONTENT.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+        Files.write(tempFile, java.util.Arrays.copyOf(fullContentBytes, 10));
+        try (PartialFileOutputStream partialFile = PartialFileOutputStream.open(tempFile)) {
+            partialFile.storeMetadata(
+                    new RemoteFileMetadata(fullContentBytes.length, true, fakeCdn.getETag(), null, null));
+        }
+
+        new FileDownloadCommand(downloader, settings).run();
+
+        assertEquals(TEST_CONTENT, Files.readString(destinationFilePath));
+        assertEquals(1, fakeCdn.getServer().getRequestCount());
+        RecordedRequest request = fakeCdn.getServer().takeRequest(1, TimeUnit.SECONDS);
+        assertEquals("GET", request.getMethod());
+        assertEquals(fakeCdn.getETag(), request.getHeader("If-Range"));
+        assertTrue(request.getHeader("Range").startsWith("bytes=10-"));
+        assertFalse(Files.exists(PartialFileOutputStream.sidecarPath(tempFile)));
+    }
+
+    @Test
+    @DisplayName("should replace a stale partial file with the full body when If-Range does not match")
+    void conditionalResumeWhenRemoteFileChanged() throws Exception {
+        setupFakeCdn(TEST_FILE_NAME, TEST_CONTENT);
+        FileDownloadSettings settings =
+                new FileDownloadSettings(fakeCdn.getAcceptRangesUri(), destinationFilePath, true);
+        Path tempFile = Path.of(destinationFilePath.toString() + ".tmp");
+        Files.writeString(tempFile, "old build");
+        try (PartialFileOutputStream partialFile = PartialFileOutputStream.open(tempFile)) {
+            partialFile.storeMetadata(new RemoteFileMetadata(100, true, "\"stale-etag\"", null, null));
+        }
+
+        new FileDownloadCommand(downloader, settings).run();
+
+        assertEquals(TEST_CONTENT, Files.readString(destinationFilePath));
+        assertEquals(fakeCdn.getContentHash(), Md5.contentMd5(destinationFilePath.toFile()));
+        assertEquals(1, fakeCdn.getServer().getRequestCount());
+    }
+
+    @Test
+    @DisplayName("should send the file's validator with every ranged chunk, not just the first")
+    void everyChunkCarriesIfRange() throws Exception {
+        downloader = new DownloaderFactory().createReliableDownloader(new DownloaderConfig.Builder()
+                .maxRetries(1)
+                .chunkSize(16)
+                .headProbeEnabled(false)
+                .build());
+        setupFakeCdn(TEST_FILE_NAME, TEST_CONTENT);
+        FileDownloadSettings settings =
+                new FileDownloadSettings(fakeCdn.getAcceptRangesUri(), destinationFilePath, true);
+
+        new FileDownloadCommand(downloader, settings).run();
+
+        assertEquals(TEST_CONTENT, Files.readString(destinationFilePath));
+        assertNull(fakeCdn.getServer().takeRequest(1, TimeUnit.SECONDS).getHeader("If-Range"));
+        for (int i = fakeCdn.getServer().getRequestCount() - 1; i > 0; i--) {
+            assertEquals(fakeCdn.getETag(), fakeCdn.getServer().takeRequest(1, TimeUnit.SECONDS).getHeader("If-Range"));
+        }
+    }
+
+    @Test
+    @DisplayName("should restart a resume whose remote file changed size even though its validator still matches")
+    void conditionalResumeWhenRemoteSizeChanged() throws Exception {
+        setupFakeCdn(TEST_FILE_NAME, TEST_CONTENT);
+        FileDownloadSettings settings =
+                new FileDownloadSettings(fakeCdn.getAcceptRangesUri(), destinationFilePath, true);
+        Path tempFile = Path.of(destinationFilePath.toString() + ".tmp");
+        Files.writeString(tempFile, "old build");
+        try (PartialFileOutputStream partialFile = PartialFileOutputStream.open(tempFile)) {
+            partialFile.storeMetadata(new RemoteFileMetadata(100, true, fakeCdn.getETag(), null, null));
+        }
+
+        new FileDownloadCommand(downloader, settings).run();
+
+        assertEquals(TEST_CONTENT, Files.readString(destinationFilePath));
+        assertEquals(fakeCdn.getContentHash(), Md5.contentMd5(destinationFilePath.toFile()));
+        assertEquals(fakeCdn.getETag(), fakeCdn.getServer().takeRequest(1, TimeUnit.SECONDS).getHeader("If-Range"));
+        assertEquals("HEAD", fakeCdn.getServer().takeRequest(1, TimeUnit.SECONDS).getMethod());
+    }
+
+    @Test
+    @DisplayName("should reuse cached metadata instead of probing again for a repeated download")
+    void repeatedDownloadSkipsHeadProbe() throws Exception {
+        setupFakeCdn(TEST_FILE_NAME, TEST_CONTENT);
+        FileDownloadSettings settings =
+                new FileDownloadSettings(fakeCdn.getAcceptRangesUri(), destinationFilePath, true);
+
+        new FileDownloadCommand(downloader, settings).run();
+        Files.delete(destinationFilePath);
+        new FileDownloadCommand(downloader, settings).run();
+
+        assertEquals(TEST_CONTENT, Files.readString(destinationFilePath));
+        assertEquals("HEAD", fakeCdn.getServer().takeRequest(1, TimeUnit.SECONDS).getMethod());
+        assertEquals("GET", fakeCdn.getServer().takeRequest(1, TimeUnit.SECONDS).getMethod());
+        assertEquals("GET", fakeCdn.getServer().takeRequest(1, TimeUnit.SECONDS).getMethod());
+        assertEquals(3, fakeCdn.getServer().getRequestCount());
+    }
+
+    @Test
+    @DisplayName("should pin a download from cached metadata to its validator and start over if the file was replaced")
+    void cachedMetadataOfReplacedFileIsCaught() throws Exception {
+        setupFakeCdn(TEST_FILE_NAME, TEST_CONTENT);
+        FileDownloadSettings settings =
+                new FileDownloadSettings(fakeCdn.getAcceptRangesUri(), destinationFilePath, true);
+        MetadataCache cache = new MetadataCache(Duration.ofMinutes(5), 16, null);
+        cache.put(fakeCdn.getAcceptRangesUri(),
+                new RemoteFileMetadata(TEST_CONTENT.length(), true, "\"previous-build\"", null, null));
+        DownloaderConfig config = new DownloaderConfig.Builder().maxRetries(1).build();
+
+        new FileDownloadCommand(new ReliableDownloader(config, cache), settings, config).run();
+
+        assertEquals(TEST_CONTENT, Files.readString(destinationFilePath));
+        RecordedRequest first = fakeCdn.getServer().takeRequest(1, TimeUnit.SECONDS);
+        assertEquals("GET", first.getMethod());
+        assertEquals("\"previous-build\"", first.getHeader("If-Range"));
+        assertEquals("HEAD", fakeCdn.getServer().takeRequest(1, TimeUnit.SECONDS).getMethod());
+        assertEquals(fakeCdn.getETag(), cache.get(fakeCdn.getAcceptRangesUri()).orElseThrow().etag());
+    }
+
+    @Test
+    @DisplayName("should hedge a straggling chunk and finish with whichever request completes first")
+    void stragglingChunkIsHedged() throws Exception {
+        downloader = new DownloaderFactory().createReliableDownloader(new DownloaderConfig.Builder()
+                .maxRetries(1)
+                .connectTimeout(Duration.ofSeconds(3))
+                .retryDelay(Duration.ofSeconds(1))
+                .chunkSize(16)
+                .maxHedgedRequests(1)
+                .build());
+        String content = "0123456789abcdef".repeat(10);
+        setupFakeCdn(TEST_FILE_NAME, content);
+        // The eighth chunk stalls; the seven before it give the downloader its latency baseline
+        // (kept short of the 5 s MockWebServer waits for its threads on shutdown)
+        fakeCdn.delayFirstRangeFrom(7 * 16, Duration.ofSeconds(4));
+        FileDownloadSettings settings =
+                new FileDownloadSettings(fakeCdn.getAcceptRangesUri(), destinationFilePath, true);
+
+        long started = System.nanoTime();
+        new FileDownloadCommand(downloader, settings).run();
+        Duration elapsed = Duration.ofNanos(System.nanoTime() - started);
+
+        assertEquals(content, Files.readString(destinationFilePath));
+        assertTrue(elapsed.compareTo(Duration.ofSeconds(3)) < 0, "download waited for the stalled request");
+        // HEAD, ten chunks and one hedged request
+        assertEquals(12, fakeCdn.getServer().getRequestCount());
+    }
+
+    @Test
+    @DisplayName("should drop a stalled connection and re-request the rest of its range on a fresh one")
+    void stalledConnectionIsReplaced() throws Exception {
+        ReliableDownloader reliableDownloader = new ReliableDownloader(new DownloaderConfig.Builder()
+                .maxRetries(1)
+                .connectTimeout(Duration.ofSeconds(3))
+                .retryDelay(Duration.ofSeconds(1))
+                .chunkSize(16)
+                .maxHedgedRequests(0)
+                .lowSpeedLimit(1)
+                .lowSpeedTime(Duration.ofSeconds(1))
+                .build());
+        String content = "0123456789abcdef".repeat(10);
+        setupFakeCdn(TEST_FILE_NAME, content);
+        // Kept short of the 5 s MockWebServer waits for its threads on shutdown
+        fakeCdn.delayFirstRangeFrom(3 * 16, Duration.ofSeconds(4));
+        FileDownloadSettings settings =
+                new FileDownloadSettings(fakeCdn.getAcceptRangesUri(), destinationFilePath, true);
+
+        long started = System.nanoTime();
+        new FileDownloadCommand(reliableDownloader, settings).run();
+        Duration elapsed = Duration.ofNanos(System.nanoTime() - started);
+
+        assertEquals(content, Files.readString(destinationFilePath));
+        assertTrue(elapsed.compareTo(Duration.ofSeconds(3)) < 0, "download waited for the stalled connection");
+        assertEquals(1, reliableDownloader.getStallCount());
+        // HEAD, ten chunks and the re-requested one
+        assertEquals(12, fakeCdn.getServer().getRequestCount());
+    }
+
+    @Test
+    @DisplayName("should download the last bytes of the partial file again and keep them when they match")
+    void resumeRefetchesOverlapBeforePartialEnd() throws Exception {
+        downloader = new DownloaderFactory().createReliableDownloader(new DownloaderConfig.Builder()
+                .maxRetries(1)
+                .connectTimeout(Duration.ofSeconds(3))
+                .retryDelay(Duration.ofSeconds(1))
+                .resumeOverlapSize(8)
+                .build());
+        setupFakeCdn(TEST_FILE_NAME, TEST_CONTENT);
+        FileDownloadSettings settings =
+                new FileDownloadSettings(fakeCdn.getAcceptRangesUri(), destinationFilePath, true);
+        Path tempFile = Path.of(destinationFilePath.toString() + ".tmp");
+        // Intact this time: the overlap matches, so nothing is cut and the download carries on from byte 40
+        byte[] partial = java.util.Arrays.copyOf(TEST_CONTENT.getBytes(java.nio.charset.StandardCharsets.UTF_8), 40);
+        Files.write(tempFile, partial);
+
+        new FileDownloadCommand(downloader, settings).run();
+
+        assertEquals(TEST_CONTENT, Files.readString(destinationFilePath));
+        assertEquals("HEAD", fakeCdn.getServer().takeRequest(1, TimeUnit.SECONDS).getMethod());
+        RecordedRequest getRequest = fakeCdn.getServer().takeRequest(1, TimeUnit.SECONDS);
+        assertTrue(getRequest.getHeader("Range").startsWith("bytes=32-"));
+        assertEquals(2, fakeCdn.getServer().getRequestCount());
+    }
+
+    @Test
+    @DisplayName("should cut a corrupt tail off the partial file when resuming instead of building on it")
+    void resumeCutsCorruptTailAtFirstBadByte() throws Exception {
+        downloader = new DownloaderFactory().createReliableDownloader(new DownloaderConfig.Builder()
+                .maxRetries(1)
+                .connectTimeout(Duration.ofSeconds(3))
+                .retryDelay(Duration.ofSeconds(1))
+                .resumeOverlapSize(8)
+                .build());
+        setupFakeCdn(TEST_FILE_NAME, TEST_CONTENT);
+        FileDownloadSettings settings =
+                new FileDownloadSettings(fakeCdn.getAcceptRangesUri(), destinationFilePath, true);
+        Path tempFile = Path.of(destinationFilePath.toString() + ".tmp");
+        // A torn write left garbage in the last four bytes of the partial file
+        byte[] partial = java.util.Arrays.copyOf(TEST_CONTENT.getBytes(java.nio.charset.StandardCharsets.UTF_8), 40);
+        java.util.Arrays.fill(partial, 36, 40, (byte) 0);
+        Files.write(tempFile, partial);
+
+        new FileDownloadCommand(downloader, settings).run();
+
+        assertEquals(TEST_CONTENT, Files.readString(destinationFilePath));
+        assertEquals(fakeCdn.getContentHash(), Md5.contentMd5(destinationFilePath.toFile()));
+        RecordedRequest headRequest = fakeCdn.getServer().takeRequest(1, TimeUnit.SECONDS);
+        assertEquals("HEAD", headRequest.getMethod());
+        RecordedRequest getRequest = fakeCdn.getServer().takeRequest(1, TimeUnit.SECONDS);
+        assertTrue(getRequest.getHeader("Range").startsWith("bytes=32-"));
+        assertEquals(2, fakeCdn.getServer().getRequestCount());
+    }
+}
@@ -1,5 +1,9 @@
 package com.accurx.reliabledownloader.core;
 
+import com.accurx.reliabledownloader.mocks.FakeCdn;
+import com.accurx.reliabledownloader.util.BlockManifest;
+import com.accurx.reliabledownloader.util.ContentDigests;
+import com.accurx.reliabledownloader.util.DigestAlgorithm;
 import com.accurx.reliabledownloader.util.DownloadProgressObserver;
 import com.accurx.reliabledownloader.util.Md5;
 import org.junit.jupiter.api.BeforeEach;
@@ -10,14 +14,20 @@ import org.junit.jupiter.api.io.TempDir;
 import org.mockito.Mock;
 import org.mockito.MockedStatic;
 import org.mockito.junit.jupiter.MockitoExtension;
+import okhttp3.mockwebserver.RecordedRequest;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.URI;
 import java.nio.file.Files;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.Base64;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
@@ -219,4 +229,168 @@ class FileDownloadCommandTests {
             assertFalse(Files.exists(destinationFilePath)); // Final destination should not exist
         }
     }
+
+    @Test
+    @DisplayName("should refetch only the blocks that do not match the block manifest")
+    void run_corruptBlock_refetchesOnlyThatBlock() throws Exception {
+        String content = "0123456789abcdef".repeat(8);
+        byte[] contentBytes = content.getBytes(StandardCharsets.UTF_8);
+        byte[] corrupted = contentBytes.clone();
+        corrupted[70] ^= 0x20; // Lands in block 2 of 32-byte blocks
+        FakeCdn fakeCdn = new FakeCdn("blocks.bin", content);
+        fakeCdn.beforeAll(null);
+        try {
+            FileDownloadSettings settings = new FileDownloadSettingsBuilder()
+                    .withSource(fakeCdn.getAcceptRangesUri())
+                    .withDestination(destinationFilePath)
+                    .withBlockManifest(BlockManifest.of(DigestAlgorithm.SHA_256, 32, contentBytes))
+                    .build();
+            when(mockFileDownloader.downloadFile(any(URI.class), any(OutputStream.class), anyLong()))
+                    .thenAnswer(invocation -> {
+                        OutputStream os = invocation.getArgument(1);
+                        os.write(corrupted);
+                        return Optional.of(fakeCdn.getContentHash());
+                    });
+
+            new FileDownloadCommand(mockFileDownloader, settings).run();
+
+            assertEquals(content, Files.readString(destinationFilePath));
+            assertEquals(1, fakeCdn.getServer().getRequestCount());
+            RecordedRequest repair = fakeCdn.getServer().takeRequest(1, TimeUnit.SECONDS);
+            assertEquals("bytes=64-95", repair.getHeader("Range"));
+        } finally {
+            fakeCdn.afterAll(null);
+        }
+    }
+
+    @Test
+    @DisplayName("should copy blocks found in the previous version and fetch only the missing ranges")
+    void run_previousVersion_fetchesOnlyChangedBlocks() throws Exception {
+        StringBuilder blocks = new StringBuilder();
+        for (int i = 0; i < 8; i++) {
+            blocks.append(String.format("block %02d payload", i)); // 16 bytes each
+        }
+        String oldContent = blocks.toString();
+        // Shifted by an inserted header, with one block changed, so most blocks moved to unaligned offsets
+        String newContent = "NEW!" + oldContent.substring(0, 64) + "changed block 04" + oldContent.substring(80);
+        Path previousVersion = tempDir.resolve("previous.bin");
+        Files.writeString(previousVersion, oldContent);
+        FakeCdn fakeCdn = new FakeCdn("delta.bin", newContent);
+        fakeCdn.beforeAll(null);
+        try {
+            FileDownloadSettings settings = new FileDownloadSettingsBuilder()
+                    .withSource(fakeCdn.getAcceptRangesUri())
+                    .withDestination(destinationFilePath)
+                    .withBlockManifest(BlockManifest.of(DigestAlgorithm.SHA_256, 16,
+                            newContent.getBytes(StandardCharsets.UTF_8)))
+                    .withPreviousVersion(previousVersion)
+                    .build();
+
+            new FileDownloadCommand(mockFileDownloader, settings).run();
+
+            assertEquals(newContent, Files.readString(destinationFilePath));
+            verify(mockFileDownloader, never()).downloadFile(any(URI.class), any(OutputStream.class), anyLong());
+            // Block 0 holds the new header; blocks 4 and 5 overlap the changed bytes and are fetched together
+            assertEquals(2, fakeCdn.getServer().getRequestCount());
+            assertEquals("bytes=0-15", fakeCdn.getServer().takeRequest(1, TimeUnit.SECONDS).getHeader("Range"));
+            assertEquals("bytes=64-95", fakeCdn.getServer().takeRequest(1, TimeUnit.SECONDS).getHeader("Range"));
+        } finally {
+            fakeCdn.afterAll(null);
+        }
+    }
+
+    @Test
+    @DisplayName("should retry failed range requests for missing blocks, then fall back to the downloader")
+    void run_previousVersion_rangeFailure_fallsBackToDownloader() throws Exception {
+        String oldContent = "block 00 payloadblock 01 payloadblock 02 payloadblock 03 payload";
+        String newContent = "NEW block 0 data" + oldContent.substring(16);
+        byte[] newBytes = newContent.getBytes(StandardCharsets.UTF_8);
+        Path previousVersion = tempDir.resolve("previous.bin");
+        Files.writeString(previousVersion, oldContent);
+        FakeCdn fakeCdn = new FakeCdn("delta.bin", newContent);
+        fakeCdn.beforeAll(null);
+        try {
+            URI failing = fakeCdn.getServer().url("/invalid-server-error-path/file.txt").uri();
+            FileDownloadSettings settings = new FileDownloadSettingsBuilder()
+                    .withSource(failing)
+                    .withDestination(destinationFilePath)
+                    .withBlockManifest(BlockManifest.of(DigestAlgorithm.SHA_256, 16, newBytes))
+                    .withPreviousVersion(previousVersion)
+                    .build();
+            DownloaderConfig config = new DownloaderConfig.Builder()
+                    .maxRetries(2)
+                    .retryDelay(Duration.ofMillis(10))
+                    .build();
+            when(mockFileDownloader.downloadFile(eq(failing), any(OutputStream.class), anyLong()))
+                    .thenAnswer(invocation -> {
+                        OutputStream os = invocation.getArgument(1);
+                        long startOffset = invocation.getArgument(2);
+                        os.write(newBytes, (int) startOffset, newBytes.length - (int) startOffset);
+                        return Optional.empty();
+                    });
+
+            new FileDownloadCommand(mockFileDownloader, settings, config).run();
+
+            assertEquals(newContent, Files.readString(destinationFilePath));
+            assertEquals(2, fakeCdn.getServer().getRequestCount(), "the range request is retried first");
+            verify(mockFileDownloader).downloadFile(eq(failing), any(OutputStream.class), eq(0L));
+        } finally {
+            fakeCdn.afterAll(null);
+        }
+    }
+
+    @Test
+    @DisplayName("should verify with the caller's SHA-256 when a cryptographic digest is required")
+    void run_cryptographicPolicy_usesSha256AndRejectsMismatch() throws Exception {
+        FileDownloadSettings settings = new FileDownloadSettingsBuilder()
+                .withSource(downloadSettings.sourceUrl())
+                .withDestination(destinationFilePath)
+                .withExpectedDigests(ContentDigests.parseDigestHeader(
+                        "md5=wrongButCheaper, sha-256=FeKw08M4keuw8e9gnsQZQgwg4yDOlMZfvIwzEkSOsiU="))
+                .build();
+        DownloaderConfig config = new DownloaderConfig.Builder().cryptographicDigestRequired(true).build();
+        when(mockFileDownloader.downloadFile(any(URI.class), any(OutputStream.class), anyLong()))
+                .thenAnswer(invocation -> {
+                    OutputStream os = invocation.getArgument(1);
+                    os.write("123456789".getBytes(StandardCharsets.UTF_8));
+                    return Optional.empty();
+                });
+
+        new FileDownloadCommand(mockFileDownloader, settings, config).run();
+        assertEquals("123456789", Files.readString(destinationFilePath));
+
+        Files.delete(destinationFilePath);
+        FileDownloadSettings tampered = new FileDownloadSettingsBuilder()
+                .withSource(downloadSettings.sourceUrl())
+                .withDestination(destinationFilePath)
+                .withExpectedDigests(
+                        ContentDigests.of(DigestAlgorithm.SHA_256, "AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA="))
+                .build();
+        IOException thrown = assertThrows(IOException.class,
+                () -> new FileDownloadCommand(mockFileDownloader, tampered, config).run());
+        assertEquals("SHA-256 integrity check failed.", thrown.getMessage());
+        assertFalse(Files.exists(destinationFilePath));
+        assertFalse(Files.exists(Path.of(destinationFilePath + ".tmp")));
+    }
+
+    @Test
+    @DisplayName("should fail rather than fall back to MD5 when a cryptographic digest is required but none is offered")
+    void run_cryptographicPolicyWithoutDigest_fails() throws Exception {
+        DownloaderConfig config = new DownloaderConfig.Builder().cryptographicDigestRequired(true).build();
+        byte[] testContent = "test content".getBytes(StandardCharsets.UTF_8);
+        when(mockFileDownloader.downloadFile(any(URI.class), any(OutputStream.class), anyLong()))
+                .thenAnswer(invocation -> {
+                    OutputStream os = invocation.getArgument(1);
+                    os.write(testContent);
+                    return Optional.of(Base64.getEncoder().encodeToString(
+                            MessageDigest.getInstance("MD5").digest(testContent)));
+                });
+
+        IOException thrown = assertThrows(IOException.class,
+                () -> new FileDownloadCommand(mockFileDownloader, downloadSettings, config).run());
+
+        assertTrue(thrown.getMessage().startsWith("A cryptographic digest is required"), thrown.getMessage());
+        assertFalse(Files.exists(destinationFilePath));
+        assertFalse(Files.exists(Path.of(destinationFilePath + ".tmp")));
+    }
 }
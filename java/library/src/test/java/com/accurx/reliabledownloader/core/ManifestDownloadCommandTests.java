@@ -0,0 +1,157 @@
+package com.accurx.reliabledownloader.core;
+
+import com.accurx.reliabledownloader.mocks.FakeCdn;
+import com.accurx.reliabledownloader.util.ContentDigests;
+import com.accurx.reliabledownloader.util.DigestAlgorithm;
+import com.accurx.reliabledownloader.util.DownloadManifest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ManifestDownloadCommandTests {
+
+    private static final String CONTENT = "0123456789abcdefghijklmnopqrstuvwxyz".repeat(20);
+
+    @TempDir
+    Path tempDir;
+
+    private FakeCdn cdn;
+
+    private final DownloaderConfig config = new DownloaderConfig.Builder()
+            .maxRetries(1)
+            .retryDelay(Duration.ofMillis(10))
+            .chunkSize(64)
+            .progressTrackingEnabled(false)
+            .build();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        cdn = new FakeCdn("installer.msi", CONTENT);
+        cdn.beforeAll(null);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        cdn.afterAll(null);
+    }
+
+    @Test
+    @DisplayName("should download every entry, report failures, and skip up-to-date files on a rerun")
+    void run_downloadsReportsAndSkips() throws Exception {
+        long size = CONTENT.getBytes(StandardCharsets.UTF_8).length;
+        ContentDigests md5 = ContentDigests.of(DigestAlgorithm.MD5, cdn.getContentHash());
+        URI missing = cdn.getServer().url("/nonexistent-path/file.txt").uri();
+        DownloadManifest manifest = new DownloadManifest(List.of(
+                new DownloadManifest.Entry(cdn.getAcceptRangesUri(), tempDir.resolve("a/installer.msi"), md5, size,
+                        List.of(), 0),
+                new DownloadManifest.Entry(cdn.getNoRangeUri(), tempDir.resolve("b/installer.msi"), md5, -1,
+                        List.of(), 5),
+                new DownloadManifest.Entry(missing, tempDir.resolve("c/file.txt"), null, -1, List.of(), 0)));
+        ManifestDownloadCommand command = new ManifestDownloadCommand(new DownloaderFactory(), config, true, 2, 0);
+
+        ManifestDownloadCommand.Summary first = command.run(manifest);
+
+        assertEquals(2, first.count(ManifestDownloadCommand.Status.DOWNLOADED));
+        assertEquals(1, first.count(ManifestDownloadCommand.Status.FAILED));
+        assertFalse(first.isSuccessful());
+        assertEquals(CONTENT, Files.readString(tempDir.resolve("a/installer.msi")));
+        assertEquals(CONTENT, Files.readString(tempDir.resolve("b/installer.msi")));
+        assertEquals(ManifestDownloadCommand.Status.FAILED, first.results().get(2).status());
+        assertTrue(first.toJson().contains("\"status\":\"FAILED\""));
+
+        int requests = cdn.getServer().getRequestCount();
+        ManifestDownloadCommand.Summary second = command.run(
+                new DownloadManifest(manifest.entries().subList(0, 2)));
+
+        assertEquals(2, second.count(ManifestDownloadCommand.Status.SKIPPED));
+        assertTrue(second.isSuccessful());
+        assertEquals(requests, cdn.getServer().getRequestCount(), "up-to-date files aren't requested again");
+    }
+
+    @Test
+    @DisplayName("should not skip a file on its length alone or on a digest weaker than the config requires")
+    void run_withoutAcceptableDigest_doesNotSkip() throws Exception {
+        long size = CONTENT.getBytes(StandardCharsets.UTF_8).length;
+        Path stale = tempDir.resolve("stale.msi");
+        Files.writeString(stale, "x".repeat((int) size));
+        DownloadManifest sizeOnly = new DownloadManifest(List.of(
+                new DownloadManifest.Entry(cdn.getAcceptRangesUri(), stale, null, size, List.of(), 0)));
+
+        ManifestDownloadCommand.Summary summary =
+                new ManifestDownloadCommand(new DownloaderFactory(), config, true, 1, 0).run(sizeOnly);
+
+        assertEquals(ManifestDownloadCommand.Status.DOWNLOADED, summary.results().get(0).status());
+        assertEquals(CONTENT, Files.readString(stale));
+
+        DownloaderConfig cryptographic = config.toBuilder().cryptographicDigestRequired(true).build();
+        DownloadManifest md5Only = new DownloadManifest(List.of(new DownloadManifest.Entry(cdn.getAcceptRangesUri(),
+                stale, ContentDigests.of(DigestAlgorithm.MD5, cdn.getContentHash()), size, List.of(), 0)));
+
+        summary = new ManifestDownloadCommand(new DownloaderFactory(), cryptographic, true, 1, 0).run(md5Only);
+
+        assertNotEquals(ManifestDownloadCommand.Status.SKIPPED, summary.results().get(0).status());
+    }
+
+    @Test
+    @DisplayName("should report an entry listed twice once for each listing")
+    void run_duplicateEntries_reportedSeparately() throws Exception {
+        DownloadManifest.Entry entry = new DownloadManifest.Entry(cdn.getAcceptRangesUri(),
+                tempDir.resolve("installer.msi"), null, -1, List.of(), 0);
+        DownloadManifest manifest = new DownloadManifest(List.of(entry, entry));
+
+        ManifestDownloadCommand.Summary summary =
+                new ManifestDownloadCommand(new DownloaderFactory(), config, true, 1, 0).run(manifest);
+
+        assertEquals(2, summary.results().size());
+        assertEquals(2, summary.count(ManifestDownloadCommand.Status.DOWNLOADED));
+        assertEquals(CONTENT, Files.readString(tempDir.resolve("installer.msi")));
+    }
+
+    @Test
+    @DisplayName("should hold the combined rate to the bandwidth cap")
+    void run_bandwidthCap_slowsDownloads() throws Exception {
+        DownloadManifest manifest = new DownloadManifest(List.of(
+                new DownloadManifest.Entry(cdn.getAcceptRangesUri(), tempDir.resolve("a.msi"), null, -1, List.of(), 0),
+                new DownloadManifest.Entry(cdn.getAcceptRangesUri(), tempDir.resolve("b.msi"), null, -1, List.of(), 0)));
+        // Two files of 720 bytes at 480 bytes a second; only the first write goes through without waiting
+        ManifestDownloadCommand command = new ManifestDownloadCommand(new DownloaderFactory(), config, true, 2, 480);
+
+        ManifestDownloadCommand.Summary summary = command.run(manifest);
+
+        assertTrue(summary.isSuccessful());
+        assertTrue(summary.elapsed().toMillis() >= 1500, "took " + summary.elapsed());
+    }
+
+    @Test
+    @DisplayName("should prefetch metadata into the cache and fail a size mismatch without downloading it")
+    void run_prefetchesMetadataAndChecksSize() throws Exception {
+        long size = CONTENT.getBytes(StandardCharsets.UTF_8).length;
+        DownloadManifest manifest = new DownloadManifest(List.of(
+                new DownloadManifest.Entry(cdn.getAcceptRangesUri(), tempDir.resolve("a.msi"), null, size,
+                        List.of(), 0),
+                new DownloadManifest.Entry(cdn.getNoRangeUri(), tempDir.resolve("b.msi"), null, size + 1,
+                        List.of(), 0)));
+        DownloaderFactory factory = new DownloaderFactory();
+        ManifestDownloadCommand command = new ManifestDownloadCommand(factory, config, true, 1, 0, 2);
+
+        ManifestDownloadCommand.Summary summary = command.run(manifest);
+
+        assertEquals(ManifestDownloadCommand.Status.DOWNLOADED, summary.results().get(0).status());
+        assertEquals(size, factory.getMetadataCache(config).get(cdn.getAcceptRangesUri()).orElseThrow().totalSize());
+        ManifestDownloadCommand.Result mismatch = summary.results().get(1);
+        assertEquals(ManifestDownloadCommand.Status.FAILED, mismatch.status());
+        assertTrue(mismatch.error().contains("the server has " + size), mismatch.error());
+        assertFalse(Files.exists(tempDir.resolve("b.msi")));
+    }
+}
@@ -0,0 +1,55 @@
+package com.accurx.reliabledownloader.core;
+
+import com.accurx.reliabledownloader.util.ContentDigests;
+import com.accurx.reliabledownloader.util.DigestAlgorithm;
+import com.accurx.reliabledownloader.util.MultiDigest;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.EnumSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PartialFileOutputStreamTests {
+
+    private static final Set<DigestAlgorithm> ALGORITHMS = EnumSet.of(DigestAlgorithm.CRC32C, DigestAlgorithm.SHA_256);
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    @DisplayName("should keep one running digest across stream writes and direct buffer writes")
+    void digests_mixedWrites_matchTheFile() throws Exception {
+        Path file = tempDir.resolve("installer.msi.tmp");
+        try (PartialFileOutputStream partialFile = PartialFileOutputStream.open(file)) {
+            partialFile.computeDigests(ALGORITHMS);
+            partialFile.write("0123456789".getBytes(StandardCharsets.UTF_8));
+            ByteBuffer direct = ByteBuffer.allocateDirect(16);
+            direct.put("abcdefghij".getBytes(StandardCharsets.UTF_8)).flip();
+            partialFile.writeAt(direct, 10);
+            partialFile.writeAt("klmno".getBytes(StandardCharsets.UTF_8), 0, 5, 20);
+
+            assertEquals(MultiDigest.of(file, ALGORITHMS), partialFile.digests(ALGORITHMS));
+        }
+    }
+
+    @Test
+    @DisplayName("should forget the digests expected of the old file when it is restarted from scratch")
+    void truncate_toZero_forgetsExpectedDigests() throws Exception {
+        try (PartialFileOutputStream partialFile = PartialFileOutputStream.open(tempDir.resolve("a.tmp"))) {
+            partialFile.write("old build".getBytes(StandardCharsets.UTF_8));
+            partialFile.expectDigests(ContentDigests.of(DigestAlgorithm.SHA_256, "b2xk"));
+
+            partialFile.truncate(4);
+            assertFalse(partialFile.expectedDigests().isEmpty(), "a shorter prefix is still the same file");
+
+            partialFile.truncate(0);
+            assertTrue(partialFile.expectedDigests().isEmpty());
+        }
+    }
+}
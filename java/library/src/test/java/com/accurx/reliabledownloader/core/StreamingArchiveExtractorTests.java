@@ -0,0 +1,180 @@
+package com.accurx.reliabledownloader.core;
+
+import com.accurx.reliabledownloader.impl.RetryPolicy;
+import com.accurx.reliabledownloader.impl.RetryingDownloader;
+import com.accurx.reliabledownloader.util.ContentDigests;
+import com.accurx.reliabledownloader.util.DigestAlgorithm;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Optional;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StreamingArchiveExtractorTests {
+
+    private static final URI SOURCE = URI.create("http://example.com/bundle.tar.gz");
+    private static final String README = "Read me first. ".repeat(100);
+
+    private final DownloaderConfig config = new DownloaderConfig.Builder()
+            .retryDelay(Duration.ofMillis(10))
+            .build();
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    @DisplayName("should tell the archive format from the file name")
+    void format_fromFileName() {
+        assertEquals(Optional.of(StreamingArchiveExtractor.Format.TAR_GZ),
+                StreamingArchiveExtractor.Format.fromFileName("/builds/app-1.2.TGZ"));
+        assertEquals(Optional.of(StreamingArchiveExtractor.Format.ZIP),
+                StreamingArchiveExtractor.Format.fromFileName("plugin.jar"));
+        assertEquals(Optional.empty(), StreamingArchiveExtractor.Format.fromFileName("installer.msi"));
+    }
+
+    @Test
+    @DisplayName("should unpack a tar.gz while it streams, resuming after a failed attempt")
+    void extract_tarGz_resumesAndUnpacks() throws Exception {
+        byte[] archive = gzip(tar("docs/readme.txt", README));
+        FileDownloader flaky = (source, destination, startOffset) -> {
+            if (startOffset == 0) {
+                destination.write(archive, 0, archive.length / 2);
+                throw new IOException("Connection reset");
+            }
+            destination.write(archive, (int) startOffset, archive.length - (int) startOffset);
+            return Optional.empty();
+        };
+        FileDownloader retrying = new RetryingDownloader(flaky, RetryPolicy.from(config));
+        Path output = tempDir.resolve("out");
+
+        new StreamingArchiveExtractor(new StreamingDownload(retrying, SOURCE, config),
+                ContentDigests.of(DigestAlgorithm.SHA_256, sha256(archive)), config)
+                .extract(StreamingArchiveExtractor.Format.TAR_GZ, output);
+
+        assertEquals(README, Files.readString(output.resolve("docs/readme.txt")));
+        assertFalse(Files.exists(tempDir.resolve("out.partial")));
+    }
+
+    @Test
+    @DisplayName("should unpack a zip while it streams")
+    void extract_zip_unpacks() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            zip.putNextEntry(new ZipEntry("bin/"));
+            zip.closeEntry();
+            zip.putNextEntry(new ZipEntry("bin/run.sh"));
+            zip.write("echo hi".getBytes(StandardCharsets.UTF_8));
+            zip.closeEntry();
+        }
+        byte[] archive = bytes.toByteArray();
+        FileDownloader downloader = (source, destination, startOffset) -> {
+            destination.write(archive);
+            return Optional.empty();
+        };
+        Path output = tempDir.resolve("out");
+
+        new StreamingArchiveExtractor(new StreamingDownload(downloader, SOURCE, config), ContentDigests.none(), config)
+                .extract(StreamingArchiveExtractor.Format.ZIP, output);
+
+        assertEquals("echo hi", Files.readString(output.resolve("bin/run.sh")));
+    }
+
+    @Test
+    @DisplayName("should leave the destination untouched when the archive fails verification")
+    void extract_digestMismatch_writesNothing() throws Exception {
+        byte[] archive = gzip(tar("docs/readme.txt", README));
+        FileDownloader downloader = (source, destination, startOffset) -> {
+            destination.write(archive);
+            return Optional.empty();
+        };
+        Path output = tempDir.resolve("out");
+        String wrongDigest = Base64.getEncoder().encodeToString(new byte[32]);
+
+        IOException thrown = assertThrows(IOException.class, () ->
+                new StreamingArchiveExtractor(new StreamingDownload(downloader, SOURCE, config),
+                        ContentDigests.of(DigestAlgorithm.SHA_256, wrongDigest), config)
+                        .extract(StreamingArchiveExtractor.Format.TAR_GZ, output));
+
+        assertEquals("SHA-256 integrity check failed.", thrown.getMessage());
+        assertFalse(Files.exists(output.resolve("docs/readme.txt")));
+        assertFalse(Files.exists(tempDir.resolve("out.partial")));
+    }
+
+    @Test
+    @DisplayName("should refuse to extract without a cryptographic digest when the policy requires one")
+    void extract_cryptographicPolicyWithoutDigest_fails() {
+        DownloaderConfig strict = new DownloaderConfig.Builder().cryptographicDigestRequired(true).build();
+        FileDownloader downloader = (source, destination, startOffset) -> {
+            destination.write(gzip(tar("docs/readme.txt", README)));
+            return Optional.empty();
+        };
+        Path output = tempDir.resolve("out");
+
+        IOException thrown = assertThrows(IOException.class, () ->
+                new StreamingArchiveExtractor(new StreamingDownload(downloader, SOURCE, strict),
+                        ContentDigests.none(), strict)
+                        .extract(StreamingArchiveExtractor.Format.TAR_GZ, output));
+
+        assertTrue(thrown.getMessage().startsWith("A cryptographic digest is required"), thrown.getMessage());
+        assertFalse(Files.exists(output.resolve("docs/readme.txt")));
+    }
+
+    /**
+     * Builds a ustar archive holding one file.
+     */
+    private static byte[] tar(String name, String content) {
+        byte[] data = content.getBytes(StandardCharsets.UTF_8);
+        byte[] header = new byte[512];
+        put(header, 0, name);
+        put(header, 100, "0000644");
+        put(header, 124, String.format("%011o", data.length));
+        put(header, 136, "00000000000");
+        header[156] = '0';
+        put(header, 257, "ustar");
+        put(header, 263, "00");
+        put(header, 148, "        ");
+        long checksum = 0;
+        for (byte b : header) {
+            checksum += b & 0xff;
+        }
+        put(header, 148, String.format("%06o", checksum));
+        header[154] = 0;
+
+        int padded = (data.length + 511) / 512 * 512;
+        byte[] archive = new byte[512 + padded + 1024]; // Ends with two zero blocks
+        System.arraycopy(header, 0, archive, 0, 512);
+        System.arraycopy(data, 0, archive, 512, data.length);
+        return archive;
+    }
+
+    private static void put(byte[] header, int offset, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(bytes, 0, header, offset, bytes.length);
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+            gzip.write(data);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static String sha256(byte[] data) throws Exception {
+        return Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-256").digest(data));
+    }
+}
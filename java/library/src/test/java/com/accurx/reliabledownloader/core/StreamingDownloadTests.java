@@ -0,0 +1,154 @@
+package com.accurx.reliabledownloader.core;
+
+import com.accurx.reliabledownloader.impl.RetryPolicy;
+import com.accurx.reliabledownloader.impl.RetryingDownloader;
+import com.accurx.reliabledownloader.mocks.FakeCdn;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StreamingDownloadTests {
+
+    private static final String CONTENT = "0123456789abcdef".repeat(64);
+    private static final URI SOURCE = URI.create("http://example.com/stream.bin");
+
+    private final DownloaderConfig config = new DownloaderConfig.Builder()
+            .retryDelay(Duration.ofMillis(10))
+            .prefetchSize(64)
+            .build();
+
+    @Test
+    @DisplayName("should stream a download from the server through an InputStream")
+    void open_streamsContent() throws Exception {
+        FakeCdn fakeCdn = new FakeCdn("stream.bin", CONTENT);
+        fakeCdn.beforeAll(null);
+        try {
+            FileDownloader downloader = new DownloaderFactory().createReliableDownloader(
+                    new DownloaderConfig.Builder().chunkSize(100).progressTrackingEnabled(false).build());
+
+            try (InputStream in = new StreamingDownload(downloader, fakeCdn.getAcceptRangesUri(), config).open()) {
+                assertEquals(CONTENT, new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            }
+        } finally {
+            fakeCdn.afterAll(null);
+        }
+    }
+
+    @Test
+    @DisplayName("should resume from the bytes already streamed when an attempt fails")
+    void open_resumesAfterFailure() throws Exception {
+        byte[] content = CONTENT.getBytes(StandardCharsets.UTF_8);
+        List<Long> offsets = new CopyOnWriteArrayList<>();
+        FileDownloader flaky = (source, destination, startOffset) -> {
+            offsets.add(startOffset);
+            if (startOffset == 0) {
+                destination.write(content, 0, 300);
+                throw new IOException("Connection reset");
+            }
+            destination.write(content, (int) startOffset, content.length - (int) startOffset);
+            return Optional.empty();
+        };
+
+        FileDownloader retrying = new RetryingDownloader(flaky, RetryPolicy.from(config));
+        try (InputStream in = new StreamingDownload(retrying, SOURCE, config).open()) {
+            assertEquals(CONTENT, new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+        assertEquals(List.of(0L, 300L), offsets);
+    }
+
+    @Test
+    @DisplayName("should report an MD5 mismatch instead of ending the stream cleanly")
+    void open_failsOnMd5Mismatch() {
+        FileDownloader corrupt = (source, destination, startOffset) -> {
+            destination.write(CONTENT.getBytes(StandardCharsets.UTF_8));
+            return Optional.of("1B2M2Y8AsgTpgAmY7PhCfg==");
+        };
+
+        InputStream in = new StreamingDownload(corrupt, SOURCE, config).open();
+
+        IOException thrown = assertThrows(IOException.class, in::readAllBytes);
+        assertEquals("MD5 integrity check failed.", thrown.getMessage());
+    }
+
+    @Test
+    @DisplayName("should not read further ahead of a slow consumer than the prefetch window")
+    void open_boundsReadAhead() throws Exception {
+        AtomicLong written = new AtomicLong();
+        FileDownloader fast = (source, destination, startOffset) -> {
+            for (int i = 0; i < 100; i++) {
+                destination.write(new byte[16]);
+                written.addAndGet(16);
+            }
+            return Optional.empty();
+        };
+
+        try (InputStream in = new StreamingDownload(fast, SOURCE, config).open()) {
+            assertEquals(0, in.read());
+            Thread.sleep(200);
+            // One chunk being consumed, a 64-byte window queued and one chunk blocked in write
+            assertTrue(written.get() <= 16 + 64 + 16, "read ahead " + written.get() + " bytes");
+            assertEquals(1600 - 1, in.readAllBytes().length);
+        }
+    }
+
+    @Test
+    @DisplayName("should publish the content honouring the subscriber's demand")
+    void publisher_emitsContentAndCompletes() throws Exception {
+        FakeCdn fakeCdn = new FakeCdn("stream.bin", CONTENT);
+        fakeCdn.beforeAll(null);
+        try {
+            FileDownloader downloader = new DownloaderFactory().createReliableDownloader(
+                    new DownloaderConfig.Builder().chunkSize(100).progressTrackingEnabled(false).build());
+            ByteArrayOutputStream received = new ByteArrayOutputStream();
+            CompletableFuture<Void> done = new CompletableFuture<>();
+
+            new StreamingDownload(downloader, fakeCdn.getAcceptRangesUri(), config).publisher()
+                    .subscribe(new Flow.Subscriber<>() {
+                        private Flow.Subscription subscription;
+
+                        @Override
+                        public void onSubscribe(Flow.Subscription subscription) {
+                            this.subscription = subscription;
+                            subscription.request(1);
+                        }
+
+                        @Override
+                        public void onNext(ByteBuffer item) {
+                            received.write(item.array(), item.position(), item.remaining());
+                            subscription.request(1);
+                        }
+
+                        @Override
+                        public void onError(Throwable throwable) {
+                            done.completeExceptionally(throwable);
+                        }
+
+                        @Override
+                        public void onComplete() {
+                            done.complete(null);
+                        }
+                    });
+
+            done.get(10, TimeUnit.SECONDS);
+            assertEquals(CONTENT, received.toString(StandardCharsets.UTF_8));
+        } finally {
+            fakeCdn.afterAll(null);
+        }
+    }
+}
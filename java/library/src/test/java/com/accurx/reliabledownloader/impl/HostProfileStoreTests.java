@@ -0,0 +1,155 @@
+package com.accurx.reliabledownloader.impl;
+
+import com.accurx.reliabledownloader.core.DownloaderConfig;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HostProfileStoreTests {
+
+    private static final URI SOURCE = URI.create("http://cdn.example.com/installer.msi");
+    private static final String HOST = "cdn.example.com";
+    private static final Duration HALF_LIFE = Duration.ofDays(7);
+    private static final long TEN_MB = 10 << 20;
+
+    @TempDir
+    Path tempDir;
+
+    private final MutableClock clock = new MutableClock();
+
+    @Test
+    @DisplayName("should start later downloads from the fastest chunk size and connection count seen")
+    void tune_startsFromBestObservedSetting() {
+        HostProfileStore store = new HostProfileStore(null, HALF_LIFE, clock);
+        store.record(HOST, observation(Duration.ofSeconds(10), 64 * 1024, 4));
+        store.record(HOST, observation(Duration.ofSeconds(5), 1 << 20, 8));
+        store.record(HOST, observation(Duration.ofSeconds(8), 64 * 1024, 16));
+
+        DownloaderConfig tuned = store.tune(SOURCE, DownloaderConfig.getDefault());
+
+        assertEquals(1 << 20, tuned.getChunkSize());
+        assertEquals(8, tuned.getParallelConnections());
+        assertEquals(0, store.get(HOST).orElseThrow().failureRate());
+    }
+
+    @Test
+    @DisplayName("should let stale observations fade so a newer, slower setting takes over")
+    void record_staleBest_isOvertaken() {
+        HostProfileStore store = new HostProfileStore(null, HALF_LIFE, clock);
+        store.record(HOST, observation(Duration.ofSeconds(5), 1 << 20, 8));
+
+        clock.advance(Duration.ofDays(30));
+        store.record(HOST, observation(Duration.ofSeconds(20), 64 * 1024, 2));
+
+        HostProfile profile = store.get(HOST).orElseThrow();
+        assertEquals(64 * 1024, profile.chunkSize());
+        assertEquals(2, profile.connections());
+    }
+
+    @Test
+    @DisplayName("should halve chunk size and connections for a host that keeps failing")
+    void tune_failingHost_backsOff() {
+        HostProfileStore store = new HostProfileStore(null, HALF_LIFE, clock);
+        store.record(HOST, observation(Duration.ofSeconds(5), 1 << 20, 8));
+        store.record(HOST, new HostProfile.Observation(0, Duration.ofSeconds(1), true, 1 << 20, 8, null));
+
+        DownloaderConfig tuned = store.tune(SOURCE, DownloaderConfig.getDefault());
+
+        assertEquals(512 * 1024, tuned.getChunkSize());
+        assertEquals(4, tuned.getParallelConnections());
+    }
+
+    @Test
+    @DisplayName("should persist profiles across instances and forget them once stale")
+    void persistence_survivesRestartUntilForgotten() {
+        Path file = tempDir.resolve("host-profiles.properties");
+        new HostProfileStore(file, HALF_LIFE, clock).record(HOST, observation(Duration.ofSeconds(5), 1 << 20, 8));
+
+        HostProfile reloaded = new HostProfileStore(file, HALF_LIFE, clock).get(HOST).orElseThrow();
+        assertEquals(1 << 20, reloaded.chunkSize());
+        assertEquals(8, reloaded.connections());
+        assertEquals(Boolean.TRUE, reloaded.rangeSupport());
+
+        clock.advance(Duration.ofDays(100));
+        assertTrue(new HostProfileStore(file, HALF_LIFE, clock).get(HOST).isEmpty());
+    }
+
+    @Test
+    @DisplayName("should keep the file whole when several stores persist to it at once")
+    void persistence_concurrentWriters_leaveOneReadableFile() throws Exception {
+        Path file = tempDir.resolve("host-profiles.properties");
+        List<HostProfileStore> stores = List.of(
+                new HostProfileStore(file, HALF_LIFE, clock), new HostProfileStore(file, HALF_LIFE, clock));
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> writes = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                HostProfileStore store = stores.get(i % 2);
+                writes.add(executor.submit(() -> store.record(HOST, observation(Duration.ofSeconds(5), 1 << 20, 8))));
+            }
+            for (Future<?> write : writes) {
+                write.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        try (Stream<Path> files = Files.list(tempDir)) {
+            assertEquals(List.of(file), files.toList(), "no temporary files left behind");
+        }
+        assertEquals(1 << 20, new HostProfileStore(file, HALF_LIFE, clock).get(HOST).orElseThrow().chunkSize());
+    }
+
+    @Test
+    @DisplayName("should leave the config alone for a host it knows nothing about")
+    void tune_unknownHost_returnsConfigUnchanged() {
+        HostProfileStore store = new HostProfileStore(null, HALF_LIFE, clock);
+        DownloaderConfig config = DownloaderConfig.getDefault();
+
+        assertSame(config, store.tune(SOURCE, config));
+    }
+
+    private static HostProfile.Observation observation(Duration elapsed, int chunkSize, int connections) {
+        return new HostProfile.Observation(TEN_MB, elapsed, false, chunkSize, connections, true);
+    }
+
+    private static class MutableClock extends Clock {
+        private Instant now = Instant.parse("2024-01-01T00:00:00Z");
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
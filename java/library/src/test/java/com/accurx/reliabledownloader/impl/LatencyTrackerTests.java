@@ -0,0 +1,46 @@
+package com.accurx.reliabledownloader.impl;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.OptionalLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LatencyTrackerTests {
+
+    @Test
+    @DisplayName("should report nearest-rank percentiles of the recorded durations")
+    void percentile_nearestRank() {
+        LatencyTracker tracker = new LatencyTracker(100);
+        for (long i = 100; i >= 1; i--) {
+            tracker.record(i);
+        }
+
+        assertEquals(OptionalLong.of(95), tracker.percentile(0.95));
+        assertEquals(OptionalLong.of(50), tracker.percentile(0.5));
+        assertEquals(OptionalLong.of(100), tracker.percentile(1.0));
+    }
+
+    @Test
+    @DisplayName("should only consider the most recent samples")
+    void record_dropsOldestSamplesBeyondWindow() {
+        LatencyTracker tracker = new LatencyTracker(3);
+        tracker.record(1_000);
+        tracker.record(10);
+        tracker.record(20);
+        tracker.record(30);
+
+        assertEquals(3, tracker.sampleCount());
+        assertEquals(OptionalLong.of(30), tracker.percentile(1.0));
+    }
+
+    @Test
+    @DisplayName("should report nothing before the first sample")
+    void percentile_emptyTracker() {
+        LatencyTracker tracker = new LatencyTracker(10);
+
+        assertTrue(tracker.percentile(0.95).isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> tracker.percentile(0));
+    }
+}
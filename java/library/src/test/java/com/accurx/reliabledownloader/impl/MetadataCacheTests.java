@@ -0,0 +1,130 @@
+package com.accurx.reliabledownloader.impl;
+
+import com.accurx.reliabledownloader.core.RemoteFileMetadata;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetadataCacheTests {
+
+    private static final URI FILE_A = URI.create("http://example.com/a.msi");
+    private static final URI FILE_B = URI.create("http://example.com/b.msi");
+    private static final URI FILE_C = URI.create("http://example.com/c.msi");
+    private static final RemoteFileMetadata METADATA =
+            new RemoteFileMetadata(1024, true, "\"v1\"", null, "md5==");
+
+    @TempDir
+    Path tempDir;
+
+    private final MutableClock clock = new MutableClock();
+
+    @Test
+    @DisplayName("should return cached metadata until the TTL elapses")
+    void get_withinTtl_returnsMetadata() {
+        MetadataCache cache = new MetadataCache(Duration.ofMinutes(5), 10, null, clock);
+        cache.put(FILE_A, METADATA);
+
+        clock.advance(Duration.ofMinutes(4));
+        assertEquals(METADATA, cache.get(FILE_A).orElseThrow());
+
+        clock.advance(Duration.ofMinutes(1));
+        assertTrue(cache.get(FILE_A).isEmpty());
+    }
+
+    @Test
+    @DisplayName("should evict the least recently used entry when full")
+    void put_beyondMaxEntries_evictsLeastRecentlyUsed() {
+        MetadataCache cache = new MetadataCache(Duration.ofMinutes(5), 2, null, clock);
+        cache.put(FILE_A, METADATA);
+        cache.put(FILE_B, METADATA);
+        cache.get(FILE_A);
+        cache.put(FILE_C, METADATA);
+
+        assertEquals(2, cache.size());
+        assertTrue(cache.get(FILE_A).isPresent());
+        assertTrue(cache.get(FILE_B).isEmpty());
+    }
+
+    @Test
+    @DisplayName("should drop invalidated entries")
+    void invalidate_removesEntry() {
+        MetadataCache cache = new MetadataCache(Duration.ofMinutes(5), 10, null, clock);
+        cache.put(FILE_A, METADATA);
+
+        cache.invalidate(FILE_A);
+
+        assertTrue(cache.get(FILE_A).isEmpty());
+    }
+
+    @Test
+    @DisplayName("should reload persisted entries but keep their original age")
+    void persistedCache_reloadsUnexpiredEntries() {
+        Path cacheFile = tempDir.resolve("metadata-cache.properties");
+        MetadataCache cache = new MetadataCache(Duration.ofMinutes(5), 10, cacheFile, clock);
+        cache.put(FILE_A, METADATA);
+        clock.advance(Duration.ofMinutes(3));
+        cache.put(FILE_B, new RemoteFileMetadata(7, false, null, "Mon, 01 Jan 2024 00:00:00 GMT", null));
+
+        clock.advance(Duration.ofMinutes(3));
+        MetadataCache reloaded = new MetadataCache(Duration.ofMinutes(5), 10, cacheFile, clock);
+
+        assertTrue(reloaded.get(FILE_A).isEmpty(), "entry older than the TTL should not be reloaded");
+        RemoteFileMetadata fileB = reloaded.get(FILE_B).orElseThrow();
+        assertEquals(7, fileB.totalSize());
+        assertFalse(fileB.supportsRangeRequests());
+        assertEquals("Mon, 01 Jan 2024 00:00:00 GMT", fileB.lastModified());
+        assertNull(fileB.etag());
+    }
+
+    @Test
+    @DisplayName("should write each cache through a temporary file of its own and leave none behind")
+    void persistedCache_sharedFile_leavesNoTemporaryFiles() throws Exception {
+        Path cacheFile = tempDir.resolve("metadata-cache.properties");
+        MetadataCache first = new MetadataCache(Duration.ofMinutes(5), 10, cacheFile, clock);
+        MetadataCache second = new MetadataCache(Duration.ofMinutes(5), 10, cacheFile, clock);
+
+        first.put(FILE_A, METADATA);
+        second.put(FILE_B, METADATA);
+
+        try (Stream<Path> files = Files.list(tempDir)) {
+            assertEquals(List.of(cacheFile), files.toList());
+        }
+        assertTrue(new MetadataCache(Duration.ofMinutes(5), 10, cacheFile, clock).get(FILE_B).isPresent());
+    }
+
+    private static class MutableClock extends Clock {
+        private Instant now = Instant.parse("2024-01-01T00:00:00Z");
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.accurx.reliabledownloader.impl;
+
+import com.accurx.reliabledownloader.core.DownloaderConfig;
+import com.accurx.reliabledownloader.core.DownloaderFactory;
+import com.accurx.reliabledownloader.core.FileDownloadCommand;
+import com.accurx.reliabledownloader.core.FileDownloadSettings;
+import com.accurx.reliabledownloader.core.FileDownloadSettingsBuilder;
+import com.accurx.reliabledownloader.core.FileDownloader;
+import com.accurx.reliabledownloader.core.RemoteFileMetadata;
+import com.accurx.reliabledownloader.core.ThrottledException;
+import com.accurx.reliabledownloader.mocks.FakeCdn;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MultiSourceDownloaderTests {
+
+    private static final String CONTENT = "0123456789abcdefghijklmnopqrstuvwxyz".repeat(20);
+
+    @TempDir
+    Path tempDir;
+
+    private final List<FakeCdn> cdns = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() throws Exception {
+        for (FakeCdn cdn : cdns) {
+            cdn.afterAll(null);
+        }
+    }
+
+    private FakeCdn startCdn(String content) throws Exception {
+        FakeCdn cdn = new FakeCdn("installer.msi", content);
+        cdn.beforeAll(null);
+        cdns.add(cdn);
+        return cdn;
+    }
+
+    private FileDownloader createDownloader(FileDownloadSettings settings) {
+        DownloaderConfig config = new DownloaderConfig.Builder()
+                .maxRetries(1)
+                .connectTimeout(Duration.ofSeconds(3))
+                .retryDelay(Duration.ofSeconds(1))
+                .chunkSize(64)
+                .parallelConnections(3)
+                .build();
+        return new DownloaderFactory().createDownloader(config, settings);
+    }
+
+    @Test
+    @DisplayName("should pull ranges from every mirror serving the same file")
+    void download_spreadsRangesAcrossMirrors() throws Exception {
+        FakeCdn primary = startCdn(CONTENT);
+        FakeCdn mirror = startCdn(CONTENT);
+        Path destination = tempDir.resolve("installer.msi");
+        FileDownloadSettings settings = new FileDownloadSettingsBuilder()
+                .withSource(primary.getAcceptRangesUri())
+                .withDestination(destination)
+                .withMirrors(List.of(mirror.getAcceptRangesUri()))
+                .build();
+
+        new FileDownloadCommand(createDownloader(settings), settings).run();
+
+        assertEquals(CONTENT, Files.readString(destination));
+        // One probe each, plus at least one range request each
+        assertTrue(primary.getServer().getRequestCount() >= 2);
+        assertTrue(mirror.getServer().getRequestCount() >= 2);
+    }
+
+    @Test
+    @DisplayName("should drop a mirror that serves a different file")
+    void download_dropsDisagreeingMirror() throws Exception {
+        FakeCdn primary = startCdn(CONTENT);
+        FakeCdn stale = startCdn("an older build of the installer");
+        Path destination = tempDir.resolve("installer.msi");
+        FileDownloadSettings settings = new FileDownloadSettingsBuilder()
+                .withSource(primary.getAcceptRangesUri())
+                .withDestination(destination)
+                .withMirrors(List.of(stale.getAcceptRangesUri()))
+                .build();
+
+        new FileDownloadCommand(createDownloader(settings), settings).run();
+
+        assertEquals(CONTENT, Files.readString(destination));
+        assertEquals(1, stale.getServer().getRequestCount(), "only the probe should reach the stale mirror");
+    }
+
+    @Test
+    @DisplayName("should wait for a throttled source's connection instead of leaving segments behind")
+    void download_throttledSources_fetchEverySegment() throws Exception {
+        FakeCdn primary = startCdn(CONTENT);
+        FakeCdn mirror = startCdn(CONTENT);
+        // Three workers, but each host now allows a single connection
+        for (FakeCdn cdn : List.of(primary, mirror)) {
+            HostThrottle.global().recordThrottled(HostThrottle.hostOf(cdn.getAcceptRangesUri()),
+                    new ThrottledException("HTTP 429", 429, Duration.ZERO));
+        }
+        Path destination = tempDir.resolve("installer.msi");
+        FileDownloadSettings settings = new FileDownloadSettingsBuilder()
+                .withSource(primary.getAcceptRangesUri())
+                .withDestination(destination)
+                .withMirrors(List.of(mirror.getAcceptRangesUri()))
+                .build();
+
+        new FileDownloadCommand(createDownloader(settings), settings).run();
+
+        assertEquals(CONTENT, Files.readString(destination));
+    }
+
+    @Test
+    @DisplayName("should only treat sources as equivalent when size and checksum agree")
+    void agrees_comparesSizeThenChecksumThenETag() {
+        RemoteFileMetadata reference = new RemoteFileMetadata(100, true, "\"a\"", null, "md5-a");
+
+        assertTrue(MultiSourceDownloader.agrees(reference, new RemoteFileMetadata(100, true, "\"b\"", null, "md5-a")));
+        assertFalse(MultiSourceDownloader.agrees(reference, new RemoteFileMetadata(101, true, "\"a\"", null, "md5-a")));
+        assertFalse(MultiSourceDownloader.agrees(reference, new RemoteFileMetadata(100, true, "\"a\"", null, "md5-b")));
+        assertFalse(MultiSourceDownloader.agrees(reference, new RemoteFileMetadata(100, true, "\"b\"", null, null)));
+        assertTrue(MultiSourceDownloader.agrees(reference, new RemoteFileMetadata(100, true, null, null, null)));
+    }
+}
@@ -0,0 +1,86 @@
+package com.accurx.reliabledownloader.impl;
+
+import com.accurx.reliabledownloader.core.DownloaderConfig;
+import com.accurx.reliabledownloader.mocks.FakeCdn;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.FileNotFoundException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NetworkProbeTests {
+
+    private static final String CONTENT = "0123456789abcdefghijklmnopqrstuvwxyz".repeat(20);
+
+    private FakeCdn cdn;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        cdn = new FakeCdn("installer.msi", CONTENT);
+        cdn.beforeAll(null);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        cdn.afterAll(null);
+    }
+
+    @Test
+    @DisplayName("should measure the link and detect range support and keep-alive")
+    void probe_rangeServer_measuresCapabilities() throws Exception {
+        NetworkProfile profile = new NetworkProbe(Duration.ofSeconds(3)).probe(cdn.getAcceptRangesUri());
+
+        assertTrue(profile.rangeSupport());
+        assertTrue(profile.connectionReuse());
+        assertEquals(CONTENT.getBytes(StandardCharsets.UTF_8).length, profile.fileSize());
+        assertTrue(profile.throughput() > 0);
+        assertFalse(profile.rtt().isNegative());
+    }
+
+    @Test
+    @DisplayName("should report a server that ignores ranges")
+    void probe_noRangeServer_reportsNoRangeSupport() throws Exception {
+        NetworkProfile profile = new NetworkProbe(Duration.ofSeconds(3)).probe(cdn.getNoRangeUri());
+
+        assertFalse(profile.rangeSupport());
+        assertEquals(1, profile.configure(new DownloaderConfig.Builder()).build().getParallelConnections());
+    }
+
+    @Test
+    @DisplayName("should fail for a missing file")
+    void probe_missingFile_throws() {
+        URI missing = cdn.getServer().url("/nonexistent-path/file.txt").uri();
+
+        assertThrows(FileNotFoundException.class, () -> new NetworkProbe(Duration.ofSeconds(3)).probe(missing));
+    }
+
+    @Test
+    @DisplayName("should derive engine, chunking and parallelism from the measurements")
+    void profile_derivesConfiguration() {
+        NetworkProfile far = new NetworkProfile(URI.create("http://cdn.example.com/x"), Duration.ofMillis(180),
+                Duration.ofMillis(400), 5_000_000, true, true, 500L << 20);
+        DownloaderConfig farConfig = far.configure(new DownloaderConfig.Builder()).build();
+        assertEquals(NetworkProfile.Engine.NIO, far.engine());
+        assertTrue(farConfig.isNioEngineEnabled());
+        assertEquals(8, farConfig.getParallelConnections());
+        assertEquals(8 << 20, farConfig.getChunkSize());
+
+        NetworkProfile poor = new NetworkProfile(URI.create("https://cdn.example.com/x"), Duration.ofMillis(600),
+                Duration.ofSeconds(2), 50_000, true, true, 50L << 20);
+        DownloaderConfig poorConfig = poor.configure(new DownloaderConfig.Builder()).build();
+        assertEquals(NetworkProfile.Engine.RELIABLE, poor.engine());
+        assertFalse(poorConfig.isNioEngineEnabled());
+        assertEquals(64 * 1024, poorConfig.getChunkSize());
+        assertEquals(5, poorConfig.getMaxRetries());
+
+        NetworkProfile noRanges = new NetworkProfile(URI.create("https://cdn.example.com/x"), Duration.ofMillis(20),
+                Duration.ofMillis(50), 50_000_000, false, true, -1);
+        assertEquals(NetworkProfile.Engine.HTTP_CLIENT, noRanges.engine());
+    }
+}
@@ -0,0 +1,144 @@
+package com.accurx.reliabledownloader.impl;
+
+import com.accurx.reliabledownloader.core.DownloaderConfig;
+import com.accurx.reliabledownloader.core.DownloaderFactory;
+import com.accurx.reliabledownloader.core.FileDownloadCommand;
+import com.accurx.reliabledownloader.core.FileDownloadSettings;
+import com.accurx.reliabledownloader.core.FileDownloader;
+import com.accurx.reliabledownloader.core.RemoteFileMetadata;
+import com.accurx.reliabledownloader.mocks.FakeCdn;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NioFileDownloaderTests {
+
+    private static final String CONTENT = "0123456789abcdefghijklmnopqrstuvwxyz".repeat(20);
+
+    @TempDir
+    Path tempDir;
+
+    private FakeCdn cdn;
+
+    private final DownloaderConfig config = new DownloaderConfig.Builder()
+            .nioEngineEnabled(true)
+            .eventLoopThreads(1)
+            .maxRetries(1)
+            .connectTimeout(Duration.ofSeconds(3))
+            .retryDelay(Duration.ofSeconds(1))
+            .chunkSize(64)
+            .parallelConnections(4)
+            .socketReceiveBufferSize(64 * 1024)
+            .progressTrackingEnabled(false)
+            .build();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        cdn = new FakeCdn("installer.msi", CONTENT);
+        cdn.beforeAll(null);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        cdn.afterAll(null);
+    }
+
+    @Test
+    @DisplayName("should be picked by the factory when the NIO engine is enabled")
+    void factory_nioEngineEnabled_downloadsOverEventLoop() throws Exception {
+        Path destination = tempDir.resolve("installer.msi");
+        FileDownloadSettings settings = new FileDownloadSettings(cdn.getAcceptRangesUri(), destination, true);
+        try (DownloaderFactory factory = new DownloaderFactory()) {
+            FileDownloader downloader = factory.createDownloader(config, settings);
+
+            new FileDownloadCommand(downloader, settings, config).run();
+        }
+
+        assertEquals(CONTENT, Files.readString(destination));
+        // The probe plus one range request per connection at least
+        assertTrue(cdn.getServer().getRequestCount() >= 5);
+    }
+
+    @Test
+    @DisplayName("should share one set of selector threads across the factory's downloaders and release it on close")
+    void factory_sharesEventLoopsAndClosesThem() {
+        FileDownloadSettings settings = new FileDownloadSettings(cdn.getAcceptRangesUri(),
+                tempDir.resolve("installer.msi"), true);
+        DownloaderFactory factory = new DownloaderFactory();
+        NioEventLoopGroup loops = factory.getNioEventLoopGroup(config);
+
+        factory.createDownloader(config, settings);
+        factory.createDownloader(config, settings);
+        assertSame(loops, factory.getNioEventLoopGroup(config));
+
+        factory.close();
+        assertThrows(RejectedExecutionException.class, () -> loops.next().execute(() -> { }));
+    }
+
+    @Test
+    @DisplayName("should download sequentially from a server that ignores ranges")
+    void download_noRangeSupport_fallsBackToSequential() throws Exception {
+        Path destination = tempDir.resolve("installer.msi");
+        FileDownloadSettings settings = new FileDownloadSettings(cdn.getNoRangeUri(), destination, true);
+
+        try (NioFileDownloader downloader = new NioFileDownloader(config)) {
+            new FileDownloadCommand(downloader, settings, config).run();
+        }
+
+        assertEquals(CONTENT, Files.readString(destination));
+    }
+
+    @Test
+    @DisplayName("should follow a redirect once and send the range requests to where it leads")
+    void download_redirect_rangesGoToResolvedLocation() throws Exception {
+        Path destination = tempDir.resolve("installer.msi");
+        FileDownloadSettings settings = new FileDownloadSettings(cdn.getRedirectUri(), destination, true);
+
+        try (NioFileDownloader downloader = new NioFileDownloader(config)) {
+            new FileDownloadCommand(downloader, settings, config).run();
+        }
+
+        assertEquals(CONTENT, Files.readString(destination));
+        int redirected = 0;
+        for (int i = cdn.getServer().getRequestCount(); i > 0; i--) {
+            if (cdn.getServer().takeRequest().getPath().equals(cdn.getRedirectUri().getPath())) {
+                redirected++;
+            }
+        }
+        assertEquals(1, redirected, "only the probe goes through the redirect");
+    }
+
+    @Test
+    @DisplayName("should forget cached metadata whose validator no longer matches, so the retry probes afresh")
+    void download_staleCachedValidator_isEvictedAndRetrySucceeds() throws Exception {
+        Path destination = tempDir.resolve("installer.msi");
+        FileDownloadSettings settings = new FileDownloadSettings(cdn.getAcceptRangesUri(), destination, true);
+        MetadataCache cache = new MetadataCache(Duration.ofMinutes(5), 16, null);
+        cache.put(cdn.getAcceptRangesUri(), new RemoteFileMetadata(CONTENT.length(), true, "\"replaced\"", null, null));
+        try (NioFileDownloader engine = new NioFileDownloader(config, cache)) {
+            FileDownloader downloader = new RetryingDownloader(engine,
+                    new RetryPolicy(2, Duration.ofMillis(10), Duration.ofMillis(10)));
+
+            new FileDownloadCommand(downloader, settings, config).run();
+        }
+
+        assertEquals(CONTENT, Files.readString(destination));
+        assertEquals(cdn.getETag(), cache.get(cdn.getAcceptRangesUri()).orElseThrow().etag());
+    }
+
+    @Test
+    @DisplayName("should reject a config without event loop threads")
+    void config_zeroEventLoopThreads_throws() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new DownloaderConfig.Builder().eventLoopThreads(0).build());
+    }
+}
@@ -0,0 +1,138 @@
+package com.accurx.reliabledownloader.impl;
+
+import com.accurx.reliabledownloader.core.DownloaderConfig;
+import com.accurx.reliabledownloader.core.RemoteFileChangedException;
+import com.accurx.reliabledownloader.core.RemoteFileMetadata;
+import com.accurx.reliabledownloader.mocks.FakeCdn;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RemoteFileChannelTests {
+
+    private static final String CONTENT = "0123456789".repeat(100); // 1000 bytes, 10 blocks of 100
+
+    private final DownloaderConfig config = new DownloaderConfig.Builder().chunkSize(100).build();
+    private FakeCdn fakeCdn;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        fakeCdn = new FakeCdn("remote.bin", CONTENT);
+        fakeCdn.beforeAll(null);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        fakeCdn.afterAll(null);
+    }
+
+    @Test
+    @DisplayName("should fetch only the block holding the bytes read and serve repeated reads from the cache")
+    void read_fetchesOnlyTouchedBlocks() throws Exception {
+        try (RemoteFileChannel channel = RemoteFileChannel.open(fakeCdn.getAcceptRangesUri(), config)) {
+            assertEquals(1000, channel.size());
+
+            assertEquals(CONTENT.substring(950), read(channel, 950, 50));
+            assertEquals(CONTENT.substring(950), read(channel, 950, 50));
+
+            assertEquals(List.of("bytes=0-0", "bytes=900-999"), ranges(2));
+            assertEquals(2, fakeCdn.getServer().getRequestCount());
+        }
+    }
+
+    @Test
+    @DisplayName("should fetch the missing blocks of one read with a single request")
+    void read_coalescesAdjacentBlocks() throws Exception {
+        try (RemoteFileChannel channel = RemoteFileChannel.open(fakeCdn.getAcceptRangesUri(), config)) {
+            assertEquals(CONTENT.substring(150, 450), read(channel, 150, 300));
+
+            assertEquals(List.of("bytes=0-0", "bytes=100-499"), ranges(2));
+        }
+    }
+
+    @Test
+    @DisplayName("should read ahead while access is sequential")
+    void read_sequentialAccessReadsAhead() throws Exception {
+        try (RemoteFileChannel channel = RemoteFileChannel.open(fakeCdn.getAcceptRangesUri(), config)) {
+            ByteArrayOutputStream all = new ByteArrayOutputStream();
+            ByteBuffer buffer = ByteBuffer.allocate(10);
+            while (channel.read(buffer) != -1) {
+                all.write(buffer.array(), 0, buffer.position());
+                buffer.clear();
+            }
+
+            assertEquals(CONTENT, all.toString(StandardCharsets.UTF_8));
+            // Probe plus far fewer requests than the ten blocks, as the read-ahead window keeps doubling
+            assertTrue(fakeCdn.getServer().getRequestCount() <= 6,
+                    fakeCdn.getServer().getRequestCount() + " requests");
+        }
+    }
+
+    @Test
+    @DisplayName("should be read-only")
+    void write_isRejected() throws Exception {
+        try (RemoteFileChannel channel = RemoteFileChannel.open(fakeCdn.getAcceptRangesUri(), config)) {
+            assertThrows(NonWritableChannelException.class, () -> channel.write(ByteBuffer.allocate(1)));
+        }
+    }
+
+    @Test
+    @DisplayName("should refuse servers that don't support range requests")
+    void open_rejectsServerWithoutRanges() {
+        // The fake CDN answers ranged GETs on every path, so describe a server without ranges directly
+        RemoteFileMetadata noRanges = new RemoteFileMetadata(1000, false, null, null, null);
+
+        assertThrows(IOException.class,
+                () -> RemoteFileChannel.open(fakeCdn.getNoRangeUri(), config, noRanges, 4));
+    }
+
+    @Test
+    @DisplayName("should pin reads to the probed version and fail without retrying once the file is replaced")
+    void read_fileReplaced_failsInsteadOfMixingVersions() throws Exception {
+        try (RemoteFileChannel channel = RemoteFileChannel.open(fakeCdn.getAcceptRangesUri(), config)) {
+            assertEquals(CONTENT.substring(0, 50), read(channel, 0, 50));
+            fakeCdn.getServer().takeRequest(1, TimeUnit.SECONDS); // The probe
+            assertEquals(fakeCdn.getETag(),
+                    fakeCdn.getServer().takeRequest(1, TimeUnit.SECONDS).getHeader("If-Range"));
+        }
+
+        RemoteFileMetadata previousVersion = new RemoteFileMetadata(1000, true, "\"previous-version\"", null, null);
+        int requestsBefore = fakeCdn.getServer().getRequestCount();
+        try (RemoteFileChannel channel = RemoteFileChannel.open(fakeCdn.getAcceptRangesUri(), config,
+                previousVersion, 4)) {
+            assertThrows(RemoteFileChangedException.class, () -> read(channel, 0, 50));
+        }
+        assertEquals(requestsBefore + 1, fakeCdn.getServer().getRequestCount());
+    }
+
+    private static String read(RemoteFileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        channel.position(position);
+        while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+            // Keep reading until the buffer is full
+        }
+        return new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8);
+    }
+
+    private List<String> ranges(int count) throws InterruptedException {
+        List<String> ranges = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            RecordedRequest request = fakeCdn.getServer().takeRequest(1, TimeUnit.SECONDS);
+            ranges.add(request.getHeader("Range"));
+        }
+        return ranges;
+    }
+}
@@ -0,0 +1,247 @@
+package com.accurx.reliabledownloader.impl;
+
+import com.accurx.reliabledownloader.core.CircuitOpenException;
+import com.accurx.reliabledownloader.core.FileDownloader;
+import com.accurx.reliabledownloader.core.RangeNotSupportedException;
+import com.accurx.reliabledownloader.core.ThrottledException;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RetryPolicyTests {
+
+    private static final URI SOURCE = URI.create("http://cdn.example.com:8080/installer.msi");
+
+    private final AtomicLong clock = new AtomicLong();
+
+    @Test
+    @DisplayName("should draw jittered delays between the base delay and three times the previous one, capped")
+    void nextDelay_decorrelatedJitterWithinBounds() {
+        RetryPolicy policy = newPolicy(5, new HostCircuitBreakers(5, Duration.ofSeconds(30)));
+        Duration previous = Duration.ofMillis(100);
+        for (int i = 0; i < 1000; i++) {
+            Duration next = policy.nextDelay(previous);
+            assertTrue(next.toMillis() >= 100, "below base delay: " + next);
+            assertTrue(next.toMillis() <= Math.min(2_000, previous.toMillis() * 3), "above bound: " + next);
+            previous = next;
+        }
+    }
+
+    @Test
+    @DisplayName("should refuse retries once the budget is spent and refill it over time")
+    void retryBudget_exhaustsAndRefills() {
+        RetryBudget budget = new RetryBudget(0.5, 1, 2, clock::get);
+
+        assertTrue(budget.tryAcquire());
+        assertTrue(budget.tryAcquire());
+        assertFalse(budget.tryAcquire());
+
+        budget.recordRequest();
+        budget.recordRequest();
+        assertTrue(budget.tryAcquire(), "two downloads at 0.5 each earn one retry");
+        assertFalse(budget.tryAcquire());
+
+        clock.addAndGet(Duration.ofSeconds(1).toNanos());
+        assertTrue(budget.tryAcquire(), "the reserve refills at one retry per second");
+    }
+
+    @Test
+    @DisplayName("should open a host's circuit after repeated connection failures and close it after a good trial")
+    void circuitBreaker_opensFailsFastAndRecovers() throws Exception {
+        HostCircuitBreakers breakers = new HostCircuitBreakers(2, Duration.ofSeconds(30), clock::get);
+        String host = "cdn.example.com:8080";
+
+        breakers.recordFailure(host, new IOException("HTTP error: 500 for " + SOURCE));
+        breakers.recordFailure(host, new ConnectException("Connection refused"));
+        assertEquals(HostCircuitBreakers.State.CLOSED, breakers.state(host));
+        breakers.recordFailure(host, new ConnectException("Connection refused"));
+        assertEquals(HostCircuitBreakers.State.OPEN, breakers.state(host));
+        assertThrows(CircuitOpenException.class, () -> breakers.checkAllowed(host));
+        breakers.checkAllowed("mirror.example.com");
+
+        clock.addAndGet(Duration.ofSeconds(30).toNanos());
+        assertEquals(HostCircuitBreakers.State.HALF_OPEN, breakers.state(host));
+        breakers.checkAllowed(host);
+        assertThrows(CircuitOpenException.class, () -> breakers.checkAllowed(host), "only one trial at a time");
+
+        breakers.recordSuccess(host);
+        assertEquals(HostCircuitBreakers.State.CLOSED, breakers.state(host));
+    }
+
+    @Test
+    @DisplayName("should stop retrying a host once its circuit opens")
+    void retryingDownloader_failsFastOnOpenCircuit() {
+        AtomicInteger calls = new AtomicInteger();
+        FileDownloader unreachable = (source, destination, startOffset) -> {
+            calls.incrementAndGet();
+            throw new ConnectException("Connection refused");
+        };
+        RetryPolicy policy = newPolicy(5, new HostCircuitBreakers(2, Duration.ofSeconds(30), clock::get));
+
+        assertThrows(CircuitOpenException.class, () ->
+                new RetryingDownloader(unreachable, policy).downloadFile(SOURCE, new ByteArrayOutputStream(), 0));
+
+        assertEquals(2, calls.get());
+        assertEquals(1, policy.metrics().snapshot().circuitRejections());
+        assertEquals(1, policy.metrics().snapshot().retries());
+    }
+
+    @Test
+    @DisplayName("should let another trial through after a trial ends in a 403 or a refused range")
+    void circuitBreaker_trialEndingWithoutVerdict_isReleased() throws Exception {
+        HostCircuitBreakers breakers = new HostCircuitBreakers(1, Duration.ofSeconds(30), clock::get);
+        String host = HostThrottle.hostOf(SOURCE);
+        breakers.recordFailure(host, new ConnectException("Connection refused"));
+        clock.addAndGet(Duration.ofSeconds(30).toNanos());
+        RetryPolicy policy = newPolicy(5, breakers);
+        FileDownloader forbidden = (source, destination, startOffset) -> {
+            throw new SecurityException("Access forbidden: " + source);
+        };
+        FileDownloader noRanges = (source, destination, startOffset) -> {
+            throw new RangeNotSupportedException();
+        };
+
+        assertThrows(SecurityException.class, () ->
+                new RetryingDownloader(forbidden, policy).downloadFile(SOURCE, new ByteArrayOutputStream(), 0));
+        assertEquals(HostCircuitBreakers.State.HALF_OPEN, breakers.state(host));
+        assertThrows(RangeNotSupportedException.class, () ->
+                new RetryingDownloader(noRanges, policy).downloadFile(SOURCE, new ByteArrayOutputStream(), 10));
+        assertEquals(HostCircuitBreakers.State.HALF_OPEN, breakers.state(host));
+
+        new RetryingDownloader((source, destination, startOffset) -> Optional.empty(), policy)
+                .downloadFile(SOURCE, new ByteArrayOutputStream(), 0);
+        assertEquals(HostCircuitBreakers.State.CLOSED, breakers.state(host));
+    }
+
+    @Test
+    @DisplayName("should not retry a file that doesn't exist")
+    void retryingDownloader_notFound_noRetry() {
+        AtomicInteger calls = new AtomicInteger();
+        FileDownloader missing = (source, destination, startOffset) -> {
+            calls.incrementAndGet();
+            throw new FileNotFoundException("Resource not found: " + source);
+        };
+        RetryPolicy policy = newPolicy(5, new HostCircuitBreakers(2, Duration.ofSeconds(30), clock::get));
+
+        assertThrows(FileNotFoundException.class, () ->
+                new RetryingDownloader(missing, policy).downloadFile(SOURCE, new ByteArrayOutputStream(), 0));
+
+        assertEquals(1, calls.get());
+        assertEquals(Duration.ZERO, policy.metrics().snapshot().timeInBackoff());
+    }
+
+    @Test
+    @DisplayName("should resume each retry from the bytes the failed attempt already wrote")
+    void retryingDownloader_resumesFromWrittenBytes() throws Exception {
+        byte[] content = "0123456789abcdefghijklmnopqrstuvwxyz".getBytes(StandardCharsets.UTF_8);
+        List<Long> offsets = new ArrayList<>();
+        FileDownloader flaky = (source, destination, startOffset) -> {
+            offsets.add(startOffset);
+            int end = offsets.size() < 3 ? (int) startOffset + 10 : content.length;
+            destination.write(content, (int) startOffset, end - (int) startOffset);
+            if (end < content.length) {
+                throw new IOException("Connection reset");
+            }
+            return Optional.empty();
+        };
+        ByteArrayOutputStream destination = new ByteArrayOutputStream();
+
+        new RetryingDownloader(flaky, newPolicy(5, new HostCircuitBreakers(2, Duration.ofSeconds(30), clock::get)))
+                .downloadFile(SOURCE, destination, 0);
+
+        assertEquals(List.of(0L, 10L, 20L), offsets);
+        assertArrayEquals(content, destination.toByteArray());
+    }
+
+    @Test
+    @DisplayName("should halve a throttling host's connections once per pause and restore them step by step")
+    void hostThrottle_halvesAndRecovers() {
+        HostThrottle throttle = new HostThrottle(Duration.ofSeconds(1), Duration.ofSeconds(10), clock::get);
+        String host = "cdn.example.com:8080";
+        ThrottledException tooMany = new ThrottledException("HTTP 429", 429, Duration.ofSeconds(5));
+
+        throttle.recordThrottled(host, tooMany);
+        throttle.recordThrottled(host, tooMany);
+        assertEquals(4, throttle.allowedConnections(host, 8), "refusals during one pause are one signal");
+        assertEquals(Duration.ofSeconds(5), throttle.pauseRemaining(host));
+        assertEquals(8, throttle.allowedConnections("mirror.example.com", 8));
+
+        clock.addAndGet(Duration.ofSeconds(5).toNanos());
+        throttle.recordThrottled(host, tooMany);
+        assertEquals(2, throttle.allowedConnections(host, 8));
+
+        clock.addAndGet(Duration.ofSeconds(15).toNanos());
+        assertEquals(4, throttle.allowedConnections(host, 8));
+        clock.addAndGet(Duration.ofSeconds(10).toNanos());
+        assertEquals(8, throttle.allowedConnections(host, 8));
+        assertFalse(throttle.isThrottled(host));
+    }
+
+    @Test
+    @DisplayName("should wait as long as a throttling server asks instead of its own backoff")
+    void retryingDownloader_honoursRetryAfter() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        FileDownloader throttling = (source, destination, startOffset) -> {
+            if (calls.incrementAndGet() == 1) {
+                throw ThrottledException.forResponse(source, 429, "1");
+            }
+            return Optional.empty();
+        };
+        HostThrottle throttle = new HostThrottle(Duration.ofSeconds(1), Duration.ofSeconds(10));
+        RetryPolicy policy = new RetryPolicy(5, Duration.ofMillis(100), Duration.ofSeconds(2),
+                new RetryBudget(0.2, 10, 100), new HostCircuitBreakers(2, Duration.ofSeconds(30), clock::get),
+                new RetryMetrics(), throttle);
+
+        new RetryingDownloader(throttling, policy).downloadFile(SOURCE, new ByteArrayOutputStream(), 0);
+
+        assertEquals(2, calls.get());
+        Duration backoff = policy.metrics().snapshot().timeInBackoff();
+        assertTrue(backoff.compareTo(Duration.ofSeconds(1)) >= 0, "retried before Retry-After: " + backoff);
+        assertTrue(backoff.compareTo(Duration.ofMillis(1500)) < 0, "waited too long: " + backoff);
+        assertTrue(throttle.isThrottled("cdn.example.com:8080"));
+    }
+
+    @Test
+    @DisplayName("should fail fast rather than come back before a Retry-After longer than the maximum delay")
+    void retryingDownloader_retryAfterBeyondMaxDelay_failsFast() {
+        AtomicInteger calls = new AtomicInteger();
+        FileDownloader throttling = (source, destination, startOffset) -> {
+            calls.incrementAndGet();
+            throw ThrottledException.forResponse(source, 429, "10");
+        };
+        HostThrottle throttle = new HostThrottle(Duration.ofSeconds(1), Duration.ofSeconds(10));
+        RetryPolicy policy = new RetryPolicy(5, Duration.ofMillis(100), Duration.ofSeconds(2),
+                new RetryBudget(0.2, 10, 100), new HostCircuitBreakers(2, Duration.ofSeconds(30), clock::get),
+                new RetryMetrics(), throttle);
+        RetryingDownloader downloader = new RetryingDownloader(throttling, policy);
+
+        assertThrows(ThrottledException.class,
+                () -> downloader.downloadFile(SOURCE, new ByteArrayOutputStream(), 0));
+        assertEquals(1, calls.get());
+        assertEquals(Duration.ZERO, policy.metrics().snapshot().timeInBackoff());
+
+        // Another download from the host is held back too, without a request
+        assertThrows(ThrottledException.class,
+                () -> downloader.downloadFile(SOURCE, new ByteArrayOutputStream(), 0));
+        assertEquals(1, calls.get());
+    }
+
+    private static RetryPolicy newPolicy(int maxAttempts, HostCircuitBreakers breakers) {
+        return new RetryPolicy(maxAttempts, Duration.ofMillis(100), Duration.ofSeconds(2),
+                new RetryBudget(0.2, 10, 100), breakers, new RetryMetrics());
+    }
+}
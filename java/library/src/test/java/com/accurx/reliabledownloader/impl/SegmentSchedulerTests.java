@@ -0,0 +1,100 @@
+package com.accurx.reliabledownloader.impl;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SegmentSchedulerTests {
+
+    @Test
+    @DisplayName("should split the range into one segment per connection up front")
+    void constructor_splitsEvenly() {
+        SegmentScheduler scheduler = new SegmentScheduler(0, 1001, 4, 10);
+
+        assertEquals(4, scheduler.initialSegmentCount());
+        SegmentScheduler.Segment first = scheduler.next().orElseThrow();
+        assertEquals(0, first.start());
+        assertEquals(251, first.end());
+        scheduler.next();
+        scheduler.next();
+        SegmentScheduler.Segment last = scheduler.next().orElseThrow();
+        assertEquals(1001, last.end());
+    }
+
+    @Test
+    @DisplayName("should not create segments smaller than the minimum split size")
+    void constructor_smallRangeUsesFewerSegments() {
+        assertEquals(2, new SegmentScheduler(0, 15, 4, 10).initialSegmentCount());
+        assertEquals(0, new SegmentScheduler(50, 50, 4, 10).initialSegmentCount());
+    }
+
+    @Test
+    @DisplayName("should let an idle worker steal the back half of the largest in-flight segment")
+    void next_stealsTailOfLargestSegment() {
+        SegmentScheduler scheduler = new SegmentScheduler(0, 200, 2, 10);
+        SegmentScheduler.Segment fast = scheduler.next().orElseThrow();
+        SegmentScheduler.Segment slow = scheduler.next().orElseThrow();
+        fast.advance(100);
+        scheduler.complete(fast);
+        slow.advance(20);
+
+        SegmentScheduler.Segment stolen = scheduler.next().orElseThrow();
+
+        assertEquals(160, stolen.start());
+        assertEquals(200, stolen.end());
+        assertEquals(160, slow.end());
+        assertEquals(40, slow.remaining());
+    }
+
+    @Test
+    @DisplayName("should stop splitting once halves would fall below the minimum size")
+    void next_doesNotSplitBelowMinimum() {
+        SegmentScheduler scheduler = new SegmentScheduler(0, 30, 1, 10);
+        SegmentScheduler.Segment only = scheduler.next().orElseThrow();
+        only.advance(15);
+
+        assertTrue(scheduler.next().isEmpty());
+    }
+
+    @Test
+    @DisplayName("should only accept bytes up to a segment's end after its tail was stolen")
+    void advance_clampsToShrunkEnd() {
+        SegmentScheduler scheduler = new SegmentScheduler(0, 100, 1, 10);
+        SegmentScheduler.Segment segment = scheduler.next().orElseThrow();
+        scheduler.next().orElseThrow(); // steals [50, 100)
+
+        assertEquals(50, segment.advance(64));
+        assertEquals(0, segment.remaining());
+    }
+
+    @Test
+    @DisplayName("should requeue the unfinished part of a failed segment")
+    void fail_requeuesRemainder() {
+        SegmentScheduler scheduler = new SegmentScheduler(0, 100, 1, 60);
+        SegmentScheduler.Segment segment = scheduler.next().orElseThrow();
+        segment.advance(30);
+
+        scheduler.fail(segment);
+
+        SegmentScheduler.Segment retry = scheduler.next().orElseThrow();
+        assertEquals(30, retry.start());
+        assertEquals(100, retry.end());
+    }
+
+    @Test
+    @DisplayName("should only report done once every segment has been completed")
+    void isDone_waitsForRequeuedBytes() {
+        SegmentScheduler scheduler = new SegmentScheduler(0, 100, 1, 60);
+        SegmentScheduler.Segment segment = scheduler.next().orElseThrow();
+        segment.advance(30);
+        scheduler.fail(segment);
+        assertFalse(scheduler.isDone());
+
+        SegmentScheduler.Segment retry = scheduler.next().orElseThrow();
+        retry.advance(70);
+        assertFalse(scheduler.isDone());
+        scheduler.complete(retry);
+        assertTrue(scheduler.isDone());
+    }
+}
@@ -0,0 +1,141 @@
+package com.accurx.reliabledownloader.impl;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ZipEntryExtractorTests {
+
+    private static final String README = "Read me first. ".repeat(200);
+    private static final String STORED = "kept as is";
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    @DisplayName("should list the central directory and extract deflated and stored entries")
+    void extract_deflatedAndStoredEntries() throws Exception {
+        Path archive = writeArchive(tempDir.resolve("bundle.zip"), "docs/readme.txt");
+        Path output = tempDir.resolve("out");
+
+        try (SeekableByteChannel channel = Files.newByteChannel(archive)) {
+            ZipEntryExtractor extractor = new ZipEntryExtractor(channel);
+            assertEquals(List.of("big.bin", "docs/readme.txt", "stored.txt"),
+                    extractor.entries().stream().map(ZipEntryExtractor.Entry::name).toList());
+
+            Map<String, Path> extracted = extractor.extract(List.of("stored.txt", "docs/readme.txt"), output);
+
+            assertEquals(output.resolve("docs/readme.txt").toAbsolutePath(), extracted.get("docs/readme.txt"));
+            assertEquals(README, Files.readString(output.resolve("docs/readme.txt")));
+            assertEquals(STORED, Files.readString(output.resolve("stored.txt")));
+            assertFalse(Files.exists(output.resolve("big.bin")));
+        }
+    }
+
+    @Test
+    @DisplayName("should fail when a requested entry isn't in the archive")
+    void extract_missingEntry_throws() throws Exception {
+        Path archive = writeArchive(tempDir.resolve("bundle.zip"), "docs/readme.txt");
+
+        try (SeekableByteChannel channel = Files.newByteChannel(archive)) {
+            IOException thrown = assertThrows(IOException.class,
+                    () -> new ZipEntryExtractor(channel).extract(List.of("nope.txt"), tempDir.resolve("out")));
+            assertEquals("Archive has no entries named [nope.txt]", thrown.getMessage());
+        }
+    }
+
+    @Test
+    @DisplayName("should refuse entries that would be written outside the destination")
+    void extract_pathTraversal_throws() throws Exception {
+        Path archive = writeArchive(tempDir.resolve("bundle.zip"), "../escaped.txt");
+
+        try (SeekableByteChannel channel = Files.newByteChannel(archive)) {
+            assertThrows(IOException.class,
+                    () -> new ZipEntryExtractor(channel).extract(List.of("../escaped.txt"), tempDir.resolve("out")));
+        }
+        assertFalse(Files.exists(tempDir.resolve("escaped.txt")));
+    }
+
+    @Test
+    @DisplayName("should reject an entry whose content doesn't match its CRC")
+    void extract_corruptEntry_failsCrcCheck() throws Exception {
+        Path archive = writeArchive(tempDir.resolve("bundle.zip"), "docs/readme.txt");
+        byte[] bytes = Files.readAllBytes(archive);
+        byte[] stored = STORED.getBytes(StandardCharsets.UTF_8);
+        int at = indexOf(bytes, stored);
+        bytes[at] ^= 0x20;
+        Files.write(archive, bytes);
+        Path output = tempDir.resolve("out");
+
+        try (SeekableByteChannel channel = Files.newByteChannel(archive)) {
+            IOException thrown = assertThrows(IOException.class,
+                    () -> new ZipEntryExtractor(channel).extract(List.of("stored.txt"), output));
+            assertTrue(thrown.getMessage().contains("failed its CRC check"), thrown.getMessage());
+        }
+        assertFalse(Files.exists(output.resolve("stored.txt")));
+    }
+
+    @Test
+    @DisplayName("should report a file without an end of central directory record as not a ZIP archive")
+    void entries_notAZip_throws() throws Exception {
+        Path notAZip = Files.writeString(tempDir.resolve("plain.txt"), README);
+
+        try (SeekableByteChannel channel = Files.newByteChannel(notAZip)) {
+            assertThrows(IOException.class, () -> new ZipEntryExtractor(channel).entries());
+        }
+    }
+
+    private static Path writeArchive(Path path, String readmeName) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            zip.putNextEntry(new ZipEntry("big.bin"));
+            zip.write(new byte[100_000]);
+            zip.closeEntry();
+
+            zip.putNextEntry(new ZipEntry(readmeName));
+            zip.write(README.getBytes(StandardCharsets.UTF_8));
+            zip.closeEntry();
+
+            byte[] stored = STORED.getBytes(StandardCharsets.UTF_8);
+            CRC32 crc = new CRC32();
+            crc.update(stored);
+            ZipEntry storedEntry = new ZipEntry("stored.txt");
+            storedEntry.setMethod(ZipEntry.STORED);
+            storedEntry.setSize(stored.length);
+            storedEntry.setCrc(crc.getValue());
+            zip.putNextEntry(storedEntry);
+            zip.write(stored);
+            zip.closeEntry();
+
+            zip.setComment("built for tests");
+        }
+        return Files.write(path, bytes.toByteArray());
+    }
+
+    private static int indexOf(byte[] haystack, byte[] needle) {
+        outer:
+        for (int i = 0; i <= haystack.length - needle.length; i++) {
+            for (int j = 0; j < needle.length; j++) {
+                if (haystack[i + j] != needle[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        throw new AssertionError("Not found");
+    }
+}
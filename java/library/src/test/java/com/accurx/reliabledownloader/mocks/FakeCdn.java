@@ -13,7 +13,10 @@ import org.junit.jupiter.api.extension.ExtensionContext;
 
 import java.net.URI;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -28,25 +31,34 @@ public class FakeCdn implements BeforeAllCallback, AfterAllCallback {
     private static final String CONTENT_DISPOSITION_HEADER = "Content-Disposition";
     private static final String CONTENT_MD5_HEADER = "Content-MD5";
     private static final String CONTENT_LENGTH = "Content-Length";
+    private static final String CONTENT_RANGE = "Content-Range";
+    private static final String ETAG_HEADER = "ETag";
     private static final String ACCEPTS_RANGES_BYTES = "bytes";
 
     private final String fileName;
     private final String content;
     private final String contentHash;
+    private final String etag;
     private final String acceptRangesPath;
     private final String noAcceptRangesPath;
+    private final String redirectPath;
     private final MockWebServer server;
+    private volatile int slowRangeStart = -1;
+    private volatile Duration slowRangeDelay = Duration.ZERO;
+    private final AtomicBoolean slowRangeServed = new AtomicBoolean();
 
     public FakeCdn(String fileName, String content) {
         this.fileName = fileName;
         this.acceptRangesPath = "/accept-ranges/" + fileName;
         this.noAcceptRangesPath = "/no-accept-ranges/" + fileName;
+        this.redirectPath = "/redirect/" + fileName;
         this.content = content;
         // Hash the content as bytes to match how Md5.contentMd5() computes the hash from files
         byte[] contentBytes = content.getBytes(StandardCharsets.UTF_8);
         this.contentHash = BaseEncoding.base64().encode(
                 Hashing.md5().hashBytes(contentBytes).asBytes()
         );
+        this.etag = "\"" + contentHash + "\"";
         this.server = new MockWebServer();
         this.server.setDispatcher(new CndDispatcher());
     }
@@ -61,6 +73,13 @@ public class FakeCdn implements BeforeAllCallback, AfterAllCallback {
         return server.url(acceptRangesPath).uri();
     }
 
+    /**
+     * @return a URI that answers every request with a 302 to {@link #getAcceptRangesUri()}
+     */
+    public URI getRedirectUri() {
+        return server.url(redirectPath).uri();
+    }
+
     public String getContent() {
         return content;
     }
@@ -70,10 +89,24 @@ public class FakeCdn implements BeforeAllCallback, AfterAllCallback {
         return contentHash;
     }
 
+    public String getETag() {
+        return etag;
+    }
+
     public MockWebServer getServer() {
         return server;
     }
 
+    /**
+     * Makes the first ranged GET starting at {@code rangeStart} hold back its body for {@code delay},
+     * simulating a single straggling connection. Later requests for the same range are served normally.
+     */
+    public void delayFirstRangeFrom(int rangeStart, Duration delay) {
+        this.slowRangeStart = rangeStart;
+        this.slowRangeDelay = delay;
+        this.slowRangeServed.set(false);
+    }
+
     @Override
     public void afterAll(ExtensionContext extensionContext) throws Exception {
         server.shutdown();
@@ -109,6 +142,10 @@ public class FakeCdn implements BeforeAllCallback, AfterAllCallback {
                 return new MockResponse().setResponseCode(501); // Explicit 404 for GET
             }
 
+            if (path.equals(redirectPath)) {
+                return new MockResponse().setResponseCode(302).addHeader("Location", acceptRangesPath);
+            }
+
             MockResponse mockResponse = new MockResponse();
             if (noAcceptRangesPath.equals(request.getPath())) {
                 // Don't add Accept-Ranges header
@@ -135,7 +172,7 @@ public class FakeCdn implements BeforeAllCallback, AfterAllCallback {
                         int to = (downloadRange.end == Integer.MAX_VALUE) ? bytes.length : Math.min(downloadRange.end + 1, bytes.length);
                         mockResponse.setResponseCode(206);
                         mockResponse.addHeader(CONTENT_LENGTH, to - from);
-                        mockResponse.addHeader("Content-Range", "bytes " + from + "-" + (to - 1) + "/" + bytes.length);
+                        mockResponse.addHeader(CONTENT_RANGE, "bytes " + from + "-" + (to - 1) + "/" + bytes.length);
                     }
                 } else if (rangeHeader != null && noAcceptRangesPath.equals(request.getPath())) {
                     // Server that doesn't accept ranges should ignore Range header and return 200 OK
@@ -146,7 +183,9 @@ public class FakeCdn implements BeforeAllCallback, AfterAllCallback {
                 }
             } else if ("GET".equals(request.getMethod())) {
                 String rangeHeader = request.getHeader("Range");
-                if (rangeHeader == null) {
+                String ifRangeHeader = request.getHeader("If-Range");
+                // A non-matching If-Range means the client's partial copy is stale: send the whole file
+                if (rangeHeader == null || (ifRangeHeader != null && !ifRangeHeader.equals(etag))) {
                     byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
                     mockResponse.setBody(new Buffer().write(bytes));
                     mockResponse.addHeader(CONTENT_LENGTH, bytes.length);
@@ -157,6 +196,7 @@ public class FakeCdn implements BeforeAllCallback, AfterAllCallback {
 
             mockResponse.addHeader(CONTENT_DISPOSITION_HEADER,"attachment; filename=\"" +  fileName + "\"");
             mockResponse.addHeader(CONTENT_MD5_HEADER, contentHash);
+            mockResponse.addHeader(ETAG_HEADER, etag);
 
             return mockResponse;
         }
@@ -174,14 +214,19 @@ public class FakeCdn implements BeforeAllCallback, AfterAllCallback {
             // Validate range
             if (from >= bytes.length || from < 0) {
                 mockResponse.setResponseCode(416); // Range Not Satisfiable
+                mockResponse.setHeader(CONTENT_RANGE, "bytes */" + bytes.length);
             } else {
                 // Clamp 'to' to the actual content length
                 to = Math.min(to, bytes.length);
 
                 Buffer buffer = new Buffer().write(Arrays.copyOfRange(bytes, from, to));
+                if (from == slowRangeStart && slowRangeServed.compareAndSet(false, true)) {
+                    mockResponse.setBodyDelay(slowRangeDelay.toMillis(), TimeUnit.MILLISECONDS);
+                }
                 mockResponse.setResponseCode(206);
                 mockResponse.setBody(buffer);
                 mockResponse.setHeader(CONTENT_LENGTH, to - from);
+                mockResponse.setHeader(CONTENT_RANGE, "bytes " + from + "-" + (to - 1) + "/" + bytes.length);
             }
         }
     }
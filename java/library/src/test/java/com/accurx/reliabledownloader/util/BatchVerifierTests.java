@@ -0,0 +1,70 @@
+package com.accurx.reliabledownloader.util;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchVerifierTests {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    @DisplayName("should report matching, corrupt and missing files separately")
+    void verify_reportsMismatchesAndFailures() throws Exception {
+        Map<Path, ContentDigests> expected = new HashMap<>();
+        for (int i = 0; i < 20; i++) {
+            Path file = tempDir.resolve("installer-" + i + ".bin");
+            Files.writeString(file, "installer " + i);
+            expected.put(file, ContentDigests.of(DigestAlgorithm.MD5, Md5.contentMd5(file.toFile())));
+        }
+        Path corrupt = tempDir.resolve("installer-7.bin");
+        Files.writeString(corrupt, "tampered");
+        Path missing = tempDir.resolve("missing.bin");
+        expected.put(missing, ContentDigests.of(DigestAlgorithm.MD5, "1B2M2Y8AsgTpgAmY7PhCfg=="));
+
+        BatchVerifier.Report report = new BatchVerifier(4, 2).verify(expected);
+
+        assertFalse(report.isClean());
+        assertEquals(19, report.verified());
+        assertEquals(1, report.mismatches().size());
+        BatchVerifier.Mismatch mismatch = report.mismatches().get(0);
+        assertEquals(corrupt, mismatch.file());
+        assertEquals(DigestAlgorithm.MD5, mismatch.algorithm());
+        assertEquals(Md5.contentMd5(corrupt.toFile()), mismatch.actual());
+        assertEquals(List.of(new BatchVerifier.Failure(missing, "File not found")), report.failures());
+    }
+
+    @Test
+    @DisplayName("should check the cheapest digest the caller knows")
+    void verify_usesCheapestDigest() throws Exception {
+        Path file = tempDir.resolve("digest.txt");
+        Files.writeString(file, "123456789");
+        ContentDigests expected = ContentDigests.of(Map.of(
+                DigestAlgorithm.CRC32C, "AAAAAA==",
+                DigestAlgorithm.SHA_256, "FeKw08M4keuw8e9gnsQZQgwg4yDOlMZfvIwzEkSOsiU="));
+
+        BatchVerifier.Report report = new BatchVerifier().verify(Map.of(file, expected));
+
+        assertEquals(1, report.mismatches().size());
+        assertEquals(DigestAlgorithm.CRC32C, report.mismatches().get(0).algorithm());
+        assertEquals("4waSgw==", report.mismatches().get(0).actual());
+    }
+
+    @Test
+    @DisplayName("should return an empty clean report when there is nothing to verify")
+    void verify_emptyInput_isClean() {
+        BatchVerifier.Report report = new BatchVerifier().verify(Map.of());
+
+        assertTrue(report.isClean());
+        assertEquals(0, report.verified());
+    }
+}
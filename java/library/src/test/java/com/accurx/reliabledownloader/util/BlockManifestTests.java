@@ -0,0 +1,71 @@
+package com.accurx.reliabledownloader.util;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BlockManifestTests {
+
+    private static final byte[] CONTENT = "The quick brown fox jumps over the lazy dog".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    @DisplayName("should split content into blocks with a shorter final block")
+    void of_computesBlockLayout() {
+        BlockManifest manifest = BlockManifest.of(DigestAlgorithm.CRC32C, 16, CONTENT);
+
+        assertEquals(3, manifest.blockCount());
+        assertEquals(32, manifest.blockStart(2));
+        assertEquals(11, manifest.blockLength(2));
+        assertEquals(1, manifest.blockAt(31));
+        assertTrue(manifest.matches(2, CONTENT, 32, 11));
+        assertFalse(manifest.matches(1, CONTENT, 32, 11));
+    }
+
+    @Test
+    @DisplayName("should parse the text form including comments and blank lines")
+    void parse_readsHeaderAndHashes() throws IOException {
+        BlockManifest expected = BlockManifest.of(DigestAlgorithm.SHA_256, 32, CONTENT);
+        String text = "# manifest for fox.txt\n"
+                + "algorithm: SHA-256\n"
+                + "block-size: 32\n"
+                + "length: " + CONTENT.length + "\n\n"
+                + BlockManifest.hash(DigestAlgorithm.SHA_256, CONTENT, 0, 32).toUpperCase() + "\n"
+                + BlockManifest.hash(DigestAlgorithm.SHA_256, CONTENT, 32, CONTENT.length - 32) + "\n";
+
+        BlockManifest parsed = BlockManifest.parse(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals(expected.blockCount(), parsed.blockCount());
+        assertTrue(parsed.matches(0, CONTENT, 0, 32));
+        assertTrue(parsed.matches(1, CONTENT, 32, CONTENT.length - 32));
+    }
+
+    @Test
+    @DisplayName("should read rolling checksums in front of the block hashes")
+    void parse_readsRollingChecksums() throws IOException {
+        String text = "algorithm: CRC32C\nblock-size: 32\nlength: " + CONTENT.length + "\n"
+                + String.format("%08x ", RollingChecksum.of(CONTENT, 0, 32))
+                + BlockManifest.hash(DigestAlgorithm.CRC32C, CONTENT, 0, 32) + "\n"
+                + String.format("%08x ", RollingChecksum.of(CONTENT, 32, CONTENT.length - 32))
+                + BlockManifest.hash(DigestAlgorithm.CRC32C, CONTENT, 32, CONTENT.length - 32) + "\n";
+
+        BlockManifest parsed = BlockManifest.parse(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)));
+
+        assertTrue(parsed.hasRollingChecksums());
+        assertEquals(RollingChecksum.of(CONTENT, 0, 32), parsed.rollingChecksum(0));
+        assertTrue(parsed.matches(1, CONTENT, 32, CONTENT.length - 32));
+    }
+
+    @Test
+    @DisplayName("should reject a manifest whose hash count does not fit its length")
+    void parse_rejectsWrongBlockCount() {
+        String text = "algorithm: CRC32C\nblock-size: 16\nlength: 40\n00000000\n";
+
+        assertThrows(IOException.class,
+                () -> BlockManifest.parse(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8))));
+    }
+}
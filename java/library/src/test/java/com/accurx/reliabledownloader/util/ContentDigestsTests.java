@@ -0,0 +1,46 @@
+package com.accurx.reliabledownloader.util;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ContentDigestsTests {
+
+    @Test
+    @DisplayName("should read Content-MD5, Digest and Repr-Digest headers")
+    void fromHeaders_parsesAllDigestHeaders() {
+        ContentDigests digests = ContentDigests.fromHeaders(
+                "rL0Y20zC+Fzt72VPzMSk2A==",
+                "SHA-256=X48E9qOokqqrvdts8nOJRJN3OWDUoyWxBf7kbu9DBPE=, UNIXsum=30637",
+                "sha-512=:WZDPaVn/7XgHaAy8pmojAkGWoRx2UFChF41A2svX+T==:, crc32c=:AAAAAA==:");
+
+        assertEquals(Optional.of("rL0Y20zC+Fzt72VPzMSk2A=="), digests.get(DigestAlgorithm.MD5));
+        assertEquals(Optional.of("X48E9qOokqqrvdts8nOJRJN3OWDUoyWxBf7kbu9DBPE="), digests.get(DigestAlgorithm.SHA_256));
+        assertEquals(Optional.of("WZDPaVn/7XgHaAy8pmojAkGWoRx2UFChF41A2svX+T=="), digests.get(DigestAlgorithm.SHA_512));
+        assertEquals(Optional.of("AAAAAA=="), digests.get(DigestAlgorithm.CRC32C));
+    }
+
+    @Test
+    @DisplayName("should pick the cheapest digest that meets the policy")
+    void cheapest_respectsCryptographicPolicy() {
+        ContentDigests digests = ContentDigests.parseDigestHeader("sha-512=a, md5=b, crc32c=c, sha-256=d");
+
+        assertEquals(Optional.of(DigestAlgorithm.CRC32C), digests.cheapest(false));
+        assertEquals(Optional.of(DigestAlgorithm.SHA_256), digests.cheapest(true));
+        assertTrue(ContentDigests.of(DigestAlgorithm.MD5, "b").cheapest(true).isEmpty());
+    }
+
+    @Test
+    @DisplayName("should round-trip through the Digest header form and prefer its own values on merge")
+    void toHeaderValue_roundTripsAndMergeKeepsOwnValues() {
+        ContentDigests digests = ContentDigests.parseDigestHeader("md5=b, sha-256=d");
+
+        assertEquals(digests, ContentDigests.parseDigestHeader(digests.toHeaderValue()));
+        ContentDigests merged = digests.merge(ContentDigests.parseDigestHeader("md5=x, crc32c=c"));
+        assertEquals(Optional.of("b"), merged.get(DigestAlgorithm.MD5));
+        assertEquals(Optional.of("c"), merged.get(DigestAlgorithm.CRC32C));
+    }
+}
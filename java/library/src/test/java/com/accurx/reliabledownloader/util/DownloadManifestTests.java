@@ -0,0 +1,78 @@
+package com.accurx.reliabledownloader.util;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DownloadManifestTests {
+
+    // SHA-256 of "abc"
+    private static final String SHA_256_HEX = "ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad";
+    private static final String SHA_256_BASE64 = "ungWv48Bz+pBQUDeXa4iI7ADYaOWF3qctBD/YfIAFa0=";
+
+    @Test
+    @DisplayName("should parse entries with all their fields, starting a new entry at each url")
+    void parse_readsEntries() throws IOException {
+        String text = "# rollout 4.2\n"
+                + "url: https://cdn.example.com/app.msi\n"
+                + "destination: downloads/app.msi\n"
+                + "size: 3\n"
+                + "SHA-256: " + SHA_256_HEX + "\n"
+                + "mirrors: https://m1.example.com/app.msi, https://m2.example.com/app.msi\n"
+                + "priority: 10\n"
+                + "\n"
+                + "url: https://cdn.example.com/readme.txt\n"
+                + "destination: downloads/readme.txt\n";
+
+        DownloadManifest manifest = parse(text);
+
+        assertEquals(2, manifest.entries().size());
+        DownloadManifest.Entry app = manifest.entries().get(0);
+        assertEquals(URI.create("https://cdn.example.com/app.msi"), app.url());
+        assertEquals(Path.of("downloads/app.msi"), app.destination());
+        assertEquals(3, app.size());
+        assertEquals(SHA_256_BASE64, app.expectedDigests().get(DigestAlgorithm.SHA_256).orElseThrow());
+        assertEquals(List.of(URI.create("https://m1.example.com/app.msi"), URI.create("https://m2.example.com/app.msi")),
+                app.mirrors());
+        assertEquals(10, app.priority());
+
+        DownloadManifest.Entry readme = manifest.entries().get(1);
+        assertEquals(-1, readme.size());
+        assertTrue(readme.expectedDigests().isEmpty());
+        assertTrue(readme.mirrors().isEmpty());
+        assertEquals(0, readme.priority());
+    }
+
+    @Test
+    @DisplayName("should take Base64 digests as they are")
+    void parse_base64Digest_keptAsIs() throws IOException {
+        DownloadManifest manifest = parse("url: https://cdn.example.com/a\ndestination: a\nsha-256: "
+                + SHA_256_BASE64 + "\n");
+
+        assertEquals(SHA_256_BASE64,
+                manifest.entries().get(0).expectedDigests().get(DigestAlgorithm.SHA_256).orElseThrow());
+    }
+
+    @Test
+    @DisplayName("should reject entries without a destination, duplicate destinations and unknown fields")
+    void parse_invalidManifests_throw() {
+        assertThrows(IOException.class, () -> parse("url: https://cdn.example.com/a\n"));
+        assertThrows(IOException.class, () -> parse("destination: a\nurl: https://cdn.example.com/a\n"));
+        assertThrows(IOException.class, () -> parse("url: https://cdn.example.com/a\ndestination: a\n"
+                + "url: https://cdn.example.com/b\ndestination: a\n"));
+        assertThrows(IOException.class, () -> parse("url: https://cdn.example.com/a\ndestination: a\ncolour: red\n"));
+        assertThrows(IOException.class, () -> parse("url: https://cdn.example.com/a\ndestination: a\nsize: -1\n"));
+    }
+
+    private static DownloadManifest parse(String text) throws IOException {
+        return DownloadManifest.parse(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,51 @@
+package com.accurx.reliabledownloader.util;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumSet;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MultiDigestTests {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    @DisplayName("should compute every requested digest in one pass, with the standard check values")
+    void of_computesSeveralDigests() throws Exception {
+        Path file = tempDir.resolve("digest.txt");
+        Files.writeString(file, "123456789");
+
+        ContentDigests digests = MultiDigest.of(file,
+                EnumSet.of(DigestAlgorithm.MD5, DigestAlgorithm.SHA_256, DigestAlgorithm.CRC32C));
+
+        assertEquals(Optional.of("JfnnlDI7RTiF9RgfG2JNCw=="), digests.get(DigestAlgorithm.MD5));
+        // Standard CRC-32C check value for "123456789" is 0xE3069283
+        assertEquals(Optional.of("4waSgw=="), digests.get(DigestAlgorithm.CRC32C));
+        assertEquals(Optional.of("FeKw08M4keuw8e9gnsQZQgwg4yDOlMZfvIwzEkSOsiU="),
+                digests.get(DigestAlgorithm.SHA_256));
+        assertTrue(digests.get(DigestAlgorithm.SHA_512).isEmpty());
+    }
+
+    @Test
+    @DisplayName("should allow reading intermediate digests while more data arrives")
+    void digests_canBeSnapshottedMidStream() {
+        byte[] data = "123456789".getBytes(StandardCharsets.UTF_8);
+        MultiDigest digest = new MultiDigest(EnumSet.of(DigestAlgorithm.MD5));
+        digest.update(data, 0, 4);
+        ContentDigests partial = digest.digests();
+        digest.update(data, 4, 5);
+
+        MultiDigest whole = new MultiDigest(EnumSet.of(DigestAlgorithm.MD5));
+        whole.update(data, 0, data.length);
+        assertNotEquals(partial, digest.digests());
+        assertEquals(whole.digests(), digest.digests());
+    }
+}
@@ -0,0 +1,40 @@
+package com.accurx.reliabledownloader.util;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RetryAfterTests {
+
+    private static final Instant NOW = Instant.parse("2015-10-21T07:28:00Z");
+
+    @Test
+    @DisplayName("should read Retry-After as seconds or as an HTTP date")
+    void parse_secondsAndDate() {
+        assertEquals(Optional.of(Duration.ofSeconds(120)), RetryAfter.parse(" 120 ", NOW));
+        assertEquals(Optional.of(Duration.ofSeconds(90)), RetryAfter.parse("Wed, 21 Oct 2015 07:29:30 GMT", NOW));
+        assertEquals(Optional.of(Duration.ZERO), RetryAfter.parse("Wed, 21 Oct 2015 07:00:00 GMT", NOW));
+    }
+
+    @Test
+    @DisplayName("should ignore a missing or malformed Retry-After")
+    void parse_malformed_empty() {
+        assertEquals(Optional.empty(), RetryAfter.parse(null, NOW));
+        assertEquals(Optional.empty(), RetryAfter.parse("-5", NOW));
+        assertEquals(Optional.empty(), RetryAfter.parse("soon", NOW));
+    }
+
+    @Test
+    @DisplayName("should cap an absurdly long Retry-After instead of overflowing")
+    void parse_huge_clampedToMax() {
+        assertEquals(Optional.of(RetryAfter.MAX), RetryAfter.parse("9223372036854775807", NOW));
+        assertEquals(Optional.of(RetryAfter.MAX), RetryAfter.parse("99999999999999999999999", NOW));
+        assertEquals(Optional.of(RetryAfter.MAX), RetryAfter.parse("Fri, 31 Dec 9999 23:59:59 GMT", NOW));
+        assertDoesNotThrow(() -> RetryAfter.parse("9223372036854775807", NOW).orElseThrow().toNanos());
+    }
+}
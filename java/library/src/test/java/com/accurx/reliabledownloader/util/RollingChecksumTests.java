@@ -0,0 +1,32 @@
+package com.accurx.reliabledownloader.util;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RollingChecksumTests {
+
+    @Test
+    @DisplayName("should give the same value when rolled as when computed over the window from scratch")
+    void roll_matchesFreshChecksum() {
+        byte[] data = "The quick brown fox jumps over the lazy dog ÿþ".getBytes(StandardCharsets.UTF_8);
+        int window = 8;
+        RollingChecksum rolling = new RollingChecksum(data, 0, window);
+
+        for (int start = 1; start + window <= data.length; start++) {
+            rolling.roll(data[start - 1], data[start + window - 1]);
+            assertEquals(RollingChecksum.of(data, start, window), rolling.value(), "window at " + start);
+        }
+    }
+
+    @Test
+    @DisplayName("should tell apart windows with the same bytes in a different order")
+    void of_isOrderSensitive() {
+        byte[] data = "abba".getBytes(StandardCharsets.UTF_8);
+
+        assertNotEquals(RollingChecksum.of(data, 0, 2), RollingChecksum.of(data, 2, 2));
+    }
+}
@@ -7,18 +7,59 @@ import org.slf4j.LoggerFactory;
 
 import java.net.URI;
 import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 // Assuming this is within a class like SettingsParser or similar
 public class CommandLineSettingsParser { // Renamed to illustrate example, use your actual class name
+    private static final int DEFAULT_MAX_CONCURRENT_DOWNLOADS = 4;
     private final Logger logger = LoggerFactory.getLogger(CommandLineSettingsParser.class); // Assuming SLF4J logger
     private final FileDownloadSettings defaultSettings;
+    private boolean autoNetworkConditions;
+    private Path manifestFile;
+    private Path summaryFile;
+    private int maxConcurrentDownloads = DEFAULT_MAX_CONCURRENT_DOWNLOADS;
+    private long maxBytesPerSecond;
 
     public CommandLineSettingsParser(FileDownloadSettings defaultSettings) {
         this.defaultSettings = defaultSettings;
     }
 
+    /**
+     * @return whether the last parse asked for {@code --network_conditions=auto}, i.e. for the network to be
+     * probed and the downloader configured from what it finds
+     */
+    public boolean isAutoNetworkConditions() {
+        return autoNetworkConditions;
+    }
+
+    /**
+     * @return the {@code --manifest} of files to download instead of the single URL, or null
+     */
+    public Path getManifestFile() {
+        return manifestFile;
+    }
+
+    /**
+     * @return where to write the JSON summary of a manifest download, or null for the log
+     */
+    public Path getSummaryFile() {
+        return summaryFile;
+    }
+
+    public int getMaxConcurrentDownloads() {
+        return maxConcurrentDownloads;
+    }
+
+    /**
+     * @return the cap on a manifest download's combined rate, or 0 for none
+     */
+    public long getMaxBytesPerSecond() {
+        return maxBytesPerSecond;
+    }
+
     public FileDownloadSettings parse(String[] args) {
         if (args.length == 0) {
             logger.info("No arguments provided. Using default download settings.");
@@ -52,17 +93,35 @@ public class CommandLineSettingsParser { // Renamed to illustrate example, use y
 
         // Apply parsed arguments
         try {
+            if (parsedArgs.containsKey("manifest")) {
+                manifestFile = Path.of(parsedArgs.get("manifest"));
+                logger.info("Downloading the files listed in {}.", manifestFile);
+                if (parsedArgs.containsKey("summary")) {
+                    summaryFile = Path.of(parsedArgs.get("summary"));
+                }
+                if (parsedArgs.containsKey("max_concurrent")) {
+                    maxConcurrentDownloads = Integer.parseInt(parsedArgs.get("max_concurrent"));
+                }
+                if (parsedArgs.containsKey("max_bandwidth")) {
+                    maxBytesPerSecond = Long.parseLong(parsedArgs.get("max_bandwidth"));
+                }
+            }
+
             if (parsedArgs.containsKey("url")) {
                 builder.withSource(URI.create(parsedArgs.get("url")));
             } else {
-                logger.warn("URL argument '--url=<url>' is missing. Using default URL.");
+                if (manifestFile == null) {
+                    logger.warn("URL argument '--url=<url>' is missing. Using default URL.");
+                }
                 builder.withSource(defaultSettings.sourceUrl()); // Use default if not provided
             }
 
             if (parsedArgs.containsKey("destination")) {
                 builder.withDestination(Path.of(parsedArgs.get("destination")));
             } else {
-                logger.warn("Destination argument '--destination=<path>' is missing. Using default destination.");
+                if (manifestFile == null) {
+                    logger.warn("Destination argument '--destination=<path>' is missing. Using default destination.");
+                }
                 builder.withDestination(defaultSettings.destinationFilePath()); // Use default if not provided
             }
 
@@ -75,8 +134,12 @@ public class CommandLineSettingsParser { // Renamed to illustrate example, use y
                 } else if ("good".equals(networkConditionArg)) {
                     isReliableDownloaderEnabled = false;
                     logger.info("Configuring for good network conditions.");
+                } else if ("auto".equals(networkConditionArg)) {
+                    // Poor until the probe says otherwise
+                    autoNetworkConditions = true;
+                    logger.info("Probing network conditions before the download.");
                 } else {
-                    logger.warn("Invalid network_conditions argument: '{}'. Expected 'good' or 'poor'. Using default network settings (good).", networkConditionArg);
+                    logger.warn("Invalid network_conditions argument: '{}'. Expected 'good', 'poor' or 'auto'. Using default network settings (good).", networkConditionArg);
                 }
                 builder.withReliableDownloader(isReliableDownloaderEnabled);
             } else {
@@ -84,6 +147,54 @@ public class CommandLineSettingsParser { // Renamed to illustrate example, use y
                 builder.withReliableDownloader(defaultSettings.reliableDownloader()); // Use default if not provided
             }
 
+            if (parsedArgs.containsKey("mirrors")) {
+                List<URI> mirrors = Arrays.stream(parsedArgs.get("mirrors").split(","))
+                        .map(String::trim)
+                        .filter(mirror -> !mirror.isEmpty())
+                        .map(URI::create)
+                        .toList();
+                logger.info("Using {} mirror(s) in addition to the source URL.", mirrors.size());
+                builder.withMirrors(mirrors);
+            } else {
+                builder.withMirrors(defaultSettings.mirrorUrls());
+            }
+
+            if (parsedArgs.containsKey("block_manifest")) {
+                logger.info("Verifying blocks against the manifest at {}.", parsedArgs.get("block_manifest"));
+                builder.withBlockManifestUrl(URI.create(parsedArgs.get("block_manifest")));
+            } else {
+                builder.withBlockManifestUrl(defaultSettings.blockManifestUrl());
+                builder.withBlockManifest(defaultSettings.blockManifest());
+            }
+
+            if (parsedArgs.containsKey("previous_version")) {
+                logger.info("Reusing unchanged blocks from {}.", parsedArgs.get("previous_version"));
+                builder.withPreviousVersion(Path.of(parsedArgs.get("previous_version")));
+            } else {
+                builder.withPreviousVersion(defaultSettings.previousVersion());
+            }
+
+            if (parsedArgs.containsKey("entries")) {
+                List<String> entries = Arrays.stream(parsedArgs.get("entries").split(","))
+                        .map(String::trim)
+                        .filter(entry -> !entry.isEmpty())
+                        .toList();
+                logger.info("Extracting {} archive entries into {}.", entries.size(), parsedArgs.get("destination"));
+                builder.withArchiveEntries(entries);
+            } else {
+                builder.withArchiveEntries(defaultSettings.archiveEntries());
+            }
+
+            if (parsedArgs.containsKey("extract")) {
+                boolean extract = Boolean.parseBoolean(parsedArgs.get("extract"));
+                if (extract) {
+                    logger.info("Extracting the archive into {} while it downloads.", parsedArgs.get("destination"));
+                }
+                builder.withExtractArchive(extract);
+            } else {
+                builder.withExtractArchive(defaultSettings.extractArchive());
+            }
+
             return builder.build();
 
         } catch (Exception e) {
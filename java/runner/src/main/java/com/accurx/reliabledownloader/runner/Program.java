@@ -1,15 +1,27 @@
 package com.accurx.reliabledownloader.runner;
 
 import com.accurx.reliabledownloader.core.*;
+import com.accurx.reliabledownloader.impl.NetworkProbe;
+import com.accurx.reliabledownloader.impl.NetworkProfile;
+import com.accurx.reliabledownloader.impl.RetryMetrics;
+import com.accurx.reliabledownloader.impl.RetryPolicy;
+import com.accurx.reliabledownloader.util.DownloadManifest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Duration;
 
 public class Program {
     private static final Logger logger = LoggerFactory.getLogger(Program.class);
+    private static final Duration PROBE_TIMEOUT = Duration.ofSeconds(10);
+    // What earlier runs learned about each host, so every run starts from the best settings seen so far
+    private static final Path HOST_PROFILE_FILE =
+            Path.of(System.getProperty("user.home"), ".reliable-downloader", "host-profiles.properties");
 
     private static final FileDownloadSettings DEFAULT_SETTINGS = new FileDownloadSettings(
             URI.create("https://installer.accurx.com/chain/4.22.50587.0/accuRx.Installer.Local.msi"),
@@ -20,7 +32,8 @@ public class Program {
 
     private static DownloaderConfig createDownloaderConfig(FileDownloadSettings settings) {
         // Create config
-        DownloaderConfig.Builder configBuilder = new DownloaderConfig.Builder();
+        DownloaderConfig.Builder configBuilder = new DownloaderConfig.Builder()
+                .hostProfileFile(HOST_PROFILE_FILE);
 
         if (settings.reliableDownloader()) {
             // For poor network conditions
@@ -45,31 +58,128 @@ public class Program {
         return configBuilder.build();
     }
 
-    public static void main(String[] args) {
+    /**
+     * Probes the network to the source and configures the download from the measurements, falling back to the
+     * profile the settings already pick if the probe fails.
+     *
+     * @return the config, and the settings with the engine the probe chose
+     */
+    private static ProbedDownload probeAndConfigure(FileDownloadSettings settings) {
         try {
-            CommandLineSettingsParser parser = new CommandLineSettingsParser(DEFAULT_SETTINGS);
-            FileDownloadSettings settings = parser.parse(args);
-            DownloaderConfig config = createDownloaderConfig(settings);
+            NetworkProfile profile = new NetworkProbe(PROBE_TIMEOUT).probe(settings.sourceUrl());
+            logger.info("Measured {}", profile);
+            DownloaderConfig config = profile.configure(new DownloaderConfig.Builder())
+                    .hostProfileFile(HOST_PROFILE_FILE)
+                    .build();
+            return new ProbedDownload(
+                    settings.withReliableDownloader(profile.engine() == NetworkProfile.Engine.RELIABLE), config);
+        } catch (IOException e) {
+            logger.warn("Network probe failed ({}); configuring for the network conditions given", e.getMessage());
+            return new ProbedDownload(settings, createDownloaderConfig(settings));
+        }
+    }
+
+    /**
+     * Downloads every file in the manifest and writes the summary. With automatic network conditions the probe
+     * goes to the first file's host, as a rollout's files usually share one.
+     *
+     * @return whether every file was downloaded or already up to date
+     */
+    private static boolean downloadManifest(CommandLineSettingsParser parser, FileDownloadSettings settings)
+            throws IOException, InterruptedException {
+        DownloadManifest manifest;
+        try (InputStream in = Files.newInputStream(parser.getManifestFile())) {
+            manifest = DownloadManifest.parse(in);
+        }
+        DownloaderConfig config;
+        if (parser.isAutoNetworkConditions() && !manifest.entries().isEmpty()) {
+            ProbedDownload probed = probeAndConfigure(new FileDownloadSettingsBuilder()
+                    .withSource(manifest.entries().get(0).url())
+                    .withDestination(settings.destinationFilePath())
+                    .withReliableDownloader(settings.reliableDownloader())
+                    .build());
+            settings = probed.settings();
+            config = probed.config();
+        } else {
+            config = createDownloaderConfig(settings);
+        }
+        logger.info("Config : {}", config);
+        // Progress bars from several downloads at once would only garble each other
+        DownloaderConfig manifestConfig = config.toBuilder().progressTrackingEnabled(false).build();
+        ManifestDownloadCommand.Summary summary;
+        try (DownloaderFactory factory = new DownloaderFactory()) {
+            summary = new ManifestDownloadCommand(factory, manifestConfig, settings.reliableDownloader(),
+                    parser.getMaxConcurrentDownloads(), parser.getMaxBytesPerSecond()).run(manifest);
+        }
+        if (parser.getSummaryFile() != null) {
+            Files.writeString(parser.getSummaryFile(), summary.toJson());
+            logger.info("Summary written to {}", parser.getSummaryFile());
+        } else {
+            logger.info("Summary: {}", summary.toJson());
+        }
+        return summary.isSuccessful();
+    }
 
-            logger.info("Starting download from: {}", settings.sourceUrl());
-            logger.info("Destination: {}", settings.destinationFilePath());
-            logger.info("Config : {}", config.toString());
+    private record ProbedDownload(FileDownloadSettings settings, DownloaderConfig config) {
+    }
+
+    /**
+     * Downloads the single file the settings describe.
+     */
+    private static void downloadFile(CommandLineSettingsParser parser, FileDownloadSettings settings)
+            throws Exception {
+        DownloaderConfig config;
+        if (parser.isAutoNetworkConditions()) {
+            ProbedDownload probed = probeAndConfigure(settings);
+            settings = probed.settings();
+            config = probed.config();
+        } else {
+            config = createDownloaderConfig(settings);
+        }
 
-            DownloaderFactory factory = new DownloaderFactory();
+        logger.info("Starting download from: {}", settings.sourceUrl());
+        logger.info("Destination: {}", settings.destinationFilePath());
+        logger.info("Config : {}", config.toString());
+
+        try (DownloaderFactory factory = new DownloaderFactory()) {
             // Create downloader based on config & settings
             FileDownloader downloader = factory.createDownloader(config, settings);
 
             FileDownloadCommand command = new FileDownloadCommand(
-                   downloader,
-                    settings
+                    downloader,
+                    settings,
+                    config
             );
 
             command.run();
+        }
 
-            logger.info("Download completed successfully!");
+        logger.info("Download completed successfully!");
+    }
+
+    public static void main(String[] args) {
+        // Exiting only once the retry metrics are logged, as System.exit doesn't run the finally block
+        int exitCode = 0;
+        try {
+            CommandLineSettingsParser parser = new CommandLineSettingsParser(DEFAULT_SETTINGS);
+            FileDownloadSettings settings = parser.parse(args);
+            if (parser.getManifestFile() != null) {
+                exitCode = downloadManifest(parser, settings) ? 0 : 1;
+            } else {
+                downloadFile(parser, settings);
+            }
         } catch (Exception e) {
             logger.error("Download failed: {}", e.getMessage(), e);
-            System.exit(1);
+            exitCode = 1;
+        } finally {
+            RetryMetrics.Snapshot retries = RetryPolicy.globalMetrics().snapshot();
+            if (retries.retries() > 0) {
+                logger.info("Retried {} time(s), spending {} ms in backoff", retries.retries(),
+                        retries.timeInBackoff().toMillis());
+            }
+        }
+        if (exitCode != 0) {
+            System.exit(exitCode);
         }
     }
 }
\ No newline at end of file